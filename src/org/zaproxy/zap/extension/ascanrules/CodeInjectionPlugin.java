@@ -243,6 +243,7 @@ public class CodeInjectionPlugin extends AbstractAppParamPlugin {
 							" when accessing: " + msg.getRequestHeader().getURI().toString());
 					continue; //Advance in the PHP payload loop, no point continuing on this payload
 				} 
+                TimeBasedDetector.recordLatency(getParent(), msg);
                 
                 // Check if the injected content has been evaluated and printed
                 if (msg.getResponseBody().toString().contains(PHP_CONTROL_TOKEN)) {
@@ -319,6 +320,7 @@ public class CodeInjectionPlugin extends AbstractAppParamPlugin {
 							" when accessing: " + msg.getRequestHeader().getURI().toString());
 					continue; //Advance in the ASP payload loop, no point continuing on this payload
 				}
+                TimeBasedDetector.recordLatency(getParent(), msg);
             	
                 // Check if the injected content has been evaluated and printed
                 if (msg.getResponseBody().toString().contains(Integer.toString(bignum1*bignum2))) {
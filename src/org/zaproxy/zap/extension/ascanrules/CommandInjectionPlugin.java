@@ -20,7 +20,6 @@ package org.zaproxy.zap.extension.ascanrules;
 import java.io.IOException;
 import java.net.SocketException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -118,14 +117,12 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
         //OS_PAYLOADS.put("'|'ld", null);
     };
 
-    // Coefficient used for a time-based query delay checking (must be >= 7)
-    private static final int TIME_STDEV_COEFF = 7;
     /**
      * The default number of seconds used in time-based attacks (i.e. sleep commands).
      */
     private static final int DEFAULT_TIME_SLEEP_SEC = 5;
     // Standard deviation limit in milliseconds (long requests deviate from a correct model)
-    public static final double WARN_TIME_STDEV = 0.5 * 1000;
+    public static final double WARN_TIME_STDEV = TimeBasedDetector.WARN_TIME_STDEV;
     
     // *NIX Blind OS Command constants
     private static final String  NIX_BLIND_TEST_CMD = "sleep {0}";
@@ -180,7 +177,7 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
             = Vulnerabilities.getVulnerability("wasc_31");
 
     /**
-     * The number of seconds used in time-based attacks (i.e. sleep commands).
+     * The maximum number of seconds used in time-based attacks (i.e. sleep commands).
      */
     private int timeSleepSeconds = DEFAULT_TIME_SLEEP_SEC;
     
@@ -305,11 +302,11 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
     }
 
     /**
-     * Gets the number of seconds used in time-based attacks.
+     * Gets the maximum number of seconds used in time-based attacks.
      * <p>
      * <strong>Note:</strong> Method provided only to ease the unit tests.
      * 
-     * @return the number of seconds used in time-based attacks.
+     * @return the maximum number of seconds used in time-based attacks.
      */
     int getTimeSleep() {
         return timeSleepSeconds;
@@ -410,8 +407,7 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
         String payload;
         String paramValue;
         Iterator<String> it = osPayloads.keySet().iterator();
-        List<Long> responseTimes = new ArrayList<>(targetCount);
-        long elapsedTime;
+        TimeBasedDetector.LatencyModel latencyModel = TimeBasedDetector.getLatencyModel(getParent());
         
         // -----------------------------------------------
         // Check 1: Feedback based OS Command Injection
@@ -441,8 +437,7 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
         					"\n The target may have replied with a poorly formed redirect due to our input.");
         			continue; //Something went wrong, move to next payload iteration
                 }
-                elapsedTime = msg.getTimeElapsedMillis();
-                responseTimes.add(elapsedTime);
+                latencyModel.add(msg.getTimeElapsedMillis());
                                 
                 // Check if the injected content has been evaluated and printed
                 String content = msg.getResponseBody().toString();
@@ -490,45 +485,22 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
         // Check 2: Time-based Blind OS Command Injection
         // -----------------------------------------------
         // Check for a sleep shell execution according to
-        // the previous experimented request time execution
-        // It uses deviations and average for the real delay checking...
-        // 7? =	99.9999999997440% of the values
-        // so response time should be less than 7*stdev([normal response times])
-        // Math reference: http://www.answers.com/topic/standard-deviation
+        // the latency of the host (mean and deviations of
+        // the latest response times), with a short sleep first,
+        // confirmed without sleep and with the maximum sleep only
+        // if the response was delayed (see TimeBasedDetector)
         // -----------------------------------------------
-        double deviation = getResponseTimeDeviation(responseTimes);
-        double lowerLimit = (deviation >= 0) ? getResponseTimeAverage(responseTimes) + TIME_STDEV_COEFF * deviation : timeSleepSeconds * 1000;
-
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel, timeSleepSeconds);
         it = blindOsPayloads.iterator();
         
         for(int i = 0; it.hasNext() && (i < blindTargetCount); i++) {
-            HttpMessage msg = getNewMsg();
             payload = it.next();
-            
-            paramValue = value + MessageFormat.format(payload, timeSleepSeconds);
-            setParameter(msg, paramName, paramValue);
-
-            if (log.isDebugEnabled()) {
-                log.debug("Testing [" + paramName + "] = [" + paramValue + "]");
-            }
+            BlindPayloadRequest request = new BlindPayloadRequest(paramName, value, payload);
             
             try {                
-                // Send the request and retrieve the response
-                try {
-                    sendAndReceive(msg, false);
-                } catch (SocketException ex) {
-        			if (log.isDebugEnabled()) log.debug("Caught " + ex.getClass().getName() + " " + ex.getMessage() + 
-        					" when accessing: " + msg.getRequestHeader().getURI().toString() + 
-        					"\n The target may have replied with a poorly formed redirect due to our input.");
-        			continue; //Something went wrong, move to next blind iteration
-                }
-                elapsedTime = msg.getTimeElapsedMillis();
-
-                // Check if enough time has passed                            
-                if (elapsedTime >= lowerLimit && elapsedTime > timeSleepSeconds * 1000) {
-
-                    // Probably we've to confirm it launching again the query
-                    // But we arise the alert directly with MEDIUM Confidence...
+                HttpMessage msg = detector.detect(request);
+                if (msg != null) {
+                    paramValue = request.getParamValue();
                     
                     // We Found IT!                    
                     // First do logging
@@ -572,53 +544,55 @@ public class CommandInjectionPlugin extends AbstractAppParamPlugin {
     }
 
     /**
-     * Computes standard deviation of the responseTimes Reference:
-     * http://www.goldb.org/corestats.html
-     *
-     * @return the current responseTimes deviation
+     * A request that sends a blind payload, with the given number of seconds of sleep.
      */
-    private static double getResponseTimeDeviation(List<Long> responseTimes) {
-        // Cannot calculate a deviation with less than
-        // two response time values
-        if (responseTimes.size() < 2) {
-            return -1;
+    private class BlindPayloadRequest implements TimeBasedDetector.DelayedRequest {
+
+        private final String paramName;
+        private final String value;
+        private final String payload;
+        private String paramValue;
+
+        BlindPayloadRequest(String paramName, String value, String payload) {
+            this.paramName = paramName;
+            this.value = value;
+            this.payload = payload;
         }
 
-        double avg = getResponseTimeAverage(responseTimes);
-        double result = 0;
-        for (long value : responseTimes) {
-            result += Math.pow(value - avg, 2);
+        /**
+         * Gets the value of the parameter last sent.
+         *
+         * @return the value of the parameter, or {@code null} if none sent
+         */
+        String getParamValue() {
+            return paramValue;
         }
 
-        result = Math.sqrt(result / (responseTimes.size() - 1));
+        @Override
+        public HttpMessage send(int delay) throws IOException {
+            if (isStop()) {
+                return null;
+            }
 
-        // Check if there is too much deviation
-        if (result > WARN_TIME_STDEV) {
-            log.warn("There is considerable lagging "
-                    + "in connection response(s) which gives a standard deviation of " 
-                    + result + "ms on the sample set which is more than " 
-                    + WARN_TIME_STDEV + "ms");
-        }
+            HttpMessage msg = getNewMsg();
+            paramValue = value + MessageFormat.format(payload, delay);
+            setParameter(msg, paramName, paramValue);
 
-        return result;
-    }
+            if (log.isDebugEnabled()) {
+                log.debug("Testing [" + paramName + "] = [" + paramValue + "]");
+            }
 
-    /**
-     * Computes the arithmetic mean of the responseTimes
-     *
-     * @return the current responseTimes mean
-     */
-    private static double getResponseTimeAverage(List<Long> responseTimes) {
-        double result = 0;
-        
-        if (responseTimes.isEmpty())
-            return result;
-        
-        for (long value : responseTimes) {
-            result += value;
+            // Send the request and retrieve the response
+            try {
+                sendAndReceive(msg, false);
+            } catch (SocketException ex) {
+                if (log.isDebugEnabled()) log.debug("Caught " + ex.getClass().getName() + " " + ex.getMessage() + 
+                        " when accessing: " + msg.getRequestHeader().getURI().toString() + 
+                        "\n The target may have replied with a poorly formed redirect due to our input.");
+                return null; //Something went wrong, move to next blind iteration
+            }
+            return msg;
         }
-
-        return result / responseTimes.size();
     }
 
 }
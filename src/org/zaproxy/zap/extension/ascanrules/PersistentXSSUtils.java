@@ -17,11 +17,15 @@
  */
 package org.zaproxy.zap.extension.ascanrules;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.collections.map.ReferenceMap;
 import org.apache.log4j.Logger;
@@ -31,13 +35,50 @@ import org.parosproxy.paros.model.Model;
 import org.parosproxy.paros.network.HttpMalformedHeaderException;
 import org.parosproxy.paros.network.HttpMessage;
 
+/**
+ * Keeps track of the unique values injected by {@link TestPersistentXSSPrime}, the sinks found by
+ * {@link TestPersistentXSSSpider} and used by {@link TestPersistentXSSAttack}.
+ * <p>
+ * The scanners call the methods concurrently. To bound the memory used in big scans only the last
+ * {@value #MAX_UNIQUE_VALUES} unique values and the sinks of the {@value #MAX_SOURCES_WITH_SINKS} most recently used
+ * sources are remembered.
+ */
 public class PersistentXSSUtils {
 
-    private static int uniqueIndex;
+    /**
+     * The maximum number of unique values whose source is remembered, older values are forgotten.
+     */
+    static final int MAX_UNIQUE_VALUES = 100000;
+
+    /**
+     * The maximum number of sources whose sinks are remembered, the least recently used are forgotten.
+     */
+    static final int MAX_SOURCES_WITH_SINKS = 10000;
+
+    /**
+     * The maximum number of sink messages kept in memory, to not read them again from the database for each parameter
+     * attacked.
+     */
+    private static final int MAX_CACHED_MESSAGES = 32;
+
+    private static final AtomicInteger uniqueIndex = new AtomicInteger();
     public static String PXSS_PREFIX = "zApPX";
     public static String PXSS_POSTFIX = "sS";
-    private static Map<String, UserDataSource> map;
-    private static Map<String, HashSet<Integer>> sourceToSinks;
+    private static final byte[] PXSS_PREFIX_BYTES = PXSS_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PXSS_POSTFIX_BYTES = PXSS_POSTFIX.getBytes(StandardCharsets.US_ASCII);
+    /**
+     * The maximum number of digits of the index of a unique value.
+     */
+    private static final int MAX_INDEX_DIGITS = 10;
+    /**
+     * The sources of the unique values, at the index of the value modulo {@link #MAX_UNIQUE_VALUES}.
+     */
+    private static volatile AtomicReferenceArray<IndexedSource> sources;
+    /**
+     * The sinks of the sources, all accesses must be synchronised on the map.
+     */
+    private static volatile Map<String, SinkIds> sourceToSinks;
+    private static volatile Map<Integer, HttpMessage> cachedMessages;
     /**
      * A {@code Map} to cache the URIs used by source messages ({@code UserDataSource}).
      * <p>
@@ -68,29 +109,99 @@ public class PersistentXSSUtils {
     }
 
     public static String getUniqueValue(HttpMessage msg, String param) {
-        String uniqueVal = PXSS_PREFIX + uniqueIndex++ + PXSS_POSTFIX;
-        map.put(uniqueVal, new UserDataSource(msg, param));
-        return uniqueVal;
+        // Restarts at 0 once the counter overflows, the unique values are never negative.
+        int index = uniqueIndex.getAndIncrement() & 0x7fffffff;
+        // Replaces the source of the value MAX_UNIQUE_VALUES older, if any.
+        sources.set(getSlot(index), new IndexedSource(index, new UserDataSource(msg, param)));
+        return PXSS_PREFIX + index + PXSS_POSTFIX;
     }
 
     public static void testForSink(HttpMessage msg) {
-        String body = msg.getResponseBody().toString();
-        int start = body.indexOf(PXSS_PREFIX);
-        while (start > 0) {
-            int end = body.indexOf(PXSS_POSTFIX, start);
-            if (end > 0) {
-                String uniqueVal = body.substring(start, end + PXSS_POSTFIX.length());
-                UserDataSource source = map.get(uniqueVal);
-                if (source != null) {
-                    setSinkForSource(source, msg);
-                }
-                start = body.indexOf(PXSS_PREFIX, end);
-            } else {
-            	break;
+        byte[] body = msg.getResponseBody().getBytes();
+        int[] indexes = findUniqueValueIndexes(body, 0, body.length);
+        if (indexes.length == 0) {
+            return;
+        }
+
+        AtomicReferenceArray<IndexedSource> table = sources;
+        Set<String> sinkSources = new HashSet<>();
+        for (int index : indexes) {
+            IndexedSource entry = table.get(getSlot(index));
+            if (entry != null && entry.index == index && sinkSources.add(entry.source.toString())) {
+                setSinkForSource(entry.source, msg);
             }
         }
     }
 
+    /**
+     * Gets the position of the source of the given index in {@link #sources}.
+     *
+     * @param index the index of the unique value
+     * @return the position, never negative, also for a negative index
+     */
+    static int getSlot(int index) {
+        return (index & 0x7fffffff) % MAX_UNIQUE_VALUES;
+    }
+
+    /**
+     * Finds the indexes of the unique values contained in the given bytes, in a single pass.
+     * <p>
+     * A unique value is the prefix, the index in decimal digits without leading zeros and the postfix. The bytes are
+     * expected to be in an ASCII compatible charset.
+     *
+     * @param bytes the bytes to search
+     * @param offset the offset of the first byte
+     * @param length the number of bytes to search
+     * @return the indexes of the unique values, in the order found, never {@code null}
+     * @see #getUniqueValue(HttpMessage, String)
+     */
+    static int[] findUniqueValueIndexes(byte[] bytes, int offset, int length) {
+        int[] indexes = new int[0];
+        int count = 0;
+        int end = offset + length;
+        // the shortest unique value has one digit
+        int lastStart = end - PXSS_PREFIX_BYTES.length - PXSS_POSTFIX_BYTES.length - 1;
+        byte first = PXSS_PREFIX_BYTES[0];
+        int i = offset;
+        while (i <= lastStart) {
+            if (bytes[i] != first || !matches(bytes, i, PXSS_PREFIX_BYTES)) {
+                i++;
+                continue;
+            }
+
+            int digitsStart = i + PXSS_PREFIX_BYTES.length;
+            int j = digitsStart;
+            long index = 0;
+            while (j < end && j - digitsStart <= MAX_INDEX_DIGITS && bytes[j] >= '0' && bytes[j] <= '9') {
+                index = index * 10 + (bytes[j] - '0');
+                j++;
+            }
+            int digits = j - digitsStart;
+            if (digits == 0 || digits > MAX_INDEX_DIGITS || (digits > 1 && bytes[digitsStart] == '0')
+                    || index > Integer.MAX_VALUE || end - j < PXSS_POSTFIX_BYTES.length
+                    || !matches(bytes, j, PXSS_POSTFIX_BYTES)) {
+                i = j;
+                continue;
+            }
+
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, Math.max(4, count * 2));
+            }
+            indexes[count++] = (int) index;
+            i = j + PXSS_POSTFIX_BYTES.length;
+        }
+        return count == indexes.length ? indexes : Arrays.copyOf(indexes, count);
+    }
+
+    private static boolean matches(byte[] bytes, int offset, byte[] value) {
+        for (int i = 0; i < value.length; i++) {
+            if (bytes[offset + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void setSinkForSource(HttpMessage sourceMsg, String param, HttpMessage sinkMsg) {
         setSinkForSource(new UserDataSource(sourceMsg, param), sinkMsg);
     }
@@ -100,37 +211,63 @@ public class PersistentXSSUtils {
             log.debug("setSinkForSource src=" + source.getUri()
                     + " param=" + source.getParam() + " sink=" + sinkMsg.getRequestHeader().getURI());
         }
-        HashSet<Integer> sinks = sourceToSinks.get(source.toString());
-        if (sinks == null) {
-            sinks = new HashSet<>();
-        }
         try {
             HistoryReference hRef = new HistoryReference(
                     Model.getSingleton().getSession(),
                     HistoryReference.TYPE_SCANNER_TEMPORARY,
                     sinkMsg);
-            sinks.add(Integer.valueOf(hRef.getHistoryId()));
-            sourceToSinks.put(source.toString(), sinks);
+            addSinkId(source, hRef.getHistoryId());
         } catch (HttpMalformedHeaderException | DatabaseException e) {
             log.warn("Failed to persist HTTP message to database:", e);
         }
     }
 
+    /**
+     * Adds the ID of a sink message to the given message and parameter.
+     *
+     * @param sourceMsg the source message
+     * @param param the parameter being tested
+     * @param sinkMsgId the ID of the sink message
+     */
+    static void addSinkId(HttpMessage sourceMsg, String param, int sinkMsgId) {
+        addSinkId(new UserDataSource(sourceMsg, param), sinkMsgId);
+    }
+
+    private static void addSinkId(UserDataSource source, int sinkMsgId) {
+        Map<String, SinkIds> sinksMap = sourceToSinks;
+        synchronized (sinksMap) {
+            SinkIds sinks = sinksMap.get(source.toString());
+            if (sinks == null) {
+                sinks = new SinkIds();
+                sinksMap.put(source.toString(), sinks);
+            }
+            sinks.add(sinkMsgId);
+        }
+    }
+
     /**
      * Gets the IDs of the sink messages for the given message and parameter.
      * 
      * @param sourceMsg the source message
      * @param param the parameter being tested
-     * @return the IDs of the messages that match the given source message and parameter, {@code null} if no matches
+     * @return a copy of the IDs of the messages that match the given source message and parameter, {@code null} if no
+     *         matches
      * @see #getMessage(int)
      */
     public static Set<Integer> getSinksIdsForSource(HttpMessage sourceMsg, String param) {
         UserDataSource source = new UserDataSource(sourceMsg, param);
+        Set<Integer> sinks = null;
+        Map<String, SinkIds> sinksMap = sourceToSinks;
+        synchronized (sinksMap) {
+            SinkIds sinkIds = sinksMap.get(source.toString());
+            if (sinkIds != null) {
+                sinks = sinkIds.toSet();
+            }
+        }
         if (log.isDebugEnabled()) {
-            log.debug("getSinksIdsForSource src=" + source.getUri()
-                    + " param=" + param + " sinks=" + sourceToSinks.get(source.toString()));
+            log.debug("getSinksIdsForSource src=" + source.getUri() + " param=" + param + " sinks=" + sinks);
         }
-        return sourceToSinks.get(source.toString());
+        return sinks;
     }
 
     /**
@@ -138,23 +275,47 @@ public class PersistentXSSUtils {
      */
     @SuppressWarnings("unchecked")
     public static void reset() {
-        uniqueIndex = 0;
-        map = new HashMap<>();
-        sourceToSinks = new HashMap<>();
+        uniqueIndex.set(0);
+        sources = new AtomicReferenceArray<>(MAX_UNIQUE_VALUES);
+        sourceToSinks = createLruMap(MAX_SOURCES_WITH_SINKS);
+        cachedMessages = Collections.synchronizedMap(PersistentXSSUtils.<Integer, HttpMessage> createLruMap(MAX_CACHED_MESSAGES));
         cachedUris = Collections.synchronizedMap(new ReferenceMap(ReferenceMap.SOFT, ReferenceMap.SOFT));
         cachedParams = Collections.synchronizedMap(new ReferenceMap(ReferenceMap.SOFT, ReferenceMap.SOFT));
     }
 
+    private static <K, V> Map<K, V> createLruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
     /**
      * Gets the message with the given ID.
+     * <p>
+     * The most recently obtained messages are kept in memory, a copy of those is returned.
      *
      * @param sinkMsgId the ID of the message
      * @return the message with the given ID, or {@code null} if it was not possible to obtain the message
      * @see #getSinksIdsForSource(HttpMessage, String)
      */
     public static HttpMessage getMessage(int sinkMsgId) {
+        Map<Integer, HttpMessage> messages = cachedMessages;
+        HttpMessage msg = messages.get(Integer.valueOf(sinkMsgId));
+        if (msg != null) {
+            return msg.cloneAll();
+        }
         try {
-            return new HistoryReference(sinkMsgId).getHttpMessage();
+            msg = new HistoryReference(sinkMsgId).getHttpMessage();
+            if (msg != null) {
+                messages.put(Integer.valueOf(sinkMsgId), msg.cloneAll());
+            }
+            return msg;
         } catch (HttpMalformedHeaderException | DatabaseException e) {
             log.warn("Failed to read HTTP message from database:", e);
         }
@@ -197,4 +358,57 @@ public class PersistentXSSUtils {
         }
 
     }
+
+    /**
+     * The source of a unique value, with the index of the value to tell it from the sources of other values with the same
+     * position in {@link PersistentXSSUtils#sources}.
+     */
+    private static class IndexedSource {
+
+        private final int index;
+        private final UserDataSource source;
+
+        public IndexedSource(int index, UserDataSource source) {
+            this.index = index;
+            this.source = source;
+        }
+    }
+
+    /**
+     * The IDs of the sink messages of a source, kept sorted in an {@code int} array.
+     * <p>
+     * Not thread-safe, accesses are synchronised on {@link PersistentXSSUtils#sourceToSinks}.
+     */
+    private static class SinkIds {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        public void add(int id) {
+            int idx = Arrays.binarySearch(ids, 0, size, id);
+            if (idx >= 0) {
+                return;
+            }
+            idx = -idx - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, idx, ids, idx + 1, size - idx);
+            ids[idx] = id;
+            size++;
+        }
+
+        public Set<Integer> toSet() {
+            Set<Integer> set = new HashSet<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                set.add(Integer.valueOf(ids[i]));
+            }
+            return set;
+        }
+
+        @Override
+        public String toString() {
+            return toSet().toString();
+        }
+    }
 }
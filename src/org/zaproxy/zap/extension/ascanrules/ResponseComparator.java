@@ -0,0 +1,209 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.parosproxy.paros.core.scanner.AbstractPlugin;
+import org.parosproxy.paros.network.HttpMessage;
+
+/**
+ * Compares the bodies of responses with the body of a baseline response, as received (unstripped) or with the reflected
+ * payload stripped off.
+ * <p>
+ * The stripped forms are created only when first needed. The baseline is kept while it is set again with the same body and
+ * value, for example, when the original message is sent again between checks.
+ * 
+ * @see TestSQLInjection
+ */
+class ResponseComparator {
+
+	private static final Comparator<String> LONGEST_FIRST = new Comparator<String>() {
+
+		@Override
+		public int compare(String o1, String o2) {
+			return Integer.compare(o2.length(), o1.length());
+		}
+	};
+
+	private Body baseline;
+
+	/**
+	 * Sets the baseline to the response of the given message.
+	 *
+	 * @param msg the message with the baseline response
+	 * @param value the value of the parameter, stripped off the body
+	 * @return the baseline
+	 */
+	public Body setBaseline(HttpMessage msg, String value) {
+		String content = msg.getResponseBody().toString();
+		if (baseline == null || !baseline.isSame(content, value)) {
+			baseline = new Body(content, value);
+		}
+		return baseline;
+	}
+
+	/**
+	 * Gets the baseline.
+	 *
+	 * @return the baseline, or {@code null} if not yet set
+	 */
+	public Body getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 * Creates the body of the response of the given message, to be compared with the baseline.
+	 *
+	 * @param msg the message with the response
+	 * @param payload the payload sent, stripped off the body
+	 * @return the body
+	 */
+	public Body createBody(HttpMessage msg, String payload) {
+		return new Body(msg.getResponseBody().toString(), payload);
+	}
+
+	/**
+	 * Tells whether or not the given body is the same as the baseline.
+	 *
+	 * @param body the body to compare
+	 * @param stripped {@code true} if the stripped forms should be compared, {@code false} otherwise
+	 * @return {@code true} if the body is the same as the baseline, {@code false} otherwise
+	 */
+	public boolean matchesBaseline(Body body, boolean stripped) {
+		return baseline.get(stripped).equals(body.get(stripped));
+	}
+
+	/**
+	 * Strips off the given value from the given content, along with its URL encoded, HTML encoded and URL+HTML encoded
+	 * forms.
+	 *
+	 * @param content the content to strip
+	 * @param value the value to strip off, might be {@code null}
+	 * @return the stripped content, the same instance if nothing was stripped
+	 */
+	public static String stripOff(String content, String value) {
+		if (value == null) {
+			return content;
+		}
+		String urlEncoded = AbstractPlugin.getURLEncode(value);
+		return strip(
+				content,
+				value,
+				urlEncoded,
+				AbstractPlugin.getHTMLEncode(value),
+				AbstractPlugin.getHTMLEncode(urlEncoded));
+	}
+
+	/**
+	 * Removes all the occurrences of the given literals from the given content, in a single pass.
+	 * <p>
+	 * The next occurrence of each literal is tracked, and the one that occurs first is removed, the longest if several
+	 * occur at the same position.
+	 *
+	 * @param content the content to strip
+	 * @param literals the literals to remove
+	 * @return the stripped content, the same instance if nothing was removed
+	 */
+	static String strip(String content, String... literals) {
+		List<String> patterns = new ArrayList<>(literals.length);
+		for (String literal : literals) {
+			if (!literal.isEmpty() && !patterns.contains(literal)) {
+				patterns.add(literal);
+			}
+		}
+		if (patterns.isEmpty()) {
+			return content;
+		}
+		Collections.sort(patterns, LONGEST_FIRST);
+		String[] sortedPatterns = patterns.toArray(new String[patterns.size()]);
+		int[] occurrences = new int[sortedPatterns.length];
+		for (int i = 0; i < sortedPatterns.length; i++) {
+			occurrences[i] = content.indexOf(sortedPatterns[i]);
+		}
+
+		StringBuilder strBuilder = null;
+		int copied = 0;
+		while (true) {
+			int match = -1;
+			for (int i = 0; i < occurrences.length; i++) {
+				if (occurrences[i] != -1 && (match == -1 || occurrences[i] < occurrences[match])) {
+					match = i;
+				}
+			}
+			if (match == -1) {
+				break;
+			}
+
+			if (strBuilder == null) {
+				strBuilder = new StringBuilder(content.length());
+			}
+			strBuilder.append(content, copied, occurrences[match]);
+			copied = occurrences[match] + sortedPatterns[match].length();
+			for (int i = 0; i < occurrences.length; i++) {
+				if (occurrences[i] != -1 && occurrences[i] < copied) {
+					occurrences[i] = content.indexOf(sortedPatterns[i], copied);
+				}
+			}
+		}
+
+		if (strBuilder == null) {
+			return content;
+		}
+		strBuilder.append(content, copied, content.length());
+		return strBuilder.toString();
+	}
+
+	/**
+	 * The body of a response, unstripped and stripped off the payload.
+	 */
+	static final class Body {
+
+		private final String unstripped;
+		private final String payload;
+		private String stripped;
+
+		private Body(String unstripped, String payload) {
+			this.unstripped = unstripped;
+			this.payload = payload;
+		}
+
+		private boolean isSame(String otherUnstripped, String otherPayload) {
+			return unstripped.equals(otherUnstripped)
+					&& (payload == null ? otherPayload == null : payload.equals(otherPayload));
+		}
+
+		public String getUnstripped() {
+			return unstripped;
+		}
+
+		public String getStripped() {
+			if (stripped == null) {
+				stripped = stripOff(unstripped, payload);
+			}
+			return stripped;
+		}
+
+		public String get(boolean strippedForm) {
+			return strippedForm ? getStripped() : unstripped;
+		}
+	}
+}
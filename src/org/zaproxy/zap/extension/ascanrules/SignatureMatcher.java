@@ -0,0 +1,387 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a set of signatures against a content, finding the literals of all the signatures in a single pass (Aho-Corasick
+ * automaton).
+ * <p>
+ * A signature is either a case-insensitive literal, which is matched by the automaton alone, or a regular expression with an
+ * optional case-insensitive anchor, a literal that any match of the expression contains. The expression is only evaluated,
+ * on demand, if the content contains the anchor.
+ * <p>
+ * Instances are immutable and can be shared by scanners and threads.
+ *
+ * @param <T> the type of the IDs of the signatures
+ */
+class SignatureMatcher<T> {
+
+	private static final int ASCII_SIZE = 128;
+
+	private final Map<T, Integer> indexes;
+	private final Pattern[] patterns;
+	private final int[] literalLengths;
+
+	/**
+	 * The class of each ASCII character, {@code 0} for characters not in any literal.
+	 */
+	private final int[] asciiClasses;
+	/**
+	 * The classes of the other characters present in the literals.
+	 */
+	private final Map<Character, Integer> otherClasses;
+	private final int classCount;
+	/**
+	 * The transitions, the next state at {@code state * classCount + class}.
+	 */
+	private final int[] transitions;
+	/**
+	 * The indexes of the signatures whose literal ends at each state, {@code null} if none.
+	 */
+	private final int[][] outputs;
+
+	private SignatureMatcher(Builder<T> builder) {
+		int count = builder.ids.size();
+		indexes = new HashMap<>(count * 2);
+		patterns = new Pattern[count];
+		literalLengths = new int[count];
+		String[] literals = new String[count];
+		for (int i = 0; i < count; i++) {
+			indexes.put(builder.ids.get(i), Integer.valueOf(i));
+			patterns[i] = builder.patterns.get(i);
+			literals[i] = builder.literals.get(i);
+			literalLengths[i] = literals[i] != null ? literals[i].length() : 0;
+		}
+
+		asciiClasses = new int[ASCII_SIZE];
+		otherClasses = new HashMap<>();
+		int classes = 1;
+		for (String literal : literals) {
+			if (literal == null) {
+				continue;
+			}
+			for (int i = 0; i < literal.length(); i++) {
+				char c = literal.charAt(i);
+				if (c < ASCII_SIZE) {
+					if (asciiClasses[c] == 0) {
+						asciiClasses[c] = classes++;
+					}
+				} else if (!otherClasses.containsKey(Character.valueOf(c))) {
+					otherClasses.put(Character.valueOf(c), Integer.valueOf(classes++));
+				}
+			}
+		}
+		classCount = classes;
+
+		// Trie of the literals
+		List<int[]> children = new ArrayList<>();
+		List<List<Integer>> stateOutputs = new ArrayList<>();
+		children.add(newChildren());
+		stateOutputs.add(null);
+		for (int i = 0; i < count; i++) {
+			String literal = literals[i];
+			if (literal == null) {
+				continue;
+			}
+			int state = 0;
+			for (int j = 0; j < literal.length(); j++) {
+				int charClass = getCharClass(literal.charAt(j));
+				int next = children.get(state)[charClass];
+				if (next == 0) {
+					next = children.size();
+					children.add(newChildren());
+					stateOutputs.add(null);
+					children.get(state)[charClass] = next;
+				}
+				state = next;
+			}
+			if (stateOutputs.get(state) == null) {
+				stateOutputs.set(state, new ArrayList<Integer>(1));
+			}
+			stateOutputs.get(state).add(Integer.valueOf(i));
+		}
+
+		// Failure links, folded into the transitions
+		int stateCount = children.size();
+		transitions = new int[stateCount * classCount];
+		int[] failures = new int[stateCount];
+		Queue<Integer> queue = new ArrayDeque<>();
+		for (int c = 0; c < classCount; c++) {
+			int child = children.get(0)[c];
+			transitions[c] = child;
+			if (child != 0) {
+				queue.add(Integer.valueOf(child));
+			}
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.remove().intValue();
+			List<Integer> failureOutputs = stateOutputs.get(failures[state]);
+			if (failureOutputs != null) {
+				if (stateOutputs.get(state) == null) {
+					stateOutputs.set(state, new ArrayList<Integer>(failureOutputs.size()));
+				}
+				stateOutputs.get(state).addAll(failureOutputs);
+			}
+			for (int c = 0; c < classCount; c++) {
+				int child = children.get(state)[c];
+				int failureNext = transitions[failures[state] * classCount + c];
+				if (child != 0) {
+					failures[child] = failureNext;
+					transitions[state * classCount + c] = child;
+					queue.add(Integer.valueOf(child));
+				} else {
+					transitions[state * classCount + c] = failureNext;
+				}
+			}
+		}
+
+		outputs = new int[stateCount][];
+		for (int state = 0; state < stateCount; state++) {
+			List<Integer> stateOutput = stateOutputs.get(state);
+			if (stateOutput != null) {
+				outputs[state] = new int[stateOutput.size()];
+				for (int i = 0; i < outputs[state].length; i++) {
+					outputs[state][i] = stateOutput.get(i).intValue();
+				}
+			}
+		}
+	}
+
+	private int[] newChildren() {
+		return new int[classCount];
+	}
+
+	private int getCharClass(char c) {
+		char lower = toLowerCase(c);
+		if (lower < ASCII_SIZE) {
+			return asciiClasses[lower];
+		}
+		Integer charClass = otherClasses.get(Character.valueOf(lower));
+		return charClass != null ? charClass.intValue() : 0;
+	}
+
+	/**
+	 * Converts the given character to lower case, only if ASCII, as done by {@link Pattern#CASE_INSENSITIVE}.
+	 */
+	private static char toLowerCase(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	private static String toLowerCase(String value) {
+		char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Matches the signatures against the given content.
+	 *
+	 * @param content the content to match
+	 * @return the result, never {@code null}
+	 */
+	public Result match(String content) {
+		int[] literalStarts = new int[patterns.length];
+		Arrays.fill(literalStarts, -1);
+		int remaining = 0;
+		for (int length : literalLengths) {
+			if (length != 0) {
+				remaining++;
+			}
+		}
+
+		int state = 0;
+		for (int i = 0; i < content.length() && remaining != 0; i++) {
+			state = transitions[state * classCount + getCharClass(content.charAt(i))];
+			int[] output = outputs[state];
+			if (output != null) {
+				for (int index : output) {
+					if (literalStarts[index] == -1) {
+						literalStarts[index] = i - literalLengths[index] + 1;
+						remaining--;
+					}
+				}
+			}
+		}
+		return new Result(content, literalStarts);
+	}
+
+	/**
+	 * The result of matching the signatures against a content.
+	 * <p>
+	 * Not thread-safe, the expressions are evaluated on demand.
+	 */
+	final class Result {
+
+		private final String content;
+		private final int[] literalStarts;
+		private final String[] evidences;
+		private final boolean[] evaluated;
+
+		private Result(String content, int[] literalStarts) {
+			this.content = content;
+			this.literalStarts = literalStarts;
+			this.evidences = new String[literalStarts.length];
+			this.evaluated = new boolean[literalStarts.length];
+		}
+
+		/**
+		 * Tells whether or not the signature with the given ID matched.
+		 *
+		 * @param id the ID of the signature
+		 * @return {@code true} if the signature matched, {@code false} otherwise
+		 * @throws IllegalArgumentException if the signature does not exist
+		 */
+		public boolean matches(T id) {
+			return getEvidence(id) != null;
+		}
+
+		/**
+		 * Gets the first match of the signature with the given ID, the evidence.
+		 *
+		 * @param id the ID of the signature
+		 * @return the first match, or {@code null} if the signature did not match
+		 * @throws IllegalArgumentException if the signature does not exist
+		 */
+		public String getEvidence(T id) {
+			Integer index = indexes.get(id);
+			if (index == null) {
+				throw new IllegalArgumentException("Unknown signature: " + id);
+			}
+			int i = index.intValue();
+			if (evaluated[i]) {
+				return evidences[i];
+			}
+
+			evaluated[i] = true;
+			if (literalLengths[i] != 0 && literalStarts[i] == -1) {
+				return null;
+			}
+			if (patterns[i] == null) {
+				evidences[i] = content.substring(literalStarts[i], literalStarts[i] + literalLengths[i]);
+			} else {
+				Matcher matcher = patterns[i].matcher(content);
+				if (matcher.find()) {
+					evidences[i] = matcher.group();
+				}
+			}
+			return evidences[i];
+		}
+	}
+
+	/**
+	 * Creates a builder of {@code SignatureMatcher}.
+	 *
+	 * @return the builder
+	 */
+	public static <T> Builder<T> builder() {
+		return new Builder<>();
+	}
+
+	/**
+	 * A builder of {@code SignatureMatcher}.
+	 *
+	 * @param <T> the type of the IDs of the signatures
+	 */
+	static final class Builder<T> {
+
+		private final List<T> ids = new ArrayList<>();
+		private final List<String> literals = new ArrayList<>();
+		private final List<Pattern> patterns = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * Adds a case-insensitive literal.
+		 *
+		 * @param id the ID of the signature
+		 * @param literal the literal
+		 * @return this builder
+		 */
+		public Builder<T> addLiteral(T id, String literal) {
+			return add(id, literal, null);
+		}
+
+		/**
+		 * Adds a regular expression, with the given anchor.
+		 *
+		 * @param id the ID of the signature
+		 * @param anchor a literal contained in any match of the expression (case-insensitive), or {@code null} to always
+		 *            evaluate the expression
+		 * @param pattern the regular expression
+		 * @return this builder
+		 */
+		public Builder<T> addPattern(T id, String anchor, Pattern pattern) {
+			if (pattern == null) {
+				throw new IllegalArgumentException("The pattern must not be null.");
+			}
+			return add(id, anchor, pattern);
+		}
+
+		/**
+		 * Adds a regular expression. If the expression is a quoted literal ({@code \Q...\E}) compiled with
+		 * {@link Pattern#CASE_INSENSITIVE}, it is added as a literal, otherwise the expression is always evaluated.
+		 *
+		 * @param id the ID of the signature
+		 * @param pattern the regular expression
+		 * @return this builder
+		 */
+		public Builder<T> addPattern(T id, Pattern pattern) {
+			String regex = pattern.pattern();
+			if ((pattern.flags() & Pattern.CASE_INSENSITIVE) != 0 && regex.length() > 4 && regex.startsWith("\\Q")
+					&& regex.indexOf("\\E") == regex.length() - 2) {
+				return addLiteral(id, regex.substring(2, regex.length() - 2));
+			}
+			return add(id, null, pattern);
+		}
+
+		private Builder<T> add(T id, String literal, Pattern pattern) {
+			if (ids.contains(id)) {
+				throw new IllegalArgumentException("Signature already added: " + id);
+			}
+			if (literal != null && literal.isEmpty()) {
+				throw new IllegalArgumentException("The literal must not be empty.");
+			}
+			ids.add(id);
+			literals.add(literal != null ? toLowerCase(literal) : null);
+			patterns.add(pattern);
+			return this;
+		}
+
+		/**
+		 * Builds the {@code SignatureMatcher} with the signatures added.
+		 *
+		 * @return the {@code SignatureMatcher}
+		 */
+		public SignatureMatcher<T> build() {
+			return new SignatureMatcher<>(this);
+		}
+	}
+}
@@ -64,6 +64,21 @@ public class TestParameterTamper extends AbstractAppParamPlugin {
     private static Pattern patternErrorJet = Pattern.compile("Microsoft JET Database Engine.*error", PATTERN_PARAM);
     private static Pattern patternErrorPHP = Pattern.compile(" on line <b>", PATTERN_PARAM);
     private static Pattern patternErrorTomcat = Pattern.compile("(Apache Tomcat).*(^Caused by:|HTTP Status 500 - Internal Server Error)", PATTERN_PARAM);
+
+    /**
+     * The error patterns, matched in a single pass over the response. Each expression is only evaluated if the response
+     * contains its (case-insensitive) anchor.
+     */
+    private static final SignatureMatcher<Pattern> ERROR_SIGNATURES = SignatureMatcher.<Pattern> builder()
+            .addPattern(patternErrorJava1, "javax.servlet.", patternErrorJava1)
+            .addPattern(patternErrorJava2, "invoke", patternErrorJava2)
+            .addPattern(patternErrorVBScript, "vbscript", patternErrorVBScript)
+            .addPattern(patternErrorODBC1, "Microsoft OLE DB Provider for ODBC Drivers", patternErrorODBC1)
+            .addPattern(patternErrorODBC2, "odbc", patternErrorODBC2)
+            .addPattern(patternErrorJet, "Microsoft JET Database Engine", patternErrorJet)
+            .addLiteral(patternErrorPHP, " on line <b>")
+            .addPattern(patternErrorTomcat, "Apache Tomcat", patternErrorTomcat)
+            .build();
     // ZAP: Added logger
     private static Logger log = Logger.getLogger(TestParameterTamper.class);
 
@@ -132,6 +147,7 @@ public class TestParameterTamper extends AbstractAppParamPlugin {
         if (normalMsg.getResponseHeader().getStatusCode() != HttpStatusCode.OK) {
             return;
         }
+        String normalHTTPResponse = normalMsg.getResponseBody().toString();
 
         for (int i = 0; i < PARAM_LIST.length && !isStop(); i++) {
             msg = getNewMsg();
@@ -153,7 +169,7 @@ public class TestParameterTamper extends AbstractAppParamPlugin {
         					"\n The target may have replied with a poorly formed redirect due to our input.");
         			continue; //Something went wrong, move on to the next item in the PARAM_LIST
         		}
-                if (checkResult(msg, param, attack, normalMsg.getResponseBody().toString())) {
+                if (checkResult(msg, param, attack, normalHTTPResponse)) {
                     return;
                 }
             } catch (Exception e) {
@@ -174,22 +190,24 @@ public class TestParameterTamper extends AbstractAppParamPlugin {
         }
 
         // remove false positive if parameter have no effect on output
-        if (msg.getResponseBody().toString().equals(normalHTTPResponse)) {
+        String response = msg.getResponseBody().toString();
+        if (response.equals(normalHTTPResponse)) {
             return false;
         }
 
+        SignatureMatcher<Pattern>.Result errors = ERROR_SIGNATURES.match(response);
         StringBuilder sb = new StringBuilder();
 
         boolean issueFound = false;
         int confidence = Alert.CONFIDENCE_MEDIUM;
-        if (matchBodyPattern(msg, patternErrorJava1, sb) && matchBodyPattern(msg, patternErrorJava2, null)) {
+        if (matchError(errors, patternErrorJava1, sb) && matchError(errors, patternErrorJava2, null)) {
             issueFound = true;
-        } else if (matchBodyPattern(msg, patternErrorVBScript, sb)
-                || matchBodyPattern(msg, patternErrorODBC1, sb)
-                || matchBodyPattern(msg, patternErrorODBC2, sb)
-                || matchBodyPattern(msg, patternErrorJet, sb)
-                || matchBodyPattern(msg, patternErrorTomcat, sb)
-                || matchBodyPattern(msg, patternErrorPHP, sb)) {
+        } else if (matchError(errors, patternErrorVBScript, sb)
+                || matchError(errors, patternErrorODBC1, sb)
+                || matchError(errors, patternErrorODBC2, sb)
+                || matchError(errors, patternErrorJet, sb)
+                || matchError(errors, patternErrorTomcat, sb)
+                || matchError(errors, patternErrorPHP, sb)) {
             issueFound = true;
             confidence = Alert.CONFIDENCE_LOW;
         }
@@ -202,6 +220,21 @@ public class TestParameterTamper extends AbstractAppParamPlugin {
 
     }
 
+    /**
+     * Tells whether or not the given error pattern matched, appending the match to the given {@code StringBuilder}, as
+     * {@link #matchBodyPattern(HttpMessage, Pattern, StringBuilder)} does.
+     */
+    private static boolean matchError(SignatureMatcher<Pattern>.Result errors, Pattern pattern, StringBuilder sb) {
+        String evidence = errors.getEvidence(pattern);
+        if (evidence == null) {
+            return false;
+        }
+        if (sb != null) {
+            sb.append(evidence);
+        }
+        return true;
+    }
+
     @Override
     public int getRisk() {
         return Alert.RISK_MEDIUM;
@@ -26,7 +26,6 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.InvalidRedirectLocationException;
@@ -78,8 +77,22 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 	private boolean sqlInjectionFoundForUrl = false;
 	private String sqlInjectionAttack = null;
 	private HttpMessage refreshedmessage = null;
-	private String mResBodyNormalUnstripped = null;
-	private String mResBodyNormalStripped = null;
+	/**
+	 * Compares the responses of the attacks with the response of the (refreshed) original message.
+	 */
+	private final ResponseComparator responseComparator = new ResponseComparator();
+	/**
+	 * The error signatures found in the base message, created on first use.
+	 */
+	private SignatureMatcher<Pattern>.Result baseMsgErrors;
+	/**
+	 * The (stripped) baseline of {@link #baselineUnionErrors}.
+	 */
+	private ResponseComparator.Body baselineOfUnionErrors;
+	/**
+	 * The UNION error signatures found in the (stripped) baseline, created on first use for each baseline.
+	 */
+	private SignatureMatcher<Pattern>.Result baselineUnionErrors;
 	//what do we do at each attack strength?
 	//(some SQL Injection vulns would be picked up by multiple types of checks, and we skip out after the first alert for a URL)
 	private boolean doSpecificErrorBased = false;
@@ -327,6 +340,25 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 			return Arrays.asList(strings);
 		}
 	}
+
+	/**
+	 * The error and UNION error patterns of all {@link RDBMS}, to find them in a single pass over a response.
+	 */
+	private static final SignatureMatcher<Pattern> ERROR_SIGNATURES = createErrorSignatures();
+
+	private static SignatureMatcher<Pattern> createErrorSignatures() {
+		SignatureMatcher.Builder<Pattern> builder = SignatureMatcher.builder();
+		for (RDBMS rdbms : RDBMS.values()) {
+			for (Pattern errorPattern : rdbms.getErrorPatterns()) {
+				builder.addPattern(errorPattern, errorPattern);
+			}
+			for (Pattern errorPattern : rdbms.getUnionErrorPatterns()) {
+				builder.addPattern(errorPattern, errorPattern);
+			}
+		}
+		return builder.build();
+	}
+
 	/**
 	 * always true statement for comparison in boolean based SQL injection check
 	 * try the commented versions first, because the law of averages says that
@@ -567,8 +599,6 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 		sqlInjectionFoundForUrl = false;
 		sqlInjectionAttack = null;
 		refreshedmessage = null;
-		mResBodyNormalUnstripped = null;
-		mResBodyNormalStripped = null;
 
 		try {
 			//reinitialise the count for each type of request, for each parameter.  We will be sticking to limits defined in the attach strength logic
@@ -611,11 +641,12 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						continue; //Something went wrong, continue to the next prefixString in the loop
 					}
 					countErrorBasedRequests++;
+					SignatureMatcher<Pattern>.Result errors = ERROR_SIGNATURES.match(msg1.getResponseBody().toString());
 
 					//now check the results against each pattern in turn, to try to identify a database, or even better: a specific database.
 					//Note: do NOT check the HTTP error code just yet, as the result could come back with one of various codes.
 					for (RDBMS rdbms : RDBMS.values()) {
-						if (getTechSet().includes(rdbms.getTech()) && checkSpecificErrors(rdbms, msg1, param, sqlErrValue)) {
+						if (getTechSet().includes(rdbms.getTech()) && checkSpecificErrors(rdbms, msg1, errors, param, sqlErrValue)) {
 							sqlInjectionFoundForUrl = true;
 							// Save the attack string for the "Authentication Bypass" alert, if necessary
 							sqlInjectionAttack = sqlErrValue;
@@ -637,8 +668,7 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 
 							//if the "error message" occurs in the result of sending the modified query, but did NOT occur in the original result of the original query
 							//then we may may have a SQL Injection vulnerability
-							StringBuilder sb = new StringBuilder();
-							if (!matchBodyPattern(getBaseMsg(), errorPattern, null) && matchBodyPattern(msg1, errorPattern, sb)) {
+							if (!getBaseMsgErrors().matches(errorPattern) && errors.matches(errorPattern)) {
 								//Likely a SQL Injection. Raise it
 								String extraInfo = Constant.messages.getString(MESSAGE_PREFIX + "alert.errorbased.extrainfo", errorPatternRDBMS, errorPattern.toString());
 								//raise the alert, and save the attack string for the "Authentication Bypass" alert, if necessary
@@ -646,7 +676,7 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 								bingo(Alert.RISK_HIGH, Alert.CONFIDENCE_MEDIUM, getName() + " - " + errorPatternRDBMS, getDescription(),
 										null,
 										param, sqlInjectionAttack,
-										extraInfo, getSolution(), sb.toString(), msg1);
+										extraInfo, getSolution(), errors.getEvidence(errorPattern), msg1);
 
 								//log it, as the RDBMS may be useful to know later (in subsequent checks, when we need to determine RDBMS specific behaviour, for instance)
 								getKb().add(getBaseMsg().getRequestHeader().getURI(), "sql/" + errorPatternRDBMS, Boolean.TRUE);
@@ -686,10 +716,9 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						" when accessing: " + refreshedmessage.getRequestHeader().getURI().toString());
 				return; //Something went wrong, no point continuing
 			}
+			TimeBasedDetector.recordLatency(getParent(), refreshedmessage);
 
-			//String mResBodyNormal = getBaseMsg().getResponseBody().toString();
-			mResBodyNormalUnstripped = refreshedmessage.getResponseBody().toString();
-			mResBodyNormalStripped = this.stripOff(mResBodyNormalUnstripped, origParamValue);
+			responseComparator.setBaseline(refreshedmessage, origParamValue);
 			
 			if (!sqlInjectionFoundForUrl && doExpressionBased && countExpressionBasedRequests < doExpressionMaxRequests) {
 
@@ -792,10 +821,9 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						" when accessing: " + refreshedmessage.getRequestHeader().getURI().toString());
 				return; //Something went wrong, no point continuing
 			}
+			TimeBasedDetector.recordLatency(getParent(), refreshedmessage);
 
-			//String mResBodyNormal = getBaseMsg().getResponseBody().toString();
-			mResBodyNormalUnstripped = refreshedmessage.getResponseBody().toString();
-			mResBodyNormalStripped = this.stripOff(mResBodyNormalUnstripped, origParamValue);
+			responseComparator.setBaseline(refreshedmessage, origParamValue);
 
 			//boolean booleanBasedSqlInjectionFoundForParam = false;
 
@@ -823,18 +851,14 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 				}
 				countBooleanBasedRequests++;
 
-				//String resBodyAND = msg2.getResponseBody().toString();
-				String resBodyANDTrueUnstripped = msg2.getResponseBody().toString();
-				String resBodyANDTrueStripped = this.stripOff(resBodyANDTrueUnstripped, sqlBooleanAndTrueValue);
+				ResponseComparator.Body andTrueBody = responseComparator.createBody(msg2, sqlBooleanAndTrueValue);
 
-				//set up two little arrays to ease the work of checking the unstripped output, and then the stripped output
-				String normalBodyOutput[] = {mResBodyNormalUnstripped, mResBodyNormalStripped};
-				String andTrueBodyOutput[] = {resBodyANDTrueUnstripped, resBodyANDTrueStripped};
+				//check the unstripped output, and then the stripped output
 				boolean strippedOutput[] = {false, true};
 
 				for (int booleanStrippedUnstrippedIndex = 0; booleanStrippedUnstrippedIndex < 2; booleanStrippedUnstrippedIndex++) {
 					//if the results of the "AND 1=1" match the original query (using either the stipped or unstripped versions), we may be onto something. 
-					if (andTrueBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]) == 0) {
+					if (responseComparator.matchesBaseline(andTrueBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 						if (this.debugEnabled) {
 							log.debug("Check 2, " + (strippedOutput[booleanStrippedUnstrippedIndex] ? "STRIPPED" : "UNSTRIPPED") + " html output for AND TRUE condition [" + sqlBooleanAndTrueValue + "] matched (refreshed) original results for " + refreshedmessage.getRequestHeader().getURI());
 						}
@@ -852,18 +876,13 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						}
 						countBooleanBasedRequests++;
 
-						//String resBodyANDFalse = stripOff(msg2_and_false.getResponseBody().toString(), SQL_LOGIC_AND_FALSE[i]);
-						//String resBodyANDFalse = msg2_and_false.getResponseBody().toString();
-						String resBodyANDFalseUnstripped = msg2_and_false.getResponseBody().toString();
-						String resBodyANDFalseStripped = this.stripOff(resBodyANDFalseUnstripped, sqlBooleanAndFalseValue);
-
-						String andFalseBodyOutput[] = {resBodyANDFalseUnstripped, resBodyANDFalseStripped};
+						ResponseComparator.Body andFalseBody = responseComparator.createBody(msg2_and_false, sqlBooleanAndFalseValue);
 
 						//which AND False output should we compare? the stripped or the unstripped version?
 						//depends on which one we used to get to here.. use the same as that..						
 
 						// build an always false AND query.  Result should be different to prove the SQL works.
-						if (andFalseBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]) != 0) {
+						if (!responseComparator.matchesBaseline(andFalseBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 							if (this.debugEnabled) {
 								log.debug("Check 2, " + (strippedOutput[booleanStrippedUnstrippedIndex] ? "STRIPPED" : "UNSTRIPPED") + " html output for AND FALSE condition [" + sqlBooleanAndFalseValue + "] differed from (refreshed) original results for " + refreshedmessage.getRequestHeader().getURI());
 							}
@@ -913,15 +932,9 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 							}
 							countBooleanBasedRequests++;
 
-							//String resBodyORTrue = stripOff(msg2_or_true.getResponseBody().toString(), orValue);
-							//String resBodyORTrue = msg2_or_true.getResponseBody().toString();
-							String resBodyORTrueUnstripped = msg2_or_true.getResponseBody().toString();
-							String resBodyORTrueStripped = this.stripOff(resBodyORTrueUnstripped, orValue);
-
-							String orTrueBodyOutput[] = {resBodyORTrueUnstripped, resBodyORTrueStripped};
+							ResponseComparator.Body orTrueBody = responseComparator.createBody(msg2_or_true, orValue);
 
-							int compareOrToOriginal = orTrueBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]);
-							if (compareOrToOriginal != 0) {
+							if (!responseComparator.matchesBaseline(orTrueBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 
 								if (this.debugEnabled) {
 									log.debug("Check 2, " + (strippedOutput[booleanStrippedUnstrippedIndex] ? "STRIPPED" : "UNSTRIPPED") + " html output for OR TRUE condition [" + orValue + "] different to (refreshed) original results for " + refreshedmessage.getRequestHeader().getURI());
@@ -952,13 +965,12 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						}
 					} //if the results of the "AND 1=1" match the original query, we may be onto something.
 					else {
-						//andTrueBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex])
 						//the results of the "AND 1=1" do NOT match the original query, for whatever reason (no sql injection, or the web page is not stable)
 						if (this.debugEnabled) {
 							log.debug("Check 2, " + (strippedOutput[booleanStrippedUnstrippedIndex] ? "STRIPPED" : "UNSTRIPPED") + " html output for AND condition [" + sqlBooleanAndTrueValue + "] does NOT match the (refreshed) original results for " + refreshedmessage.getRequestHeader().getURI());
 							Patch diffpatch = DiffUtils.diff(
-									new LinkedList<String>(Arrays.asList(normalBodyOutput[booleanStrippedUnstrippedIndex].split("\\n"))),
-									new LinkedList<String>(Arrays.asList(andTrueBodyOutput[booleanStrippedUnstrippedIndex].split("\\n"))));
+									new LinkedList<String>(Arrays.asList(responseComparator.getBaseline().get(strippedOutput[booleanStrippedUnstrippedIndex]).split("\\n"))),
+									new LinkedList<String>(Arrays.asList(andTrueBody.get(strippedOutput[booleanStrippedUnstrippedIndex]).split("\\n"))));
 
 							//int numberofDifferences = diffpatch.getDeltas().size();
 
@@ -1019,7 +1031,7 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 								
 				//if the results of the "OR 1=1" exceed the original query (unstripped, by more than a 20% size difference, say), we may be onto something.
 				//TODO: change the percentage difference threshold based on the alert threshold 				
-				if ((resBodyORTrueUnstripped.length() > ( mResBodyNormalUnstripped.length() * 1.2))) {
+				if ((resBodyORTrueUnstripped.length() > ( responseComparator.getBaseline().getUnstripped().length() * 1.2))) {
 					if (this.debugEnabled) {
 						log.debug("Check 2a, unstripped html output for OR TRUE condition [" + sqlBooleanOrTrueValue + "] produced sufficiently larger results than the original message");
 					}
@@ -1035,12 +1047,11 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 					}
 					countBooleanBasedRequests++;
 
-					String resBodyANDFalseUnstripped = msg2_and_false.getResponseBody().toString();
-					String resBodyANDFalseStripped = this.stripOff(resBodyANDFalseUnstripped, sqlBooleanAndFalseValue);
+					ResponseComparator.Body andFalseBody = responseComparator.createBody(msg2_and_false, sqlBooleanAndFalseValue);
 					
 					//does the "AND 1=2" version produce the same as the original (for stripped/unstripped versions)
-					boolean verificationUsingUnstripped = resBodyANDFalseUnstripped.compareTo(mResBodyNormalUnstripped) == 0;
-					boolean verificationUsingStripped = resBodyANDFalseStripped.compareTo(mResBodyNormalStripped) == 0;
+					boolean verificationUsingUnstripped = responseComparator.matchesBaseline(andFalseBody, false);
+					boolean verificationUsingStripped = responseComparator.matchesBaseline(andFalseBody, true);
 					if ( verificationUsingUnstripped || verificationUsingStripped ) {
 						if (this.debugEnabled) {
 							log.debug("Check 2, " + (verificationUsingStripped ? "STRIPPED" : "UNSTRIPPED") + " html output for AND FALSE condition [" + sqlBooleanAndFalseValue + "] matches the (refreshed) original results");
@@ -1093,11 +1104,14 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 				//now check the results.. look first for UNION specific error messages in the output that were not there in the original output
 				//and failing that, look for generic RDBMS specific error messages
 				//TODO: maybe also try looking at a differentiation based approach?? Prone to false positives though.
+				SignatureMatcher<Pattern>.Result unionErrors = ERROR_SIGNATURES.match(
+						responseComparator.createBody(msg3, sqlUnionValue).getStripped());
 				for (RDBMS rdbms : RDBMS.values()) {
 					if (getTechSet().includes(rdbms.getTech()) && checkUnionErrors(
 							rdbms,
 							msg3,
-							mResBodyNormalStripped,
+							getBaselineUnionErrors(),
+							unionErrors,
 							refreshedmessage.getRequestHeader().getURI(),
 							param,
 							sqlUnionValue)) {
@@ -1142,10 +1156,9 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						" when accessing: " + refreshedmessage.getRequestHeader().getURI().toString());
 				return; //Something went wrong, no point continuing
 			}
+			TimeBasedDetector.recordLatency(getParent(), refreshedmessage);
 
-			//String mResBodyNormal = getBaseMsg().getResponseBody().toString();
-			mResBodyNormalUnstripped = refreshedmessage.getResponseBody().toString();
-			mResBodyNormalStripped = this.stripOff(mResBodyNormalUnstripped, origParamValue);
+			responseComparator.setBaseline(refreshedmessage, origParamValue);
 
 			if (!sqlInjectionFoundForUrl && doOrderByBased && countOrderByBasedRequests < doOrderByMaxRequests) {
 
@@ -1164,17 +1177,14 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 				}
 				countOrderByBasedRequests++;
 
-				String modifiedAscendingOutputUnstripped = msg5.getResponseBody().toString();
-				String modifiedAscendingOutputStripped = this.stripOff(modifiedAscendingOutputUnstripped, modifiedParamValue);
+				ResponseComparator.Body ascendingBody = responseComparator.createBody(msg5, modifiedParamValue);
 
-				//set up two little arrays to ease the work of checking the unstripped output, and then the stripped output
-				String normalBodyOutput[] = {mResBodyNormalUnstripped, mResBodyNormalStripped};
-				String ascendingBodyOutput[] = {modifiedAscendingOutputUnstripped, modifiedAscendingOutputStripped};
+				//check the unstripped output, and then the stripped output
 				boolean strippedOutput[] = {false, true};
 
 				for (int booleanStrippedUnstrippedIndex = 0; booleanStrippedUnstrippedIndex < 2; booleanStrippedUnstrippedIndex++) {
 					//if the results of the modified request match the original query, we may be onto something. 
-					if (ascendingBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]) == 0) {
+					if (responseComparator.matchesBaseline(ascendingBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 						if (this.debugEnabled) {
 							log.debug("Check X, " + (strippedOutput[booleanStrippedUnstrippedIndex] ? "STRIPPED" : "UNSTRIPPED") + " html output for modified Order By parameter [" + modifiedParamValue + "] matched (refreshed) original results for " + refreshedmessage.getRequestHeader().getURI());
 						}
@@ -1196,13 +1206,9 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 						}
 						countOrderByBasedRequests++;
 
-						String confirmOrderByOutputUnstripped = msg5Confirm.getResponseBody().toString();
-						String confirmOrderByOutputStripped = this.stripOff(confirmOrderByOutputUnstripped, modifiedParamValueConfirm);
+						ResponseComparator.Body confirmOrderByBody = responseComparator.createBody(msg5Confirm, modifiedParamValueConfirm);
 
-						//set up two little arrays to ease the work of checking the unstripped output or the stripped output
-						String confirmOrderByBodyOutput[] = {confirmOrderByOutputUnstripped, confirmOrderByOutputStripped};
-
-						if (confirmOrderByBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]) != 0) {
+						if (!responseComparator.matchesBaseline(confirmOrderByBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 							//the confirm query did not return the same results.  This means that arbitrary queries are not all producing the same page output.
 							//this means the fact we earlier reproduced the original page output with a modified parameter was not a coincidence
 
@@ -1296,7 +1302,33 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 		}
 	}
 
-	private boolean checkSpecificErrors(RDBMS rdbms, HttpMessage msg1, String parameter, String attack) {
+	/**
+	 * Gets the error signatures found in the response of the base message.
+	 *
+	 * @return the error signatures of the base message
+	 */
+	private SignatureMatcher<Pattern>.Result getBaseMsgErrors() {
+		if (baseMsgErrors == null) {
+			baseMsgErrors = ERROR_SIGNATURES.match(getBaseMsg().getResponseBody().toString());
+		}
+		return baseMsgErrors;
+	}
+
+	/**
+	 * Gets the error signatures found in the stripped response of the current baseline.
+	 *
+	 * @return the error signatures of the baseline
+	 */
+	private SignatureMatcher<Pattern>.Result getBaselineUnionErrors() {
+		ResponseComparator.Body baseline = responseComparator.getBaseline();
+		if (baselineOfUnionErrors != baseline) {
+			baselineOfUnionErrors = baseline;
+			baselineUnionErrors = ERROR_SIGNATURES.match(baseline.getStripped());
+		}
+		return baselineUnionErrors;
+	}
+
+	private boolean checkSpecificErrors(RDBMS rdbms, HttpMessage msg1, SignatureMatcher<Pattern>.Result errors, String parameter, String attack) {
 		if (rdbms.isGeneric()) {
 			return false;
 		}
@@ -1308,14 +1340,13 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 
 			//if the "error message" occurs in the result of sending the modified query, but did NOT occur in the original result of the original query
 			//then we may may have a SQL Injection vulnerability
-			StringBuilder sb = new StringBuilder();
-			if (!matchBodyPattern(getBaseMsg(), errorPattern, null) && matchBodyPattern(msg1, errorPattern, sb)) {
+			if (!getBaseMsgErrors().matches(errorPattern) && errors.matches(errorPattern)) {
 				//Likely a SQL Injection. Raise it
 				String extraInfo = Constant.messages.getString(MESSAGE_PREFIX + "alert.errorbased.extrainfo", rdbms.getName(), errorPattern.toString());
 				bingo(Alert.RISK_HIGH, Alert.CONFIDENCE_MEDIUM, getName() + " - " + rdbms.getName(), getDescription(),
 						null,
 						parameter, attack,
-						extraInfo, getSolution(), sb.toString(), msg1);
+						extraInfo, getSolution(), errors.getEvidence(errorPattern), msg1);
 
 				//log it, as the RDBMS may be useful to know later (in subsequent checks, when we need to determine RDBMS specific behaviour, for instance)
 				getKb().add(getBaseMsg().getRequestHeader().getURI(), "sql/" + rdbms.getName(), Boolean.TRUE);
@@ -1327,7 +1358,7 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 		return false;
 	}
 
-	private boolean checkUnionErrors(RDBMS rdbms, HttpMessage msg, String response, URI uri, String parameter, String attack) {
+	private boolean checkUnionErrors(RDBMS rdbms, HttpMessage msg, SignatureMatcher<Pattern>.Result originalErrors, SignatureMatcher<Pattern>.Result unionErrors, URI uri, String parameter, String attack) {
 		for (Pattern errorPattern : rdbms.getUnionErrorPatterns()) {
 			if (isStop()) {
 				return false;
@@ -1335,13 +1366,8 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 
 			//if the "error message" occurs in the result of sending the modified query, but did NOT occur in the original result of the original query
 			//then we may may have a SQL Injection vulnerability
-			String sqlUnionBodyUnstripped = msg.getResponseBody().toString();
-			String sqlUnionBodyStripped = this.stripOff(sqlUnionBodyUnstripped, attack);
-
-			Matcher matcherOrig = errorPattern.matcher(response);
-			Matcher matcherSQLUnion = errorPattern.matcher(sqlUnionBodyStripped);
-			boolean patternInOrig = matcherOrig.find();
-			boolean patternInSQLUnion = matcherSQLUnion.find();
+			boolean patternInOrig = originalErrors.matches(errorPattern);
+			boolean patternInSQLUnion = unionErrors.matches(errorPattern);
 
 			//if (! matchBodyPattern(getBaseMsg(), errorPattern, null) && matchBodyPattern(msg, errorPattern, sb)) {
 			if (!patternInOrig && patternInSQLUnion) {
@@ -1350,7 +1376,7 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 				bingo(Alert.RISK_HIGH, Alert.CONFIDENCE_MEDIUM, getName() + " - " + rdbms.getName(), getDescription(),
 						uri.getEscapedURI(),
 						parameter, attack,
-						extraInfo, getSolution(), matcherSQLUnion.group(), msg);
+						extraInfo, getSolution(), unionErrors.getEvidence(errorPattern), msg);
 
 				//log it, as the RDBMS may be useful to know later (in subsequent checks, when we need to determine RDBMS specific behaviour, for instance)
 				getKb().add(uri, "sql/" + rdbms.getName(), Boolean.TRUE);
@@ -1375,17 +1401,14 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 		}
 		countExpressionBasedRequests++;
 
-		String modifiedExpressionOutputUnstripped = msg.getResponseBody().toString();
-		String modifiedExpressionOutputStripped = this.stripOff(modifiedExpressionOutputUnstripped, modifiedParamValue);
+		ResponseComparator.Body expressionBody = responseComparator.createBody(msg, modifiedParamValue);
 
-		//set up little arrays to ease the work of checking the unstripped output, and then the stripped output
-		String normalBodyOutput[] = {mResBodyNormalUnstripped, mResBodyNormalStripped};
-		String expressionBodyOutput[] = {modifiedExpressionOutputUnstripped, modifiedExpressionOutputStripped};
+		//check the unstripped output, and then the stripped output
 		boolean strippedOutput[] = {false, true};
 
 		for (int booleanStrippedUnstrippedIndex = 0; booleanStrippedUnstrippedIndex < 2 && !sqlInjectionFoundForUrl && countExpressionBasedRequests < doExpressionMaxRequests; booleanStrippedUnstrippedIndex++) {
 			//if the results of the modified request match the original query, we may be onto something.
-			if (expressionBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]) == 0) {
+			if (responseComparator.matchesBaseline(expressionBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 				if (this.debugEnabled) {
 					log.debug("Check 4, " + (strippedOutput[booleanStrippedUnstrippedIndex] ? "STRIPPED" : "UNSTRIPPED") + " html output for modified expression parameter [" + modifiedParamValue + "] matched (refreshed) original results for " + refreshedmessage.getRequestHeader().getURI());
 				}
@@ -1404,13 +1427,9 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 				}
 				countExpressionBasedRequests++;
 
-				String confirmExpressionOutputUnstripped = msgConfirm.getResponseBody().toString();
-				String confirmExpressionOutputStripped = this.stripOff(confirmExpressionOutputUnstripped, modifiedParamValueConfirm);
+				ResponseComparator.Body confirmExpressionBody = responseComparator.createBody(msgConfirm, modifiedParamValueConfirm);
 
-				//set up two little arrays to ease the work of checking the unstripped output or the stripped output
-				String confirmExpressionBodyOutput[] = {confirmExpressionOutputUnstripped, confirmExpressionOutputStripped};
-
-				if (confirmExpressionBodyOutput[booleanStrippedUnstrippedIndex].compareTo(normalBodyOutput[booleanStrippedUnstrippedIndex]) != 0) {
+				if (!responseComparator.matchesBaseline(confirmExpressionBody, strippedOutput[booleanStrippedUnstrippedIndex])) {
 					//the confirm query did not return the same results.  This means that arbitrary queries are not all producing the same page output.
 					//this means the fact we earier reproduced the original page output with a modified parameter was not a coincidence
 
@@ -1459,16 +1478,7 @@ public class TestSQLInjection extends AbstractAppParamPlugin {
 	 * @return
 	 */
 	protected String stripOff(String body, String pattern) {
-		if (pattern == null) {
-			return body;
-		}
-
-		String urlEncodePattern = getURLEncode(pattern);
-		String htmlEncodePattern1 = getHTMLEncode(pattern);
-		String htmlEncodePattern2 = getHTMLEncode(urlEncodePattern);
-		String result = body.replaceAll("\\Q" + pattern + "\\E", "").replaceAll("\\Q" + urlEncodePattern + "\\E", "");
-		result = result.replaceAll("\\Q" + htmlEncodePattern1 + "\\E", "").replaceAll("\\Q" + htmlEncodePattern2 + "\\E", "");
-		return result;
+		return ResponseComparator.stripOff(body, pattern);
 	}
 
 	/**
@@ -0,0 +1,286 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.core.scanner.HostProcess;
+import org.parosproxy.paros.network.HttpMessage;
+
+/**
+ * Detects time-based (blind) injections, using a rolling model of the latency of each host.
+ * <p>
+ * An injection is first tested with a short delay, just long enough to stand out of the latency of the host. Only if the
+ * response is delayed the injection is tested again, without delay (the response must not be delayed) and with the
+ * maximum delay (the response must be delayed again). Injections that are not executed cost a single request and no delay,
+ * and the latency of those requests is added to the model.
+ * <p>
+ * The latency models are shared by the scanners of a host, for the duration of the scan. Any request that is not expected
+ * to be delayed can be added with {@link #recordLatency(HostProcess, HttpMessage)}.
+ * 
+ * @see CommandInjectionPlugin
+ */
+class TimeBasedDetector {
+
+	private static final Logger LOGGER = Logger.getLogger(TimeBasedDetector.class);
+
+	/**
+	 * Coefficient of the standard deviation of the latency that a delayed response must exceed (must be >= 7).
+	 * <p>
+	 * 7 standard deviations cover 99.9999999997440% of the values.
+	 */
+	static final int TIME_STDEV_COEFF = 7;
+
+	/**
+	 * Standard deviation limit in milliseconds (long requests deviate from a correct model).
+	 */
+	static final double WARN_TIME_STDEV = 0.5 * 1000;
+
+	/**
+	 * The minimum number of seconds of the first delay.
+	 * <p>
+	 * Windows' {@code timeout /T n} waits only until the n-th tick of the clock, which might be up to a second less than
+	 * asked, so a delay of one second might not delay the response at all.
+	 */
+	static final int MIN_DELAY = 2;
+
+	/**
+	 * The number of milliseconds that a delayed response might be shorter than the delay asked (see {@link #MIN_DELAY}).
+	 */
+	static final int DELAY_TOLERANCE_MILLIS = 1000;
+
+	/**
+	 * The latency models, one per host process (that is, per host and scan), discarded with the host process.
+	 */
+	private static final Map<HostProcess, LatencyModel> LATENCY_MODELS = new WeakHashMap<>();
+
+	private final LatencyModel latencyModel;
+	private final int maxDelay;
+
+	/**
+	 * Constructs a {@code TimeBasedDetector} with the given latency model and maximum delay.
+	 *
+	 * @param latencyModel the latency model of the host being tested
+	 * @param maxDelay the maximum number of seconds that the injections are asked to delay the responses, the delay used to
+	 *            confirm
+	 * @throws IllegalArgumentException if the latency model is {@code null} or the maximum delay is not positive
+	 */
+	TimeBasedDetector(LatencyModel latencyModel, int maxDelay) {
+		if (latencyModel == null) {
+			throw new IllegalArgumentException("The latency model must not be null.");
+		}
+		if (maxDelay <= 0) {
+			throw new IllegalArgumentException("The maximum delay must be positive.");
+		}
+		this.latencyModel = latencyModel;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Gets the latency model of the host scanned by the given host process.
+	 *
+	 * @param hostProcess the host process of the scanner
+	 * @return the latency model, never {@code null}
+	 */
+	static LatencyModel getLatencyModel(HostProcess hostProcess) {
+		synchronized (LATENCY_MODELS) {
+			LatencyModel latencyModel = LATENCY_MODELS.get(hostProcess);
+			if (latencyModel == null) {
+				latencyModel = new LatencyModel();
+				LATENCY_MODELS.put(hostProcess, latencyModel);
+			}
+			return latencyModel;
+		}
+	}
+
+	/**
+	 * Adds the time elapsed by the given message, which was not expected to be delayed, to the latency model of the host
+	 * scanned by the given host process.
+	 *
+	 * @param hostProcess the host process of the scanner
+	 * @param msg the message sent
+	 */
+	static void recordLatency(HostProcess hostProcess, HttpMessage msg) {
+		getLatencyModel(hostProcess).add(msg.getTimeElapsedMillis());
+	}
+
+	/**
+	 * Gets the number of seconds of the first delay, the shortest that stands out of the latency of the host (at least
+	 * {@value #MIN_DELAY} seconds), or half the maximum delay if the latency is not yet known, such that the confirmation
+	 * asks for a longer delay.
+	 *
+	 * @return the number of seconds of the first delay
+	 */
+	int getInitialDelay() {
+		double deviation = latencyModel.getDeviation();
+		if (deviation < 0) {
+			return Math.min(Math.max(maxDelay / 2, MIN_DELAY), maxDelay);
+		}
+		if (deviation > WARN_TIME_STDEV) {
+			LOGGER.warn("There is considerable lagging in connection response(s) which gives a standard deviation of "
+					+ deviation + "ms on the sample set which is more than " + WARN_TIME_STDEV + "ms");
+		}
+		int delay = (int) Math.ceil((TIME_STDEV_COEFF * deviation + DELAY_TOLERANCE_MILLIS) / 1000);
+		return Math.min(Math.max(delay, MIN_DELAY), maxDelay);
+	}
+
+	/**
+	 * Tells whether or not the injection sent by the given request delays the responses.
+	 *
+	 * @param request the request that sends the injection with a given delay
+	 * @return the message that confirmed the delay, or {@code null} if the responses were not delayed or a request was not
+	 *         sent
+	 * @throws IOException if an error occurred while sending a request
+	 */
+	HttpMessage detect(DelayedRequest request) throws IOException {
+		int delay = getInitialDelay();
+		HttpMessage msg = request.send(delay);
+		if (msg == null) {
+			return null;
+		}
+		if (!isDelayed(msg, delay)) {
+			latencyModel.add(msg.getTimeElapsedMillis());
+			return null;
+		}
+
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Response delayed " + msg.getTimeElapsedMillis() + "ms for " + delay + "s, confirming...");
+		}
+		HttpMessage control = request.send(0);
+		if (control == null || isDelayed(control, delay)) {
+			return null;
+		}
+		latencyModel.add(control.getTimeElapsedMillis());
+
+		int confirmationDelay = Math.max(delay, maxDelay);
+		msg = request.send(confirmationDelay);
+		if (msg == null || !isDelayed(msg, confirmationDelay)) {
+			return null;
+		}
+		return msg;
+	}
+
+	private boolean isDelayed(HttpMessage msg, int delay) {
+		long elapsedTime = msg.getTimeElapsedMillis();
+		return elapsedTime >= delay * 1000L - DELAY_TOLERANCE_MILLIS && elapsedTime >= latencyModel.getUpperLimit();
+	}
+
+	/**
+	 * A request that sends an injection that delays the response.
+	 */
+	interface DelayedRequest {
+
+		/**
+		 * Sends the injection with the given delay.
+		 *
+		 * @param delay the number of seconds that the response should be delayed, {@code 0} for no delay
+		 * @return the message sent, or {@code null} if not sent (for example, the scan was stopped)
+		 * @throws IOException if an error occurred while sending the request
+		 */
+		HttpMessage send(int delay) throws IOException;
+	}
+
+	/**
+	 * A rolling model of the latency of a host, the mean and standard deviation of the latest response times.
+	 * <p>
+	 * Thread-safe.
+	 */
+	static final class LatencyModel {
+
+		/**
+		 * The number of response times kept, the oldest are discarded.
+		 */
+		static final int WINDOW_SIZE = 32;
+
+		private final long[] responseTimes = new long[WINDOW_SIZE];
+		private int count;
+		private int next;
+
+		/**
+		 * Adds the given response time.
+		 *
+		 * @param responseTime the response time, in milliseconds
+		 */
+		synchronized void add(long responseTime) {
+			responseTimes[next] = responseTime;
+			next = (next + 1) % WINDOW_SIZE;
+			if (count < WINDOW_SIZE) {
+				count++;
+			}
+		}
+
+		/**
+		 * Gets the number of response times kept.
+		 *
+		 * @return the number of response times
+		 */
+		synchronized int getSampleCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the arithmetic mean of the response times.
+		 *
+		 * @return the mean, in milliseconds, {@code 0} if there are no response times
+		 */
+		synchronized double getMean() {
+			if (count == 0) {
+				return 0;
+			}
+			double result = 0;
+			for (int i = 0; i < count; i++) {
+				result += responseTimes[i];
+			}
+			return result / count;
+		}
+
+		/**
+		 * Gets the (sample) standard deviation of the response times.
+		 *
+		 * @return the standard deviation, in milliseconds, {@code -1} if there are less than two response times
+		 */
+		synchronized double getDeviation() {
+			if (count < 2) {
+				return -1;
+			}
+			double mean = getMean();
+			double result = 0;
+			for (int i = 0; i < count; i++) {
+				result += Math.pow(responseTimes[i] - mean, 2);
+			}
+			return Math.sqrt(result / (count - 1));
+		}
+
+		/**
+		 * Gets the response time that a delayed response must exceed, the mean plus {@value TimeBasedDetector#TIME_STDEV_COEFF}
+		 * standard deviations.
+		 *
+		 * @return the upper limit, in milliseconds, {@code 0} if there are less than two response times
+		 */
+		synchronized double getUpperLimit() {
+			double deviation = getDeviation();
+			if (deviation < 0) {
+				return 0;
+			}
+			return getMean() + TIME_STDEV_COEFF * deviation;
+		}
+	}
+}
@@ -17,6 +17,12 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.awt.EventQueue;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
@@ -31,8 +37,7 @@ import java.util.Map.Entry;
 import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
@@ -62,6 +67,7 @@ import org.parosproxy.paros.view.AbstractParamPanel;
 import org.parosproxy.paros.view.View;
 import org.zaproxy.zap.PersistentConnectionListener;
 import org.zaproxy.zap.ZapGetMethod;
+import org.zaproxy.zap.extension.api.API;
 import org.zaproxy.zap.extension.brk.BreakpointMessageHandler2;
 import org.zaproxy.zap.extension.brk.ExtensionBreak;
 import org.zaproxy.zap.extension.help.ExtensionHelp;
@@ -75,13 +81,18 @@ import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointMessageHandler
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointsUiManagerInterface;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketProxyListenerBreak;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketArchiveReader;
+import org.zaproxy.zap.extension.websocket.db.WebSocketArchiveWriter;
 import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
 import org.zaproxy.zap.extension.websocket.filter.FilterWebSocketPayload;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilter;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilterListener;
 import org.zaproxy.zap.extension.websocket.manualsend.ManualWebSocketSendEditorDialog;
 import org.zaproxy.zap.extension.websocket.manualsend.WebSocketPanelSender;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketStatistics;
 import org.zaproxy.zap.extension.websocket.ui.ExcludeFromWebSocketsMenuItem;
+import org.zaproxy.zap.extension.websocket.ui.ExportWebSocketArchiveMenuItem;
+import org.zaproxy.zap.extension.websocket.ui.ImportWebSocketArchiveMenuItem;
 import org.zaproxy.zap.extension.websocket.ui.OptionsParamWebSocket;
 import org.zaproxy.zap.extension.websocket.ui.OptionsWebSocketPanel;
 import org.zaproxy.zap.extension.websocket.ui.PopupExcludeWebSocketContextMenu;
@@ -89,6 +100,7 @@ import org.zaproxy.zap.extension.websocket.ui.PopupIncludeWebSocketContextMenu;
 import org.zaproxy.zap.extension.websocket.ui.ResendWebSocketMessageMenuItem;
 import org.zaproxy.zap.extension.websocket.ui.SessionExcludeFromWebSocket;
 import org.zaproxy.zap.extension.websocket.ui.WebSocketPanel;
+import org.zaproxy.zap.extension.websocket.ui.WebSocketStatisticsPanel;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.component.WebSocketComponent;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.models.ByteWebSocketPanelViewModel;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.models.StringWebSocketPanelViewModel;
@@ -96,6 +108,8 @@ import org.zaproxy.zap.extension.websocket.ui.httppanel.views.WebSocketSyntaxHig
 import org.zaproxy.zap.extension.websocket.ui.httppanel.views.large.WebSocketLargePayloadUtil;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.views.large.WebSocketLargePayloadView;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.views.large.WebSocketLargetPayloadViewModel;
+import org.zaproxy.zap.extension.websocket.utility.ChannelIgnoreMatcher;
+import org.zaproxy.zap.extension.websocket.utility.PayloadBuffers;
 import org.zaproxy.zap.view.HttpPanelManager;
 import org.zaproxy.zap.view.HttpPanelManager.HttpPanelComponentFactory;
 import org.zaproxy.zap.view.HttpPanelManager.HttpPanelDefaultViewSelectorFactory;
@@ -130,7 +144,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * List of observers where each element is informed on all channel's
 	 * messages.
 	 */
-	private Vector<WebSocketObserver> allChannelObservers;
+	private AtomicReference<WebSocketObserverPipeline> allChannelObservers;
 
 	/**
 	 * Contains all proxies with their corresponding handshake message.
@@ -147,6 +161,21 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 */
 	private WebSocketStorage storage;
 
+	/**
+	 * Frames, bytes and timings of all channels.
+	 */
+	private WebSocketStatistics statistics;
+
+	/**
+	 * Exposes the {@link #statistics}.
+	 */
+	private WebSocketAPI api;
+
+	/**
+	 * Shows the {@link #statistics}, next to the WebSocket tab.
+	 */
+	private WebSocketStatisticsPanel statisticsPanel;
+
 	/**
 	 * List of WebSocket related filters.
 	 */
@@ -164,14 +193,11 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 	/**
 	 * Messages for some {@link WebSocketProxy} on this list are just
-	 * forwarded, but not stored nor shown in UI.
-	 */
-	private List<Pattern> preparedIgnoredChannels;
-
-	/**
-	 * Contains raw regex values, as they appear in the sessions dialogue.
+	 * forwarded, but not stored nor shown in UI. Contains raw regex values, as
+	 * they appear in the sessions dialogue. Replaced as a whole, such that
+	 * lookups never lock.
 	 */
-	private List<String> ignoredChannelList;
+	private volatile ChannelIgnoreMatcher channelIgnoreMatcher;
 
 	/**
 	 * This filter allows to change the bytes when passed through ZAP.
@@ -190,12 +216,12 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	public void init() {
 		super.init();
 		
-		allChannelObservers = new Vector<>();
+		allChannelObservers = new AtomicReference<>(WebSocketObserverPipeline.EMPTY);
 		wsProxies = new HashMap<>();
 		config = new OptionsParamWebSocket();
+		statistics = new WebSocketStatistics();
 		
-		preparedIgnoredChannels = new ArrayList<>();
-		ignoredChannelList = new ArrayList<>();
+		channelIgnoreMatcher = ChannelIgnoreMatcher.EMPTY;
 
 		mode = Control.getSingleton().getMode();
 	}
@@ -203,12 +229,13 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
     @Override
     public void databaseOpen(Database db) throws DatabaseException, DatabaseUnsupportedException {
 		table = new TableWebSocket();
+		table.setStatistics(statistics);
 		db.addDatabaseListener(table);
 		try {
 			table.databaseOpen(db.getDatabaseServer());
 
 			if (storage == null) {
-				storage = new WebSocketStorage(table);	
+				storage = new WebSocketStorage(table, config);
 				addAllChannelObserver(storage);
 			} else {
 				storage.setTable(table);
@@ -254,6 +281,9 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		// setup configuration
 		extensionHook.addOptionsParamSet(config);
 		
+		api = new WebSocketAPI(statistics);
+		API.getInstance().registerApiImplementor(api);
+		
 		try {
 			setChannelIgnoreList(Model.getSingleton().getSession().getExcludeFromProxyRegexs());
 		} catch (WebSocketException e) {
@@ -276,6 +306,10 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			
 			hookView.addStatusPanel(getWebSocketPanel());
 			
+			statisticsPanel = new WebSocketStatisticsPanel(statistics);
+			ExtensionHelp.enableHelpKey(statisticsPanel, "websocket.tab");
+			hookView.addStatusPanel(statisticsPanel);
+			
 			// setup Options Panel
 			hookView.addOptionPanel(getOptionsPanel());
 			
@@ -311,6 +345,10 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			hookMenu.addPopupMenuItem(new PopupIncludeWebSocketContextMenu());
 			hookMenu.addPopupMenuItem(new PopupExcludeWebSocketContextMenu());
 			
+			// move captured messages between sessions
+			hookMenu.addToolsMenuItem(new ExportWebSocketArchiveMenuItem(this));
+			hookMenu.addToolsMenuItem(new ImportWebSocketArchiveMenuItem(this));
+			
 			// setup workpanel (window containing Request, Response & Break tab)
 			initializeWebSocketsForWorkPanel();
 			
@@ -341,6 +379,13 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		}
 	}
 	
+	@Override
+	public void optionsLoaded() {
+		super.optionsLoaded();
+		
+		PayloadBuffers.setSpillThreshold(config.getPayloadSpillThreshold());
+	}
+	
 	@Override
 	public boolean canUnload() {
 		return true;
@@ -356,6 +401,18 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			wsProxy.shutdown();
 		}
 		
+		if (storage != null) {
+			storage.stop();
+			storePayloadIndex();
+		}
+		if (table != null) {
+			table.cancelPurges();
+		}
+		
+		if (api != null) {
+			API.getInstance().removeApiImplementor(api);
+		}
+		
 		Control control = Control.getSingleton();
 		ExtensionLoader extLoader = control.getExtensionLoader();
 		
@@ -387,6 +444,10 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 		if (getView() != null) {
 			getWebSocketPanel().unload();
+			
+			if (statisticsPanel != null) {
+				statisticsPanel.unload();
+			}
 
 			getView().getSessionDialog().removeParamPanel(sessionExcludePanel);
 
@@ -413,12 +474,15 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	}
 
 	/**
-	 * Add an observer that is attached to every channel connected in future.
+	 * Add an observer that is attached to every channel, including the ones
+	 * already connected.
 	 * 
 	 * @param observer
 	 */
 	public void addAllChannelObserver(WebSocketObserver observer) {
-		allChannelObservers.add(observer);
+		synchronized (allChannelObservers) {
+			allChannelObservers.set(allChannelObservers.get().with(observer));
+		}
 	}
 
 	/**
@@ -431,7 +495,26 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		if (observer == null) {
 			throw new IllegalArgumentException("The parameter observer must not be null.");
 		}
-		allChannelObservers.remove(observer);
+		synchronized (allChannelObservers) {
+			allChannelObservers.set(allChannelObservers.get().without(observer));
+		}
+	}
+
+	/**
+	 * Returns the observers attached to every channel, with the time they have
+	 * spent on processing messages.
+	 * 
+	 * @return current observers, never {@code null}
+	 */
+	public WebSocketObserverPipeline getAllChannelObservers() {
+		return allChannelObservers.get();
+	}
+
+	/**
+	 * @return frames, bytes and timings of all channels
+	 */
+	public WebSocketStatistics getStatistics() {
+		return statistics;
 	}
 
 	/**
@@ -530,9 +613,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			wsProxy = WebSocketProxy.create(wsVersion, localSocket, remoteSocket, targetHost, targetPort, wsProtocol, wsExtensions);
 			
 			// set other observers and handshake reference, before starting listeners
-			for (WebSocketObserver observer : allChannelObservers) {
-				wsProxy.addObserver(observer);
-			}
+			wsProxy.setAllChannelObservers(allChannelObservers);
+			wsProxy.setStatistics(statistics.getOrCreateChannel(wsProxy.getChannelId()));
 			
 			// wait until HistoryReference is saved to database
 			while (handshakeMessage.getHistoryRef() == null) {
@@ -752,8 +834,6 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
      * @throws WebSocketException 
 	 */
 	public void setChannelIgnoreList(List<String> ignoreList) throws WebSocketException {
-		preparedIgnoredChannels.clear();
-		
 		List<String> nonEmptyIgnoreList = new ArrayList<>();
 		for (String regex : ignoreList) {
 			if (regex.trim().length() > 0) {
@@ -761,23 +841,18 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			}
 		}
 
-		// ensure validity by compiling regular expression
-		// store them for better performance
-		for (String regex : nonEmptyIgnoreList) {
-			if (regex.trim().length() > 0) {
-				preparedIgnoredChannels.add(Pattern.compile(regex.trim(), Pattern.CASE_INSENSITIVE));
-			}
-		}
+		// ensure validity by compiling regular expressions,
+		// combined into one for better performance
+		ChannelIgnoreMatcher newMatcher = new ChannelIgnoreMatcher(nonEmptyIgnoreList);
 		
 		// save list in database
 		try {
 			Model.getSingleton().getDb().getTableSessionUrl().setUrls(RecordSessionUrl.TYPE_EXCLUDE_FROM_WEBSOCKET, nonEmptyIgnoreList);
-			ignoredChannelList = nonEmptyIgnoreList;
+			channelIgnoreMatcher = newMatcher;
 		} catch (DatabaseException e) {
 			logger.error(e.getMessage(), e);
 			
-			ignoredChannelList.clear();
-			preparedIgnoredChannels.clear();
+			channelIgnoreMatcher = ChannelIgnoreMatcher.EMPTY;
 			
 			throw new WebSocketException("Ignore list could not be applied! Consequently no channel is ignored.");
 		} finally {
@@ -787,20 +862,17 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	}
 
 	public List<String> getChannelIgnoreList() {
-		return ignoredChannelList;
+		return new ArrayList<>(channelIgnoreMatcher.getRegexes());
 	}
 	
 	private void applyChannelIgnoreList() {
+		List<WebSocketProxy> proxies;
 		synchronized (wsProxies) {
-			for (Entry<Integer, WebSocketProxy> entry : wsProxies.entrySet()) {
-				WebSocketProxy wsProxy = entry.getValue();
-				
-				if (isChannelIgnored(wsProxy.getDTO())) {
-					wsProxy.setForwardOnly(true);
-				} else {
-					wsProxy.setForwardOnly(false);
-				}
-			}
+			proxies = new ArrayList<>(wsProxies.values());
+		}
+
+		for (WebSocketProxy wsProxy : proxies) {
+			wsProxy.setForwardOnly(isChannelIgnored(wsProxy.getDTO()));
 		}
 	}
 
@@ -826,22 +898,13 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * @return
 	 */
 	public boolean isChannelIgnored(WebSocketChannelDTO channel) {
-		boolean doNotStore = false;
-		
 		if (config.isForwardAll()) {
 			// all channels are blacklisted
-			doNotStore = true;
-		} else if (!preparedIgnoredChannels.isEmpty()) {
-			for (Pattern p : preparedIgnoredChannels) {
-				Matcher m = p.matcher(channel.getFullUri());
-				if (m.matches()) {
-					doNotStore = true;
-					break;
-				}
-			}
+			return true;
 		}
 		
-		return doNotStore;
+		ChannelIgnoreMatcher matcher = channelIgnoreMatcher;
+		return !matcher.isEmpty() && matcher.matches(channel.getFullUri());
 	}
 
 	@Override
@@ -883,23 +946,90 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 	@Override
 	public void sessionAboutToChange(Session session) {
+		// Prevent the table from being used, writing the queued messages
+		// while the database of the old session is still open
+		storage.setTable(null);
 		if (View.isInitialised()) {
-			// Prevent the table from being used
 			getWebSocketPanel().setTable(null);
-			storage.setTable(null);
 		}
 		
-		// close existing connections
+		// purges of the old session are resumed when it is opened again
+		if (table != null) {
+			table.cancelPurges();
+		}
+		
+		// close existing connections, without blocking new ones meanwhile
+		List<WebSocketProxy> proxies;
 		synchronized (wsProxies) {
-			for (WebSocketProxy wsProxy : wsProxies.values()) {
-				wsProxy.shutdown();
-			}
+			proxies = new ArrayList<>(wsProxies.values());
 			wsProxies.clear();
 		}
+		for (WebSocketProxy wsProxy : proxies) {
+			wsProxy.shutdown();
+		}
+		statistics.clearChannels();
 		
 		if (wsFilterListener != null) {
 			wsFilterListener.reset();
 		}
+		
+		storePayloadIndex();
+	}
+
+	/**
+	 * Writes all channels and messages of the current session into the given
+	 * file, see {@link WebSocketArchiveWriter}.
+	 * 
+	 * @param file
+	 * @return number of exported messages
+	 * @throws DatabaseException
+	 * @throws IOException
+	 */
+	public int exportMessages(File file) throws DatabaseException, IOException {
+		try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(new BufferedOutputStream(new FileOutputStream(file)))) {
+			return table.exportArchive(writer);
+		}
+	}
+
+	/**
+	 * Adds the channels and messages of the given file to the current
+	 * session.
+	 * 
+	 * @param file written with {@link #exportMessages(File)}
+	 * @return number of imported messages
+	 * @throws DatabaseException
+	 * @throws IOException
+	 */
+	public int importMessages(File file) throws DatabaseException, IOException {
+		int count;
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new BufferedInputStream(new FileInputStream(file)))) {
+			count = table.importArchive(reader);
+		}
+		
+		if (View.isInitialised()) {
+			EventQueue.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+					getWebSocketPanel().update();
+				}
+			});
+		}
+		return count;
+	}
+
+	/**
+	 * Stores the payload index of the current session, to be used again
+	 * after reopening the session.
+	 */
+	private void storePayloadIndex() {
+		if (table != null) {
+			try {
+				table.storePayloadIndex();
+			} catch (DatabaseException e) {
+				logger.warn("Failed to store the payload index: " + e.getMessage(), e);
+			}
+		}
 	}
 
 	@Override
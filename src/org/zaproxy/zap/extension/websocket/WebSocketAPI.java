@@ -0,0 +1,149 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.zaproxy.zap.extension.api.ApiAction;
+import org.zaproxy.zap.extension.api.ApiException;
+import org.zaproxy.zap.extension.api.ApiImplementor;
+import org.zaproxy.zap.extension.api.ApiResponse;
+import org.zaproxy.zap.extension.api.ApiResponseElement;
+import org.zaproxy.zap.extension.api.ApiResponseList;
+import org.zaproxy.zap.extension.api.ApiResponseSet;
+import org.zaproxy.zap.extension.api.ApiView;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.stats.LatencyHistogram;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketStatistics;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketTrafficStatistics;
+
+/**
+ * Exposes the {@link WebSocketStatistics} of all channels and of each
+ * channel. Durations are given in microseconds.
+ */
+public class WebSocketAPI extends ApiImplementor {
+
+	private static final String PREFIX = "websocket";
+
+	private static final String VIEW_STATS = "stats";
+	private static final String VIEW_CHANNEL_STATS = "channelStats";
+
+	private static final String ACTION_RESET_STATS = "resetStats";
+
+	private static final String PARAM_CHANNEL_ID = "channelId";
+
+	private static final int[] OPCODES = { WebSocketMessage.OPCODE_TEXT, WebSocketMessage.OPCODE_BINARY,
+			WebSocketMessage.OPCODE_CLOSE, WebSocketMessage.OPCODE_PING, WebSocketMessage.OPCODE_PONG };
+
+	private final WebSocketStatistics statistics;
+
+	public WebSocketAPI(WebSocketStatistics statistics) {
+		this.addApiView(new ApiView(VIEW_STATS));
+		this.addApiView(new ApiView(VIEW_CHANNEL_STATS, null, new String[] { PARAM_CHANNEL_ID }));
+
+		this.addApiAction(new ApiAction(ACTION_RESET_STATS));
+
+		this.statistics = statistics;
+	}
+
+	@Override
+	public String getPrefix() {
+		return PREFIX;
+	}
+
+	@Override
+	public ApiResponse handleApiAction(String name, JSONObject params) throws ApiException {
+		if (ACTION_RESET_STATS.equals(name)) {
+			statistics.reset();
+		} else {
+			throw new ApiException(ApiException.Type.BAD_ACTION);
+		}
+		return ApiResponseElement.OK;
+	}
+
+	@Override
+	public ApiResponse handleApiView(String name, JSONObject params) throws ApiException {
+		ApiResponse result;
+		switch (name) {
+		case VIEW_STATS:
+			result = new ApiResponseSet<String>(name, createStatisticsMap(statistics.getAggregate()));
+			break;
+		case VIEW_CHANNEL_STATS:
+			int channelId = getParam(params, PARAM_CHANNEL_ID, -1);
+			if (channelId != -1) {
+				WebSocketTrafficStatistics channelStatistics = statistics.getChannel(channelId);
+				if (channelStatistics == null) {
+					throw new ApiException(ApiException.Type.DOES_NOT_EXIST, PARAM_CHANNEL_ID);
+				}
+				result = createChannelSet(channelId, channelStatistics);
+			} else {
+				ApiResponseList resultList = new ApiResponseList(name);
+				for (Map.Entry<Integer, WebSocketTrafficStatistics> entry : statistics.getChannels().entrySet()) {
+					resultList.addItem(createChannelSet(entry.getKey(), entry.getValue()));
+				}
+				result = resultList;
+			}
+			break;
+		default:
+			throw new ApiException(ApiException.Type.BAD_VIEW);
+		}
+		return result;
+	}
+
+	private static ApiResponseSet<String> createChannelSet(int channelId, WebSocketTrafficStatistics channelStatistics) {
+		Map<String, String> map = new HashMap<>();
+		map.put(PARAM_CHANNEL_ID, Integer.toString(channelId));
+		map.putAll(createStatisticsMap(channelStatistics));
+		return new ApiResponseSet<String>("channel", map);
+	}
+
+	private static Map<String, String> createStatisticsMap(WebSocketTrafficStatistics trafficStatistics) {
+		Map<String, String> map = new HashMap<>();
+		for (Direction direction : Direction.values()) {
+			String suffix = (direction == Direction.OUTGOING) ? "Outgoing" : "Incoming";
+			map.put("frames" + suffix, Long.toString(trafficStatistics.getFrameCount(direction)));
+			map.put("bytes" + suffix, Long.toString(trafficStatistics.getByteCount(direction)));
+			for (int opcode : OPCODES) {
+				String opcodeName = WebSocketMessage.opcode2string(opcode).toLowerCase(Locale.ROOT);
+				map.put(opcodeName + "Frames" + suffix, Long.toString(trafficStatistics.getFrameCount(direction, opcode)));
+				map.put(opcodeName + "Bytes" + suffix, Long.toString(trafficStatistics.getByteCount(direction, opcode)));
+			}
+		}
+		putHistogram(map, "dispatchTime", trafficStatistics.getDispatchTime());
+		putHistogram(map, "forwardLatency", trafficStatistics.getForwardLatency());
+		putHistogram(map, "storageLag", trafficStatistics.getStorageLag());
+		return map;
+	}
+
+	private static void putHistogram(Map<String, String> map, String name, LatencyHistogram histogram) {
+		map.put(name + "Count", Long.toString(histogram.getCount()));
+		map.put(name + "Mean", toMicros(histogram.getMean()));
+		map.put(name + "P50", toMicros(histogram.getPercentile(50)));
+		map.put(name + "P99", toMicros(histogram.getPercentile(99)));
+		map.put(name + "Max", toMicros(histogram.getMax()));
+	}
+
+	private static String toMicros(long nanos) {
+		return Long.toString(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+}
@@ -33,6 +33,12 @@ public class WebSocketListener implements Runnable {
 
 	private static final Logger logger = Logger.getLogger(WebSocketListener.class);
 
+	/**
+	 * Maximum length of a frame header: 2 bytes, 8 bytes extended payload
+	 * length and 4 bytes mask.
+	 */
+	private static final int MAX_FRAME_HEADER_LENGTH = 14;
+
 	/**
 	 * Listen from one side of this communication channel.
 	 */
@@ -87,6 +93,13 @@ public class WebSocketListener implements Runnable {
 				while (in.read(buffer) != -1) {
 					// there is something to read => process in WebSockets version specific message
 					wsProxy.processRead(in, out, buffer[0]);
+
+					if (out != null && !isFrameAvailable(in)) {
+						// reading the next frame might block, send the coalesced ones
+						// (the proxy flushes too before calling observers, which
+						// might block as well)
+						out.flush();
+					}
 				}
 			}
 		} catch (IOException e) {
@@ -102,6 +115,42 @@ public class WebSocketListener implements Runnable {
 		}
 	}
 
+	/**
+	 * Tells whether the next frame has completely arrived, such that it can be
+	 * read without blocking. Peeks at the frame header, streams not
+	 * supporting marks are assumed to block.
+	 * 
+	 * @param in
+	 * @return {@code true} if the whole frame is available
+	 * @throws IOException
+	 */
+	static boolean isFrameAvailable(InputStream in) throws IOException {
+		int available = in.available();
+		if (available < 2 || !in.markSupported()) {
+			return false;
+		}
+
+		in.mark(MAX_FRAME_HEADER_LENGTH);
+		try {
+			in.read();
+			int lengthByte = in.read();
+			int payloadLength = lengthByte & 0x7F;
+			int lengthBytes = (payloadLength == 126) ? 2 : (payloadLength == 127) ? 8 : 0;
+			int headerLength = 2 + lengthBytes + ((lengthByte & 0x80) != 0 ? 4 : 0);
+			if (available < headerLength) {
+				return false;
+			}
+
+			long length = (lengthBytes == 0) ? payloadLength : 0;
+			for (int i = 0; i < lengthBytes; i++) {
+				length = (length << 8) | in.read();
+			}
+			return length >= 0 && available - headerLength >= length;
+		} finally {
+			in.reset();
+		}
+	}
+
 	/**
 	 * Properly close incoming stream.
 	 */
@@ -23,6 +23,8 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 
+import org.zaproxy.zap.extension.websocket.utility.SpilledPayload;
+
 /**
  * Represents a single WebSocket message, consisting of at least one frame.
  * <p>
@@ -69,6 +71,11 @@ public abstract class WebSocketMessage {
 	 * Indicating when this message was received.
 	 */
 	protected Timestamp timestamp;
+
+	/**
+	 * Number of bytes of the frame read last, including its header.
+	 */
+	protected int lastFrameLength;
 	
 	// WebSocket OpCodes - int's are used instead of a enum's for extensibility.
 
@@ -195,7 +202,8 @@ public abstract class WebSocketMessage {
 	}
 
 	/**
-	 * Write all frames of this message to given stream.
+	 * Write all frames of this message to given stream. The stream is not
+	 * flushed, callers flush once there is nothing more to forward right away.
 	 * 
 	 * @param out
 	 * @return True if successfully forwarded.
@@ -212,6 +220,39 @@ public abstract class WebSocketMessage {
 	 */
 	public abstract void readContinuation(InputStream in, byte frameHeader) throws IOException;
 
+	/**
+	 * Releases the payload of frames already forwarded, keeping at least the
+	 * given number of bytes from the beginning of the payload.
+	 * <p>
+	 * Called for unfinished messages whose observers do not need the whole
+	 * payload (see {@link WebSocketStreamingObserver}). Does nothing by
+	 * default.
+	 * 
+	 * @param retainedLength number of payload bytes to keep
+	 */
+	public void releaseForwardedPayload(int retainedLength) {
+	}
+
+	/**
+	 * Releases the resources held by the payload (e.g. the file of a large
+	 * payload), called once the finished message was forwarded and processed
+	 * by the observers. The payload is empty afterwards. Does nothing by
+	 * default.
+	 */
+	public void releasePayload() {
+	}
+
+	/**
+	 * Returns the payload kept in a file, such that
+	 * {@link #getDTO()} does not copy it onto the heap.
+	 * 
+	 * @return payload of the finished message, or {@code null} if the payload
+	 *         is on the heap (the default)
+	 */
+	protected SpilledPayload getSpilledPayload() {
+		return null;
+	}
+
 	/**
 	 * Returns the status code if the message's opcode is a
 	 * {@link WebSocketMessage#OPCODE_CLOSE}.
@@ -290,6 +331,13 @@ public abstract class WebSocketMessage {
 		return isFinished;
 	}
 
+	/**
+	 * @return number of bytes of the frame read last, including its header
+	 */
+	public int getLastFrameLength() {
+		return lastFrameLength;
+	}
+
 	/**
 	 * @return readable representation of this messages opcode
 	 */
@@ -443,7 +491,12 @@ public abstract class WebSocketMessage {
 		dto.opcode = getOpcode();
 		dto.readableOpcode = getOpcodeString();
 
-		if (isBinary()) {
+		SpilledPayload spilledPayload = getSpilledPayload();
+		dto.spilledPayload = spilledPayload;
+		if (spilledPayload != null) {
+			// read from the file when needed, see WebSocketMessageDTO#materialisePayload()
+			dto.payload = null;
+		} else if (isBinary()) {
 			dto.payload = getPayload();
 		} else {
 			dto.payload = getReadablePayload();
@@ -17,13 +17,16 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 
 import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
+import org.zaproxy.zap.extension.websocket.utility.SpilledPayload;
 import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
 
 /**
@@ -32,6 +35,8 @@ import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
  * {@link WebSocketMessage}.
  */
 public class WebSocketMessageDTO implements Message {
+
+	private static final Logger logger = Logger.getLogger(WebSocketMessageDTO.class);
 	
 	/**
 	 * Each message is sent on a specific connection. Ensure that it is not
@@ -74,6 +79,15 @@ public class WebSocketMessageDTO implements Message {
 	 */
 	public Object payload;
 
+	/**
+	 * Large payload kept in a temporary file, set by
+	 * {@link WebSocketMessage#getDTO()} instead of {@link #payload} (which is
+	 * {@code null} then), such that it is not copied onto the heap unless
+	 * needed (see {@link #materialisePayload()}). Holders using it after the
+	 * message was forwarded have to {@link SpilledPayload#retain() retain} it.
+	 */
+	public SpilledPayload spilledPayload;
+
 	/**
 	 * For close messages, there is always a reason.
 	 */
@@ -93,6 +107,14 @@ public class WebSocketMessageDTO implements Message {
 	 * Temporary object holding arbitrary values.
 	 */
 	public volatile Object tempUserObj;
+
+	/**
+	 * Number of messages written to the database up to and including this one
+	 * (see {@link org.zaproxy.zap.extension.websocket.db.TableWebSocket#getWrittenMessageCount()}),
+	 * {@code 0} while not yet written, {@code -1} if it is not written (e.g.
+	 * its channel was purged meanwhile).
+	 */
+	public volatile long writtenMessageCount;
 	
 	/**
 	 * Used to format {@link WebSocketMessage#timestamp} in user's locale.
@@ -165,10 +187,12 @@ public class WebSocketMessageDTO implements Message {
 		other.id = this.id;
 		other.opcode = this.opcode;
 		other.payload = this.payload;
+		other.spilledPayload = this.spilledPayload;
 		other.payloadLength = this.payloadLength;
 		other.readableOpcode = this.readableOpcode;
 		other.tempUserObj = this.tempUserObj;
 		other.timestamp = this.timestamp;
+		other.writtenMessageCount = this.writtenMessageCount;
 	}
 	
 	@Override
@@ -186,6 +210,7 @@ public class WebSocketMessageDTO implements Message {
 	 * @throws InvalidUtf8Exception 
 	 */
 	public String getReadablePayload() throws InvalidUtf8Exception {
+		materialisePayload();
 		if (payload instanceof String) {
 			return (String) payload;
 		} else if (payload instanceof byte[]){
@@ -195,6 +220,35 @@ public class WebSocketMessageDTO implements Message {
 		}
 	}
 	
+	/**
+	 * Reads the {@link #spilledPayload} into {@link #payload}, if not yet
+	 * done. The payload is empty if it was already released.
+	 */
+	public void materialisePayload() {
+		SpilledPayload currentSpilledPayload = spilledPayload;
+		if (payload != null || currentSpilledPayload == null) {
+			return;
+		}
+
+		byte[] bytes;
+		try {
+			bytes = currentSpilledPayload.toArray(payloadLength);
+		} catch (IOException e) {
+			logger.warn("Failed to read large payload of message " + id + ": " + e.getMessage());
+			bytes = new byte[0];
+		}
+
+		if (opcode != null && opcode == WebSocketMessage.OPCODE_BINARY) {
+			payload = bytes;
+		} else {
+			try {
+				payload = Utf8Util.encodePayloadToUtf8(bytes);
+			} catch (InvalidUtf8Exception e) {
+				payload = "<invalid UTF-8>";
+			}
+		}
+	}
+	
 	public boolean isForceIntercept() {
 		// Not currently supported for WebSockets
 		return false;
@@ -0,0 +1,314 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+
+/**
+ * Immutable list of {@link WebSocketObserver}s, sorted by their
+ * {@link WebSocketObserver#getObservingOrder() observing order}.
+ * <p>
+ * Adding or removing an observer creates a new pipeline with a new version,
+ * such that messages are dispatched without locking, while observers are
+ * changed concurrently. The time spent in each observer is counted, see
+ * {@link #getStatistics(int)}.
+ */
+public final class WebSocketObserverPipeline {
+
+	private static final Logger logger = Logger.getLogger(WebSocketObserverPipeline.class);
+
+	private static final AtomicLong VERSION_GENERATOR = new AtomicLong();
+
+	/**
+	 * Pipeline without observers.
+	 */
+	public static final WebSocketObserverPipeline EMPTY = new WebSocketObserverPipeline(
+			new WebSocketObserver[0], new ObserverStatistics[0], 0, 0);
+
+	private static final Comparator<WebSocketObserver> OBSERVERS_COMPARATOR = new Comparator<WebSocketObserver>() {
+
+		@Override
+		public int compare(WebSocketObserver o1, WebSocketObserver o2) {
+			int order1 = o1.getObservingOrder();
+			int order2 = o2.getObservingOrder();
+
+			if (order1 < order2) {
+				return -1;
+			} else if (order1 > order2) {
+				return 1;
+			}
+
+			return 0;
+		}
+	};
+
+	private final WebSocketObserver[] observers;
+
+	private final ObserverStatistics[] statistics;
+
+	private final long version;
+
+	/**
+	 * Versions of the pipelines this one was merged from, see
+	 * {@link #merge(WebSocketObserverPipeline)}.
+	 */
+	private final long sourceVersion;
+	private final long otherSourceVersion;
+
+	private final int streamingPrefixLength;
+
+	private WebSocketObserverPipeline(WebSocketObserver[] observers, ObserverStatistics[] statistics,
+			long sourceVersion, long otherSourceVersion) {
+		this.observers = observers;
+		this.statistics = statistics;
+		this.version = (observers.length == 0) ? 0 : VERSION_GENERATOR.incrementAndGet();
+		this.sourceVersion = sourceVersion;
+		this.otherSourceVersion = otherSourceVersion;
+
+		int prefixLength = 0;
+		for (WebSocketObserver observer : observers) {
+			if (!(observer instanceof WebSocketStreamingObserver)) {
+				prefixLength = -1;
+				break;
+			}
+			prefixLength = Math.max(prefixLength, ((WebSocketStreamingObserver) observer).getPayloadPrefixLength());
+		}
+		this.streamingPrefixLength = prefixLength;
+	}
+
+	/**
+	 * Returns a new pipeline that contains also the given observer. Observers
+	 * with the same observing order are notified in the order they were added.
+	 * 
+	 * @param observer
+	 * @return new pipeline
+	 */
+	public WebSocketObserverPipeline with(WebSocketObserver observer) {
+		int index = observers.length;
+		while (index > 0 && OBSERVERS_COMPARATOR.compare(observers[index - 1], observer) > 0) {
+			index--;
+		}
+
+		WebSocketObserver[] newObservers = new WebSocketObserver[observers.length + 1];
+		ObserverStatistics[] newStatistics = new ObserverStatistics[observers.length + 1];
+		System.arraycopy(observers, 0, newObservers, 0, index);
+		System.arraycopy(statistics, 0, newStatistics, 0, index);
+		newObservers[index] = observer;
+		newStatistics[index] = new ObserverStatistics();
+		System.arraycopy(observers, index, newObservers, index + 1, observers.length - index);
+		System.arraycopy(statistics, index, newStatistics, index + 1, observers.length - index);
+
+		return new WebSocketObserverPipeline(newObservers, newStatistics, 0, 0);
+	}
+
+	/**
+	 * Returns a new pipeline without the given observer, or this pipeline if
+	 * it does not contain the observer.
+	 * 
+	 * @param observer
+	 * @return pipeline without the observer
+	 */
+	public WebSocketObserverPipeline without(WebSocketObserver observer) {
+		int index = -1;
+		for (int i = 0; i < observers.length; i++) {
+			if (observers[i].equals(observer)) {
+				index = i;
+				break;
+			}
+		}
+		if (index == -1) {
+			return this;
+		}
+		if (observers.length == 1) {
+			return EMPTY;
+		}
+
+		WebSocketObserver[] newObservers = new WebSocketObserver[observers.length - 1];
+		ObserverStatistics[] newStatistics = new ObserverStatistics[observers.length - 1];
+		System.arraycopy(observers, 0, newObservers, 0, index);
+		System.arraycopy(statistics, 0, newStatistics, 0, index);
+		System.arraycopy(observers, index + 1, newObservers, index, observers.length - index - 1);
+		System.arraycopy(statistics, index + 1, newStatistics, index, observers.length - index - 1);
+
+		return new WebSocketObserverPipeline(newObservers, newStatistics, 0, 0);
+	}
+
+	/**
+	 * Returns a pipeline with the observers of both pipelines. The statistics
+	 * of the observers are shared with the given pipelines.
+	 * 
+	 * @param other
+	 * @return merged pipeline
+	 * @see #isMergeOf(WebSocketObserverPipeline, WebSocketObserverPipeline)
+	 */
+	public WebSocketObserverPipeline merge(WebSocketObserverPipeline other) {
+		if (other.isEmpty()) {
+			return this;
+		} else if (isEmpty()) {
+			return other;
+		}
+
+		int length = observers.length + other.observers.length;
+		WebSocketObserver[] newObservers = new WebSocketObserver[length];
+		ObserverStatistics[] newStatistics = new ObserverStatistics[length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < length; k++) {
+			// stable merge, observers of this pipeline go first on equal order
+			if (j == other.observers.length
+					|| (i < observers.length && OBSERVERS_COMPARATOR.compare(observers[i], other.observers[j]) <= 0)) {
+				newObservers[k] = observers[i];
+				newStatistics[k] = statistics[i];
+				i++;
+			} else {
+				newObservers[k] = other.observers[j];
+				newStatistics[k] = other.statistics[j];
+				j++;
+			}
+		}
+
+		return new WebSocketObserverPipeline(newObservers, newStatistics, version, other.version);
+	}
+
+	/**
+	 * Tells whether or not this pipeline is the result of merging the given
+	 * pipelines, i.e. it does not have to be merged again.
+	 * 
+	 * @param source
+	 * @param other
+	 * @return {@code true} if the pipeline contains the observers of both
+	 */
+	public boolean isMergeOf(WebSocketObserverPipeline source, WebSocketObserverPipeline other) {
+		if (other.isEmpty()) {
+			return this == source;
+		} else if (source.isEmpty()) {
+			return this == other;
+		}
+		return sourceVersion == source.version && otherSourceVersion == other.version;
+	}
+
+	/**
+	 * Call each observer as long as no observer has told us to drop the
+	 * message.
+	 * 
+	 * @param channelId
+	 * @param message
+	 * @return {@code false} if message should be dropped
+	 */
+	public boolean notifyMessageObservers(int channelId, WebSocketMessage message) {
+		for (int i = 0; i < observers.length; i++) {
+			long start = System.nanoTime();
+			try {
+				if (!observers[i].onMessageFrame(channelId, message)) {
+					return false;
+				}
+			} catch (Exception e) {
+				logger.warn(e.getMessage(), e);
+			} finally {
+				statistics[i].record(System.nanoTime() - start);
+			}
+		}
+		return true;
+	}
+
+	public void notifyStateObservers(State state, WebSocketProxy proxy) {
+		for (WebSocketObserver observer : observers) {
+			observer.onStateChange(state, proxy);
+		}
+	}
+
+	public boolean isEmpty() {
+		return observers.length == 0;
+	}
+
+	public int size() {
+		return observers.length;
+	}
+
+	/**
+	 * @return version of this pipeline, unique for pipelines with observers
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Number of payload bytes retained from fragmented messages.
+	 * 
+	 * @return number of bytes, or -1 if an observer needs the whole payload
+	 * @see WebSocketStreamingObserver
+	 */
+	public int getStreamingPrefixLength() {
+		return streamingPrefixLength;
+	}
+
+	public WebSocketObserver getObserver(int index) {
+		return observers[index];
+	}
+
+	public ObserverStatistics getStatistics(int index) {
+		return statistics[index];
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocketObserverPipeline#" + version + Arrays.toString(observers);
+	}
+
+	/**
+	 * Time spent by an observer to process message frames, in nanoseconds.
+	 */
+	public static final class ObserverStatistics {
+
+		private final AtomicLong frameCount = new AtomicLong();
+		private final AtomicLong totalTime = new AtomicLong();
+		private final AtomicLong maxTime = new AtomicLong();
+
+		void record(long time) {
+			frameCount.incrementAndGet();
+			totalTime.addAndGet(time);
+
+			long max = maxTime.get();
+			while (time > max && !maxTime.compareAndSet(max, time)) {
+				max = maxTime.get();
+			}
+		}
+
+		public long getFrameCount() {
+			return frameCount.get();
+		}
+
+		public long getTotalTime() {
+			return totalTime.get();
+		}
+
+		public long getMaxTime() {
+			return maxTime.get();
+		}
+
+		public long getAverageTime() {
+			long count = frameCount.get();
+			return (count == 0) ? 0 : totalTime.get() / count;
+		}
+	}
+}
@@ -25,16 +25,16 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.sql.Timestamp;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.model.HistoryReference;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketTrafficStatistics;
+import org.zaproxy.zap.extension.websocket.utility.CoalescingOutputStream;
 
 /**
  * Intercepts WebSocket communication and forwards frames. Code is inspired by
@@ -66,11 +66,6 @@ public abstract class WebSocketProxy {
 	 */
 	private static AtomicInteger channelIdGenerator = new AtomicInteger(0);
 
-	/**
-	 * Used to determine when to call which {@link WebSocketObserver}.
-	 */
-	private static Comparator<WebSocketObserver> observersComparator;
-	
 	/**
 	 * State of this channel, start in {@link State#CONNECTING} and evolve over
 	 * time. Never set value to {@link State#EXCLUDED} or {@link State#INCLUDED}
@@ -116,9 +111,26 @@ public abstract class WebSocketProxy {
 	private WebSocketListener localListener;
 
 	/**
-	 * List of observers, that are informed of in- or outgoing messages.
+	 * Observers of this channel only, that are informed of in- or outgoing
+	 * messages. Replaced on change, never modified.
+	 */
+	private volatile WebSocketObserverPipeline channelObservers;
+
+	/**
+	 * Observers shared by all channels, might be {@code null}.
+	 */
+	private volatile AtomicReference<WebSocketObserverPipeline> sharedObservers;
+
+	/**
+	 * Merge of {@link #channelObservers} and {@link #sharedObservers}, rebuilt
+	 * when one of them has changed.
+	 */
+	private volatile WebSocketObserverPipeline observers;
+
+	/**
+	 * Counts frames and timings of this channel, might be {@code null}.
 	 */
-	private Vector<WebSocketObserver> observerList;
+	private volatile WebSocketTrafficStatistics statistics;
 
 	/**
 	 * Contains link to handshake message.
@@ -164,6 +176,15 @@ public abstract class WebSocketProxy {
 		channelIdGenerator.set(currentChannelCount);
 	}
 
+	/**
+	 * Reserves a channel ID, e.g. for channels imported into the session.
+	 * 
+	 * @return ID not used by any other channel of this session
+	 */
+	public static int nextChannelId() {
+		return channelIdGenerator.incrementAndGet();
+	}
+
 	/**
 	 * Factory method to create appropriate version.
 	 * 
@@ -266,10 +287,11 @@ public abstract class WebSocketProxy {
 		this.remoteSocket = remoteSocket;
 		
 		unfinishedMessages = new HashMap<>();
-		observerList = new Vector<>();
+		channelObservers = WebSocketObserverPipeline.EMPTY;
+		observers = WebSocketObserverPipeline.EMPTY;
 		
 		// create unique identifier for this WebSocket connection
-		channelId = channelIdGenerator.incrementAndGet();
+		channelId = nextChannelId();
 		messageIdGenerator = new AtomicInteger(0);
 		host = targetHost;
 		port = targetPort;
@@ -300,6 +322,14 @@ public abstract class WebSocketProxy {
 		
 		state = newState;
 		
+		if (newState == State.CLOSED) {
+			WebSocketTrafficStatistics currentStatistics = statistics;
+			if (currentStatistics != null) {
+				// keep just the aggregate of closed channels
+				currentStatistics.close();
+			}
+		}
+		
 		if (!isForwardOnly) {
 			notifyStateObservers(state);
 		}
@@ -379,7 +409,7 @@ public abstract class WebSocketProxy {
 			OutputStream writer = null;
 			Socket writeSocket = getOppositeSocket(readEnd);
 			if (writeSocket != null) {
-				writer = writeSocket.getOutputStream();
+				writer = new CoalescingOutputStream(writeSocket.getOutputStream());
 			}
 
 			String name = "ZAP-WS-Listener (" + side + ") '" + toString() + "'";
@@ -458,6 +488,11 @@ public abstract class WebSocketProxy {
 				logger.warn(e.getMessage(), e);
 			}
 			
+			for (WebSocketMessage message : unfinishedMessages.values()) {
+				message.releasePayload();
+			}
+			unfinishedMessages.clear();
+			
 			setState(State.CLOSED);
 		}
 	}
@@ -474,7 +509,9 @@ public abstract class WebSocketProxy {
 
 	/**
 	 * Read one frame from given input stream and forward it to given output
-	 * stream, if forwarding is allowed by WebSocket-observers.
+	 * stream, if forwarding is allowed by WebSocket-observers. Frames still
+	 * coalesced in the output stream are flushed before the observers are
+	 * notified, as these might block.
 	 * 
 	 * @param in Here comes the frame.
 	 * @param out There should it be forwarded.
@@ -482,6 +519,7 @@ public abstract class WebSocketProxy {
 	 * @throws IOException
 	 */
 	public void processRead(InputStream in, OutputStream out, byte frameHeader) throws IOException {
+		long start = System.nanoTime();
 		WebSocketMessage message = null;
 	
 		int opcode = (frameHeader & 0x0F); // last 4 bits represent opcode
@@ -523,12 +561,48 @@ public abstract class WebSocketProxy {
 			}
 		}
 		
+		WebSocketTrafficStatistics currentStatistics = statistics;
+		if (currentStatistics != null) {
+			currentStatistics.recordFrame(message.getDirection(), message.getOpcode(), message.getLastFrameLength());
+		}
+
 		// do not buffer frames until message is finished,
 		// as messages might have several MegaBytes!
-		if (isForwardOnly || notifyMessageObservers(message)) {
-			// skip forwarding only if observer told us to skip this message (frame)
-			message.forward(out);
-		}	
+		try {
+			boolean forward = true;
+			if (!isForwardOnly) {
+				// observers might block (e.g. on a breakpoint), send the
+				// frames forwarded before
+				flush(out);
+				long dispatchStart = System.nanoTime();
+				forward = notifyMessageObservers(message);
+				if (currentStatistics != null) {
+					currentStatistics.recordDispatchTime(System.nanoTime() - dispatchStart);
+				}
+			}
+	
+			if (forward) {
+				// skip forwarding only if observer told us to skip this message (frame)
+				message.forward(out);
+				if (currentStatistics != null) {
+					currentStatistics.recordForwardLatency(System.nanoTime() - start);
+				}
+			}
+		} finally {
+			if (message.isFinished()) {
+				// e.g. deletes the file of a large payload, unless still
+				// retained by the storage
+				message.releasePayload();
+			}
+		}
+		
+		if (!message.isFinished()) {
+			int prefixLength = isForwardOnly ? 0 : getObservers().getStreamingPrefixLength();
+			if (prefixLength >= 0) {
+				// nobody needs the whole payload, keep memory constant
+				message.releaseForwardedPayload(prefixLength);
+			}
+		}
 	}
 
 	/**
@@ -545,6 +619,7 @@ public abstract class WebSocketProxy {
 		
 		WebSocketMessage message = createWebSocketMessage(in, frameHeader);
 		if (!isForwardOnly) {
+			flush(out);
 			if (!notifyMessageObservers(message)) {
 				logger.warn("Ignore observer's wish to skip forwarding as we have received an invalid frame!");
 			}
@@ -552,6 +627,18 @@ public abstract class WebSocketProxy {
 		message.forward(out);
 	}
 
+	/**
+	 * Writes the frames coalesced in the given stream, if any.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	private static void flush(OutputStream out) throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+	}
+
 	/**
 	 * @param in Read bytes from here.
 	 * @param frameHeader First byte of frame, containing FIN flag and opcode.
@@ -628,16 +715,7 @@ public abstract class WebSocketProxy {
 	 * @return False if message should be dropped.
 	 */
 	protected boolean notifyMessageObservers(WebSocketMessage message) {
-		for (WebSocketObserver observer : observerList) {
-			try {
-			    if (!observer.onMessageFrame(channelId, message)) {
-			    	return false;
-			    }
-			} catch (Exception e) {
-				logger.warn(e.getMessage(), e);
-			}
-		}
-		return true;
+		return getObservers().notifyMessageObservers(channelId, message);
 	}
 
 	/**
@@ -646,9 +724,7 @@ public abstract class WebSocketProxy {
 	 * blacklisted {@link State#INCLUDED} or vice-versa {@link State#EXCLUDED}.
 	 */
 	protected void notifyStateObservers(State state) {
-		for (WebSocketObserver observer : observerList) {
-			observer.onStateChange(state, this);
-		}
+		getObservers().notifyStateObservers(state, this);
 	}
 	
 	/**
@@ -656,9 +732,8 @@ public abstract class WebSocketProxy {
 	 * 
 	 * @param observer
 	 */
-	public void addObserver(WebSocketObserver observer) {
-		observerList.add(observer);
-		Collections.sort(observerList, getObserversComparator());
+	public synchronized void addObserver(WebSocketObserver observer) {
+		channelObservers = channelObservers.with(observer);
 	}
 	
 	/**
@@ -666,42 +741,49 @@ public abstract class WebSocketProxy {
 	 * 
 	 * @param observer
 	 */
-	public void removeObserver(WebSocketObserver observer) {
-		observerList.remove(observer);
+	public synchronized void removeObserver(WebSocketObserver observer) {
+		channelObservers = channelObservers.without(observer);
 	}
-    
+
 	/**
-	 * Returns the comparator used for determining order of notification.
+	 * Set observers that are shared by all channels, in addition to the ones
+	 * added via {@link #addObserver(WebSocketObserver)}. Changes to the
+	 * reference are picked up with the next message.
 	 * 
-	 * @return
+	 * @param allChannelObservers
 	 */
-	private static Comparator<WebSocketObserver> getObserversComparator() {
-		if(observersComparator == null) {
-			createObserversComparator();
-		}
-		
-		return observersComparator;
+	public void setAllChannelObservers(AtomicReference<WebSocketObserverPipeline> allChannelObservers) {
+		sharedObservers = allChannelObservers;
 	}
-	
-	private static synchronized void createObserversComparator() {
-		if (observersComparator == null) {
-			observersComparator = new Comparator<WebSocketObserver>() {
-				
-				@Override
-				public int compare(WebSocketObserver o1, WebSocketObserver o2) {
-					int order1 = o1.getObservingOrder();
-					int order2 = o2.getObservingOrder();
-					
-					if (order1 < order2) {
-						return -1;
-					} else if (order1 > order2) {
-						return 1;
-					}
-					
-					return 0;
-				}
-			};
+
+	/**
+	 * Set the object that counts frames and timings of this channel.
+	 * 
+	 * @param statistics might be {@code null} to stop counting
+	 */
+	public void setStatistics(WebSocketTrafficStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Returns the observers that are currently informed about this channel,
+	 * sorted by their observing order. Does not lock, as pipelines are never
+	 * modified.
+	 * 
+	 * @return current observers
+	 */
+	public WebSocketObserverPipeline getObservers() {
+		WebSocketObserverPipeline own = channelObservers;
+		AtomicReference<WebSocketObserverPipeline> sharedReference = sharedObservers;
+		WebSocketObserverPipeline shared = (sharedReference == null) ? WebSocketObserverPipeline.EMPTY : sharedReference.get();
+
+		WebSocketObserverPipeline current = observers;
+		if (!current.isMergeOf(shared, own)) {
+			// a racing thread might merge the same pipelines, which is harmless
+			current = shared.merge(own);
+			observers = current;
 		}
+		return current;
 	}
 
 	public int getChannelId() {
@@ -769,27 +851,64 @@ public abstract class WebSocketProxy {
 		}
 	
 		if (message.forward(out)) {
+			out.flush();
 			notifyMessageObservers(message);
 		}
 	}
 
 	public boolean send(WebSocketMessageDTO msg) throws IOException {
+		return send(msg, true);
+	}
+
+	/**
+	 * Sends a custom message, without informing {@link WebSocketObserver}
+	 * instances.
+	 * 
+	 * @param msg
+	 * @param flush {@code false} to leave the message in the output buffer,
+	 *            e.g. if further messages follow, see {@link #flush(boolean)}
+	 * @return True if successfully forwarded.
+	 * @throws IOException
+	 */
+	public boolean send(WebSocketMessageDTO msg, boolean flush) throws IOException {
 		if (logger.isDebugEnabled()) {
 			logger.debug("sending custom message");
 		}
 		WebSocketMessage message = createWebSocketMessage(msg);
 
-		OutputStream out;
-		if (msg.isOutgoing) {
+		OutputStream out = getOutputStream(msg.isOutgoing);
+		if (message.forward(out)) {
+			if (flush) {
+				out.flush();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes messages left in the output buffer by
+	 * {@link #send(WebSocketMessageDTO, boolean)}.
+	 * 
+	 * @param isOutgoing {@code true} to flush the stream to the server,
+	 *            {@code false} for the one to the browser
+	 * @throws IOException
+	 */
+	public void flush(boolean isOutgoing) throws IOException {
+		OutputStream out = getOutputStream(isOutgoing);
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	private OutputStream getOutputStream(boolean isOutgoing) {
+		if (isOutgoing) {
 			// an outgoing message is caught by the local listener
 			// and forwarded to its output stream
-			out = localListener.getOutputStream();
-		} else {
-			// an incoming message is caught by the remote listener
-			out = remoteListener.getOutputStream();
+			return localListener.getOutputStream();
 		}
-
-		return message.forward(out);
+		// an incoming message is caught by the remote listener
+		return remoteListener.getOutputStream();
 	}
 
 	public boolean isClientMode() {
@@ -17,6 +17,7 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,9 +30,10 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Random;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
+import org.zaproxy.zap.extension.websocket.utility.PayloadBuffers;
+import org.zaproxy.zap.extension.websocket.utility.SpilledPayload;
 import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
 
 /**
@@ -78,80 +80,266 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		return new WebSocketMessageV13(this, message);
 	}
 
+	/**
+	 * Used to create masks of modified outgoing frames. One instance is shared
+	 * by all frames of this channel.
+	 */
+	private final Random maskGenerator = new Random();
+
+	/**
+	 * Buffers reused to decode and encode frames. Both ends of a channel are
+	 * read concurrently, therefore there is one instance per thread (i.e. per
+	 * listener) instead of one per frame.
+	 */
+	private static final ThreadLocal<FrameBuffers> FRAME_BUFFERS = new ThreadLocal<FrameBuffers>() {
+
+		@Override
+		protected FrameBuffers initialValue() {
+			return new FrameBuffers();
+		}
+	};
+
+	/**
+	 * Reusable header decoder and scratch buffer for masking payloads.
+	 */
+	private static final class FrameBuffers {
+
+		/**
+		 * Size of the chunks used to mask payloads while forwarding.
+		 */
+		private static final int MASKING_BUFFER_SIZE = 8192;
+
+		private final FrameHeaderDecoder headerDecoder = new FrameHeaderDecoder();
+
+		private final byte[] maskingBuffer = new byte[MASKING_BUFFER_SIZE];
+	}
+
+	/**
+	 * Reads the header of a frame (i.e. everything but the payload) into a
+	 * reusable array and decodes the payload length and mask.
+	 */
+	static final class FrameHeaderDecoder {
+
+		/**
+		 * At maximum 2 bytes + 8 bytes extended payload length + 4 bytes mask.
+		 */
+		private static final int MAX_HEADER_LENGTH = 14;
+
+		/**
+		 * Payloads are held in one buffer and the frame length in an
+		 * {@code int}, longer frames are not supported.
+		 */
+		static final int MAX_PAYLOAD_LENGTH = Integer.MAX_VALUE - MAX_HEADER_LENGTH;
+
+		private final byte[] header = new byte[MAX_HEADER_LENGTH];
+
+		private int headerLength;
+
+		private boolean isMasked;
+
+		private int payloadLength;
+
+		/**
+		 * Reads the remaining header bytes of the frame, whose first byte is
+		 * given.
+		 * 
+		 * @param in
+		 * @param frameHeader
+		 * @throws WebSocketException if the payload length is invalid or
+		 *             exceeds {@link #MAX_PAYLOAD_LENGTH}
+		 * @throws IOException
+		 */
+		public void decode(InputStream in, byte frameHeader) throws IOException {
+			header[0] = frameHeader;
+			readFully(in, header, 1, 1);
+			headerLength = 2;
+
+			byte payloadByte = header[1];
+
+			// most significant bit of second byte is MASK flag
+			isMasked = (payloadByte >> 7 & 0x1) == 1;
+
+			long length = (payloadByte & 0x7F);
+
+			// multiple bytes for payload length are submitted in network byte order (MSB first)
+			if (length >= WebSocketMessageV13.PAYLOAD_LENGTH_16) {
+				// payload length is between 126-65535 bytes represented by 2 bytes or
+				// between 65536-2^63 bytes represented by 8 bytes (most significant bit must be zero)
+				int bytesToRetrieve = (length == WebSocketMessageV13.PAYLOAD_LENGTH_16) ? 2 : 8;
+				readFully(in, header, headerLength, bytesToRetrieve);
+
+				length = 0;
+				for (int i = 0; i < bytesToRetrieve; i++) {
+					// shift previous bits left and add next byte
+					length = (length << 8) | (header[headerLength + i] & 0xFF);
+				}
+				headerLength += bytesToRetrieve;
+
+				if (length < 0) {
+					throw new WebSocketException("Invalid WebSocket frame, most significant bit of payload length is set.");
+				}
+				if (length > MAX_PAYLOAD_LENGTH) {
+					throw new WebSocketException("WebSocket frame with payload of " + length + " bytes is not supported.");
+				}
+			}
+			payloadLength = (int) length;
+
+			if (isMasked) {
+				// read 4 bytes mask
+				readFully(in, header, headerLength, 4);
+				headerLength += 4;
+			}
+		}
+
+		public boolean isMasked() {
+			return isMasked;
+		}
+
+		public int getPayloadLength() {
+			return payloadLength;
+		}
+
+		public int getHeaderLength() {
+			return headerLength;
+		}
+
+		/**
+		 * @return offset of the mask within the header
+		 */
+		public int getMaskOffset() {
+			return headerLength - 4;
+		}
+
+		public byte[] getHeader() {
+			return header;
+		}
+
+		/**
+		 * @return copy of the header bytes read
+		 */
+		public byte[] copyHeader() {
+			return Arrays.copyOf(header, headerLength);
+		}
+	}
+
+	/**
+	 * Reads given length from the given stream into the given array.
+	 * 
+	 * @param in {@link InputStream} to read from.
+	 * @param buffer the array the bytes are read into
+	 * @param offset position of the first byte in the array
+	 * @param length Determines how much bytes should be read from the given stream.
+	 * @throws IOException if the end of the stream was reached before
+	 */
+	private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int bytesRead = 0;
+		while (bytesRead < length) {
+			int read = in.read(buffer, offset + bytesRead, length - bytesRead);
+			if (read == -1) {
+				throw new EOFException("End of stream reached while reading WebSocket frame.");
+			}
+			bytesRead += read;
+		}
+	}
+
+	/**
+	 * XORs the given bytes continuously with the given 4 bytes mask.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param mask
+	 * @param maskOffset position of the mask in its array
+	 * @param maskPosition index of mask byte applied to the first byte
+	 */
+	private static void applyMask(byte[] bytes, int offset, int length, byte[] mask, int maskOffset, int maskPosition) {
+		for (int i = 0; i < length; i++) {
+			bytes[offset + i] = (byte) (bytes[offset + i] ^ mask[maskOffset + ((maskPosition + i) & 0x3)]);
+		}
+	}
+
 	/**
 	 * Version 13 specific WebSockets message.
 	 */
 	protected class WebSocketMessageV13 extends WebSocketMessage {
 		
 		/**
-		 * One message can consist of several frames.
+		 * One message can consist of several frames. A frame does not hold a
+		 * copy of its payload, but refers to the unmasked bytes in the
+		 * message's payload buffer. Masked payloads are masked again with the
+		 * same mask on forwarding, such that the same bytes are sent.
 		 */
 		private class WebSocketFrameV13 {
-		    private final Random randomizer = new Random();
-			private ByteBuffer buffer;
-			private byte[] mask;
-			private boolean isMasked;
-			
+
 			/**
-			 * Prevent sending this frame several times.
+			 * Frame header including extended payload length and mask.
 			 */
-			private boolean isForwarded;
+			private final byte[] header;
+
+			private final boolean isMasked;
 
 			/**
-			 * After a frame is sealed, it cannot be changed
-			 * and data can be read by {@link WebSocketFrameV13#getBuffer()}.
+			 * Contains the payload if it differs from the message's payload
+			 * (e.g. for close frames), otherwise null.
 			 */
-			private boolean isSealed = false;
-			
+			private final byte[] payloadSource;
+
 			/**
-			 * Contains value of RSV1, RSV2 & RSV3.
+			 * Position of this frame's payload within its source.
 			 */
-			private int rsv;
+			private final int payloadOffset;
+
+			private final int payloadLength;
 			
-			public WebSocketFrameV13() {
-				buffer = ByteBuffer.allocate(4096);
-				isMasked = false;
-				mask = new byte[4];
+			/**
+			 * Prevent sending this frame several times.
+			 */
+			private boolean isForwarded;
+
+			/**
+			 * Creates a frame that was read.
+			 * 
+			 * @param header bytes read
+			 * @param isMasked
+			 * @param payloadSource null if payload is contained in message's payload buffer
+			 * @param payloadOffset
+			 * @param payloadLength
+			 */
+			public WebSocketFrameV13(byte[] header, boolean isMasked, byte[] payloadSource, int payloadOffset, int payloadLength) {
+				this.header = header;
+				this.isMasked = isMasked;
+				this.payloadSource = payloadSource;
+				this.payloadOffset = payloadOffset;
+				this.payloadLength = payloadLength;
 				isForwarded = false;
-				rsv = 0;
 			}
 
 			/**
 			 * Builds up a frame according to given payload. Sets header and
 			 * metadata (opcode, payload length, mask).
 			 * 
-			 * @param payload
+			 * @param payloadSource
+			 * @param payloadOffset
+			 * @param payloadLength
 			 */
-			public WebSocketFrameV13(ByteBuffer payload, Direction direction, boolean isFinished, int frameOpcode, int rsv) {
-				// at maximum 16 bytes are added as header data
-				buffer = ByteBuffer.allocate(payload.limit() + 16);
-				this.rsv = rsv;
-
-				int payloadLength = payload.limit();
-				if (direction.equals(Direction.OUTGOING)) {
-					isMasked = true;
-
-					mask = new byte[4];
-					randomizer.nextBytes(mask);
-					
-					// mask payload, by applying mask to each byte
-					int maskPosition = 0;
-					for (int i = 0; i < payloadLength; i++) {
-						payload.put(i, (byte) (payload.get(i) ^ mask[maskPosition]));
-						maskPosition = (maskPosition + 1) % 4;
-					}
-				} else {
-					isMasked = false;
-				}
-				
+			public WebSocketFrameV13(byte[] payloadSource, int payloadOffset, int payloadLength, Direction direction, boolean isFinished, int frameOpcode, int rsv) {
+				this.payloadSource = payloadSource;
+				this.payloadOffset = payloadOffset;
+				this.payloadLength = payloadLength;
+				isMasked = direction.equals(Direction.OUTGOING);
 				isForwarded = false;
 
+				// at maximum 14 bytes are added as header data
+				ByteBuffer buffer = ByteBuffer.allocate(FrameHeaderDecoder.MAX_HEADER_LENGTH);
+
 				byte finishedBits = (byte) (isFinished ? 0x80 : 0x00);
-				byte rsvBits = (byte) ((this.rsv & 0x07) << 4);
+				byte rsvBits = (byte) ((rsv & 0x07) << 4);
 				byte opcodeBits = (byte) (frameOpcode & 0x0F);
 				byte frameHeader = (byte) (finishedBits | rsvBits | opcodeBits);
 				buffer.put(frameHeader);
-				logger.debug("Frame header of newly created WebSocketFrame: " + getByteAsBitString(frameHeader));
+				if (logger.isDebugEnabled()) {
+					logger.debug("Frame header of newly created WebSocketFrame: " + getByteAsBitString(frameHeader));
+				}
 
 				if (payloadLength < PAYLOAD_LENGTH_16) {
 					buffer.put((byte) ((isMasked ? 0x80 : 0x00) | (payloadLength & 0x7F)));
@@ -164,109 +352,105 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				}
 				
 				if (isMasked) {
+					byte[] mask = new byte[4];
+					maskGenerator.nextBytes(mask);
 					buffer.put(mask);
 				}
 				
-				buffer.put(payload.array());
-				
-				seal();
-			}
-
-			public void put(byte b) throws WebSocketException {
-				if (isSealed) {
-					throw new WebSocketException("You cannot change a 'sealed' frame.");
-				}
-				buffer.put(b);
-			}
-
-			public void put(byte[] b) throws WebSocketException {
-				if (isSealed) {
-					throw new WebSocketException("You cannot change a 'sealed' frame.");
-				}
-				buffer.put(b);
-			}
-
-			public void setMasked(boolean isMasked) {
-				this.isMasked = isMasked;
+				header = Arrays.copyOf(buffer.array(), buffer.position());
 			}
 			
 			public boolean isMasked() {
 				return isMasked;
 			}
-
-			public void setMask(byte[] read) {
-				mask = read;
-			}
-
-			public byte getMaskAt(int index) {
-				return mask[index];
-			}
-
-			public int getFreeSpace() {
-				if (isSealed) {
-					return 0;
-				}
-				return buffer.capacity() - buffer.position();
-			}
-
-			public void reallocateFor(int bytesRead) throws WebSocketException {
-				if (isSealed) {
-					throw new WebSocketException("You cannot change size of 'sealed' frame's buffer.");
-				}
-				buffer = reallocate(buffer, buffer.position() + bytesRead);
-			}
 			
 			public boolean isForwarded() {
 				return isForwarded;
 			}
 
-			public void seal() {
-				if (!isSealed) {
-					buffer.flip();
-					isSealed  = true;
-				}
+			public void setForwarded(boolean isForwarded) {
+				this.isForwarded = isForwarded;
 			}
 
-			public byte[] getBuffer() throws WebSocketException {
-				if (!isSealed) {
-					throw new WebSocketException("You should call seal() on WebSocketFrame first, before getBuffer().");
+			/**
+			 * Writes header and (masked) payload to the given stream.
+			 * 
+			 * @param out
+			 * @throws IOException
+			 */
+			public void writeTo(OutputStream out) throws IOException {
+				if (payloadSource == null && !payload.hasArray()) {
+					out.write(header);
+					writeBufferedPayloadTo(out);
+					return;
 				}
-				byte[] result = new byte[buffer.limit()];
-				buffer.get(result);
-				return result;
-			}
+				byte[] source = (payloadSource != null) ? payloadSource : payload.array();
 
-			public void setForwarded(boolean isForwarded) {
-				this.isForwarded = isForwarded;
+				out.write(header);
+				if (!isMasked) {
+					out.write(source, payloadOffset, payloadLength);
+					return;
+				}
+
+				// mask chunk by chunk, as the payload itself must not be changed
+				byte[] maskingBuffer = FRAME_BUFFERS.get().maskingBuffer;
+				int maskOffset = header.length - 4;
+				int written = 0;
+				while (written < payloadLength) {
+					int chunkLength = Math.min(maskingBuffer.length, payloadLength - written);
+					System.arraycopy(source, payloadOffset + written, maskingBuffer, 0, chunkLength);
+					applyMask(maskingBuffer, 0, chunkLength, header, maskOffset, written);
+					out.write(maskingBuffer, 0, chunkLength);
+					written += chunkLength;
+				}
 			}
 
 			/**
-			 * Valid values are in the interval [1,6].
+			 * Writes the (masked) payload from a buffer without accessible
+			 * array (i.e. backed by a file), chunk by chunk.
 			 * 
-			 * @param rsv
+			 * @param out
+			 * @throws IOException
 			 */
-			public void setRsv(int rsv) {
-				this.rsv  = rsv;
-			}
+			private void writeBufferedPayloadTo(OutputStream out) throws IOException {
+				ByteBuffer source = payload.duplicate();
+				source.clear();
+				source.position(payloadOffset);
 
-//			public int getRsv() {
-//				return rsv;
-//			}
+				byte[] chunk = FRAME_BUFFERS.get().maskingBuffer;
+				int maskOffset = header.length - 4;
+				int written = 0;
+				while (written < payloadLength) {
+					int chunkLength = Math.min(chunk.length, payloadLength - written);
+					source.get(chunk, 0, chunkLength);
+					if (isMasked) {
+						applyMask(chunk, 0, chunkLength, header, maskOffset, written);
+					}
+					out.write(chunk, 0, chunkLength);
+					written += chunkLength;
+				}
+			}
 		}
 		
 		private List<WebSocketFrameV13> receivedFrames = new ArrayList<>();
-		
+
 		/**
-		 * Temporary buffer that will be added to
-		 * {@link WebSocketMessage#receivedFrames} as soon as whole frame is read.
+		 * Owner of the {@link WebSocketMessage#payload} buffer if the payload
+		 * is kept in a file, {@code null} otherwise.
 		 */
-		private WebSocketFrameV13 currentFrame;
+		private SpilledPayload spilledPayload;
 
 		/**
-		 * Contains the number of bytes representing the payload.
+		 * Number of payload bytes dropped by
+		 * {@link #releaseForwardedPayload(int)}.
 		 */
-		private int payloadLength;
+		private int releasedPayloadLength;
 
+		/**
+		 * Number of payload bytes kept once payload was released.
+		 */
+		private int retainedPayloadLength;
+		
 		/**
 		 * Marks this object as changed, indicating that frame headers have to
 		 * be built manually on forwarding.
@@ -278,6 +462,12 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		 */
 		private boolean isValidUtf8Payload;
 
+		/**
+		 * Decoded payload, such that it is decoded only once for storage, UI,
+		 * breakpoints and filters. Reset whenever the payload changes.
+		 */
+		private String cachedReadablePayload;
+
 		/**
 		 * By default, there are 7 bits to indicate the payload length. If the
 		 * length can not be shown with 7 bits, the payload length is set to
@@ -356,6 +546,32 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			readFrame(in, frameHeader);
 		}
 		
+		@Override
+		public void releaseForwardedPayload(int retainedLength) {
+			if (hasChanged || payload == null || isFinished) {
+				return;
+			}
+
+			int position = payload.position();
+			if (position <= retainedLength) {
+				return;
+			}
+
+			for (WebSocketFrameV13 frame : receivedFrames) {
+				if (!frame.isForwarded()) {
+					// frames still to be forwarded refer to the payload
+					return;
+				}
+			}
+
+			receivedFrames.clear();
+			cachedReadablePayload = null;
+			releasedPayloadLength += position - retainedLength;
+			retainedPayloadLength = retainedLength;
+			// following frames are read behind the retained bytes
+			payload.position(retainedLength);
+		}
+
 		/**
 		 * Can be used to print or log bytes.
 		 * 
@@ -373,6 +589,9 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		/**
 		 * Given an {@link InputStream} and the first byte of a frame,
 		 * this method reads the second byte until the end of the frame.
+		 * <p>
+		 * The payload is read directly into the message's payload buffer and
+		 * unmasked in place.
 		 * 
 		 * @param in
 		 * @param frameHeader
@@ -381,111 +600,153 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		private void readFrame(InputStream in, byte frameHeader) throws IOException {
 			// most significant bit of first byte is FIN flag
 			isFinished = (frameHeader >> 7 & 0x1) == 1;
+			cachedReadablePayload = null;
 			
-			// currentFrame buffer is filled by read() method directly
-			currentFrame = new WebSocketFrameV13();
-			currentFrame.put(frameHeader);
-			
-			currentFrame.setRsv((frameHeader >> 4 & 0x7));
-
-			byte payloadByte = read(in);
-			
-			// most significant bit of second byte is MASK flag
-			currentFrame.setMasked((payloadByte >> 7 & 0x1) == 1);
-			
-			payloadLength = determinePayloadLength(in, payloadByte);
-			logger.debug("length of current frame payload is: " + payloadLength + "; first two bytes: " + getByteAsBitString(frameHeader) + " " + getByteAsBitString(payloadByte));
+			FrameHeaderDecoder headerDecoder = FRAME_BUFFERS.get().headerDecoder;
+			headerDecoder.decode(in, frameHeader);
 
-			if (currentFrame.isMasked()) {
-				// read 4 bytes mask
-				currentFrame.setMask(read(in, 4));
+			boolean isMasked = headerDecoder.isMasked();
+			int payloadLength = headerDecoder.getPayloadLength();
+			lastFrameLength = headerDecoder.getHeaderLength() + payloadLength;
+			if (logger.isDebugEnabled()) {
+				logger.debug("length of current frame payload is: " + payloadLength + "; first two bytes: "
+						+ getByteAsBitString(frameHeader) + " " + getByteAsBitString(headerDecoder.getHeader()[1]));
 			}
 
-			byte[] payload = read(in, payloadLength);
+			WebSocketFrameV13 frame;
+			if (opcode == OPCODE_CLOSE) {
+				// control frames have got at maximum 125 bytes
+				byte[] rawPayload = new byte[payloadLength];
+				readFully(in, rawPayload, 0, payloadLength);
+				if (isMasked) {
+					applyMask(rawPayload, 0, payloadLength, headerDecoder.getHeader(), headerDecoder.getMaskOffset(), 0);
+				}
+
+				// close payload is transformed, keep original for forwarding
+				frame = new WebSocketFrameV13(headerDecoder.copyHeader(), isMasked, rawPayload, 0, payloadLength);
 
-			if (currentFrame.isMasked()) {
-				int currentMaskByteIndex = 0;
-				for (int i = 0; i < payload.length; i++) {
-					// unmask payload by XOR it continuously with frame mask
-					payload[i] = (byte) (payload[i] ^ currentFrame.getMaskAt(currentMaskByteIndex));
-					currentMaskByteIndex = (currentMaskByteIndex + 1) % 4;
+				byte[] readablePayload = rawPayload;
+				if (rawPayload.length > 1) {
+					// if there is a body, the first two bytes are a
+					// 2-byte unsigned integer (in network byte order)
+					closeCode = ((rawPayload[0] & 0xFF) << 8) | (rawPayload[1] & 0xFF);
+					logger.debug("close code is: " + closeCode);
+					
+					readablePayload = getReadableCloseFramePayload(rawPayload, closeCode);
 				}
-			}
-			
-			if (isText(opcode)) {
-				logger.debug("got text frame payload");
-			} else if (isBinary(opcode)) {
-				logger.debug("got binary frame payload");				
+				
+				if (readablePayload.length > 0 && logger.isDebugEnabled()) {
+					// process close message
+					try {
+						logger.debug("got control-payload: " + Utf8Util.encodePayloadToUtf8(readablePayload));
+					} catch (InvalidUtf8Exception e) {
+						// safely ignore utf8 error here
+					}
+				}
+				
+				appendPayload(readablePayload);
 			} else {
-				if (opcode == OPCODE_CLOSE) {
-					if (payload.length > 1) {
-						// if there is a body, the first two bytes are a
-						// 2-byte unsigned integer (in network byte order)
-						closeCode = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
-						logger.debug("close code is: " + closeCode);
-						
-						payload = getReadableCloseFramePayload(payload, closeCode);
+				int payloadOffset = reservePayload(payloadLength);
+				if (payload.hasArray()) {
+					byte[] buffer = payload.array();
+					readFully(in, buffer, payloadOffset, payloadLength);
+					if (isMasked) {
+						// unmask payload by XOR it continuously with frame mask
+						applyMask(buffer, payloadOffset, payloadLength, headerDecoder.getHeader(), headerDecoder.getMaskOffset(), 0);
 					}
-					
-					if (payload.length > 0) {
-						// process close message
-						try {
-							logger.debug("got control-payload: " + Utf8Util.encodePayloadToUtf8(payload));
-						} catch (InvalidUtf8Exception e) {
-							// safely ignore utf8 error here
-						}
+				} else {
+					// large payload backed by a file, pass it through chunk by chunk
+					readIntoBuffer(in, payloadOffset, payloadLength, isMasked ? headerDecoder : null);
+				}
+				payload.position(payloadOffset + payloadLength);
+
+				if (isFinished) {
+					payload.flip();
+				}
+
+				frame = new WebSocketFrameV13(headerDecoder.copyHeader(), isMasked, null, payloadOffset, payloadLength);
+
+				if (logger.isDebugEnabled()) {
+					if (isText(opcode)) {
+						logger.debug("got text frame payload");
+					} else if (isBinary(opcode)) {
+						logger.debug("got binary frame payload");
 					}
 				}
 			}
 			
-			appendPayload(payload);
-			
-			// add currentFrame to frames list
-			currentFrame.seal();
-			receivedFrames.add(currentFrame);
+			// add frame to frames list
+			receivedFrames.add(frame);
 		}
 
 		/**
-		 * Looks at the payload byte from the WebSockets header and determines
-		 * the packets length. It reads bytes from the extended length field if
-		 * required.
+		 * Reads the payload of a frame into a payload buffer without
+		 * accessible array, unmasking it on the way.
 		 * 
 		 * @param in
-		 * @param payloadByte
-		 * @return
+		 * @param offset position of the first byte in the payload buffer
+		 * @param length
+		 * @param maskDecoder decoder holding the mask, null if not masked
 		 * @throws IOException
 		 */
-		private int determinePayloadLength(InputStream in, byte payloadByte) throws IOException {
-			int length = (payloadByte & 0x7F);
+		private void readIntoBuffer(InputStream in, int offset, int length, FrameHeaderDecoder maskDecoder) throws IOException {
+			ByteBuffer target = payload.duplicate();
+			target.clear();
+			target.position(offset);
 
-			// multiple bytes for payload length are submitted in network byte order (MSB first)
-			if (length < PAYLOAD_LENGTH_16) {
-				// payload length is between 0-125 bytes and contained in payloadByte
-			} else {
-				int bytesToRetrieve = 0;
-
-				// we have got PAYLOAD_LENGTH_16 or PAYLOAD_LENGTH_63
-				if (length == PAYLOAD_LENGTH_16) {
-					// payload length is between 126-65535 bytes represented by 2 bytes.
-					bytesToRetrieve = 2;
-				} else if (length == PAYLOAD_LENGTH_63) {
-					// payload length is between 65536-2^63 bytes represented by 8 bytes
-					// (most significant bit must be zero)
-					bytesToRetrieve = 8;
+			byte[] chunk = FRAME_BUFFERS.get().maskingBuffer;
+			int read = 0;
+			while (read < length) {
+				int chunkLength = Math.min(chunk.length, length - read);
+				readFully(in, chunk, 0, chunkLength);
+				if (maskDecoder != null) {
+					applyMask(chunk, 0, chunkLength, maskDecoder.getHeader(), maskDecoder.getMaskOffset(), read);
 				}
+				target.put(chunk, 0, chunkLength);
+				read += chunkLength;
+			}
+		}
 
-				byte[] extendedPayloadLength = read(in, bytesToRetrieve);
+		/**
+		 * Ensures that the payload buffer has got enough space for the given
+		 * number of bytes. Grows the buffer geometrically, such that messages
+		 * consisting of many frames are not copied for each frame.
+		 * 
+		 * @param length number of bytes to be added
+		 * @return position where the bytes are to be put
+		 */
+		private int reservePayload(int length) throws IOException {
+			if (payload == null) {
+				// large payloads are backed by a file, see PayloadBuffers
+				spilledPayload = PayloadBuffers.allocateSpilled(length);
+				payload = (spilledPayload != null) ? spilledPayload.getBuffer() : ByteBuffer.allocate(length);
+				return 0;
+			}
 
-				length = 0;
-				for (int i = 0; i < bytesToRetrieve; i++) {
-					byte extendedPayload = extendedPayloadLength[i];
-					
-					// shift previous bits left and add next byte
-					length = (length << 8) | (extendedPayload & 0xFF);
+			int position = payload.position();
+			if ((long) position + length > Integer.MAX_VALUE) {
+				throw new WebSocketException("WebSocket message with payload of more than " + Integer.MAX_VALUE
+						+ " bytes is not supported.");
+			}
+			if (payload.capacity() - position < length) {
+				int newSize = (int) Math.min(Math.max((long) position + length, 2L * payload.capacity()), Integer.MAX_VALUE);
+				if (spilledPayload != null) {
+					// the same file is extended, its content is kept
+					payload = spilledPayload.grow(newSize);
+					payload.position(position);
+				} else {
+					spilledPayload = PayloadBuffers.allocateSpilled(newSize);
+					if (spilledPayload != null) {
+						ByteBuffer grown = spilledPayload.getBuffer();
+						payload.flip();
+						grown.put(payload);
+						payload = grown;
+					} else {
+						payload = reallocate(payload, newSize);
+					}
 				}
 			}
-			
-			return length;
+			return position;
 		}
 
 		/**
@@ -542,54 +803,15 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			newCloseCodeByte[1] = (byte) ((newCloseCode) & 0xFF);
 			
 			ByteBuffer newPayload = ByteBuffer.allocate(payload.limit() - 2);
+			newPayload.put(newCloseCodeByte, 0, 2);
 			if (payload.limit() > 4) {
-				newPayload.put(ArrayUtils.subarray(payload.array(), 4, payload.limit()), 2, payload.limit() - 4);
+				newPayload.put(payload.array(), 4, payload.limit() - 4);
 			}
-			newPayload.put(newCloseCodeByte, 0, 2);
+			newPayload.flip();
 			
 			return newPayload;
 		}
 
-		/**
-		 * Read only one byte from input stream.
-		 * 
-		 * @param in
-		 * @return
-		 * @throws IOException
-		 */
-		private byte read(InputStream in) throws IOException {
-			byte[] buffer = read(in, 1);
-			return buffer[0];
-		}
-
-		/**
-		 * Reads given length from the given stream.
-		 * 
-		 * @param in {@link InputStream} to read from.
-		 * @param length Determines how much bytes should be read from the given stream.
-		 * @return Bytes read from stream - blocks until given length is read!
-		 * @throws IOException
-		 */
-		private byte[] read(InputStream in, int length) throws IOException {
-			byte[] buffer = new byte[length];
-			
-			// read until buffer is full 
-			int bytesRead = 0;
-			do {
-				bytesRead += in.read(buffer, bytesRead, length - bytesRead);
-			} while (length != bytesRead);
-			
-			// maybe we have to increase the size of the current frame buffer
-			if (currentFrame.getFreeSpace() < bytesRead) {
-				currentFrame.reallocateFor(bytesRead);
-			}
-
-			// add bytes to current frame
-			currentFrame.put(buffer);
-			
-			return buffer;
-		}
-
 	    /**
 	     * @see WebSocketMessage#forward(OutputStream)
 	     */
@@ -604,6 +826,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			if (hasChanged) {
 				if (opcode == OPCODE_CLOSE) {
 					payload = getTransmittableCloseFramePayload(payload);
+					cachedReadablePayload = null;
 				}
 				
 				// split into chunks according to maximum frame length
@@ -613,17 +836,17 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				boolean isLastFrame;
 				
 				do {
-					ByteBuffer tempBuffer = ByteBuffer.allocate(frameLength);
-					tempBuffer.hasArray();
-					payload.get(tempBuffer.array(), 0, frameLength);
+					// frames refer to the payload, no need to copy each chunk
+					int frameOffset = writtenBytes;
 					
 					writtenBytes = frameLength + writtenBytes;
-					frameLength = Math.min(PAYLOAD_MAX_FRAME_LENGTH, payload.limit() - writtenBytes);
+					int nextFrameLength = Math.min(PAYLOAD_MAX_FRAME_LENGTH, payload.limit() - writtenBytes);
 					
-					isLastFrame = (frameLength <= 0); 
+					isLastFrame = (nextFrameLength <= 0); 
 				
 					// TODO: use RSV from first original frame?
-					WebSocketFrameV13 frame = new WebSocketFrameV13(tempBuffer, getDirection(), isLastFrame, frameOpcode, 0);
+					WebSocketFrameV13 frame = new WebSocketFrameV13(payload.array(), frameOffset, frameLength, getDirection(), isLastFrame, frameOpcode, 0);
+					frameLength = nextFrameLength;
 					logger.debug("forward modified frame");
 					forwardFrame(frame, out);
 					// next frame is a continuation of the current one
@@ -649,15 +872,16 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		}
 
 		/**
-		 * Helper method to forward frames.
+		 * Helper method to forward frames. The stream is not flushed, such
+		 * that frames of a burst are coalesced (see
+		 * {@link WebSocketMessage#forward(OutputStream)}).
 		 * 
 		 * @param frame
 		 * @param out
 		 */
 		private void forwardFrame(WebSocketFrameV13 frame, OutputStream out) throws IOException {
 			synchronized (out) {
-				out.write(frame.getBuffer());
-				out.flush();
+				frame.writeTo(out);
 			}
 			
 			frame.setForwarded(true);
@@ -668,10 +892,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			if (!isFinished) {
 				return new byte[0];
 			}
-			payload.rewind();
-			byte[] bytes = new byte[payload.limit()];
-			payload.get(bytes);
-			return bytes;
+			return PayloadBuffers.toArray(payload, 0, getRetainedPayloadSize());
 		}
 
 		@Override
@@ -682,13 +903,40 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			
 			if (!Arrays.equals(newPayload, getPayload())) {
 				hasChanged = true;
+				releaseSpilledPayload();
 				payload = ByteBuffer.wrap(newPayload);
+				cachedReadablePayload = null;
+			}
+		}
+
+		/**
+		 * Returns the number of payload bytes read so far. The buffer is
+		 * flipped only when the message is finished.
+		 * 
+		 * @return number of bytes in {@link WebSocketMessage#payload}
+		 */
+		private int getPayloadSize() {
+			return isFinished ? payload.limit() : payload.position();
+		}
+
+		/**
+		 * Returns the number of payload bytes available to observers, i.e.
+		 * without the bytes of frames read after the payload was released.
+		 * 
+		 * @return number of bytes
+		 * @see #releaseForwardedPayload(int)
+		 */
+		private int getRetainedPayloadSize() {
+			int size = getPayloadSize();
+			if (releasedPayloadLength > 0) {
+				return Math.min(size, retainedPayloadLength);
 			}
+			return size;
 		}
 
 		@Override
 		public Integer getPayloadLength() {
-			int length = payload.limit();
+			int length = getPayloadSize() + releasedPayloadLength;
 			
 			if (opcode == OPCODE_CLOSE) {
 				// if there is a body, the first two bytes are a
@@ -701,13 +949,21 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 
 		@Override
 		public String getReadablePayload() {
+			if (cachedReadablePayload != null) {
+				return cachedReadablePayload;
+			}
 			try {
 				isValidUtf8Payload = true;
-				return Utf8Util.encodePayloadToUtf8(payload.array(), 0, payload.limit());
+				if (!payload.hasArray()) {
+					cachedReadablePayload = Utf8Util.encodePayloadToUtf8(PayloadBuffers.toArray(payload, 0, getRetainedPayloadSize()));
+				} else {
+					cachedReadablePayload = Utf8Util.encodePayloadToUtf8(payload.array(), 0, getRetainedPayloadSize());
+				}
 			} catch (InvalidUtf8Exception e) {
 				isValidUtf8Payload  = false;
-				return "<invalid UTF-8>";
+				cachedReadablePayload = "<invalid UTF-8>";
 			}
+			return cachedReadablePayload;
 		}
 
 		@Override
@@ -723,8 +979,44 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				// mark this message as changed in order to propagate changed
 				// payload into frames or build up a big frame (see forward())
 				hasChanged = true;
+				releaseSpilledPayload();
 				payload = ByteBuffer.wrap(newBytesPayload);
+				cachedReadablePayload = newReadablePayload;
+			}
+		}
+
+		@Override
+		public void releasePayload() {
+			if (spilledPayload == null) {
+				return;
+			}
+			// keep the length, e.g. for statistics
+			releasedPayloadLength += getPayloadSize();
+			retainedPayloadLength = 0;
+			cachedReadablePayload = null;
+			payload = ByteBuffer.allocate(0);
+			releaseSpilledPayload();
+		}
+
+		/**
+		 * Releases the reference of this message on the
+		 * {@link #spilledPayload}, the {@link WebSocketMessage#payload} must
+		 * be replaced before.
+		 */
+		private void releaseSpilledPayload() {
+			if (spilledPayload != null) {
+				spilledPayload.release();
+				spilledPayload = null;
+			}
+		}
+
+		@Override
+		protected SpilledPayload getSpilledPayload() {
+			if (spilledPayload == null || !isFinished || releasedPayloadLength > 0) {
+				// payload of frames already forwarded is not available anymore
+				return null;
 			}
+			return spilledPayload;
 		}
 
 		@Override
@@ -0,0 +1,42 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+/**
+ * A {@link WebSocketObserver} that needs only the beginning of the payload of
+ * fragmented messages.
+ * <p>
+ * If all observers of a channel implement this interface, the payload of
+ * frames that were already forwarded is released, keeping just the longest
+ * prefix requested. Long streams of continuation frames (e.g. video or
+ * telemetry) are then proxied with constant memory. In that case
+ * {@link WebSocketMessage#getPayload()} returns just the retained prefix,
+ * while {@link WebSocketMessage#getPayloadLength()} still counts all bytes.
+ * 
+ * @see WebSocketProxy#addObserver(WebSocketObserver)
+ */
+public interface WebSocketStreamingObserver extends WebSocketObserver {
+
+	/**
+	 * Number of payload bytes this observer needs from each message.
+	 * 
+	 * @return number of bytes, 0 if just the opcode, direction and other
+	 *         metadata are needed
+	 */
+	int getPayloadPrefixLength();
+}
@@ -26,6 +26,7 @@ import org.zaproxy.zap.extension.brk.AbstractBreakPointMessage;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.utility.MultiPatternMatcher;
 
 public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 
@@ -53,6 +54,13 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 	 */
 	private Direction direction;
 
+	/**
+	 * Matcher containing the {@link #payloadPattern} of this and other
+	 * breakpoints, set by {@link WebSocketBreakpointMessageHandler}. Might be
+	 * {@code null} or outdated.
+	 */
+	private volatile SharedMatcher sharedMatcher;
+
 	public WebSocketBreakpointMessage(String opcode, Integer channelId, String payloadPattern, Direction direction) throws PatternSyntaxException {
 		setOpcode(opcode);
 		setChannelId(channelId);
@@ -88,6 +96,24 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 		return null;
 	}
 
+	/**
+	 * @return compiled payload pattern, or {@code null} if none is set
+	 */
+	Pattern getCompiledPayloadPattern() {
+		return payloadPattern;
+	}
+
+	/**
+	 * Use the given matcher to find the payload pattern, such that payloads
+	 * are scanned once for all breakpoints.
+	 * 
+	 * @param matcher
+	 * @param index index of the payload pattern within the matcher
+	 */
+	void setSharedMatcher(MultiPatternMatcher matcher, int index) {
+		sharedMatcher = new SharedMatcher(matcher, index);
+	}
+
 	/**
 	 * Catch {@link PatternSyntaxException} in dialog & show warning. You can do
 	 * this by <code>View.getSingleton().showWarningDialog(message)</code>.
@@ -132,11 +158,18 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 		        }
 	        }
 	        
+	        if (direction != null) {
+	        	if (msg.isOutgoing && !direction.equals(Direction.OUTGOING)) {
+		        	return false;
+		        } else if (!msg.isOutgoing && !direction.equals(Direction.INCOMING)) {
+		        	return false;
+		        }
+	        }
+	        
 	        if (payloadPattern != null) {
+	        	msg.materialisePayload();
 	        	if (msg.payload instanceof String) {
-		        	Matcher m = payloadPattern.matcher((String) msg.payload);
-		        	if (!m.find()) {
-		        		// when m.matches() is used, the whole string has to match
+		        	if (!findPayloadPattern((String) msg.payload)) {
 			        	return false;
 			        }
 	        	} else {
@@ -145,20 +178,23 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 	        	}
 	        }
 	        
-	        if (direction != null) {
-	        	if (msg.isOutgoing && !direction.equals(Direction.OUTGOING)) {
-		        	return false;
-		        } else if (!msg.isOutgoing && !direction.equals(Direction.INCOMING)) {
-		        	return false;
-		        }
-	        }
-	        
 	        return true;
 	    }
 	    
 		return false;
 	}
 
+	private boolean findPayloadPattern(String payload) {
+		SharedMatcher shared = sharedMatcher;
+		if (shared != null && shared.matcher.getPattern(shared.index) == payloadPattern) {
+			return shared.matcher.find(shared.index, payload);
+		}
+
+		Matcher m = payloadPattern.matcher(payload);
+		// when m.matches() is used, the whole string has to match
+		return m.find();
+	}
+
     @Override
     public String getDisplayMessage() {
     	String message = "";
@@ -186,4 +222,16 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
         return Constant.messages.getString("websocket.brk.add.break_on_custom") + " " + message;
     }
 
+	private static final class SharedMatcher {
+
+		private final MultiPatternMatcher matcher;
+
+		private final int index;
+
+		public SharedMatcher(MultiPatternMatcher matcher, int index) {
+			this.matcher = matcher;
+			this.index = index;
+		}
+	}
+
 }
@@ -17,26 +17,135 @@
  */
 package org.zaproxy.zap.extension.websocket.brk;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
 import org.zaproxy.zap.extension.brk.BreakpointManagementInterface;
 import org.zaproxy.zap.extension.brk.BreakpointMessageHandler2;
+import org.zaproxy.zap.extension.brk.BreakpointMessageInterface;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.ui.OptionsParamWebSocket;
+import org.zaproxy.zap.extension.websocket.utility.MultiPatternMatcher;
 
 /**
  * Wraps WebSocket specific options to determine if breakpoint should be applied
  * on given {@link WebSocketMessageDTO}.
+ * <p>
+ * The payload patterns of all enabled {@link WebSocketBreakpointMessage}s are
+ * compiled into one {@link MultiPatternMatcher}, which is rebuilt when the
+ * breakpoints change.
  */
 public class WebSocketBreakpointMessageHandler extends BreakpointMessageHandler2 {
 
+	private static final WebSocketBreakpointMessage[] NO_BREAKPOINTS = new WebSocketBreakpointMessage[0];
+
 	private OptionsParamWebSocket config;
 
+	private List<BreakpointMessageInterface> enabledBreakpoints;
+
+	/**
+	 * Breakpoints with payload pattern, in the order of the patterns of the
+	 * current matcher.
+	 */
+	private volatile WebSocketBreakpointMessage[] matcherBreakpoints = NO_BREAKPOINTS;
+
+	/**
+	 * Payload patterns of the {@link #matcherBreakpoints} when the matcher
+	 * was built.
+	 */
+	private volatile Pattern[] matcherPatterns = new Pattern[0];
+
 	public WebSocketBreakpointMessageHandler(BreakpointManagementInterface breakpointManagementInterface, OptionsParamWebSocket config) {
 		super(breakpointManagementInterface);
 		this.config = config;
 	}
 
+	@Override
+	public void setEnabledBreakpoints(List<BreakpointMessageInterface> breakpoints) {
+		super.setEnabledBreakpoints(breakpoints);
+		this.enabledBreakpoints = breakpoints;
+	}
+
+	@Override
+	public boolean isBreakpoint(Message aMessage, boolean isRequest, boolean onlyIfInScope) {
+		if (aMessage instanceof WebSocketMessageDTO && !(((WebSocketMessageDTO) aMessage).payload instanceof byte[])) {
+			updatePayloadMatcher();
+		}
+		boolean isBreakpoint = super.isBreakpoint(aMessage, isRequest, onlyIfInScope);
+		if (isBreakpoint && aMessage instanceof WebSocketMessageDTO) {
+			// large payloads are only read when shown
+			((WebSocketMessageDTO) aMessage).materialisePayload();
+		}
+		return isBreakpoint;
+	}
+
+	/**
+	 * Rebuilds the matcher of the payload patterns, if breakpoints were added,
+	 * removed or changed since it was built last.
+	 */
+	private void updatePayloadMatcher() {
+		List<BreakpointMessageInterface> breakpoints = enabledBreakpoints;
+		if (breakpoints == null || !hasPayloadPatternsChanged(breakpoints)) {
+			return;
+		}
+
+		synchronized (this) {
+			if (!hasPayloadPatternsChanged(breakpoints)) {
+				return;
+			}
+
+			List<WebSocketBreakpointMessage> wsBreakpoints = new ArrayList<>();
+			List<Pattern> patterns = new ArrayList<>();
+			synchronized (breakpoints) {
+				for (BreakpointMessageInterface breakpoint : breakpoints) {
+					if (breakpoint instanceof WebSocketBreakpointMessage) {
+						WebSocketBreakpointMessage wsBreakpoint = (WebSocketBreakpointMessage) breakpoint;
+						Pattern pattern = wsBreakpoint.getCompiledPayloadPattern();
+						if (pattern != null) {
+							wsBreakpoints.add(wsBreakpoint);
+							patterns.add(pattern);
+						}
+					}
+				}
+			}
+
+			MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+			for (int i = 0; i < wsBreakpoints.size(); i++) {
+				wsBreakpoints.get(i).setSharedMatcher(matcher, i);
+			}
+
+			matcherPatterns = patterns.toArray(new Pattern[patterns.size()]);
+			matcherBreakpoints = wsBreakpoints.toArray(new WebSocketBreakpointMessage[wsBreakpoints.size()]);
+		}
+	}
+
+	private boolean hasPayloadPatternsChanged(List<BreakpointMessageInterface> breakpoints) {
+		WebSocketBreakpointMessage[] currentBreakpoints = matcherBreakpoints;
+		Pattern[] currentPatterns = matcherPatterns;
+
+		int count = 0;
+		synchronized (breakpoints) {
+			for (BreakpointMessageInterface breakpoint : breakpoints) {
+				if (breakpoint instanceof WebSocketBreakpointMessage) {
+					WebSocketBreakpointMessage wsBreakpoint = (WebSocketBreakpointMessage) breakpoint;
+					Pattern pattern = wsBreakpoint.getCompiledPayloadPattern();
+					if (pattern == null) {
+						continue;
+					}
+					if (count >= currentBreakpoints.length || count >= currentPatterns.length
+							|| currentBreakpoints[count] != wsBreakpoint || currentPatterns[count] != pattern) {
+						return true;
+					}
+					count++;
+				}
+			}
+		}
+		return count != currentBreakpoints.length;
+	}
+
 	/**
 	 * Only break on all requests when 'Break on all' is enabled for WebSockets.
 	 * 
@@ -17,9 +17,19 @@
  */
 package org.zaproxy.zap.extension.websocket.db;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -27,16 +37,28 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.log4j.Logger;
-import org.hsqldb.jdbc.JDBCBlob;
-import org.hsqldb.jdbc.JDBCClob;
 import org.parosproxy.paros.db.DatabaseException;
 import org.parosproxy.paros.db.DbUtils;
 import org.parosproxy.paros.db.paros.ParosAbstractTable;
@@ -45,15 +67,94 @@ import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketStatistics;
+import org.zaproxy.zap.extension.websocket.utility.IntHashSet;
+import org.zaproxy.zap.extension.websocket.utility.SpilledPayload;
 
 /**
  * Manages writing and reading WebSocket messages to the database.
+ * <p>
+ * Messages can either be written right away with
+ * {@link #insertMessage(WebSocketMessageDTO)} or be queued with
+ * {@link #queueMessage(WebSocketMessageDTO)} and written in batches by
+ * {@link #flushQueuedMessages()}, called by the thread of the
+ * {@link WebSocketStorage}. Readers see only the messages written so far
+ * (see {@link WebSocketMessageDTO#writtenMessageCount}), reading does not
+ * write the queued messages.
  */
 public class TableWebSocket extends ParosAbstractTable {
 	private static final Logger logger = Logger.getLogger(TableWebSocket.class);
 	
-	private Set<Integer> channelIds;
-	private LRUMap channelCache;
+	/**
+	 * Maximum number of queued messages, before
+	 * {@link #queueMessage(WebSocketMessageDTO)} blocks the caller until the
+	 * queue is flushed.
+	 */
+	public static final int MESSAGE_QUEUE_CAPACITY = 10000;
+	
+	/**
+	 * Maximum number of statements sent with one JDBC batch, larger batches
+	 * are slower with HSQLDB LOB columns.
+	 */
+	private static final int MAX_JDBC_BATCH_SIZE = 500;
+	
+	/**
+	 * Number of bytes of the payload index stored per row.
+	 */
+	private static final int PAYLOAD_INDEX_SEGMENT_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * Number of keys matched with one query when searching payloads.
+	 */
+	private static final int SEARCH_BATCH_SIZE = 500;
+	
+	/**
+	 * Number of messages read with one query while creating the payload
+	 * index, the lock of this table is released in between.
+	 */
+	private static final int PAYLOAD_INDEX_PAGE_SIZE = 500;
+	
+	/**
+	 * Number of channels read with one query when resolving the channels of
+	 * fetched messages.
+	 */
+	private static final int CHANNEL_BATCH_SIZE = 500;
+	
+	/**
+	 * Number of messages deleted at once while purging a channel, the lock of
+	 * this table is released in between.
+	 */
+	private static final int PURGE_CHUNK_SIZE = 1000;
+	
+	/**
+	 * Number of messages read with one query while exporting.
+	 */
+	private static final int ARCHIVE_PAGE_SIZE = 100;
+	
+	private IntHashSet channelIds;
+	private final WebSocketChannelCache channelCache = new WebSocketChannelCache();
+	
+	/**
+	 * Channels purged but not yet deleted, hidden from all reads. Also kept in
+	 * the table {@code websocket_channel_purge}, to resume the deletion when
+	 * the session is opened again.
+	 */
+	private final Set<Integer> purgedChannelIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	
+	/**
+	 * Running or queued purges, by channel ID. Guarded by the lock of this
+	 * object.
+	 */
+	private final Map<Integer, WebSocketChannelPurge> purges = new HashMap<>();
+	
+	private ThreadPoolExecutor purgeExecutor;
+	
+	/**
+	 * Number of stored messages per channel, indexed by
+	 * {@link #getMessageCountIndex(int, boolean)}.
+	 */
+	private Map<Integer, int[]> messageCounts;
     
     private PreparedStatement psInsertMessage;
     
@@ -66,6 +167,9 @@ public class TableWebSocket extends ParosAbstractTable {
 
 	private PreparedStatement psDeleteChannel;
 	private PreparedStatement psDeleteMessagesByChannelId;
+	
+	private PreparedStatement psInsertPurgedChannel;
+	private PreparedStatement psDeletePurgedChannel;
 
 	private PreparedStatement psInsertFuzz;
 	
@@ -76,6 +180,30 @@ public class TableWebSocket extends ParosAbstractTable {
 	private Queue<WebSocketMessageDTO> messagesBuffer = new LinkedList<>();
 	private Queue<WebSocketChannelDTO> channelsBuffer = new LinkedList<>();
 	
+	private final BlockingQueue<WebSocketMessageDTO> messageQueue = new ArrayBlockingQueue<>(MESSAGE_QUEUE_CAPACITY);
+	private final Object messageQueueMonitor = new Object();
+	private volatile int messageQueueWakeUpSize = 1;
+	private boolean messageWriterWokenUp;
+	
+	private final AtomicLong queueStallCount = new AtomicLong();
+	private final AtomicLong writtenMessageCount = new AtomicLong();
+	private volatile int lastBatchSize;
+	private volatile long lastFlushDuration;
+
+	private volatile WebSocketStatistics statistics;
+	
+	/**
+	 * Index of the stored payloads, {@code null} until first searched (see
+	 * {@link #awaitPayloadIndex()}) or loaded from the database.
+	 */
+	private WebSocketPayloadIndex payloadIndex;
+	
+	/**
+	 * Creates the {@link #payloadIndex} in background, {@code null} if not
+	 * being created. Guarded by the lock of this object.
+	 */
+	private WebSocketPayloadIndexBuilder payloadIndexBuilder;
+	
     /**
      * Create tables if not already available
      */
@@ -127,12 +255,41 @@ public class TableWebSocket extends ParosAbstractTable {
 								+ ")");
 				DbUtils.executeAndClose(stmt);
 				
-				channelIds = new HashSet<>();
+				channelIds = new IntHashSet();
 			} else {
 				channelIds = null;
 			}
 			
-			channelCache = new LRUMap(20);
+			createIndexIfAbsent(conn, "websocket_message_channel", "channel_id, message_id");
+			createIndexIfAbsent(conn, "websocket_message_order", "timestamp, channel_id, message_id");
+			createIndexIfAbsent(conn, "websocket_message_opcode", "opcode, is_outgoing");
+			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_CHANNEL_PURGE")) {
+				DbUtils.executeAndClose(conn.prepareStatement("CREATE CACHED TABLE websocket_channel_purge ("
+						+ "channel_id BIGINT PRIMARY KEY"
+						+ ")"));
+			}
+			loadPurgedChannelIds(conn);
+			
+			loadMessageCounts(conn);
+			Map<Integer, int[]> purgedMessageCounts = new HashMap<>();
+			for (Integer channelId : purgedChannelIds) {
+				purgedMessageCounts.put(channelId, messageCounts.remove(channelId));
+			}
+			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_PAYLOAD_INDEX")) {
+				DbUtils.executeAndClose(conn.prepareStatement("CREATE CACHED TABLE websocket_payload_index ("
+						+ "segment INTEGER PRIMARY KEY,"
+						+ "data BLOB(16M) NOT NULL"
+						+ ")"));
+			}
+			synchronized (this) {
+				// the index being created is of the previous session
+				payloadIndexBuilder = null;
+				payloadIndex = loadPayloadIndex(conn);
+			}
+			
+			channelCache.clear();
 			
 			// CHANNEL
 			psSelectMaxChannelId = conn.prepareStatement("SELECT MAX(c.channel_id) as channel_id "
@@ -173,11 +330,15 @@ public class TableWebSocket extends ParosAbstractTable {
 					+ "websocket_message_fuzz (fuzz_id, message_id, channel_id, state, fuzz) "
 					+ "VALUES (?,?,?,?,?)");
 			
+			// LIMIT does not accept a parameter
 			psDeleteMessagesByChannelId = conn.prepareStatement("DELETE FROM websocket_message "
-					+ "WHERE channel_id = ?");
+					+ "WHERE channel_id = ? LIMIT " + PURGE_CHUNK_SIZE);
+			
+			psInsertPurgedChannel = conn.prepareStatement("INSERT INTO websocket_channel_purge (channel_id) VALUES (?)");
+			psDeletePurgedChannel = conn.prepareStatement("DELETE FROM websocket_channel_purge WHERE channel_id = ?");
 			
 			if (channelIds == null) {
-				channelIds = new HashSet<>();
+				channelIds = new IntHashSet();
 				PreparedStatement psSelectChannelIds = conn.prepareStatement("SELECT c.channel_id "
 						+ "FROM websocket_channel AS c "
 						+ "ORDER BY c.channel_id");
@@ -198,11 +359,258 @@ public class TableWebSocket extends ParosAbstractTable {
 					}
 				}
 			}
+			
+			// resume purges of the previous time the session was open
+			synchronized (this) {
+				for (Integer channelId : purgedChannelIds) {
+					startPurge(channelId, sum(purgedMessageCounts.get(channelId)));
+				}
+			}
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
 		}
     }
 
+	/**
+	 * Replaces the purged channels with the ones of given connection, the
+	 * purges of the previous connection are cancelled.
+	 */
+	private void loadPurgedChannelIds(Connection conn) throws SQLException {
+		cancelPurges();
+		purgedChannelIds.clear();
+		
+		try (PreparedStatement stmt = conn.prepareStatement("SELECT p.channel_id FROM websocket_channel_purge AS p");
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				purgedChannelIds.add(rs.getInt(1));
+			}
+		}
+	}
+
+	private static void createIndexIfAbsent(Connection conn, String indexName, String columns) throws SQLException {
+		DatabaseMetaData metaData = conn.getMetaData();
+		try (ResultSet rs = metaData.getIndexInfo(null, null, "WEBSOCKET_MESSAGE", false, false)) {
+			while (rs.next()) {
+				if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+					return;
+				}
+			}
+		}
+		
+		DbUtils.executeAndClose(conn.prepareStatement("CREATE INDEX " + indexName + " ON websocket_message (" + columns + ")"));
+	}
+
+	private void loadMessageCounts(Connection conn) throws SQLException {
+		messageCounts = new HashMap<>();
+		
+		PreparedStatement stmt = conn.prepareStatement("SELECT m.channel_id, m.opcode, m.is_outgoing, COUNT(m.message_id) "
+				+ "FROM websocket_message AS m "
+				+ "GROUP BY m.channel_id, m.opcode, m.is_outgoing");
+		try (ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				int[] counts = getMessageCounts(rs.getInt(1));
+				counts[getMessageCountIndex(rs.getInt(2), rs.getBoolean(3))] += rs.getInt(4);
+			}
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private int[] getMessageCounts(int channelId) {
+		int[] counts = messageCounts.get(channelId);
+		if (counts == null) {
+			// 4 bits opcode, 1 bit direction
+			counts = new int[32];
+			messageCounts.put(channelId, counts);
+		}
+		return counts;
+	}
+
+	private static int getMessageCountIndex(int opcode, boolean isOutgoing) {
+		return ((opcode & 0xF) << 1) | (isOutgoing ? 1 : 0);
+	}
+
+	/**
+	 * Counts messages using the counters maintained while messages are
+	 * written, instead of querying the database.
+	 */
+	private int countMessages(Integer channelId, Boolean isOutgoing, List<Integer> opcodes, List<Integer> inScopeChannelIds) {
+		boolean allOpcodes = opcodes == null || opcodes.isEmpty();
+		int count = 0;
+		for (Map.Entry<Integer, int[]> entry : messageCounts.entrySet()) {
+			if (channelId != null && !channelId.equals(entry.getKey())) {
+				continue;
+			}
+			if (inScopeChannelIds != null && !inScopeChannelIds.contains(entry.getKey())) {
+				continue;
+			}
+			
+			int[] counts = entry.getValue();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) {
+					continue;
+				}
+				if (isOutgoing != null && isOutgoing.booleanValue() != ((i & 1) == 1)) {
+					continue;
+				}
+				if (!allOpcodes && !opcodes.contains(i >> 1)) {
+					continue;
+				}
+				count += counts[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the payload index stored with {@link #storePayloadIndex()} and
+	 * deletes it, such that it is not used again if the messages change
+	 * without storing it afterwards.
+	 * 
+	 * @return the stored index, or {@code null} if none was stored or it does
+	 *         not contain all messages
+	 */
+	private WebSocketPayloadIndex loadPayloadIndex(Connection conn) throws SQLException {
+		WebSocketPayloadIndex index = null;
+		try (PreparedStatement stmt = conn.prepareStatement("SELECT data FROM websocket_payload_index ORDER BY segment");
+				ResultSet rs = stmt.executeQuery()) {
+			if (rs.next()) {
+				index = WebSocketPayloadIndex.readFrom(new DataInputStream(new BufferedInputStream(new SegmentInputStream(rs))));
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to read payload index, it is created again when needed: " + e.getMessage());
+		}
+		DbUtils.executeAndClose(conn.prepareStatement("DELETE FROM websocket_payload_index"));
+		
+		if (index != null && index.getMessageCount() != countMessages(null, null, null, null)) {
+			logger.info("Payload index is outdated, it is created again when needed.");
+			return null;
+		}
+		return index;
+	}
+
+	/**
+	 * Waits until the payload index is available, it is created in background
+	 * from all stored messages if not yet available (see
+	 * {@link WebSocketPayloadIndexBuilder}).
+	 * <p>
+	 * Must be called without holding the lock of this object. The index might
+	 * no longer be available afterwards, if the session changed meanwhile.
+	 * 
+	 * @throws DatabaseException if the stored messages could not be read
+	 */
+	private void awaitPayloadIndex() throws DatabaseException {
+		WebSocketPayloadIndexBuilder builder;
+		synchronized (this) {
+			if (payloadIndex != null) {
+				return;
+			}
+			if (payloadIndexBuilder == null) {
+				// messages written afterwards are added by writeMessages()
+				payloadIndexBuilder = new WebSocketPayloadIndexBuilder(this);
+				
+				Thread thread = new Thread(payloadIndexBuilder, "ZAP-WebSocket-PayloadIndex");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			builder = payloadIndexBuilder;
+		}
+		builder.await();
+	}
+	
+	/**
+	 * Adds the next {@link #PAYLOAD_INDEX_PAGE_SIZE} stored messages to the
+	 * payload index being created.
+	 * 
+	 * @param builder
+	 * @return number of messages read, {@code 0} if none is left or if the
+	 *         index is no longer needed
+	 * @throws DatabaseException
+	 */
+	synchronized int readPayloadIndexPage(WebSocketPayloadIndexBuilder builder) throws DatabaseException {
+		if (builder != payloadIndexBuilder) {
+			return 0;
+		}
+		
+		String query = "SELECT m.message_id, m.channel_id, m.timestamp, m.payload_utf8 "
+				+ "FROM websocket_message AS m "
+				+ "<where> "
+				+ "ORDER BY m.timestamp, m.channel_id, m.message_id "
+				+ "LIMIT " + PAYLOAD_INDEX_PAGE_SIZE;
+		int count = 0;
+		try (PreparedStatement stmt = buildMessageCriteriaStatement(query, new WebSocketMessageDTO(), null, null, builder.getLastMessage());
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				builder.messageRead(rs.getInt(2), rs.getInt(1), rs.getTimestamp(3).getTime(), rs.getString(4));
+				count++;
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		return count;
+	}
+	
+	/**
+	 * Makes the index of the given builder available, once all stored
+	 * messages were read.
+	 * 
+	 * @param builder
+	 * @return {@code true} if completed, {@code false} if the index is no
+	 *         longer needed
+	 */
+	synchronized boolean completePayloadIndex(WebSocketPayloadIndexBuilder builder) {
+		if (builder != payloadIndexBuilder) {
+			return false;
+		}
+		payloadIndex = builder.getIndex();
+		payloadIndexBuilder = null;
+		return true;
+	}
+	
+	/**
+	 * Discards the given builder, the index is created again by the next
+	 * search.
+	 * 
+	 * @param builder
+	 */
+	synchronized void cancelPayloadIndex(WebSocketPayloadIndexBuilder builder) {
+		if (builder == payloadIndexBuilder) {
+			payloadIndexBuilder = null;
+		}
+	}
+
+	/**
+	 * Stores the payload index in the database, so that it does not have to
+	 * be created again after reopening the session. Should be called before
+	 * the database is closed, it is not stored otherwise.
+	 * 
+	 * @throws DatabaseException
+	 */
+	public synchronized void storePayloadIndex() throws DatabaseException {
+		if (payloadIndex == null) {
+			return;
+		}
+		
+		try {
+			Connection conn = getConnection();
+			if (conn.isClosed()) {
+				return;
+			}
+			flushQueuedMessages();
+			
+			DbUtils.executeAndClose(conn.prepareStatement("DELETE FROM websocket_payload_index"));
+			try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO websocket_payload_index (segment, data) VALUES (?,?)");
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new SegmentOutputStream(stmt)))) {
+				payloadIndex.writeTo(out);
+			} catch (IOException e) {
+				DbUtils.executeAndClose(conn.prepareStatement("DELETE FROM websocket_payload_index"));
+				throw new DatabaseException(e);
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
     /**
 	 * Prepares a {@link PreparedStatement} instance on the fly.
 	 * 
@@ -216,7 +624,9 @@ public class TableWebSocket extends ParosAbstractTable {
 	}
 	
 	/**
-	 * Prepares a {@link PreparedStatement} instance on the fly.
+	 * Counts the messages with the counters kept per channel, opcode and
+	 * direction. Prepares a {@link PreparedStatement} instance on the fly, if
+	 * a fuzz ID is given.
 	 * 
 	 * @param criteria
 	 * @param opcodes Null when all opcodes should be retrieved.
@@ -225,6 +635,10 @@ public class TableWebSocket extends ParosAbstractTable {
 	 * @throws DatabaseException
 	 */
 	public synchronized int getMessageCount(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) throws DatabaseException {
+		if (!(criteria instanceof WebSocketFuzzMessageDTO) || ((WebSocketFuzzMessageDTO) criteria).fuzzId == null) {
+			return countMessages(criteria.channel.id, criteria.isOutgoing, opcodes, inScopeChannelIds);
+		}
+		
 		try {
 			String query = "SELECT COUNT(m.message_id) FROM websocket_message AS m "
 					+ "LEFT OUTER JOIN websocket_message_fuzz f "
@@ -280,6 +694,9 @@ public class TableWebSocket extends ParosAbstractTable {
 	
 	public synchronized WebSocketMessageDTO getMessage(int messageId, int channelId) throws DatabaseException {
 		try {
+			if (purgedChannelIds.contains(channelId)) {
+				throw new SQLException("Message not found!");
+			}
 			psSelectMessage.setInt(1, messageId);
 			psSelectMessage.setInt(2, channelId);
 			psSelectMessage.execute();
@@ -307,6 +724,156 @@ public class TableWebSocket extends ParosAbstractTable {
 	 * @throws DatabaseException
 	 */
 	public synchronized List<WebSocketMessageDTO> getMessages(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
+		return getMessages(criteria, opcodes, inScopeChannelIds, null, offset, limit, payloadPreviewLength);
+	}
+
+	/**
+	 * Retrieves list of {@link WebSocketMessageDTO} that follow the given
+	 * message, but loads only parts of the payload.
+	 * <p>
+	 * Unlike {@link #getMessages(WebSocketMessageDTO, List, List, int, int, int)
+	 * getMessages(..., offset, ...)} the database does not have to skip all
+	 * the preceding messages, which makes it suitable to load consecutive pages.
+	 * 
+	 * @param criteria
+	 * @param opcodes
+	 * @param inScopeChannelIds 
+	 * @param previous last message of the preceding page, with ID, channel and
+	 *            timestamp
+	 * @param limit
+	 * @param payloadPreviewLength
+	 * @return Messages that fulfill given template.
+	 * @throws DatabaseException
+	 */
+	public synchronized List<WebSocketMessageDTO> getMessagesAfter(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO previous, int limit, int payloadPreviewLength) throws DatabaseException {
+		return getMessages(criteria, opcodes, inScopeChannelIds, previous, 0, limit, payloadPreviewLength);
+	}
+
+	/**
+	 * Searches the text payloads of the messages that fulfill given template.
+	 * <p>
+	 * The payload index is used to read only the payloads of messages, that
+	 * contain the literals required by the pattern. If the pattern does not
+	 * require literals of at least three characters all payloads are read.
+	 * <p>
+	 * The first search waits until the index is created, which reads all
+	 * stored payloads, so it should not be called on the event dispatch
+	 * thread. The lock of this table is not held meanwhile.
+	 * 
+	 * @param payloadPattern found anywhere in the payload
+	 * @param criteria
+	 * @param opcodes
+	 * @param inScopeChannelIds
+	 * @return keys of matching messages, in the order they were stored
+	 * @throws DatabaseException
+	 */
+	public List<WebSocketMessagePrimaryKey> searchMessages(Pattern payloadPattern, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) throws DatabaseException {
+		while (true) {
+			awaitPayloadIndex();
+			synchronized (this) {
+				if (payloadIndex != null) {
+					return searchIndexedMessages(payloadPattern, criteria, opcodes, inScopeChannelIds, payloadIndex);
+				}
+				// session changed meanwhile, wait for the index of the new one
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of this object.
+	 */
+	private List<WebSocketMessagePrimaryKey> searchIndexedMessages(Pattern payloadPattern, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketPayloadIndex index) throws DatabaseException {
+		try {
+			List<WebSocketMessagePrimaryKey> candidates = index.getCandidates(payloadPattern);
+			if (candidates == null) {
+				return searchMessages(payloadPattern, criteria, opcodes, inScopeChannelIds, null);
+			}
+			
+			List<WebSocketMessagePrimaryKey> matches = new ArrayList<>();
+			for (int i = 0; i < candidates.size(); i += SEARCH_BATCH_SIZE) {
+				List<WebSocketMessagePrimaryKey> batch = candidates.subList(i, Math.min(i + SEARCH_BATCH_SIZE, candidates.size()));
+				Set<WebSocketMessagePrimaryKey> batchMatches = new HashSet<>(searchMessages(payloadPattern, criteria, opcodes, inScopeChannelIds, batch));
+				
+				// keep order of index
+				for (WebSocketMessagePrimaryKey key : batch) {
+					if (batchMatches.contains(key)) {
+						matches.add(key);
+					}
+				}
+			}
+			return matches;
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
+	/**
+	 * Retrieves the messages with the given keys (e.g. found by
+	 * {@link #searchMessages(Pattern, WebSocketMessageDTO, List, List)}), but
+	 * loads only parts of the payload.
+	 * 
+	 * @param keys
+	 * @param payloadPreviewLength
+	 * @return messages in the order of the given keys, without the ones no
+	 *         longer stored
+	 * @throws DatabaseException
+	 */
+	public synchronized List<WebSocketMessageDTO> getMessages(List<WebSocketMessagePrimaryKey> keys, int payloadPreviewLength) throws DatabaseException {
+		try {
+			String query = "SELECT m.message_id, m.channel_id, m.timestamp, m.opcode, m.payload_length, m.is_outgoing, "
+					+ "m.payload_utf8, m.payload_bytes, "
+					+ "f.fuzz_id, f.state, f.fuzz "
+					+ "FROM websocket_message AS m "
+					+ "LEFT OUTER JOIN websocket_message_fuzz f "
+					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+					+ "<where> ";
+			
+			Map<WebSocketMessagePrimaryKey, WebSocketMessageDTO> messages = new HashMap<>();
+			try (PreparedStatement stmt = buildMessageCriteriaStatement(query, new WebSocketMessageDTO(), null, null, null, keys)) {
+				stmt.execute();
+				for (WebSocketMessageDTO message : buildMessageDTOs(stmt.getResultSet(), true, payloadPreviewLength)) {
+					messages.put(getMessagePrimaryKey(message), message);
+				}
+			}
+			
+			List<WebSocketMessageDTO> result = new ArrayList<>(keys.size());
+			for (WebSocketMessagePrimaryKey key : keys) {
+				WebSocketMessageDTO message = messages.get(key);
+				if (message != null) {
+					result.add(message);
+				}
+			}
+			return result;
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
+	/**
+	 * @param keys messages to search, or {@code null} to search all
+	 */
+	private List<WebSocketMessagePrimaryKey> searchMessages(Pattern payloadPattern, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, List<WebSocketMessagePrimaryKey> keys) throws SQLException, DatabaseException {
+		String query = "SELECT m.message_id, m.channel_id, m.payload_utf8 "
+				+ "FROM websocket_message AS m "
+				+ "LEFT OUTER JOIN websocket_message_fuzz f "
+				+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+				+ "<where> AND m.payload_utf8 IS NOT NULL "
+				+ "ORDER BY m.timestamp, m.channel_id, m.message_id";
+		
+		List<WebSocketMessagePrimaryKey> matches = new ArrayList<>();
+		try (PreparedStatement stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds, null, keys);
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				String payload = rs.getString(3);
+				if (payloadPattern.matcher(payload).find()) {
+					matches.add(new WebSocketMessagePrimaryKey(rs.getInt(2), rs.getInt(1)));
+				}
+			}
+		}
+		return matches;
+	}
+
+	private List<WebSocketMessageDTO> getMessages(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO previous, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
 		try {
 			String query = "SELECT m.message_id, m.channel_id, m.timestamp, m.opcode, m.payload_length, m.is_outgoing, "
 					+ "m.payload_utf8, m.payload_bytes, "
@@ -316,12 +883,14 @@ public class TableWebSocket extends ParosAbstractTable {
 					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
 					+ "<where> "
 					+ "ORDER BY m.timestamp, m.channel_id, m.message_id "
-					+ "LIMIT ? "
-					+ "OFFSET ?";
+					+ "LIMIT ?";
+			if (previous == null) {
+				query += " OFFSET ?";
+			}
 
 			PreparedStatement stmt;
 			try {
-				stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds);
+				stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds, previous);
 			} catch (SQLException e) {
 				if (getConnection().isClosed()) {
 					return new ArrayList<>(0);
@@ -332,8 +901,12 @@ public class TableWebSocket extends ParosAbstractTable {
 			
 			try {
 				int paramsCount = stmt.getParameterMetaData().getParameterCount();
-				stmt.setInt(paramsCount - 1, limit);
-				stmt.setInt(paramsCount, offset);
+				if (previous == null) {
+					stmt.setInt(paramsCount - 1, limit);
+					stmt.setInt(paramsCount, offset);
+				} else {
+					stmt.setInt(paramsCount, limit);
+				}
 				
 				stmt.execute();
 				
@@ -362,12 +935,23 @@ public class TableWebSocket extends ParosAbstractTable {
 	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes, int payloadLength) 
 			throws SQLException, DatabaseException {
 		ArrayList<WebSocketMessageDTO> messages = new ArrayList<>();
+		// channels not cached are read at once, after all rows
+		Map<Integer, WebSocketChannelDTO> channels = new HashMap<>();
+		Map<Integer, List<WebSocketMessageDTO>> unresolvedMessages = new HashMap<>();
 		try {
 			while (rs.next()) {
 				WebSocketMessageDTO message;
 				
 				int channelId = rs.getInt("channel_id");
-				WebSocketChannelDTO channel = getChannel(channelId);
+				WebSocketChannelDTO channel = channels.get(channelId);
+				if (channel == null && !unresolvedMessages.containsKey(channelId)) {
+					channel = channelCache.get(channelId);
+					if (channel != null) {
+						channels.put(channelId, channel);
+					} else {
+						unresolvedMessages.put(channelId, new ArrayList<WebSocketMessageDTO>());
+					}
+				}
 
 				if (rs.getInt("fuzz_id") != 0) {
 					WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(channel);
@@ -419,33 +1003,80 @@ public class TableWebSocket extends ParosAbstractTable {
 				message.isOutgoing = rs.getBoolean("is_outgoing");
 				message.payloadLength = rs.getInt("payload_length");
 				
+				if (channel == null) {
+					unresolvedMessages.get(channelId).add(message);
+				}
 				messages.add(message);
 			}
 		} finally {
 			rs.close();
 		}
 		
+		if (!unresolvedMessages.isEmpty()) {
+			for (WebSocketChannelDTO channel : getChannels(unresolvedMessages.keySet())) {
+				for (WebSocketMessageDTO message : unresolvedMessages.remove(channel.id)) {
+					message.channel = channel;
+				}
+			}
+			if (!unresolvedMessages.isEmpty()) {
+				throw new SQLException("Channel '" + unresolvedMessages.keySet().iterator().next() + "' not found!");
+			}
+		}
+		
 		messages.trimToSize();
 		
 		return messages;
 	}
 
-	private WebSocketChannelDTO getChannel(int channelId) throws SQLException, DatabaseException {
-		if (!channelCache.containsKey(channelId)) {
-			WebSocketChannelDTO criteria = new WebSocketChannelDTO();
-			criteria.id = channelId;
-			List<WebSocketChannelDTO> channels = getChannels(criteria);
-			if (channels.size() == 1) {
-				channelCache.put(channelId, channels.get(0));
-			} else {
-				throw new SQLException("Channel '" + channelId + "' not found!");
-			}
-		}
-		return (WebSocketChannelDTO) channelCache.get(channelId);
-	}
+	/**
+	 * Reads the channels with given IDs, with one query per
+	 * {@link #CHANNEL_BATCH_SIZE} channels, and caches them.
+	 * 
+	 * @param ids
+	 * @return found channels, missing IDs are skipped
+	 * @throws SQLException
+	 */
+	private List<WebSocketChannelDTO> getChannels(Collection<Integer> ids) throws SQLException {
+		List<Integer> remaining = new ArrayList<>(ids);
+		List<WebSocketChannelDTO> channels = new ArrayList<>(remaining.size());
+		for (int start = 0; start < remaining.size(); start += CHANNEL_BATCH_SIZE) {
+			List<Integer> batch = remaining.subList(start, Math.min(start + CHANNEL_BATCH_SIZE, remaining.size()));
+			
+			StringBuilder query = new StringBuilder("SELECT c.* FROM websocket_channel AS c WHERE c.channel_id IN (");
+			for (int i = 0; i < batch.size(); i++) {
+				query.append(i == 0 ? "?" : ",?");
+			}
+			query.append(')');
+			
+			PreparedStatement stmt = getConnection().prepareStatement(query.toString());
+			try {
+				for (int i = 0; i < batch.size(); i++) {
+					stmt.setInt(i + 1, batch.get(i));
+				}
+				stmt.execute();
+				for (WebSocketChannelDTO channel : buildChannelDTOs(stmt.getResultSet())) {
+					channelCache.put(channel);
+					channels.add(channel);
+				}
+			} finally {
+				stmt.close();
+			}
+		}
+		return channels;
+	}
 
 	private PreparedStatement buildMessageCriteriaStatement(String query, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) 
 			throws SQLException, DatabaseException {
+		return buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds, null);
+	}
+
+	private PreparedStatement buildMessageCriteriaStatement(String query, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO previous) 
+			throws SQLException, DatabaseException {
+		return buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds, previous, null);
+	}
+
+	private PreparedStatement buildMessageCriteriaStatement(String query, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO previous, List<WebSocketMessagePrimaryKey> keys) 
+			throws SQLException, DatabaseException {
 		ArrayList<String> where = new ArrayList<>();
 		ArrayList<Object> params = new ArrayList<>();
 
@@ -505,6 +1136,37 @@ public class TableWebSocket extends ParosAbstractTable {
 			}
 		}
 		
+		if (previous != null) {
+			// seek past the given message, in the order of the index websocket_message_order
+			Timestamp timestamp = new Timestamp(previous.timestamp);
+			where.add("m.timestamp >= ? AND (m.timestamp > ? OR m.channel_id > ? OR (m.channel_id = ? AND m.message_id > ?))");
+			params.add(timestamp);
+			params.add(timestamp);
+			params.add(previous.channel.id);
+			params.add(previous.channel.id);
+			params.add(previous.id);
+		}
+		
+		if (keys != null) {
+			StringBuilder keysExpr = new StringBuilder("(m.channel_id, m.message_id) IN (");
+			if (keys.isEmpty()) {
+				keysExpr.append("(null, null)");
+			}
+			for (int i = 0; i < keys.size(); i++) {
+				WebSocketMessagePrimaryKey key = keys.get(i);
+				params.add(key.getChannelId());
+				params.add(key.getMessageId());
+				
+				keysExpr.append((i == 0) ? "(?,?)" : ",(?,?)");
+			}
+			keysExpr.append(")");
+			where.add(keysExpr.toString());
+		}
+		
+		if (!purgedChannelIds.isEmpty()) {
+			where.add("m.channel_id NOT IN (SELECT p.channel_id FROM websocket_channel_purge AS p)");
+		}
+		
 		where.trimToSize();
 		params.trimToSize();
 		
@@ -532,6 +1194,9 @@ public class TableWebSocket extends ParosAbstractTable {
 			while (rs.next()) {
 				WebSocketChannelDTO channel = new WebSocketChannelDTO();
 				channel.id = rs.getInt("channel_id");
+				if (purgedChannelIds.contains(channel.id)) {
+					continue;
+				}
 				channel.host = rs.getString("host");
 				channel.port = rs.getInt("port");
 				channel.url = rs.getString("url");
@@ -592,6 +1257,8 @@ public class TableWebSocket extends ParosAbstractTable {
 					stmt.execute();
 					if (addIdOnSuccess) {
 						channelIds.add(channel.id);
+					} else {
+						channelCache.remove(channel.id);
 					}
 					
 					if (channel.historyId != null) {
@@ -618,66 +1285,542 @@ public class TableWebSocket extends ParosAbstractTable {
 	}
 
 	public void insertMessage(WebSocketMessageDTO message) throws DatabaseException {
+		if (message.spilledPayload != null) {
+			// released once written
+			message.spilledPayload.retain();
+		}
+		insertRetainedMessage(message);
+	}
+
+	/**
+	 * Writes the queued messages and the given one, whose large payload (if
+	 * any) was already retained.
+	 */
+	private void insertRetainedMessage(WebSocketMessageDTO message) throws DatabaseException {
+		// synchronize on whole object to avoid race conditions with insertOrUpdateChannel()
+		synchronized (this) {
+			// queued messages go first, to keep the order of the messages
+			List<WebSocketMessageDTO> messages = new ArrayList<>(messageQueue.size() + 1);
+			messageQueue.drainTo(messages);
+			messages.add(message);
+			
+			writeMessages(messages);
+		}
+	}
+
+	/**
+	 * Queues the given message, to be written by the next call to
+	 * {@link #flushQueuedMessages()}.
+	 * <p>
+	 * Blocks while the queue is full (i.e. the messages are not written as fast
+	 * as they arrive).
+	 * 
+	 * @param message
+	 * @throws DatabaseException if the message could not be queued nor written
+	 */
+	public void queueMessage(WebSocketMessageDTO message) throws DatabaseException {
+		if (message.spilledPayload != null) {
+			// released once written
+			message.spilledPayload.retain();
+		}
+		
+		if (!messageQueue.offer(message)) {
+			queueStallCount.incrementAndGet();
+			wakeUpMessageWriter();
+			try {
+				messageQueue.put(message);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				// do not lose the message
+				insertRetainedMessage(message);
+				return;
+			}
+		}
+		
+		if (messageQueue.size() >= messageQueueWakeUpSize) {
+			wakeUpMessageWriter();
+		}
+	}
+
+	/**
+	 * Waits until at least {@code count} messages are queued, the given time
+	 * elapses or {@link #wakeUpMessageWriter()} is called.
+	 * 
+	 * @param count number of queued messages that ends the wait
+	 * @param timeout in milliseconds
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void awaitQueuedMessages(int count, long timeout) throws InterruptedException {
+		synchronized (messageQueueMonitor) {
+			messageQueueWakeUpSize = Math.max(1, Math.min(count, MESSAGE_QUEUE_CAPACITY));
+			
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			long remaining = timeout;
+			while (!messageWriterWokenUp && messageQueue.size() < messageQueueWakeUpSize && remaining > 0) {
+				messageQueueMonitor.wait(remaining);
+				remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			}
+			messageWriterWokenUp = false;
+		}
+	}
+
+	/**
+	 * Wakes up the thread waiting in {@link #awaitQueuedMessages(int, long)}.
+	 */
+	void wakeUpMessageWriter() {
+		synchronized (messageQueueMonitor) {
+			messageWriterWokenUp = true;
+			messageQueueMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Writes all queued messages with one batch.
+	 * 
+	 * @return number of messages written
+	 * @throws DatabaseException
+	 */
+	public int flushQueuedMessages() throws DatabaseException {
+		if (messageQueue.isEmpty() && messagesBuffer.isEmpty()) {
+			return 0;
+		}
+		
+		synchronized (this) {
+			List<WebSocketMessageDTO> messages = new ArrayList<>(messageQueue.size());
+			messageQueue.drainTo(messages);
+			
+			return writeMessages(messages);
+		}
+	}
+
+	/**
+	 * Writes the given messages (preceded by the ones buffered while the
+	 * connection was closed) with one batch and one commit.
+	 * <p>
+	 * Must be called while holding the lock of this object.
+	 * 
+	 * @param messages
+	 * @return number of messages written
+	 * @throws DatabaseException
+	 */
+	private int writeMessages(List<WebSocketMessageDTO> messages) throws DatabaseException {
+		return writeMessages(messages, true);
+	}
+
+	/**
+	 * @param messages
+	 * @param captured {@code false} if the messages were imported, the time
+	 *            until they are stored is not recorded then
+	 */
+	private int writeMessages(List<WebSocketMessageDTO> messages, boolean captured) throws DatabaseException {
 		try {
-			// synchronize on whole object to avoid race conditions with insertOrUpdateChannel()
-			synchronized (this) {
-				if (getConnection().isClosed()) {
-					// temporarily buffer messages and write them the next time
-					messagesBuffer.offer(message);
-					return;
-				}
+			Connection conn = getConnection();
+			if (conn.isClosed()) {
+				// temporarily buffer messages and write them the next time
+				messagesBuffer.addAll(messages);
+				return 0;
+			}
+			
+			if (!messagesBuffer.isEmpty()) {
+				messages.addAll(0, messagesBuffer);
+				messagesBuffer.clear();
+			}
+			
+			if (messages.isEmpty()) {
+				return 0;
+			}
+			
+			long start = System.nanoTime();
+			List<WebSocketMessageDTO> written = new ArrayList<>(messages.size());
+			int count;
+			
+			boolean autoCommit = conn.getAutoCommit();
+			if (autoCommit) {
+				conn.setAutoCommit(false);
+			}
+			try {
+				count = insertMessages(messages, written);
 				
-				do {
-					if (!channelIds.contains(message.channel.id)) {
-						// maybe channel is buffered
-						if (channelsBuffer.size() > 0) {
-							insertOrUpdateChannel(channelsBuffer.poll());
-						}
-						throw new SQLException("channel not inserted: " + message.channel.id);
-					}
-					
+				if (autoCommit) {
+					conn.commit();
+				}
+			} catch (SQLException e) {
+				psInsertMessage.clearBatch();
+				psInsertFuzz.clearBatch();
+				if (!autoCommit) {
+					throw e;
+				}
+				try {
+					conn.rollback();
+				} catch (SQLException ex) {
 					if (logger.isDebugEnabled()) {
-						logger.debug("insert message: " + message.toString());
+						logger.debug(ex.getMessage(), ex);
 					}
-
-					psInsertMessage.setInt(1, message.id);
-					psInsertMessage.setInt(2, message.channel.id);
-					psInsertMessage.setTimestamp(3, new Timestamp(message.timestamp));
-					psInsertMessage.setInt(4, message.opcode);
-
-					// write payload
-					if (message.payload instanceof String) {
-						psInsertMessage.setClob(5, new JDBCClob((String) message.payload));
-						psInsertMessage.setNull(6, Types.BLOB);
-					} else if (message.payload instanceof byte[]) {
-						psInsertMessage.setNull(5, Types.CLOB);
-						psInsertMessage.setBlob(6, new JDBCBlob((byte[]) message.payload));
-					} else {
-						throw new SQLException("Attribute 'payload' of class WebSocketMessageDTO has got wrong type!");
-					}
-					
-					psInsertMessage.setInt(7, message.payloadLength);
-					psInsertMessage.setBoolean(8, message.isOutgoing);
-					psInsertMessage.execute();
-					
-					if (message instanceof WebSocketFuzzMessageDTO) {
-						WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
-						psInsertFuzz.setInt(1, fuzzMessage.fuzzId);
-						psInsertFuzz.setInt(2, fuzzMessage.id);
-						psInsertFuzz.setInt(3, fuzzMessage.channel.id);
-						psInsertFuzz.setString(4, fuzzMessage.state.toString());
-						psInsertFuzz.setString(5, fuzzMessage.fuzz);
-						psInsertFuzz.execute();
-					}
-					
-					message = messagesBuffer.poll();
-				} while (message != null);
+				}
+				
+				// do not lose the whole batch because of one message
+				logger.warn("Failed to write " + messages.size() + " messages with one batch, writing them one by one: " + e.getMessage());
+				conn.setAutoCommit(true);
+				written.clear();
+				count = insertMessagesOneByOne(messages, written);
+			} finally {
+				releaseSpilledPayloads(messages);
+				if (autoCommit) {
+					conn.setAutoCommit(true);
+				}
 			}
+			
+			WebSocketStatistics currentStatistics = statistics;
+			long now = System.currentTimeMillis();
+			for (WebSocketMessageDTO message : written) {
+				if (payloadIndex != null) {
+					payloadIndex.add(message);
+				} else if (payloadIndexBuilder != null) {
+					payloadIndexBuilder.messageWritten(message);
+				}
+				getMessageCounts(message.channel.id)[getMessageCountIndex(message.opcode, message.isOutgoing)]++;
+				message.writtenMessageCount = writtenMessageCount.incrementAndGet();
+				if (captured && currentStatistics != null) {
+					currentStatistics.recordStorageLag(message.channel.id, TimeUnit.MILLISECONDS.toNanos(now - message.timestamp));
+				}
+			}
+			for (WebSocketMessageDTO message : messages) {
+				if (message.writtenMessageCount == 0) {
+					// e.g. channel purged meanwhile, readers must not wait for it
+					message.writtenMessageCount = -1;
+				}
+			}
+			
+			lastBatchSize = count;
+			lastFlushDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			
+			return count;
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
 		}
 	}
 
+	/**
+	 * Inserts the given messages with batches of {@link #MAX_JDBC_BATCH_SIZE}
+	 * messages, skipping the ones whose channel is purged or not inserted.
+	 * 
+	 * @param messages
+	 * @param written receives the messages inserted
+	 * @return number of messages inserted
+	 * @throws SQLException if a batch failed, the messages might be partially
+	 *             inserted then
+	 * @throws DatabaseException if a buffered channel could not be inserted
+	 */
+	private int insertMessages(List<WebSocketMessageDTO> messages, List<WebSocketMessageDTO> written) throws SQLException, DatabaseException {
+		int count = 0;
+		boolean hasFuzzMessages = false;
+		
+		for (WebSocketMessageDTO message : messages) {
+			if (purgedChannelIds.contains(message.channel.id)) {
+				continue;
+			}
+			if (!channelIds.contains(message.channel.id)) {
+				// maybe channel is buffered
+				if (channelsBuffer.size() > 0) {
+					insertOrUpdateChannel(channelsBuffer.poll());
+				}
+				if (!channelIds.contains(message.channel.id)) {
+					logger.error("channel not inserted: " + message.channel.id);
+					continue;
+				}
+			}
+			
+			if (logger.isDebugEnabled()) {
+				logger.debug("insert message: " + message.toString());
+			}
+
+			psInsertMessage.setInt(1, message.id);
+			psInsertMessage.setInt(2, message.channel.id);
+			psInsertMessage.setTimestamp(3, new Timestamp(message.timestamp));
+			psInsertMessage.setInt(4, message.opcode);
+
+			// write payload
+			SpilledPayload spilledPayload = message.spilledPayload;
+			if (message.payload == null && spilledPayload != null) {
+				// large payload is streamed from its file
+				InputStream in = spilledPayload.newInputStream(message.payloadLength);
+				if (message.opcode == WebSocketMessage.OPCODE_BINARY) {
+					psInsertMessage.setNull(5, Types.CLOB);
+					psInsertMessage.setBinaryStream(6, in, message.payloadLength);
+				} else {
+					psInsertMessage.setCharacterStream(5, new InputStreamReader(in, StandardCharsets.UTF_8));
+					psInsertMessage.setNull(6, Types.BLOB);
+				}
+			} else if (message.payload instanceof String) {
+				psInsertMessage.setString(5, (String) message.payload);
+				psInsertMessage.setNull(6, Types.BLOB);
+			} else if (message.payload instanceof byte[]) {
+				psInsertMessage.setNull(5, Types.CLOB);
+				psInsertMessage.setBytes(6, (byte[]) message.payload);
+			} else {
+				throw new SQLException("Attribute 'payload' of class WebSocketMessageDTO has got wrong type!");
+			}
+			
+			psInsertMessage.setInt(7, message.payloadLength);
+			psInsertMessage.setBoolean(8, message.isOutgoing);
+			psInsertMessage.addBatch();
+			written.add(message);
+			count++;
+			
+			if (count % MAX_JDBC_BATCH_SIZE == 0) {
+				psInsertMessage.executeBatch();
+				if (hasFuzzMessages) {
+					psInsertFuzz.executeBatch();
+					hasFuzzMessages = false;
+				}
+			}
+			
+			if (message instanceof WebSocketFuzzMessageDTO) {
+				WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
+				psInsertFuzz.setInt(1, fuzzMessage.fuzzId);
+				psInsertFuzz.setInt(2, fuzzMessage.id);
+				psInsertFuzz.setInt(3, fuzzMessage.channel.id);
+				psInsertFuzz.setString(4, fuzzMessage.state.toString());
+				psInsertFuzz.setString(5, fuzzMessage.fuzz);
+				psInsertFuzz.addBatch();
+				hasFuzzMessages = true;
+			}
+		}
+		
+		if (count % MAX_JDBC_BATCH_SIZE != 0) {
+			psInsertMessage.executeBatch();
+		}
+		if (hasFuzzMessages) {
+			psInsertFuzz.executeBatch();
+		}
+		return count;
+	}
+
+	/**
+	 * Releases the large payloads retained by
+	 * {@link #queueMessage(WebSocketMessageDTO)}, once the messages were
+	 * written (or failed to be written).
+	 * 
+	 * @param messages
+	 */
+	private static void releaseSpilledPayloads(List<WebSocketMessageDTO> messages) {
+		for (WebSocketMessageDTO message : messages) {
+			if (message.spilledPayload != null) {
+				message.spilledPayload.release();
+			}
+		}
+	}
+
+	/**
+	 * Inserts the given messages one at a time, with auto-commit enabled, such
+	 * that only the messages that fail are lost.
+	 * 
+	 * @param messages
+	 * @param written receives the messages inserted
+	 * @return number of messages inserted
+	 * @throws DatabaseException if a buffered channel could not be inserted
+	 */
+	private int insertMessagesOneByOne(List<WebSocketMessageDTO> messages, List<WebSocketMessageDTO> written) throws DatabaseException {
+		int count = 0;
+		List<WebSocketMessageDTO> inserted = new ArrayList<>(1);
+		for (WebSocketMessageDTO message : messages) {
+			inserted.clear();
+			try {
+				count += insertMessages(Collections.singletonList(message), inserted);
+				written.addAll(inserted);
+			} catch (SQLException e) {
+				try {
+					psInsertMessage.clearBatch();
+					psInsertFuzz.clearBatch();
+				} catch (SQLException ex) {
+					if (logger.isDebugEnabled()) {
+						logger.debug(ex.getMessage(), ex);
+					}
+				}
+				logger.error("Failed to write message " + message.id + " of channel " + message.channel.id + ": " + e.getMessage(), e);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes all channels and messages into the given archive. The messages
+	 * are read with one query per {@link #ARCHIVE_PAGE_SIZE} messages, without
+	 * holding the lock of this table in between. The payloads of a page are
+	 * read whole, messages too large for the archive are skipped.
+	 * 
+	 * @param writer
+	 * @return number of exported messages
+	 * @throws DatabaseException
+	 * @throws IOException
+	 */
+	public int exportArchive(WebSocketArchiveWriter writer) throws DatabaseException, IOException {
+		for (WebSocketChannelDTO channel : getChannelItems()) {
+			writer.writeChannel(channel);
+		}
+		
+		WebSocketMessageDTO criteria = new WebSocketMessageDTO();
+		int count = 0;
+		List<WebSocketMessageDTO> page = getMessages(criteria, null, null, 0, ARCHIVE_PAGE_SIZE, -1);
+		while (!page.isEmpty()) {
+			for (WebSocketMessageDTO message : page) {
+				if (writer.writeMessage(message)) {
+					count++;
+				} else {
+					logger.warn("Skipped message " + message.id + " of channel " + message.channel.id
+							+ ", its payload is too large for the archive.");
+				}
+			}
+			if (page.size() < ARCHIVE_PAGE_SIZE) {
+				break;
+			}
+			page = getMessagesAfter(criteria, null, null, page.get(page.size() - 1), ARCHIVE_PAGE_SIZE, -1);
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the channels and messages of the given archive, with batches of
+	 * {@link #MAX_JDBC_BATCH_SIZE} messages. The channels get new IDs, to not
+	 * clash with the ones of this session.
+	 * 
+	 * @param reader
+	 * @return number of imported messages
+	 * @throws DatabaseException
+	 * @throws IOException if the archive could not be read
+	 */
+	public int importArchive(WebSocketArchiveReader reader) throws DatabaseException, IOException {
+		ArchiveImporter importer = new ArchiveImporter();
+		try {
+			reader.read(importer);
+			importer.writeBatch();
+		} catch (WrappedDatabaseException e) {
+			throw (DatabaseException) e.getCause();
+		}
+		return importer.count;
+	}
+
+	private class ArchiveImporter implements WebSocketArchiveReader.RecordHandler {
+
+		private final Map<Integer, WebSocketChannelDTO> channels = new HashMap<>();
+		private List<WebSocketMessageDTO> batch = new ArrayList<>(MAX_JDBC_BATCH_SIZE);
+		private int count;
+
+		@Override
+		public void channelRead(WebSocketChannelDTO channel) throws IOException {
+			int archivedId = channel.id;
+			channel.id = WebSocketProxy.nextChannelId();
+			// the handshake is not part of the archive
+			channel.historyId = null;
+			try {
+				insertOrUpdateChannel(channel);
+			} catch (DatabaseException e) {
+				throw new WrappedDatabaseException(e);
+			}
+			channels.put(archivedId, channel);
+		}
+
+		@Override
+		public void messageRead(WebSocketMessageDTO message) throws IOException {
+			WebSocketChannelDTO channel = channels.get(message.channel.id);
+			if (channel == null) {
+				throw new IOException("Corrupted WebSocket archive, message of unknown channel: " + message.channel.id);
+			}
+			message.channel = channel;
+			batch.add(message);
+			if (batch.size() == MAX_JDBC_BATCH_SIZE) {
+				writeBatch();
+			}
+		}
+
+		void writeBatch() throws IOException {
+			if (batch.isEmpty()) {
+				return;
+			}
+			try {
+				synchronized (TableWebSocket.this) {
+					count += writeMessages(batch, false);
+				}
+			} catch (DatabaseException e) {
+				throw new WrappedDatabaseException(e);
+			}
+			batch = new ArrayList<>(MAX_JDBC_BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Passes a {@link DatabaseException} through
+	 * {@link WebSocketArchiveReader.RecordHandler}.
+	 */
+	private static class WrappedDatabaseException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		WrappedDatabaseException(DatabaseException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * @return number of messages currently waiting to be written
+	 */
+	public int getQueuedMessageCount() {
+		return messageQueue.size();
+	}
+
+	/**
+	 * @return how many times {@link #queueMessage(WebSocketMessageDTO)} had to
+	 *         wait for the queue to be flushed
+	 */
+	public long getQueueStallCount() {
+		return queueStallCount.get();
+	}
+
+	/**
+	 * @return number of messages written with the last batch
+	 */
+	public int getLastBatchSize() {
+		return lastBatchSize;
+	}
+
+	/**
+	 * @return duration of the last batch, in milliseconds
+	 */
+	public long getLastFlushDuration() {
+		return lastFlushDuration;
+	}
+
+	/**
+	 * @return number of messages written since this table was created
+	 */
+	public long getWrittenMessageCount() {
+		return writtenMessageCount.get();
+	}
+
+	/**
+	 * @return number of channels of read messages found in the channel cache
+	 */
+	public long getChannelCacheHitCount() {
+		return channelCache.getHitCount();
+	}
+
+	/**
+	 * @return number of channels of read messages that had to be read from
+	 *         the database
+	 */
+	public long getChannelCacheMissCount() {
+		return channelCache.getMissCount();
+	}
+
+	/**
+	 * Set the registry where the time until messages are stored is recorded.
+	 * 
+	 * @param statistics might be {@code null}
+	 */
+	public void setStatistics(WebSocketStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	public List<WebSocketChannelDTO> getChannels(WebSocketChannelDTO criteria) throws DatabaseException {
 		try {
 			String query = "SELECT c.* "
@@ -753,21 +1896,157 @@ public class TableWebSocket extends ParosAbstractTable {
 
 	/**
 	 * Deletes all entries from given channelId from database.
+	 * <p>
+	 * The channel is hidden from all reads at once, its messages are deleted
+	 * in background with chunks of {@link #PURGE_CHUNK_SIZE} messages, such
+	 * that messages of other channels are still written meanwhile.
 	 * 
 	 * @param channelId
+	 * @return the deletion in progress, or {@code null} if the channel is not
+	 *         stored
 	 * @throws SQLException 
 	 */
-	public void purgeChannel(Integer channelId) throws SQLException {
+	public WebSocketChannelPurge purgeChannel(Integer channelId) throws SQLException {
 		synchronized (this) {
-			if (channelIds.contains(channelId)) {
-				psDeleteMessagesByChannelId.setInt(1, channelId);
-				psDeleteMessagesByChannelId.execute();
-				
-				psDeleteChannel.setInt(1, channelId);
-				psDeleteChannel.execute();
-				
-				channelIds.remove(channelId);
+			// queued messages of the channel must not be written afterwards
+			Iterator<WebSocketMessageDTO> it = messageQueue.iterator();
+			while (it.hasNext()) {
+				WebSocketMessageDTO message = it.next();
+				if (channelId.equals(message.channel.id)) {
+					it.remove();
+					message.writtenMessageCount = -1;
+					if (message.spilledPayload != null) {
+						message.spilledPayload.release();
+					}
+				}
+			}
+			
+			if (purges.containsKey(channelId)) {
+				return purges.get(channelId);
+			}
+			
+			if (!channelIds.contains(channelId) || purgedChannelIds.contains(channelId)) {
+				return null;
 			}
+			
+			psInsertPurgedChannel.setInt(1, channelId);
+			psInsertPurgedChannel.execute();
+			purgedChannelIds.add(channelId);
+			
+			channelCache.remove(channelId);
+			int[] counts = messageCounts.remove(channelId);
+			if (payloadIndex != null) {
+				payloadIndex.removeChannel(channelId);
+			} else if (payloadIndexBuilder != null) {
+				payloadIndexBuilder.removeChannel(channelId);
+			}
+			return startPurge(channelId, sum(counts));
+		}
+	}
+	
+	private static int sum(int[] counts) {
+		int sum = 0;
+		if (counts != null) {
+			for (int count : counts) {
+				sum += count;
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Must be called while holding the lock of this object.
+	 */
+	private WebSocketChannelPurge startPurge(int channelId, int messageCount) {
+		WebSocketChannelPurge purge = new WebSocketChannelPurge(this, channelId, messageCount);
+		purges.put(channelId, purge);
+		
+		if (purgeExecutor == null) {
+			purgeExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "ZAP-WebSocket-Purge");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			purgeExecutor.allowCoreThreadTimeOut(true);
+		}
+		purgeExecutor.execute(purge);
+		return purge;
+	}
+	
+	/**
+	 * Deletes the next chunk of messages of the purged channel.
+	 * 
+	 * @param purge
+	 * @return number of deleted messages, {@code 0} if none is left or if the
+	 *         purge was cancelled
+	 * @throws DatabaseException
+	 */
+	synchronized int deletePurgedMessages(WebSocketChannelPurge purge) throws DatabaseException {
+		try {
+			if (purge.isCancelled() || getConnection().isClosed()) {
+				return 0;
+			}
+			psDeleteMessagesByChannelId.setInt(1, purge.getChannelId());
+			return psDeleteMessagesByChannelId.executeUpdate();
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+	
+	/**
+	 * Deletes the channel of the given purge, once all its messages are
+	 * deleted.
+	 * 
+	 * @param purge
+	 * @return {@code true} if deleted, {@code false} if the purge was
+	 *         cancelled
+	 * @throws DatabaseException
+	 */
+	synchronized boolean completePurge(WebSocketChannelPurge purge) throws DatabaseException {
+		try {
+			if (purge.isCancelled() || getConnection().isClosed()) {
+				return false;
+			}
+			int channelId = purge.getChannelId();
+			psDeleteChannel.setInt(1, channelId);
+			psDeleteChannel.execute();
+			
+			psDeletePurgedChannel.setInt(1, channelId);
+			psDeletePurgedChannel.execute();
+			
+			channelIds.remove(channelId);
+			purgedChannelIds.remove(channelId);
+			purges.remove(channelId);
+			return true;
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+	
+	/**
+	 * @return the purges not yet completed
+	 */
+	public synchronized List<WebSocketChannelPurge> getPurges() {
+		return new ArrayList<>(purges.values());
+	}
+	
+	/**
+	 * Cancels all purges, which are resumed the next time the session is
+	 * opened. Returns once the chunk being deleted, if any, is deleted.
+	 */
+	public synchronized void cancelPurges() {
+		for (WebSocketChannelPurge purge : purges.values()) {
+			purge.cancel();
+		}
+		purges.clear();
+		if (purgeExecutor != null) {
+			purgeExecutor.getQueue().clear();
 		}
 	}
 
@@ -780,4 +2059,99 @@ public class TableWebSocket extends ParosAbstractTable {
 			return executeAndGetSingleIntValue(psSelectMaxChannelId);
 		}
 	}
+
+	/**
+	 * Writes to the payload index table, one row per
+	 * {@link #PAYLOAD_INDEX_SEGMENT_SIZE} bytes.
+	 */
+	private static class SegmentOutputStream extends OutputStream {
+
+		private final PreparedStatement psInsertSegment;
+		private final byte[] buffer = new byte[PAYLOAD_INDEX_SEGMENT_SIZE];
+		private int length;
+		private int segment;
+
+		public SegmentOutputStream(PreparedStatement psInsertSegment) {
+			this.psInsertSegment = psInsertSegment;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (length == buffer.length) {
+				writeSegment();
+			}
+			buffer[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (length == buffer.length) {
+					writeSegment();
+				}
+				int count = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, count);
+				length += count;
+				off += count;
+				len -= count;
+			}
+		}
+
+		private void writeSegment() throws IOException {
+			try {
+				psInsertSegment.setInt(1, segment++);
+				psInsertSegment.setBytes(2, Arrays.copyOf(buffer, length));
+				psInsertSegment.execute();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+			length = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (length > 0) {
+				writeSegment();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of the payload index table as one stream.
+	 */
+	private static class SegmentInputStream extends InputStream {
+
+		private final ResultSet rs;
+		private InputStream segment;
+
+		/**
+		 * @param rs positioned at the first segment
+		 */
+		public SegmentInputStream(ResultSet rs) throws SQLException {
+			this.rs = rs;
+			this.segment = rs.getBinaryStream(1);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				while (segment != null) {
+					int count = segment.read(b, off, len);
+					if (count != -1) {
+						return count;
+					}
+					segment = rs.next() ? rs.getBinaryStream(1) : null;
+				}
+				return -1;
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+	}
 }
@@ -0,0 +1,395 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Reads a WebSocket archive written with {@link WebSocketArchiveWriter},
+ * either sequentially from a stream or block by block from a file, using the
+ * index at its end.
+ */
+public class WebSocketArchiveReader implements Closeable {
+
+	/**
+	 * Receives the records read, in the order they were written.
+	 */
+	public interface RecordHandler {
+
+		void channelRead(WebSocketChannelDTO channel) throws IOException;
+
+		void messageRead(WebSocketMessageDTO message) throws IOException;
+	}
+
+	/**
+	 * Entry of the index, one per block.
+	 */
+	public static final class Block {
+
+		private final long offset;
+		private final int recordCount;
+		private final long firstTimestamp;
+
+		Block(long offset, int recordCount, long firstTimestamp) {
+			this.offset = offset;
+			this.recordCount = recordCount;
+			this.firstTimestamp = firstTimestamp;
+		}
+
+		/**
+		 * @return position of the block in the archive
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getRecordCount() {
+			return recordCount;
+		}
+
+		/**
+		 * @return timestamp of the first message of the block, or
+		 *         {@link Long#MIN_VALUE} if it contains only channels
+		 */
+		public long getFirstTimestamp() {
+			return firstTimestamp;
+		}
+	}
+
+	/**
+	 * Length of an entry of the index: offset, record count and timestamp.
+	 */
+	private static final int INDEX_ENTRY_LENGTH = 8 + 4 + 8;
+
+	private final DataInput in;
+	private final Closeable source;
+	private final RandomAccessFile file;
+	private final Inflater inflater = new Inflater();
+	private byte[] compressed = new byte[WebSocketArchiveWriter.BLOCK_SIZE];
+	private byte[] data = new byte[WebSocketArchiveWriter.BLOCK_SIZE];
+
+	/**
+	 * @param in closed together with this reader
+	 * @throws IOException if the stream is no WebSocket archive
+	 */
+	public WebSocketArchiveReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+		this.source = in;
+		this.file = null;
+		readHeader(this.in);
+	}
+
+	/**
+	 * Creates a reader that also allows to read single blocks, with
+	 * {@link #getBlocks()} and {@link #readBlock(Block, RecordHandler)}.
+	 * 
+	 * @param file closed together with this reader
+	 * @throws IOException if the file is no WebSocket archive
+	 */
+	public WebSocketArchiveReader(RandomAccessFile file) throws IOException {
+		this.in = file;
+		this.source = file;
+		this.file = file;
+		readHeader(file);
+	}
+
+	private static void readHeader(DataInput in) throws IOException {
+		byte[] magic = new byte[WebSocketArchiveWriter.MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, WebSocketArchiveWriter.MAGIC)) {
+			throw new IOException("Not a WebSocket archive.");
+		}
+		int version = in.readInt();
+		if (version != WebSocketArchiveWriter.VERSION) {
+			throw new IOException("Unsupported WebSocket archive version: " + version);
+		}
+	}
+
+	/**
+	 * Reads all remaining records, holding one block in memory at a time.
+	 * 
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void read(RecordHandler handler) throws IOException {
+		while (true) {
+			byte type = in.readByte();
+			if (type == WebSocketArchiveWriter.INDEX) {
+				return;
+			}
+			if (type != WebSocketArchiveWriter.BLOCK) {
+				throw new IOException("Corrupted WebSocket archive, unknown block type: " + type);
+			}
+			readBlock(in, handler);
+		}
+	}
+
+	private void readBlock(DataInput in, RecordHandler handler) throws IOException {
+		int length = in.readInt();
+		int compressedLength = in.readInt();
+		int recordCount = in.readInt();
+		if (length < 0 || length > WebSocketArchiveWriter.MAX_BLOCK_LENGTH || compressedLength < 0
+				|| compressedLength > getMaxCompressedLength(length) || compressedLength > getRemainingLength(in)) {
+			throw new IOException("Corrupted WebSocket archive, invalid block length.");
+		}
+		if (recordCount < 0) {
+			throw new IOException("Corrupted WebSocket archive, invalid record count.");
+		}
+		
+		if (compressed.length < compressedLength) {
+			compressed = new byte[compressedLength];
+		}
+		in.readFully(compressed, 0, compressedLength);
+		if (data.length < length) {
+			data = new byte[length];
+		}
+		
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try {
+			if (inflater.inflate(data, 0, length) != length || !inflater.finished()) {
+				throw new IOException("Corrupted WebSocket archive, invalid block data.");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted WebSocket archive: " + e.getMessage(), e);
+		}
+		
+		DataInputStream records = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+		for (int i = 0; i < recordCount; i++) {
+			byte type = records.readByte();
+			if (type == WebSocketArchiveWriter.CHANNEL) {
+				handler.channelRead(readChannel(records));
+			} else if (type == WebSocketArchiveWriter.MESSAGE) {
+				handler.messageRead(readMessage(records));
+			} else {
+				throw new IOException("Corrupted WebSocket archive, unknown record type: " + type);
+			}
+		}
+	}
+
+	/**
+	 * @param length uncompressed length
+	 * @return maximum length of the given data once compressed, deflate
+	 *         stores incompressible data with a few bytes per 16 KiB
+	 */
+	private static int getMaxCompressedLength(int length) {
+		return length + (length >> 8) + 64;
+	}
+
+	/**
+	 * @return number of bytes left in the given input, or
+	 *         {@link Integer#MAX_VALUE} if not known
+	 */
+	private static long getRemainingLength(DataInput in) throws IOException {
+		if (in instanceof RandomAccessFile) {
+			RandomAccessFile file = (RandomAccessFile) in;
+			return file.length() - file.getFilePointer();
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	private static WebSocketChannelDTO readChannel(DataInputStream in) throws IOException {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = in.readInt();
+		channel.host = readString(in);
+		channel.port = in.readInt();
+		channel.url = readString(in);
+		channel.startTimestamp = readNullableLong(in);
+		channel.endTimestamp = readNullableLong(in);
+		if (in.readBoolean()) {
+			channel.historyId = in.readInt();
+		}
+		return channel;
+	}
+
+	private static WebSocketMessageDTO readMessage(DataInputStream in) throws IOException {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = in.readInt();
+		int id = in.readInt();
+		long timestamp = in.readLong();
+		int opcode = in.readByte();
+		boolean outgoing = in.readBoolean();
+		int payloadLength = in.readInt();
+		
+		Object payload;
+		if (in.readByte() == WebSocketArchiveWriter.PAYLOAD_BINARY) {
+			byte[] bytes = new byte[readLength(in)];
+			in.readFully(bytes);
+			payload = bytes;
+		} else {
+			payload = readString(in);
+			if (payload == null) {
+				// the database requires a payload
+				payload = opcode == WebSocketMessage.OPCODE_BINARY ? new byte[0] : "";
+			}
+		}
+		
+		WebSocketMessageDTO message;
+		if (in.readBoolean()) {
+			WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(channel);
+			fuzzMessage.fuzzId = in.readInt();
+			fuzzMessage.state = readFuzzState(in);
+			fuzzMessage.fuzz = readString(in);
+			message = fuzzMessage;
+		} else {
+			message = new WebSocketMessageDTO(channel);
+		}
+		
+		message.id = id;
+		message.setTime(new Timestamp(timestamp));
+		message.opcode = opcode;
+		message.readableOpcode = WebSocketMessage.opcode2string(opcode);
+		message.isOutgoing = outgoing;
+		message.payloadLength = payloadLength;
+		message.payload = payload;
+		return message;
+	}
+
+	private static Long readNullableLong(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	private static WebSocketFuzzMessageDTO.State readFuzzState(DataInputStream in) throws IOException {
+		String state = readString(in);
+		for (WebSocketFuzzMessageDTO.State value : WebSocketFuzzMessageDTO.State.values()) {
+			if (value.name().equals(state)) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupted WebSocket archive, unknown fuzz state: " + state);
+	}
+
+	/**
+	 * @param in the records of a block
+	 * @return the string, or {@code null}
+	 * @throws IOException if its length exceeds the remaining block data
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[checkLength(in, length)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param in the records of a block
+	 * @return length of the following data
+	 * @throws IOException if negative or exceeding the remaining block data
+	 */
+	private static int readLength(DataInputStream in) throws IOException {
+		return checkLength(in, in.readInt());
+	}
+
+	private static int checkLength(DataInputStream in, int length) throws IOException {
+		if (length < 0 || length > in.available()) {
+			throw new IOException("Corrupted WebSocket archive, invalid length: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Reads the index at the end of the archive. Moves the position of
+	 * {@link #read(RecordHandler)}.
+	 * 
+	 * @return the blocks of the archive, in the order they were written
+	 * @throws IOException
+	 * @throws IllegalStateException if not created with a file
+	 */
+	public List<Block> getBlocks() throws IOException {
+		RandomAccessFile file = getFile();
+		int footerLength = 8 + WebSocketArchiveWriter.MAGIC.length;
+		if (file.length() < footerLength) {
+			throw new EOFException("Corrupted WebSocket archive, index not found.");
+		}
+		
+		file.seek(file.length() - footerLength);
+		long indexOffset = file.readLong();
+		byte[] magic = new byte[WebSocketArchiveWriter.MAGIC.length];
+		file.readFully(magic);
+		if (!Arrays.equals(magic, WebSocketArchiveWriter.MAGIC) || indexOffset < 0 || indexOffset >= file.length()) {
+			throw new IOException("Corrupted WebSocket archive, index not found.");
+		}
+		
+		file.seek(indexOffset);
+		if (file.readByte() != WebSocketArchiveWriter.INDEX) {
+			throw new IOException("Corrupted WebSocket archive, index not found.");
+		}
+		int count = file.readInt();
+		if (count < 0 || count > (file.length() - file.getFilePointer() - footerLength) / INDEX_ENTRY_LENGTH) {
+			throw new IOException("Corrupted WebSocket archive, invalid block count: " + count);
+		}
+		List<Block> blocks = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			blocks.add(new Block(file.readLong(), file.readInt(), file.readLong()));
+		}
+		return blocks;
+	}
+
+	/**
+	 * Reads the records of one block of the archive. Moves the position of
+	 * {@link #read(RecordHandler)}.
+	 * 
+	 * @param block an entry of {@link #getBlocks()}
+	 * @param handler
+	 * @throws IOException
+	 * @throws IllegalStateException if not created with a file
+	 */
+	public void readBlock(Block block, RecordHandler handler) throws IOException {
+		RandomAccessFile file = getFile();
+		file.seek(block.getOffset());
+		if (file.readByte() != WebSocketArchiveWriter.BLOCK) {
+			throw new IOException("Corrupted WebSocket archive, no block at " + block.getOffset());
+		}
+		readBlock(file, handler);
+	}
+
+	private RandomAccessFile getFile() {
+		if (file == null) {
+			throw new IllegalStateException("Blocks can be read only from a file.");
+		}
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		source.close();
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Writes channels and messages into a WebSocket archive, to be read with
+ * {@link WebSocketArchiveReader}.
+ * <p>
+ * The archive starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * blocks of records, each deflated on its own:
+ * 
+ * <pre>
+ * block:  BLOCK, uncompressed length, compressed length, record count, data
+ * record: CHANNEL or MESSAGE, fields (see writeChannel/writeMessage)
+ * index:  INDEX, block count, per block: offset, record count, first timestamp
+ * footer: offset of index, MAGIC
+ * </pre>
+ * 
+ * All numbers are big-endian, strings are length-prefixed UTF-8 with
+ * {@code -1} for {@code null}. The current block is kept in memory, up to
+ * {@link #BLOCK_SIZE} plus one record of at most {@link #MAX_RECORD_LENGTH}.
+ * Messages are passed with their whole payload, so a large payload is also
+ * held in memory while written.
+ */
+public class WebSocketArchiveWriter implements Closeable {
+
+	static final byte[] MAGIC = { 'Z', 'W', 'S', 'A' };
+
+	static final int VERSION = 1;
+
+	static final byte BLOCK = 1;
+	static final byte INDEX = 2;
+
+	static final byte CHANNEL = 1;
+	static final byte MESSAGE = 2;
+
+	static final byte PAYLOAD_TEXT = 0;
+	static final byte PAYLOAD_BINARY = 1;
+
+	/**
+	 * Uncompressed size after which a block is written.
+	 */
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum length of a record, larger messages are not written.
+	 */
+	static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * Maximum uncompressed length of a block, the block is written once it
+	 * exceeds {@link #BLOCK_SIZE}, so it might contain one large record more.
+	 */
+	static final int MAX_BLOCK_LENGTH = BLOCK_SIZE + MAX_RECORD_LENGTH;
+
+	private final DataOutputStream out;
+	private long offset;
+
+	private final BlockBuffer block = new BlockBuffer(BLOCK_SIZE + 1024);
+	private final DataOutputStream blockOut = new DataOutputStream(block);
+	private int blockRecordCount;
+	private long blockFirstTimestamp = Long.MIN_VALUE;
+
+	private final Deflater deflater = new Deflater();
+	private byte[] compressed = new byte[BLOCK_SIZE];
+
+	private final List<WebSocketArchiveReader.Block> blocks = new ArrayList<>();
+	private boolean closed;
+
+	/**
+	 * @param out closed together with this writer
+	 * @throws IOException
+	 */
+	public WebSocketArchiveWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.out.write(MAGIC);
+		this.out.writeInt(VERSION);
+		offset = MAGIC.length + 4;
+	}
+
+	public void writeChannel(WebSocketChannelDTO channel) throws IOException {
+		blockOut.writeByte(CHANNEL);
+		blockOut.writeInt(channel.id);
+		writeString(blockOut, channel.host);
+		blockOut.writeInt(channel.port);
+		writeString(blockOut, channel.url);
+		writeNullableLong(channel.startTimestamp);
+		writeNullableLong(channel.endTimestamp);
+		blockOut.writeBoolean(channel.historyId != null);
+		if (channel.historyId != null) {
+			blockOut.writeInt(channel.historyId);
+		}
+		recordWritten();
+	}
+
+	/**
+	 * Writes the given message, unless its record would exceed
+	 * {@link #MAX_RECORD_LENGTH}. A message without payload is written with
+	 * an empty one.
+	 * 
+	 * @param message
+	 * @return {@code true} if written, {@code false} if too large
+	 * @throws IOException
+	 */
+	public boolean writeMessage(WebSocketMessageDTO message) throws IOException {
+		byte[] payload;
+		boolean binary;
+		if (message.payload instanceof byte[]) {
+			payload = (byte[]) message.payload;
+			binary = true;
+		} else if (message.payload != null) {
+			payload = ((String) message.payload).getBytes(StandardCharsets.UTF_8);
+			binary = false;
+		} else {
+			payload = new byte[0];
+			binary = message.opcode == WebSocketMessage.OPCODE_BINARY;
+		}
+		if (payload.length > MAX_RECORD_LENGTH) {
+			return false;
+		}
+		
+		int recordStart = block.size();
+		blockOut.writeByte(MESSAGE);
+		blockOut.writeInt(message.channel.id);
+		blockOut.writeInt(message.id);
+		blockOut.writeLong(message.timestamp);
+		blockOut.writeByte(message.opcode);
+		blockOut.writeBoolean(message.isOutgoing);
+		blockOut.writeInt(message.payloadLength);
+		blockOut.writeByte(binary ? PAYLOAD_BINARY : PAYLOAD_TEXT);
+		blockOut.writeInt(payload.length);
+		blockOut.write(payload);
+		
+		boolean fuzz = message instanceof WebSocketFuzzMessageDTO && ((WebSocketFuzzMessageDTO) message).fuzzId != null;
+		blockOut.writeBoolean(fuzz);
+		if (fuzz) {
+			WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
+			blockOut.writeInt(fuzzMessage.fuzzId);
+			writeString(blockOut, fuzzMessage.state.name());
+			writeString(blockOut, fuzzMessage.fuzz);
+		}
+		if (block.size() - recordStart > MAX_RECORD_LENGTH) {
+			block.truncate(recordStart);
+			return false;
+		}
+		
+		if (blockFirstTimestamp == Long.MIN_VALUE) {
+			blockFirstTimestamp = message.timestamp;
+		}
+		recordWritten();
+		return true;
+	}
+
+	private void writeNullableLong(Long value) throws IOException {
+		blockOut.writeBoolean(value != null);
+		if (value != null) {
+			blockOut.writeLong(value);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void recordWritten() throws IOException {
+		blockRecordCount++;
+		if (block.size() >= BLOCK_SIZE) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (blockRecordCount == 0) {
+			return;
+		}
+		
+		byte[] data = block.toByteArray();
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				byte[] larger = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, larger, 0, length);
+				compressed = larger;
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		
+		blocks.add(new WebSocketArchiveReader.Block(offset, blockRecordCount, blockFirstTimestamp));
+		
+		out.writeByte(BLOCK);
+		out.writeInt(data.length);
+		out.writeInt(length);
+		out.writeInt(blockRecordCount);
+		out.write(compressed, 0, length);
+		offset += 13 + length;
+		
+		block.reset();
+		blockRecordCount = 0;
+		blockFirstTimestamp = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Writes the last block and the index.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		
+		try {
+			writeBlock();
+			
+			long indexOffset = offset;
+			out.writeByte(INDEX);
+			out.writeInt(blocks.size());
+			for (WebSocketArchiveReader.Block entry : blocks) {
+				out.writeLong(entry.getOffset());
+				out.writeInt(entry.getRecordCount());
+				out.writeLong(entry.getFirstTimestamp());
+			}
+			out.writeLong(indexOffset);
+			out.write(MAGIC);
+			out.flush();
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	/**
+	 * Allows to drop a record that turned out to be too large.
+	 */
+	private static class BlockBuffer extends ByteArrayOutputStream {
+
+		BlockBuffer(int size) {
+			super(size);
+		}
+
+		void truncate(int size) {
+			count = size;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+
+/**
+ * Caches the channels read by {@link TableWebSocket}, by channel ID.
+ * <p>
+ * The capacity starts at {@link #INITIAL_CAPACITY} and is doubled, up to
+ * {@link #MAX_CAPACITY}, whenever entries had to be evicted and more than a
+ * tenth of the last {@link #ADAPT_INTERVAL} lookups missed. Once the capacity
+ * is exceeded, the least recently used quarter of the entries is evicted.
+ * <p>
+ * This class is thread-safe.
+ */
+public class WebSocketChannelCache {
+
+	static final int INITIAL_CAPACITY = 64;
+
+	static final int MAX_CAPACITY = 16384;
+
+	/**
+	 * Number of lookups after which the capacity is adapted.
+	 */
+	static final int ADAPT_INTERVAL = 1024;
+
+	private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicInteger intervalLookups = new AtomicInteger();
+	private final AtomicInteger intervalMisses = new AtomicInteger();
+	private volatile boolean evictedInInterval;
+
+	private volatile int capacity = INITIAL_CAPACITY;
+
+	/**
+	 * @param channelId
+	 * @return the cached channel, or {@code null} if not cached
+	 */
+	public WebSocketChannelDTO get(int channelId) {
+		Entry entry = entries.get(channelId);
+		if (entry != null) {
+			entry.lastUsed = clock.incrementAndGet();
+			hitCount.incrementAndGet();
+			countLookup(false);
+			return entry.channel;
+		}
+		missCount.incrementAndGet();
+		countLookup(true);
+		return null;
+	}
+
+	public void put(WebSocketChannelDTO channel) {
+		entries.put(channel.id, new Entry(channel, clock.incrementAndGet()));
+		if (entries.size() > capacity) {
+			evict();
+		}
+	}
+
+	public void remove(int channelId) {
+		entries.remove(channelId);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return current maximum number of cached channels
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	private void countLookup(boolean miss) {
+		if (miss) {
+			intervalMisses.incrementAndGet();
+		}
+		if (intervalLookups.incrementAndGet() == ADAPT_INTERVAL) {
+			int misses = intervalMisses.getAndSet(0);
+			if (evictedInInterval && misses > ADAPT_INTERVAL / 10) {
+				capacity = Math.min(capacity * 2, MAX_CAPACITY);
+			}
+			evictedInInterval = false;
+			intervalLookups.set(0);
+		}
+	}
+
+	private synchronized void evict() {
+		int size = entries.size();
+		if (size <= capacity) {
+			return;
+		}
+
+		long[] lastUsed = new long[size];
+		int count = 0;
+		for (Entry entry : entries.values()) {
+			if (count == lastUsed.length) {
+				break;
+			}
+			lastUsed[count++] = entry.lastUsed;
+		}
+		Arrays.sort(lastUsed, 0, count);
+		long threshold = lastUsed[Math.min(count - 1, size - capacity * 3 / 4 - 1)];
+
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().lastUsed <= threshold) {
+				it.remove();
+			}
+		}
+		evictedInInterval = true;
+	}
+
+	private static final class Entry {
+
+		private final WebSocketChannelDTO channel;
+		private volatile long lastUsed;
+
+		Entry(WebSocketChannelDTO channel, long lastUsed) {
+			this.channel = channel;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
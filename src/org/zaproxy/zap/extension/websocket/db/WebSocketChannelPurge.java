@@ -0,0 +1,118 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.db.DatabaseException;
+
+/**
+ * Deletes the messages of a purged channel in chunks, in background.
+ * <p>
+ * The channel is hidden from reads of the {@link TableWebSocket} as soon as
+ * it is purged. If cancelled, the remaining messages are deleted the next
+ * time the session is opened.
+ * 
+ * @see TableWebSocket#purgeChannel(Integer)
+ */
+public class WebSocketChannelPurge implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(WebSocketChannelPurge.class);
+
+	private final TableWebSocket table;
+	private final int channelId;
+	private final int totalMessageCount;
+
+	private volatile int deletedMessageCount;
+	private volatile boolean cancelled;
+	private volatile boolean done;
+
+	WebSocketChannelPurge(TableWebSocket table, int channelId, int totalMessageCount) {
+		this.table = table;
+		this.channelId = channelId;
+		this.totalMessageCount = totalMessageCount;
+	}
+
+	public int getChannelId() {
+		return channelId;
+	}
+
+	/**
+	 * @return number of messages of the channel when it was purged
+	 */
+	public int getTotalMessageCount() {
+		return totalMessageCount;
+	}
+
+	public int getDeletedMessageCount() {
+		return deletedMessageCount;
+	}
+
+	/**
+	 * @return percentage of deleted messages, from 0 to 100
+	 */
+	public int getProgress() {
+		if (done || totalMessageCount == 0) {
+			return done ? 100 : 0;
+		}
+		return (int) Math.min(99, deletedMessageCount * 100L / totalMessageCount);
+	}
+
+	/**
+	 * Stops deleting after the current chunk. The channel stays hidden.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return {@code true} if all messages and the channel are deleted
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		try {
+			int deleted;
+			while (!cancelled && (deleted = table.deletePurgedMessages(this)) > 0) {
+				deletedMessageCount += deleted;
+				if (logger.isDebugEnabled()) {
+					logger.debug("Purging channel #" + channelId + ": " + getProgress() + "%");
+				}
+				// let queued messages of other channels be written between chunks
+				table.flushQueuedMessages();
+			}
+			if (!cancelled) {
+				done = table.completePurge(this);
+			}
+		} catch (DatabaseException e) {
+			logger.error("Failed to purge channel #" + channelId + ": " + e.getMessage(), e);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Purge of channel #" + channelId + (done ? " completed" : " stopped") + " after deleting "
+					+ deletedMessageCount + " messages in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+}
@@ -17,6 +17,8 @@
  */
 package org.zaproxy.zap.extension.websocket.db;
 
+import java.util.Objects;
+
 /**
  * Wraps id of message & channel together into one class.
  */
@@ -52,6 +54,24 @@ public class WebSocketMessagePrimaryKey implements Comparable<WebSocketMessagePr
 		return strBuilder.toString();
 	}
 
+	@Override
+	public int hashCode() {
+		int result = 31 + ((channelId == null) ? 0 : channelId.hashCode());
+		return 31 * result + ((messageId == null) ? 0 : messageId.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof WebSocketMessagePrimaryKey)) {
+			return false;
+		}
+		WebSocketMessagePrimaryKey other = (WebSocketMessagePrimaryKey) obj;
+		return Objects.equals(channelId, other.channelId) && Objects.equals(messageId, other.messageId);
+	}
+
 	@Override
 	public int compareTo(WebSocketMessagePrimaryKey other) {
 		int result = channelId.compareTo(other.getChannelId());
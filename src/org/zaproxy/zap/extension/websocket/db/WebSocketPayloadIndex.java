@@ -0,0 +1,749 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Inverted index of the trigrams contained in text payloads, to find the
+ * messages that might contain a string or match a regular expression without
+ * reading all payloads from the database.
+ * <p>
+ * Each message gets a consecutive document number, in the order it was added.
+ * For each trigram of the UTF-8 bytes of a payload (ASCII letters in lower
+ * case) the document numbers are kept as delta encoded variable length
+ * integers. Lookups return candidates only, their payloads have to be matched
+ * afterwards. Payloads larger than {@link #MAX_INDEXED_LENGTH} bytes are not
+ * split into trigrams but returned as candidate for every lookup.
+ * <p>
+ * This class is thread-safe.
+ */
+public class WebSocketPayloadIndex {
+
+	/**
+	 * Maximum number of payload bytes split into trigrams.
+	 */
+	public static final int MAX_INDEXED_LENGTH = 1024 * 1024;
+
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Detects inline flags enabling comments, with which whitespace and
+	 * comments in the expression are no literals.
+	 */
+	private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-zA-Z]*x");
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private int[] channelIds;
+	private int[] messageIds;
+	private int documentCount;
+
+	private final BitSet deletedDocuments;
+	private int deletedCount;
+
+	private final Map<Integer, Postings> postings;
+
+	/**
+	 * Documents with payloads larger than {@link #MAX_INDEXED_LENGTH}.
+	 */
+	private final Postings unindexedDocuments;
+
+	public WebSocketPayloadIndex() {
+		channelIds = new int[1024];
+		messageIds = new int[1024];
+		deletedDocuments = new BitSet();
+		postings = new HashMap<>();
+		unindexedDocuments = new Postings();
+	}
+
+	/**
+	 * Adds the given message. Binary payloads (i.e. {@code payload} is no
+	 * {@code String}) are counted, but never returned as candidates. Large
+	 * text payloads kept in a file are not read, but always returned as
+	 * candidates.
+	 * 
+	 * @param message
+	 */
+	public void add(WebSocketMessageDTO message) {
+		if (message.payload == null && message.spilledPayload != null) {
+			add(message.channel.id, message.id, null, message.opcode != WebSocketMessage.OPCODE_BINARY);
+			return;
+		}
+		String text = (message.payload instanceof String) ? (String) message.payload : null;
+		add(message.channel.id, message.id, text);
+	}
+
+	/**
+	 * @param channelId
+	 * @param messageId
+	 * @param payload text payload, or {@code null} for binary payloads
+	 */
+	public void add(int channelId, int messageId, String payload) {
+		int[] trigrams = null;
+		boolean unindexed = false;
+		if (payload != null) {
+			byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > MAX_INDEXED_LENGTH) {
+				unindexed = true;
+			} else {
+				trigrams = getTrigrams(bytes);
+			}
+		}
+		add(channelId, messageId, trigrams, unindexed);
+	}
+
+	/**
+	 * @param channelId
+	 * @param messageId
+	 * @param trigrams trigrams of the text payload, {@code null} if binary or
+	 *            not indexed
+	 * @param unindexed {@code true} if the text payload is too large to be
+	 *            indexed
+	 */
+	private void add(int channelId, int messageId, int[] trigrams, boolean unindexed) {
+		lock.writeLock().lock();
+		try {
+			int document = documentCount;
+			if (document == channelIds.length) {
+				channelIds = Arrays.copyOf(channelIds, document * 2);
+				messageIds = Arrays.copyOf(messageIds, document * 2);
+			}
+			channelIds[document] = channelId;
+			messageIds[document] = messageId;
+			documentCount++;
+
+			if (unindexed) {
+				unindexedDocuments.add(document);
+			} else if (trigrams != null) {
+				for (int trigram : trigrams) {
+					Postings list = postings.get(trigram);
+					if (list == null) {
+						list = new Postings();
+						postings.put(trigram, list);
+					}
+					list.add(document);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the messages of the given index after the messages of this index,
+	 * in the order they were added to the given one.
+	 * 
+	 * @param other
+	 */
+	public void addAll(WebSocketPayloadIndex other) {
+		other.lock.readLock().lock();
+		lock.writeLock().lock();
+		try {
+			int offset = documentCount;
+			int count = other.documentCount;
+			if (offset + count > channelIds.length) {
+				int length = Math.max(channelIds.length * 2, offset + count);
+				channelIds = Arrays.copyOf(channelIds, length);
+				messageIds = Arrays.copyOf(messageIds, length);
+			}
+			System.arraycopy(other.channelIds, 0, channelIds, offset, count);
+			System.arraycopy(other.messageIds, 0, messageIds, offset, count);
+			documentCount += count;
+
+			for (int i = other.deletedDocuments.nextSetBit(0); i >= 0; i = other.deletedDocuments.nextSetBit(i + 1)) {
+				deletedDocuments.set(offset + i);
+			}
+			deletedCount += other.deletedCount;
+
+			for (int document : other.unindexedDocuments.decode()) {
+				unindexedDocuments.add(offset + document);
+			}
+			for (Map.Entry<Integer, Postings> entry : other.postings.entrySet()) {
+				Postings list = postings.get(entry.getKey());
+				if (list == null) {
+					list = new Postings();
+					postings.put(entry.getKey(), list);
+				}
+				for (int document : entry.getValue().decode()) {
+					list.add(offset + document);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+			other.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Marks all messages of the given channel as deleted.
+	 * 
+	 * @param channelId
+	 */
+	public void removeChannel(int channelId) {
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < documentCount; i++) {
+				if (channelIds[i] == channelId && !deletedDocuments.get(i)) {
+					deletedDocuments.set(i);
+					deletedCount++;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of messages added and not removed
+	 */
+	public int getMessageCount() {
+		lock.readLock().lock();
+		try {
+			return documentCount - deletedCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the messages whose payload might match the given pattern.
+	 * 
+	 * @param pattern
+	 * @return keys of the candidates in the order they were added, or
+	 *         {@code null} if no literal of at least three bytes is required
+	 *         by the pattern, i.e. all payloads have to be matched
+	 */
+	public List<WebSocketMessagePrimaryKey> getCandidates(Pattern pattern) {
+		List<String> literals;
+		if ((pattern.flags() & Pattern.LITERAL) != 0) {
+			literals = Collections.singletonList(pattern.pattern());
+		} else if ((pattern.flags() & Pattern.COMMENTS) != 0) {
+			return null;
+		} else {
+			literals = getRequiredLiterals(pattern.pattern());
+		}
+		return getCandidates(literals);
+	}
+
+	/**
+	 * Returns the messages whose payload might contain all the given strings,
+	 * ignoring the case of ASCII letters.
+	 * 
+	 * @param literals
+	 * @return keys of the candidates in the order they were added, or
+	 *         {@code null} if no string has at least three bytes
+	 */
+	public List<WebSocketMessagePrimaryKey> getCandidates(Collection<String> literals) {
+		int[] trigrams = new int[0];
+		for (String literal : literals) {
+			int[] literalTrigrams = getTrigrams(literal.getBytes(StandardCharsets.UTF_8));
+			int length = trigrams.length;
+			trigrams = Arrays.copyOf(trigrams, length + literalTrigrams.length);
+			System.arraycopy(literalTrigrams, 0, trigrams, length, literalTrigrams.length);
+		}
+		if (trigrams.length == 0) {
+			return null;
+		}
+
+		lock.readLock().lock();
+		try {
+			List<Postings> lists = new ArrayList<>(trigrams.length);
+			int previous = -1;
+			Arrays.sort(trigrams);
+			for (int trigram : trigrams) {
+				if (trigram == previous) {
+					continue;
+				}
+				previous = trigram;
+
+				Postings list = postings.get(trigram);
+				if (list == null) {
+					lists = null;
+					break;
+				}
+				lists.add(list);
+			}
+
+			int[] documents = new int[0];
+			int count = 0;
+			if (lists != null) {
+				// start with the shortest list, to keep the candidates few
+				Postings shortest = lists.get(0);
+				for (Postings list : lists) {
+					if (list.count < shortest.count) {
+						shortest = list;
+					}
+				}
+				documents = shortest.decode();
+				count = documents.length;
+				for (Postings list : lists) {
+					if (count == 0) {
+						break;
+					}
+					if (list != shortest) {
+						count = list.retainAll(documents, count);
+					}
+				}
+			}
+
+			return toKeys(union(documents, count, unindexedDocuments.decode()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Must be called while holding the read lock.
+	 */
+	private List<WebSocketMessagePrimaryKey> toKeys(int[] documents) {
+		List<WebSocketMessagePrimaryKey> keys = new ArrayList<>(documents.length);
+		for (int document : documents) {
+			if (!deletedDocuments.get(document)) {
+				keys.add(new WebSocketMessagePrimaryKey(channelIds[document], messageIds[document]));
+			}
+		}
+		return keys;
+	}
+
+	private static int[] union(int[] a, int aLength, int[] b) {
+		if (b.length == 0) {
+			return Arrays.copyOf(a, aLength);
+		}
+		int[] result = new int[aLength + b.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < aLength && j < b.length) {
+			if (a[i] < b[j]) {
+				result[k++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[k++] = b[j++];
+			} else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < aLength) {
+			result[k++] = a[i++];
+		}
+		while (j < b.length) {
+			result[k++] = b[j++];
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+	/**
+	 * @return distinct trigrams of the given bytes, in ascending order
+	 */
+	private static int[] getTrigrams(byte[] bytes) {
+		if (bytes.length < 3) {
+			return new int[0];
+		}
+
+		int[] trigrams = new int[bytes.length - 2];
+		int trigram = (toLowerCase(bytes[0]) << 8) | toLowerCase(bytes[1]);
+		for (int i = 2; i < bytes.length; i++) {
+			trigram = ((trigram << 8) | toLowerCase(bytes[i])) & 0xFFFFFF;
+			trigrams[i - 2] = trigram;
+		}
+
+		Arrays.sort(trigrams);
+		int count = 1;
+		for (int i = 1; i < trigrams.length; i++) {
+			if (trigrams[i] != trigrams[count - 1]) {
+				trigrams[count++] = trigrams[i];
+			}
+		}
+		return Arrays.copyOf(trigrams, count);
+	}
+
+	private static int toLowerCase(byte b) {
+		if (b >= 'A' && b <= 'Z') {
+			return b + ('a' - 'A');
+		}
+		return b & 0xFF;
+	}
+
+	/**
+	 * Returns the literal strings that every match of the given regular
+	 * expression must contain. Unsupported constructs end a literal, so the
+	 * result might miss literals but never contains a wrong one.
+	 * <p>
+	 * Only ASCII characters are returned, as other characters might match
+	 * case insensitively.
+	 * 
+	 * @param regex
+	 * @return required literals, empty if none were found
+	 */
+	static List<String> getRequiredLiterals(String regex) {
+		List<String> literals = new ArrayList<>();
+		if (COMMENTS_FLAG.matcher(regex).find()) {
+			return literals;
+		}
+
+		StringBuilder literal = new StringBuilder();
+		int length = regex.length();
+		int groupDepth = 0;
+		for (int i = 0; i < length; i++) {
+			char c = regex.charAt(i);
+			if (groupDepth > 0) {
+				// content of groups might be optional or alternatives
+				if (c == '\\' && i + 1 < length && regex.charAt(i + 1) == 'Q') {
+					int end = regex.indexOf("\\E", i + 2);
+					i = (end == -1) ? length : end + 1;
+				} else if (c == '\\') {
+					i++;
+				} else if (c == '[') {
+					i = skipCharacterClass(regex, i);
+				} else if (c == '(') {
+					groupDepth++;
+				} else if (c == ')') {
+					groupDepth--;
+				}
+				continue;
+			}
+
+			switch (c) {
+			case '\\':
+				if (i + 1 == length) {
+					break;
+				}
+				char escaped = regex.charAt(++i);
+				if (escaped == 'Q') {
+					int end = regex.indexOf("\\E", i + 1);
+					if (end == -1) {
+						end = length;
+					}
+					literal.append(regex, i + 1, end);
+					i = end + 1;
+				} else if (Character.isLetterOrDigit(escaped)) {
+					addLiteral(literals, literal);
+					i = skipEscapeArguments(regex, i);
+				} else {
+					literal.append(escaped);
+				}
+				break;
+			case '[':
+				addLiteral(literals, literal);
+				i = skipCharacterClass(regex, i);
+				break;
+			case '(':
+				addLiteral(literals, literal);
+				groupDepth = 1;
+				break;
+			case '|':
+				// alternatives at top level, no literal is required
+				literals.clear();
+				return literals;
+			case '*':
+			case '?':
+				removeLastCharacter(literal);
+				addLiteral(literals, literal);
+				break;
+			case '+':
+				addLiteral(literals, literal);
+				break;
+			case '{':
+				int end = regex.indexOf('}', i);
+				if (end == -1 || !regex.substring(i + 1, end).matches("\\d+(,\\d*)?")) {
+					literal.append(c);
+					break;
+				}
+				if (regex.charAt(i + 1) == '0') {
+					removeLastCharacter(literal);
+				}
+				addLiteral(literals, literal);
+				i = end;
+				break;
+			case '.':
+			case '^':
+			case '$':
+			case ')':
+				addLiteral(literals, literal);
+				break;
+			default:
+				literal.append(c);
+			}
+		}
+		addLiteral(literals, literal);
+		return literals;
+	}
+
+	private static void removeLastCharacter(StringBuilder literal) {
+		if (literal.length() > 0) {
+			literal.setLength(literal.length() - 1);
+		}
+	}
+
+	/**
+	 * Adds the ASCII parts of the given literal and clears it.
+	 */
+	private static void addLiteral(List<String> literals, StringBuilder literal) {
+		int start = 0;
+		for (int i = 0; i <= literal.length(); i++) {
+			if (i == literal.length() || literal.charAt(i) > 0x7F) {
+				if (i > start) {
+					literals.add(literal.substring(start, i));
+				}
+				start = i + 1;
+			}
+		}
+		literal.setLength(0);
+	}
+
+	/**
+	 * @return index of the closing bracket
+	 */
+	private static int skipCharacterClass(String regex, int start) {
+		int depth = 0;
+		for (int i = start; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']' && i > start + 1 && !(i == start + 2 && regex.charAt(start + 1) == '^')) {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+		return regex.length();
+	}
+
+	/**
+	 * @param index of the escaped letter or digit
+	 * @return index of the last character belonging to the escape sequence
+	 */
+	private static int skipEscapeArguments(String regex, int index) {
+		char escaped = regex.charAt(index);
+		int next = index + 1;
+		switch (escaped) {
+		case 'x':
+			if (next < regex.length() && regex.charAt(next) == '{') {
+				return Math.max(regex.indexOf('}', next), index);
+			}
+			return Math.min(index + 2, regex.length() - 1);
+		case 'u':
+			return Math.min(index + 4, regex.length() - 1);
+		case 'c':
+			return Math.min(index + 1, regex.length() - 1);
+		case 'p':
+		case 'P':
+			if (next < regex.length() && regex.charAt(next) == '{') {
+				return Math.max(regex.indexOf('}', next), index);
+			}
+			return Math.min(index + 1, regex.length() - 1);
+		case 'k':
+			return Math.max(regex.indexOf('>', next), index);
+		default:
+			// back references and octal escapes
+			int i = index;
+			while (Character.isDigit(escaped) && i + 1 < regex.length() && Character.isDigit(regex.charAt(i + 1))) {
+				i++;
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * Writes this index, to be read with {@link #readFrom(DataInputStream)}.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		lock.readLock().lock();
+		try {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(documentCount);
+			for (int i = 0; i < documentCount; i++) {
+				out.writeInt(channelIds[i]);
+				out.writeInt(messageIds[i]);
+			}
+
+			long[] deleted = deletedDocuments.toLongArray();
+			out.writeInt(deleted.length);
+			for (long bits : deleted) {
+				out.writeLong(bits);
+			}
+
+			unindexedDocuments.writeTo(out);
+			out.writeInt(postings.size());
+			for (Map.Entry<Integer, Postings> entry : postings.entrySet()) {
+				out.writeInt(entry.getKey());
+				entry.getValue().writeTo(out);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param in
+	 * @return the index written with {@link #writeTo(DataOutputStream)}
+	 * @throws IOException if the index could not be read or was written in an
+	 *             unknown format
+	 */
+	public static WebSocketPayloadIndex readFrom(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unknown payload index format: " + version);
+		}
+
+		WebSocketPayloadIndex index = new WebSocketPayloadIndex();
+		int documentCount = in.readInt();
+		index.channelIds = new int[Math.max(documentCount, 1024)];
+		index.messageIds = new int[index.channelIds.length];
+		for (int i = 0; i < documentCount; i++) {
+			index.channelIds[i] = in.readInt();
+			index.messageIds[i] = in.readInt();
+		}
+		index.documentCount = documentCount;
+
+		long[] deleted = new long[in.readInt()];
+		for (int i = 0; i < deleted.length; i++) {
+			deleted[i] = in.readLong();
+		}
+		index.deletedDocuments.or(BitSet.valueOf(deleted));
+		index.deletedCount = index.deletedDocuments.cardinality();
+
+		index.unindexedDocuments.readFrom(in);
+		int trigramCount = in.readInt();
+		for (int i = 0; i < trigramCount; i++) {
+			int trigram = in.readInt();
+			Postings list = new Postings();
+			list.readFrom(in);
+			index.postings.put(trigram, list);
+		}
+		return index;
+	}
+
+	/**
+	 * Ascending document numbers, delta encoded as variable length integers
+	 * with 7 bits per byte.
+	 */
+	private static final class Postings {
+
+		private byte[] data = new byte[4];
+		private int size;
+		private int count;
+		private int lastDocument = -1;
+
+		void add(int document) {
+			if (size + 5 > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, size + 5));
+			}
+			int delta = document - lastDocument;
+			while ((delta & ~0x7F) != 0) {
+				data[size++] = (byte) ((delta & 0x7F) | 0x80);
+				delta >>>= 7;
+			}
+			data[size++] = (byte) delta;
+			lastDocument = document;
+			count++;
+		}
+
+		int[] decode() {
+			int[] documents = new int[count];
+			int document = -1;
+			int position = 0;
+			for (int i = 0; i < count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				document += delta;
+				documents[i] = document;
+			}
+			return documents;
+		}
+
+		/**
+		 * Keeps only the given documents that are contained in this list.
+		 * 
+		 * @param documents ascending, modified in place
+		 * @param length number of valid documents
+		 * @return number of documents kept
+		 */
+		int retainAll(int[] documents, int length) {
+			int kept = 0;
+			int i = 0;
+			int document = -1;
+			int position = 0;
+			for (int n = 0; n < count && i < length; n++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				document += delta;
+
+				while (i < length && documents[i] < document) {
+					i++;
+				}
+				if (i < length && documents[i] == document) {
+					documents[kept++] = document;
+					i++;
+				}
+			}
+			return kept;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeInt(count);
+			out.writeInt(lastDocument);
+			out.writeInt(size);
+			out.write(data, 0, size);
+		}
+
+		void readFrom(DataInputStream in) throws IOException {
+			count = in.readInt();
+			lastDocument = in.readInt();
+			size = in.readInt();
+			data = new byte[Math.max(size, 4)];
+			in.readFully(data, 0, size);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Creates the {@link WebSocketPayloadIndex} of the stored messages, in
+ * background.
+ * <p>
+ * The messages are read with one query per page, the lock of the
+ * {@link TableWebSocket} is released in between, such that messages are still
+ * written and read meanwhile. Messages written while building are added after
+ * the stored ones.
+ * 
+ * @see TableWebSocket#searchMessages
+ */
+class WebSocketPayloadIndexBuilder implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(WebSocketPayloadIndexBuilder.class);
+
+	private final TableWebSocket table;
+
+	private final WebSocketPayloadIndex index = new WebSocketPayloadIndex();
+
+	/**
+	 * Messages written while building, guarded by the lock of the table.
+	 */
+	private final WebSocketPayloadIndex writtenIndex = new WebSocketPayloadIndex();
+	private final Set<WebSocketMessagePrimaryKey> writtenKeys = new HashSet<>();
+
+	/**
+	 * Last message read, the next page starts after it. Guarded by the lock
+	 * of the table.
+	 */
+	private WebSocketMessageDTO lastMessage;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile DatabaseException failure;
+
+	WebSocketPayloadIndexBuilder(TableWebSocket table) {
+		this.table = table;
+	}
+
+	/**
+	 * @return last message read, with ID, channel and timestamp, or
+	 *         {@code null} if none was read yet
+	 */
+	WebSocketMessageDTO getLastMessage() {
+		return lastMessage;
+	}
+
+	/**
+	 * Adds a stored message, unless it was written while building.
+	 * 
+	 * @param channelId
+	 * @param messageId
+	 * @param timestamp
+	 * @param payload text payload, or {@code null} for binary payloads
+	 */
+	void messageRead(int channelId, int messageId, long timestamp, String payload) {
+		if (lastMessage == null) {
+			lastMessage = new WebSocketMessageDTO();
+		}
+		lastMessage.channel.id = channelId;
+		lastMessage.id = messageId;
+		lastMessage.timestamp = timestamp;
+
+		if (!writtenKeys.contains(new WebSocketMessagePrimaryKey(channelId, messageId))) {
+			index.add(channelId, messageId, payload);
+		}
+	}
+
+	/**
+	 * Adds a message written while building, to be added after the stored
+	 * ones.
+	 * 
+	 * @param message
+	 */
+	void messageWritten(WebSocketMessageDTO message) {
+		writtenKeys.add(new WebSocketMessagePrimaryKey(message.channel.id, message.id));
+		writtenIndex.add(message);
+	}
+
+	/**
+	 * @param channelId
+	 * @see WebSocketPayloadIndex#removeChannel(int)
+	 */
+	void removeChannel(int channelId) {
+		index.removeChannel(channelId);
+		writtenIndex.removeChannel(channelId);
+	}
+
+	/**
+	 * Returns the index of all messages, once all stored messages were read.
+	 * Must be called only once.
+	 * 
+	 * @return the complete index
+	 */
+	WebSocketPayloadIndex getIndex() {
+		index.addAll(writtenIndex);
+		return index;
+	}
+
+	/**
+	 * Waits until the index is built or the build is cancelled (e.g. because
+	 * the session changed).
+	 * 
+	 * @throws DatabaseException if the messages could not be read or if
+	 *             interrupted while waiting
+	 */
+	void await() throws DatabaseException {
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DatabaseException(e);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		int count = 0;
+		try {
+			int read;
+			while ((read = table.readPayloadIndexPage(this)) > 0) {
+				count += read;
+			}
+			boolean completed = table.completePayloadIndex(this);
+
+			if (logger.isDebugEnabled()) {
+				logger.debug((completed ? "Created" : "Cancelled") + " payload index after reading " + count
+						+ " messages in " + (System.currentTimeMillis() - start) + " ms");
+			}
+		} catch (DatabaseException e) {
+			failure = e;
+			table.cancelPayloadIndex(this);
+			logger.error("Failed to create payload index: " + e.getMessage(), e);
+		} finally {
+			done.countDown();
+		}
+	}
+}
@@ -26,10 +26,14 @@ import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.ui.OptionsParamWebSocket;
 
 /**
  * Listens to all WebSocket messages and utilizes {@link TableWebSocket} to
  * store messages in database.
+ * <p>
+ * Messages are queued and written in batches by a dedicated thread, such that
+ * the threads forwarding the messages do not wait for the database.
  */
 public class WebSocketStorage implements WebSocketObserver {
 
@@ -39,10 +43,31 @@ public class WebSocketStorage implements WebSocketObserver {
 	// determines when messages are stored in databases
 	public static final int WEBSOCKET_OBSERVING_ORDER = 100;
 
-	private TableWebSocket table;
+	private volatile TableWebSocket table;
+
+	private final OptionsParamWebSocket options;
+
+	private final Object writerMonitor = new Object();
+	private final Thread writer;
+	private volatile boolean running;
 
 	public WebSocketStorage(TableWebSocket table) {
+		this(table, null);
+	}
+
+	/**
+	 * @param table
+	 * @param options used to obtain the flush interval and size, might be
+	 *            {@code null} to use the defaults
+	 */
+	public WebSocketStorage(TableWebSocket table, OptionsParamWebSocket options) {
 		this.table = table;
+		this.options = options;
+
+		running = true;
+		writer = new Thread(new MessageWriter(), "ZAP-WS-MessageWriter");
+		writer.setDaemon(true);
+		writer.start();
 	}
 
 	@Override
@@ -52,11 +77,17 @@ public class WebSocketStorage implements WebSocketObserver {
 
 	@Override
 	public boolean onMessageFrame(int channelId, WebSocketMessage wsMessage) {
-		if (wsMessage.isFinished()) {
+		TableWebSocket currentTable = table;
+		if (wsMessage.isFinished() && currentTable != null) {
 			WebSocketMessageDTO message = wsMessage.getDTO();
 
 			try {
-				table.insertMessage(message);
+				if (running) {
+					currentTable.queueMessage(message);
+				} else {
+					// nobody writes the queued messages anymore
+					currentTable.insertMessage(message);
+				}
 			} catch (DatabaseException e) {
 				logger.error(e.getMessage(), e);
 			}
@@ -71,7 +102,103 @@ public class WebSocketStorage implements WebSocketObserver {
 	}
 	
 	public void setTable(TableWebSocket table) {
+		// messages queued so far belong to the previous table
+		flush();
 		this.table = table;
+
+		synchronized (writerMonitor) {
+			writerMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Writes all queued messages to the database.
+	 */
+	public void flush() {
+		TableWebSocket currentTable = table;
+		if (currentTable != null) {
+			try {
+				currentTable.flushQueuedMessages();
+			} catch (DatabaseException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the thread writing the messages, after writing the ones queued.
+	 * <p>
+	 * Messages arriving afterwards are written right away, by the thread
+	 * forwarding them.
+	 */
+	public void stop() {
+		running = false;
+
+		synchronized (writerMonitor) {
+			writerMonitor.notifyAll();
+		}
+		TableWebSocket currentTable = table;
+		if (currentTable != null) {
+			currentTable.wakeUpMessageWriter();
+		}
+
+		try {
+			writer.join(getFlushInterval());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	private int getFlushInterval() {
+		if (options == null) {
+			return OptionsParamWebSocket.DEFAULT_STORAGE_FLUSH_INTERVAL;
+		}
+		return options.getStorageFlushInterval();
+	}
+
+	private int getFlushSize() {
+		if (options == null) {
+			return OptionsParamWebSocket.DEFAULT_STORAGE_FLUSH_SIZE;
+		}
+		return options.getStorageFlushSize();
+	}
+
+	/**
+	 * Writes the queued messages of the current table, once the flush interval
+	 * elapses or the flush size is reached.
+	 * <p>
+	 * Does not use {@link Thread#interrupt()} to stop, as interrupting a thread
+	 * doing I/O in HSQLDB closes its files.
+	 */
+	private class MessageWriter implements Runnable {
+
+		@Override
+		public void run() {
+			while (running) {
+				TableWebSocket currentTable = table;
+				try {
+					if (currentTable == null) {
+						synchronized (writerMonitor) {
+							if (running && table == null) {
+								writerMonitor.wait(getFlushInterval());
+							}
+						}
+						continue;
+					}
+
+					currentTable.awaitQueuedMessages(getFlushSize(), getFlushInterval());
+					currentTable.flushQueuedMessages();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (DatabaseException e) {
+					logger.error(e.getMessage(), e);
+				} catch (RuntimeException e) {
+					logger.error(e.getMessage(), e);
+				}
+			}
+		}
 	}
 
 	@Override
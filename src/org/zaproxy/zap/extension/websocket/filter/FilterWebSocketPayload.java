@@ -17,8 +17,10 @@
  */
 package org.zaproxy.zap.extension.websocket.filter;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.extension.filter.FilterAbstractReplace;
@@ -30,6 +32,7 @@ import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
 import org.zaproxy.zap.extension.websocket.ui.ChannelSortedListModel;
+import org.zaproxy.zap.extension.websocket.utility.MultiPatternMatcher;
 
 /**
  * Base class for filtering WebSockets traffic.
@@ -45,6 +48,12 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 	private ChannelSortedListModel channelsModel;
 	private ExtensionWebSocket extension;
 
+	/**
+	 * Skips payloads not containing the literal of the pattern, rebuilt when
+	 * the pattern changes.
+	 */
+	private volatile MultiPatternMatcher prefilter;
+
 	public FilterWebSocketPayload(ExtensionWebSocket extension, ChannelSortedListModel model) {
 		super();
 		this.extension = extension;
@@ -86,16 +95,20 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 		}
 		
 		boolean isApplicableMessage = (wsMessage.isFinished() && wsMessage.getPayloadLength() > 0);
-		boolean hasPattern = (getPattern() != null);
+		Pattern pattern = getPattern();
 		
-		if (isApplicableMessage && hasPattern) {
+		if (isApplicableMessage && pattern != null) {
 			if (isApplicableDirection(wsMessage.getDirection()) &&
 					isApplicableOpcode(message.readableOpcode) &&
 					isApplicableChannelId(message.channel.id)) {
 
 				String from = wsMessage.getReadablePayload();
+				if (!getPrefilter(pattern).mayFind(0, from)) {
+					// nothing to replace
+					return;
+				}
 
-				Matcher matcher = getPattern().matcher(from);
+				Matcher matcher = pattern.matcher(from);
 
 				try {
 					String to = matcher.replaceAll(getReplaceText());
@@ -114,6 +127,15 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 		}
 	}
 
+	private MultiPatternMatcher getPrefilter(Pattern pattern) {
+		MultiPatternMatcher currentPrefilter = prefilter;
+		if (currentPrefilter == null || currentPrefilter.getPattern(0) != pattern) {
+			currentPrefilter = new MultiPatternMatcher(Collections.singletonList(pattern));
+			prefilter = currentPrefilter;
+		}
+		return currentPrefilter;
+	}
+
 	private boolean isApplicableDirection(Direction direction) {
 		return ((direction.equals(Direction.INCOMING) && shouldApplyOnIncoming) ||
 				(direction.equals(Direction.OUTGOING) && shouldApplyOnOutgoing));
@@ -0,0 +1,214 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Copyright 2015 The ZAP Development Team
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketObserver;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.ui.WebSocketPanel;
+
+/**
+ * Ties the replies of the fuzzed channel to the fuzzed messages.
+ * <p>
+ * Observes the fuzzed channel and appends the messages of the opposite
+ * direction to a ring buffer, without locking, such that forwarding is not
+ * slowed down. Messages are only recorded while a fuzzer task waits for
+ * replies. After sending, a task collects the replies that arrive within the
+ * response window, or until a reply matches the given pattern.
+ * <p>
+ * Replies are not part of the protocol, so with several fuzzer threads a
+ * reply might be attributed to each message sent shortly before it.
+ */
+public class WebSocketFuzzResponseCorrelator implements WebSocketObserver {
+
+    /**
+     * Number of replies kept, older ones are overwritten.
+     */
+    private static final int RING_BUFFER_SIZE = 1024;
+
+    private static final int RING_BUFFER_MASK = RING_BUFFER_SIZE - 1;
+
+    /**
+     * Time waited between checks for further replies.
+     */
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Direction replyDirection;
+
+    private final long windowNanos;
+
+    private final Pattern responsePattern;
+
+    private final AtomicReferenceArray<Entry> ringBuffer;
+
+    /**
+     * Sequence number of the next reply.
+     */
+    private final AtomicLong head;
+
+    /**
+     * Number of tasks waiting for replies.
+     */
+    private final AtomicInteger waitingTasks;
+
+    /**
+     * @param isOutgoingFuzzed {@code true} if messages are sent to the
+     *            server, replies are then incoming messages
+     * @param windowMillis time waited for replies after sending a message
+     * @param responsePattern stops waiting once the payload of a reply
+     *            contains it, might be {@code null}
+     */
+    public WebSocketFuzzResponseCorrelator(boolean isOutgoingFuzzed, int windowMillis, Pattern responsePattern) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Parameter windowMillis must be greater than zero.");
+        }
+        this.replyDirection = isOutgoingFuzzed ? Direction.INCOMING : Direction.OUTGOING;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.responsePattern = responsePattern;
+        this.ringBuffer = new AtomicReferenceArray<>(RING_BUFFER_SIZE);
+        this.head = new AtomicLong();
+        this.waitingTasks = new AtomicInteger();
+    }
+
+    @Override
+    public int getObservingOrder() {
+        return WebSocketPanel.WEBSOCKET_OBSERVING_ORDER + 20;
+    }
+
+    @Override
+    public boolean onMessageFrame(int channelId, WebSocketMessage message) {
+        if (waitingTasks.get() == 0 || !message.isFinished() || message.getDirection() != replyDirection) {
+            return true;
+        }
+
+        WebSocketMessageDTO reply = message.getDTO();
+        // kept after the message was forwarded, when its large payload is released
+        reply.materialisePayload();
+        long sequence = head.getAndIncrement();
+        ringBuffer.set((int) (sequence & RING_BUFFER_MASK), new Entry(sequence, System.nanoTime(), reply));
+        return true;
+    }
+
+    @Override
+    public void onStateChange(State state, WebSocketProxy proxy) {
+        if (state == State.CLOSED) {
+            proxy.removeObserver(this);
+        }
+    }
+
+    /**
+     * Starts recording replies, must be called before sending the message and
+     * followed by {@link #awaitResponses(long, long)} or
+     * {@link #cancelCorrelation()}.
+     *
+     * @return the position of the first reply
+     */
+    public long startCorrelation() {
+        waitingTasks.incrementAndGet();
+        return head.get();
+    }
+
+    /**
+     * Collects the replies to a message, waiting for the response window to
+     * elapse or for a reply to match.
+     *
+     * @param start position returned by {@link #startCorrelation()}
+     * @param sentTime {@link System#nanoTime()} once the message was sent
+     * @return replies in order of arrival, never {@code null}
+     */
+    public List<WebSocketFuzzResult.Response> awaitResponses(long start, long sentTime) {
+        List<WebSocketFuzzResult.Response> responses = null;
+        try {
+            long deadline = sentTime + windowNanos;
+            long position = start;
+            while (true) {
+                long end = head.get();
+                while (position < end) {
+                    Entry entry = ringBuffer.get((int) (position & RING_BUFFER_MASK));
+                    if (entry == null || entry.sequence < position) {
+                        // reserved but not yet written
+                        break;
+                    }
+                    if (entry.sequence == position && entry.time - deadline <= 0) {
+                        if (responses == null) {
+                            responses = new ArrayList<>(2);
+                        }
+                        responses.add(new WebSocketFuzzResult.Response(entry.message, entry.time - sentTime));
+                        if (matches(entry.message)) {
+                            return responses;
+                        }
+                    }
+                    // overwritten entries are lost
+                    position++;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                LockSupport.parkNanos(Math.min(remaining, POLL_INTERVAL_NANOS));
+            }
+        } finally {
+            waitingTasks.decrementAndGet();
+        }
+        if (responses == null) {
+            return Collections.emptyList();
+        }
+        return responses;
+    }
+
+    /**
+     * Stops recording replies for a message that was not sent.
+     */
+    public void cancelCorrelation() {
+        waitingTasks.decrementAndGet();
+    }
+
+    private boolean matches(WebSocketMessageDTO message) {
+        return responsePattern != null && message.payload instanceof String
+                && responsePattern.matcher((String) message.payload).find();
+    }
+
+    private static final class Entry {
+
+        private final long sequence;
+        private final long time;
+        private final WebSocketMessageDTO message;
+
+        public Entry(long sequence, long time, WebSocketMessageDTO message) {
+            this.sequence = sequence;
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 
 public class WebSocketFuzzResult {
 
@@ -30,15 +31,21 @@ public class WebSocketFuzzResult {
 
     private final WebSocketFuzzMessageDTO message;
     private final List<Object> payloads;
+    private final List<Response> responses;
 
     public WebSocketFuzzResult(long taskId, WebSocketFuzzMessageDTO message) {
         this(taskId, message, Collections.emptyList());
     }
 
     public WebSocketFuzzResult(long taskId, WebSocketFuzzMessageDTO message, List<Object> payloads) {
+        this(taskId, message, payloads, Collections.<Response> emptyList());
+    }
+
+    public WebSocketFuzzResult(long taskId, WebSocketFuzzMessageDTO message, List<Object> payloads, List<Response> responses) {
         this.taskId = taskId;
         this.message = message;
         this.payloads = payloads;
+        this.responses = responses;
     }
 
     public long getTaskId() {
@@ -53,4 +60,38 @@ public class WebSocketFuzzResult {
         return message;
     }
 
+    /**
+     * @return replies received after sending the message, in order of arrival
+     * @see WebSocketFuzzResponseCorrelator
+     */
+    public List<Response> getResponses() {
+        return responses;
+    }
+
+    /**
+     * A reply to a fuzzed message.
+     */
+    public static class Response {
+
+        private final WebSocketMessageDTO message;
+        private final long latency;
+
+        public Response(WebSocketMessageDTO message, long latency) {
+            this.message = message;
+            this.latency = latency;
+        }
+
+        public WebSocketMessageDTO getMessage() {
+            return message;
+        }
+
+        /**
+         * @return nanoseconds between sending the fuzzed message and receiving
+         *         this reply
+         */
+        public long getLatency() {
+            return latency;
+        }
+    }
+
 }
@@ -22,9 +22,9 @@ package org.zaproxy.zap.extension.websocket.fuzz;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.parosproxy.paros.model.Model;
@@ -48,6 +48,8 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
     private final WebSocketFuzzMessagesViewModel messagesModel;
     private final List<WebSocketFuzzerListener> listeners;
     private final List<WebSocketFuzzerMessageProcessor> messageProcessors;
+    private final WebSocketFuzzerSender sender;
+    private final WebSocketFuzzResponseCorrelator responseCorrelator;
     private final AtomicInteger messagesSentCounter;
     private final WebSocketMessageDTO originalMessage;
     private final int id;
@@ -61,13 +63,45 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
             List<MessageLocationReplacementGenerator<?, MessageLocationReplacement<?>>> fuzzLocations,
             MultipleMessageLocationsReplacer<WebSocketMessageDTO> multipleMessageLocationsReplacer,
             List<WebSocketFuzzerMessageProcessor> messageProcessors) {
+        this(
+                table,
+                fuzzerScanName,
+                fuzzerOptions,
+                wsProxies,
+                message,
+                fuzzLocations,
+                multipleMessageLocationsReplacer,
+                messageProcessors,
+                0,
+                null);
+    }
+
+    public WebSocketFuzzer(
+            TableWebSocket table,
+            String fuzzerScanName,
+            FuzzerOptions fuzzerOptions,
+            Map<Integer, WebSocketProxy> wsProxies,
+            WebSocketMessageDTO message,
+            List<MessageLocationReplacementGenerator<?, MessageLocationReplacement<?>>> fuzzLocations,
+            MultipleMessageLocationsReplacer<WebSocketMessageDTO> multipleMessageLocationsReplacer,
+            List<WebSocketFuzzerMessageProcessor> messageProcessors,
+            int maxMessagesPerSecond,
+            WebSocketFuzzResponseCorrelator responseCorrelator) {
         super(fuzzerScanName, fuzzerOptions, message, fuzzLocations, multipleMessageLocationsReplacer);
 
         this.id = FUZZ_ID_GENERATOR.incrementAndGet();
         this.wsProxies = wsProxies;
         this.messageProcessors = messageProcessors.isEmpty()
                 ? Collections.<WebSocketFuzzerMessageProcessor> emptyList()
-                : Collections.synchronizedList(new ArrayList<>(messageProcessors));
+                : new CopyOnWriteArrayList<>(messageProcessors);
+        this.sender = new WebSocketFuzzerSender(maxMessagesPerSecond);
+        this.responseCorrelator = responseCorrelator;
+        if (responseCorrelator != null) {
+            WebSocketProxy wsProxy = wsProxies.get(message.channel.id);
+            if (wsProxy != null) {
+                wsProxy.addObserver(responseCorrelator);
+            }
+        }
         currentSession = Model.getSingleton().getSession();
 
         this.originalMessage = message;
@@ -86,12 +120,58 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
         return wsProxies;
     }
 
+    protected WebSocketFuzzerSender getSender() {
+        return sender;
+    }
+
+    /**
+     * @return the correlator of replies, {@code null} if replies are not
+     *         tracked
+     */
+    protected WebSocketFuzzResponseCorrelator getResponseCorrelator() {
+        return responseCorrelator;
+    }
+
+    @Override
+    public void stopScan() {
+        super.stopScan();
+        removeResponseCorrelator();
+    }
+
+    @Override
+    protected void notifyListenersFuzzerCompleted(boolean successfully) {
+        // also called if the fuzzer finished normally
+        removeResponseCorrelator();
+        super.notifyListenersFuzzerCompleted(successfully);
+    }
+
+    /**
+     * Stops the correlator from observing the fuzzed channel, such that it
+     * does not outlive the fuzzer.
+     */
+    private void removeResponseCorrelator() {
+        if (responseCorrelator != null) {
+            WebSocketProxy wsProxy = wsProxies.get(originalMessage.channel.id);
+            if (wsProxy != null) {
+                wsProxy.removeObserver(responseCorrelator);
+            }
+        }
+    }
+
+    /**
+     * @return number of messages sent per second to the fuzzed channel
+     * @see WebSocketFuzzerSender#getMessagesPerSecond()
+     */
+    public double getMessagesPerSecond() {
+        return sender.getMessagesPerSecond(originalMessage.channel.id);
+    }
+
     protected Session getCurrentSession() {
         return currentSession;
     }
 
     protected void fuzzResultAvailable(WebSocketFuzzResult result) {
-        messagesModel.addResult(result, messagesSentCounter.get(), getMessagesSentCount() >= getMaximum());
+        messagesModel.addResult(result);
     }
 
     public WebSocketFuzzMessagesViewModel getMessagesModel() {
@@ -126,21 +206,24 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
             return;
         }
 
-        synchronized (messageProcessors) {
-            WebSocketFuzzerTaskProcessorUtils utils = new WebSocketFuzzerTaskProcessorUtils(
-                    this,
-                    originalMessage,
-                    taskId,
-                    payloads);
-            for (Iterator<WebSocketFuzzerMessageProcessor> it = messageProcessors.iterator(); it.hasNext();) {
-                WebSocketFuzzerMessageProcessor messageProcessor = it.next();
-                try {
-                    utils.setCurrentProcessorName(messageProcessor.getName());
-                    messageProcessor.processMessage(utils, message);
-                } catch (ProcessingException e) {
-                    logger.warn("Error while executing a processor, it will not be called again:", e);
-                    it.remove();
+        WebSocketFuzzerTaskProcessorUtils utils = new WebSocketFuzzerTaskProcessorUtils(
+                this,
+                originalMessage,
+                taskId,
+                payloads);
+        // no lock on the whole chain, tasks are processed in a pipeline
+        for (WebSocketFuzzerMessageProcessor messageProcessor : messageProcessors) {
+            try {
+                utils.setCurrentProcessorName(messageProcessor.getName());
+                // processors (e.g. scripts) are not thread-safe, one task at a time
+                synchronized (messageProcessor) {
+                    if (messageProcessors.contains(messageProcessor)) {
+                        messageProcessor.processMessage(utils, message);
+                    }
                 }
+            } catch (ProcessingException e) {
+                logger.warn("Error while executing a processor, it will not be called again:", e);
+                messageProcessors.remove(messageProcessor);
             }
         }
     }
@@ -115,12 +115,13 @@ public class WebSocketFuzzerHandler implements FuzzerHandler<WebSocketMessageDTO
             WebSocketMessageDTO message,
             SelectableContentMessageContainer<WebSocketMessageDTO> container,
             FuzzerOptions defaultOptions) {
+        WebSocketFuzzerHandlerOptionsPanel optionsPanel = new WebSocketFuzzerHandlerOptionsPanel();
         FuzzerDialog<WebSocketMessageDTO, FuzzerOptions, WebSocketFuzzerMessageProcessor> fuzzDialogue = new FuzzerDialog<>(
                 View.getSingleton().getMainFrame(),
                 defaultOptions,
                 message,
                 message.isOutgoing,
-                new WebSocketFuzzerHandlerOptionsPanel(),
+                optionsPanel,
                 new WebSocketFuzzerMessageProcessorCollection(message, messageProcessors));
 
         if (container != null) {
@@ -136,7 +137,21 @@ public class WebSocketFuzzerHandler implements FuzzerHandler<WebSocketMessageDTO
                 message,
                 fuzzDialogue.getFuzzLocations(),
                 fuzzDialogue.getFuzzerOptions(),
-                fuzzDialogue.getFuzzerMessageProcessors());
+                fuzzDialogue.getFuzzerMessageProcessors(),
+                optionsPanel.getMaxMessagesPerSecond(),
+                createResponseCorrelator(message, optionsPanel));
+    }
+
+    private static WebSocketFuzzResponseCorrelator createResponseCorrelator(
+            WebSocketMessageDTO message,
+            WebSocketFuzzerHandlerOptionsPanel optionsPanel) {
+        if (optionsPanel.getResponseWindow() == 0) {
+            return null;
+        }
+        return new WebSocketFuzzResponseCorrelator(
+                message.isOutgoing,
+                optionsPanel.getResponseWindow(),
+                optionsPanel.getResponsePattern());
     }
 
     @SuppressWarnings("unchecked")
@@ -144,7 +159,9 @@ public class WebSocketFuzzerHandler implements FuzzerHandler<WebSocketMessageDTO
             WebSocketMessageDTO message,
             List<PayloadGeneratorMessageLocation<?>> fuzzLocations,
             FuzzerOptions options,
-            List<WebSocketFuzzerMessageProcessor> processors) {
+            List<WebSocketFuzzerMessageProcessor> processors,
+            int maxMessagesPerSecond,
+            WebSocketFuzzResponseCorrelator responseCorrelator) {
         if (fuzzLocations.isEmpty()) {
             return null;
         }
@@ -179,7 +196,9 @@ public class WebSocketFuzzerHandler implements FuzzerHandler<WebSocketMessageDTO
                 message,
                 (List<MessageLocationReplacementGenerator<?, MessageLocationReplacement<?>>>) (ArrayList) fuzzLocations,
                 multipleMessageLocationsReplacer,
-                processors);
+                processors,
+                maxMessagesPerSecond,
+                responseCorrelator);
     }
 
     private String createFuzzerName(WebSocketMessageDTO message) {
@@ -19,17 +19,113 @@
  */
 package org.zaproxy.zap.extension.websocket.fuzz;
 
+import java.text.MessageFormat;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.GroupLayout;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
 
+import org.parosproxy.paros.Constant;
 import org.zaproxy.zap.extension.fuzz.FuzzerOptions;
 import org.zaproxy.zap.extension.fuzz.impl.FuzzerHandlerOptionsPanel;
+import org.zaproxy.zap.utils.ZapNumberSpinner;
 
 public class WebSocketFuzzerHandlerOptionsPanel implements FuzzerHandlerOptionsPanel<FuzzerOptions> {
 
+    private static final String MAX_MESSAGES_PER_SECOND_FIELD_LABEL = Constant.messages
+            .getString("websocket.fuzzer.options.maxMessagesPerSecond.label");
+
+    private static final String RESPONSE_WINDOW_FIELD_LABEL = Constant.messages
+            .getString("websocket.fuzzer.options.responseWindow.label");
+
+    private static final String RESPONSE_PATTERN_FIELD_LABEL = Constant.messages
+            .getString("websocket.fuzzer.options.responsePattern.label");
+
     private final JPanel optionsPanel;
 
+    private final ZapNumberSpinner maxMessagesPerSecondNumberSpinner;
+
+    private final ZapNumberSpinner responseWindowNumberSpinner;
+
+    private final JTextField responsePatternTextField;
+
     public WebSocketFuzzerHandlerOptionsPanel() {
         optionsPanel = new JPanel();
+        maxMessagesPerSecondNumberSpinner = new ZapNumberSpinner(0, 0, Integer.MAX_VALUE);
+        responseWindowNumberSpinner = new ZapNumberSpinner(0, 0, Integer.MAX_VALUE);
+        responsePatternTextField = new JTextField();
+
+        GroupLayout layout = new GroupLayout(optionsPanel);
+        optionsPanel.setLayout(layout);
+        layout.setAutoCreateGaps(true);
+
+        JLabel maxMessagesPerSecondLabel = new JLabel(MAX_MESSAGES_PER_SECOND_FIELD_LABEL);
+        maxMessagesPerSecondLabel.setLabelFor(maxMessagesPerSecondNumberSpinner);
+
+        JLabel responseWindowLabel = new JLabel(RESPONSE_WINDOW_FIELD_LABEL);
+        responseWindowLabel.setLabelFor(responseWindowNumberSpinner);
+
+        JLabel responsePatternLabel = new JLabel(RESPONSE_PATTERN_FIELD_LABEL);
+        responsePatternLabel.setLabelFor(responsePatternTextField);
+
+        layout.setHorizontalGroup(
+                layout.createSequentialGroup()
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.TRAILING)
+                                        .addComponent(maxMessagesPerSecondLabel)
+                                        .addComponent(responseWindowLabel)
+                                        .addComponent(responsePatternLabel))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.LEADING)
+                                        .addComponent(maxMessagesPerSecondNumberSpinner)
+                                        .addComponent(responseWindowNumberSpinner)
+                                        .addComponent(responsePatternTextField)));
+
+        layout.setVerticalGroup(
+                layout.createSequentialGroup()
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                                        .addComponent(maxMessagesPerSecondLabel)
+                                        .addComponent(maxMessagesPerSecondNumberSpinner))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                                        .addComponent(responseWindowLabel)
+                                        .addComponent(responseWindowNumberSpinner))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                                        .addComponent(responsePatternLabel)
+                                        .addComponent(responsePatternTextField)));
+    }
+
+    /**
+     * @return maximum number of messages sent per second to a channel,
+     *         {@code 0} for no limit
+     */
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecondNumberSpinner.getValue();
+    }
+
+    /**
+     * @return milliseconds waited for replies after sending a message,
+     *         {@code 0} if replies are not tracked
+     */
+    public int getResponseWindow() {
+        return responseWindowNumberSpinner.getValue();
+    }
+
+    /**
+     * @return pattern of the reply that stops waiting, {@code null} if none
+     */
+    public Pattern getResponsePattern() {
+        String pattern = responsePatternTextField.getText();
+        if (pattern.isEmpty()) {
+            return null;
+        }
+        return Pattern.compile(pattern);
     }
 
     @Override
@@ -39,6 +135,19 @@ public class WebSocketFuzzerHandlerOptionsPanel implements FuzzerHandlerOptionsP
 
     @Override
     public boolean validate(FuzzerOptions baseOptions) {
+        try {
+            getResponsePattern();
+        } catch (PatternSyntaxException e) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    MessageFormat.format(
+                            Constant.messages.getString("websocket.fuzzer.options.responsePattern.warnInvalid.message"),
+                            e.getDescription()),
+                    Constant.messages.getString("websocket.fuzzer.options.responsePattern.warnInvalid.title"),
+                    JOptionPane.INFORMATION_MESSAGE);
+            responsePatternTextField.requestFocusInWindow();
+            return false;
+        }
         return true;
     }
 
@@ -49,5 +158,8 @@ public class WebSocketFuzzerHandlerOptionsPanel implements FuzzerHandlerOptionsP
 
     @Override
     public void reset() {
+        maxMessagesPerSecondNumberSpinner.setValue(0);
+        responseWindowNumberSpinner.setValue(0);
+        responsePatternTextField.setText("");
     }
 }
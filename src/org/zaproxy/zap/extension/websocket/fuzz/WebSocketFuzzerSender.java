@@ -0,0 +1,214 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Copyright 2015 The ZAP Development Team
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+
+/**
+ * Sends the messages of a {@code WebSocketFuzzer}, shared by all its threads.
+ * <p>
+ * Messages sent concurrently to the same channel are written into the
+ * channel's output buffer and flushed once by the last sender, such that a
+ * burst of fuzzed messages ends up in few socket writes. Optionally the rate
+ * of messages per channel is limited, by assigning each message the next free
+ * time slot.
+ */
+public class WebSocketFuzzerSender {
+
+    private final int maxMessagesPerSecond;
+
+    private final ConcurrentMap<Integer, ChannelSender> channelSenders;
+
+    /**
+     * @param maxMessagesPerSecond maximum number of messages sent per second
+     *            to each channel, {@code 0} for no limit
+     */
+    public WebSocketFuzzerSender(int maxMessagesPerSecond) {
+        if (maxMessagesPerSecond < 0) {
+            throw new IllegalArgumentException("Parameter maxMessagesPerSecond must not be negative.");
+        }
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+        this.channelSenders = new ConcurrentHashMap<>();
+    }
+
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    /**
+     * Sends the given message through the given proxy, waiting for its time
+     * slot if the rate is limited.
+     *
+     * @param wsProxy the channel of the message
+     * @param message
+     * @return {@code true} if the message was sent
+     * @throws IOException
+     * @throws InterruptedException if interrupted while waiting for the time
+     *             slot, the message is not sent
+     */
+    public boolean send(WebSocketProxy wsProxy, WebSocketMessageDTO message) throws IOException, InterruptedException {
+        ChannelSender sender = getChannelSender(wsProxy.getChannelId());
+        sender.awaitSlot();
+        return sender.send(wsProxy, message);
+    }
+
+    private ChannelSender getChannelSender(int channelId) {
+        ChannelSender sender = channelSenders.get(channelId);
+        if (sender == null) {
+            ChannelSender newSender = new ChannelSender(maxMessagesPerSecond);
+            sender = channelSenders.putIfAbsent(channelId, newSender);
+            if (sender == null) {
+                sender = newSender;
+            }
+        }
+        return sender;
+    }
+
+    /**
+     * @param channelId
+     * @return number of messages sent per second to the given channel, since
+     *         the first one, {@code 0} if none was sent
+     */
+    public double getMessagesPerSecond(int channelId) {
+        ChannelSender sender = channelSenders.get(channelId);
+        if (sender == null) {
+            return 0;
+        }
+        return sender.getMessagesPerSecond();
+    }
+
+    /**
+     * @return number of messages sent per second, by channel ID
+     * @see #getMessagesPerSecond(int)
+     */
+    public SortedMap<Integer, Double> getMessagesPerSecond() {
+        SortedMap<Integer, Double> rates = new TreeMap<>();
+        for (Map.Entry<Integer, ChannelSender> entry : channelSenders.entrySet()) {
+            rates.put(entry.getKey(), entry.getValue().getMessagesPerSecond());
+        }
+        return rates;
+    }
+
+    private static class ChannelSender {
+
+        /**
+         * Nanoseconds between two messages, {@code 0} if not limited.
+         */
+        private final long interval;
+
+        /**
+         * Time of the next free slot, in nanoseconds.
+         */
+        private final AtomicLong nextSlot;
+
+        /**
+         * Number of outgoing messages being written, the last one flushes.
+         */
+        private final AtomicInteger outgoingSendsInProgress;
+
+        /**
+         * Number of incoming messages being written, the last one flushes.
+         */
+        private final AtomicInteger incomingSendsInProgress;
+
+        private final AtomicLong sentCount;
+
+        private volatile long firstSendTime;
+
+        private volatile long lastSendTime;
+
+        public ChannelSender(int maxMessagesPerSecond) {
+            interval = (maxMessagesPerSecond == 0) ? 0 : TimeUnit.SECONDS.toNanos(1) / maxMessagesPerSecond;
+            nextSlot = new AtomicLong(System.nanoTime());
+            outgoingSendsInProgress = new AtomicInteger();
+            incomingSendsInProgress = new AtomicInteger();
+            sentCount = new AtomicLong();
+        }
+
+        public void awaitSlot() throws InterruptedException {
+            if (interval == 0) {
+                return;
+            }
+
+            long expected;
+            long slot;
+            long now;
+            do {
+                now = System.nanoTime();
+                expected = nextSlot.get();
+                slot = expected;
+                if (slot - now < 0) {
+                    // idle for a while, do not allow a burst to catch up
+                    slot = now;
+                }
+            } while (!nextSlot.compareAndSet(expected, slot + interval));
+
+            long delay = slot - now;
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+        }
+
+        public boolean send(WebSocketProxy wsProxy, WebSocketMessageDTO message) throws IOException {
+            // each direction is buffered on its own, so count the messages
+            // being written per direction
+            AtomicInteger sendsInProgress = message.isOutgoing ? outgoingSendsInProgress : incomingSendsInProgress;
+            sendsInProgress.incrementAndGet();
+            boolean sent = false;
+            try {
+                sent = wsProxy.send(message, false);
+            } finally {
+                if (sendsInProgress.decrementAndGet() == 0) {
+                    // no other message is being written in this direction, send the buffered ones
+                    wsProxy.flush(message.isOutgoing);
+                }
+            }
+
+            if (sent) {
+                long now = System.nanoTime();
+                if (sentCount.getAndIncrement() == 0) {
+                    firstSendTime = now;
+                }
+                lastSendTime = now;
+            }
+            return sent;
+        }
+
+        public double getMessagesPerSecond() {
+            long count = sentCount.get();
+            long elapsed = lastSendTime - firstSendTime;
+            if (count < 2 || elapsed <= 0) {
+                return 0;
+            }
+            return (count - 1) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+    }
+}
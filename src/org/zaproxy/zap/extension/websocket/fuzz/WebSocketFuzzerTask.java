@@ -19,6 +19,7 @@
  */
 package org.zaproxy.zap.extension.websocket.fuzz;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -44,13 +45,27 @@ public class WebSocketFuzzerTask extends AbstractFuzzerTask<WebSocketMessageDTO>
     @Override
     protected void runImpl(WebSocketMessageDTO message, List<Object> payloads) {
         getParent().preProcessMessage(getId(), message, payloads);
+
+        WebSocketFuzzResponseCorrelator correlator = getParent().getResponseCorrelator();
+        long responsesStart = (correlator != null) ? correlator.startCorrelation() : 0;
         WebSocketFuzzMessageDTO messageSent = sendMessage(getParent().getWebSocketProxies(), (WebSocketFuzzMessageDTO) message);
+        long sentTime = System.nanoTime();
+
+        List<WebSocketFuzzResult.Response> responses = Collections.emptyList();
+        if (correlator != null) {
+            if (messageSent != null && messageSent.state == WebSocketFuzzMessageDTO.State.SUCCESSFUL) {
+                responses = correlator.awaitResponses(responsesStart, sentTime);
+            } else {
+                correlator.cancelCorrelation();
+            }
+        }
+
         if (messageSent == null) {
             return;
         }
         getParent().messageSent(getId(), messageSent);
 
-        WebSocketFuzzResult result = new WebSocketFuzzResult(getId(), messageSent, payloads);
+        WebSocketFuzzResult result = new WebSocketFuzzResult(getId(), messageSent, payloads, responses);
         String fuzz = payloads.toString();
         messageSent.fuzz = fuzz.substring(0, Math.min(150, fuzz.length()));
         getParent().fuzzResultAvailable(result);
@@ -66,12 +81,14 @@ public class WebSocketFuzzerTask extends AbstractFuzzerTask<WebSocketMessageDTO>
             WebSocketProxy wsProxy = wsProxies.get(message.channel.id);
 
             message.fuzzId = getParent().getId();
-            if (wsProxy.send(message)) {
+            if (getParent().getSender().send(wsProxy, message)) {
                 message.state = WebSocketFuzzMessageDTO.State.SUCCESSFUL;
             } else {
                 message.state = WebSocketFuzzMessageDTO.State.ERROR;
             }
             return message;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             LOGGER.warn("Failed to send WebSocket fuzzed message, cause: " + e.getMessage());
         }
@@ -88,7 +88,7 @@ public class WebSocketFuzzerTaskProcessorUtils {
             newMessage.payloadLength = Integer.valueOf(message.length());
             newMessage.fuzz = "";
 
-            if (wsProxy.send(newMessage)) {
+            if (websocketFuzzer.getSender().send(wsProxy, newMessage)) {
                 websocketFuzzer.messageSent(taskId, newMessage);
                 newMessage.state = WebSocketFuzzMessageDTO.State.SUCCESSFUL;
             } else {
@@ -99,6 +99,8 @@ public class WebSocketFuzzerTaskProcessorUtils {
                 websocketFuzzer.fuzzResultAvailable(new WebSocketFuzzResult(taskId, newMessage, payloads));
             }
             return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             LOGGER.warn("Failed to send WebSocket message, cause: " + e.getMessage());
         }
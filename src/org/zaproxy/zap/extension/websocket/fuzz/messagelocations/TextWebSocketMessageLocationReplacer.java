@@ -19,6 +19,7 @@
  */
 package org.zaproxy.zap.extension.websocket.fuzz.messagelocations;
 
+import java.util.Arrays;
 import java.util.SortedSet;
 
 import org.zaproxy.zap.extension.fuzz.messagelocations.MessageLocationReplacement;
@@ -33,6 +34,12 @@ public class TextWebSocketMessageLocationReplacer implements MessageLocationRepl
 
     private WebSocketMessageDTO message;
 
+    /**
+     * Payload split at the locations last replaced, reused while the
+     * locations stay the same (i.e. for all messages of a fuzzer).
+     */
+    private volatile PayloadTemplate template;
+
     @Override
     public boolean supports(MessageLocation location) {
         return supports(location.getClass());
@@ -46,6 +53,7 @@ public class TextWebSocketMessageLocationReplacer implements MessageLocationRepl
     @Override
     public void init(WebSocketMessageDTO message) {
         this.message = copyMessage(message);
+        this.template = null;
     }
 
     @Override
@@ -60,7 +68,9 @@ public class TextWebSocketMessageLocationReplacer implements MessageLocationRepl
             return copyMessage(message);
         }
 
-        Replacer replacer = new Replacer((String) message.payload);
+        int[] bounds = new int[replacements.size() * 2];
+        String[] values = new String[replacements.size()];
+        int count = 0;
         for (MessageLocationReplacement<?> replacement : replacements) {
             MessageLocation location = replacement.getMessageLocation();
             if (!(location instanceof TextWebSocketMessageLocation)) {
@@ -68,12 +78,34 @@ public class TextWebSocketMessageLocationReplacer implements MessageLocationRepl
             }
 
             TextWebSocketMessageLocation textLocation = (TextWebSocketMessageLocation) location;
-            replacer.replace(textLocation.getStart(), textLocation.getEnd(), replacement.getReplacement().toString());
+            bounds[count * 2] = textLocation.getStart();
+            bounds[count * 2 + 1] = textLocation.getEnd();
+            values[count] = replacement.getReplacement().toString();
+            count++;
+        }
+
+        String payload = (String) message.payload;
+        PayloadTemplate currentTemplate = template;
+        if (currentTemplate == null || !currentTemplate.hasBounds(bounds, count)) {
+            currentTemplate = PayloadTemplate.create(payload, bounds, count);
+            template = currentTemplate;
+        }
+
+        String replacedPayload;
+        if (currentTemplate != null) {
+            replacedPayload = currentTemplate.render(values);
+        } else {
+            // locations not in ascending order, replace one by one
+            Replacer replacer = new Replacer(payload);
+            for (int i = 0; i < count; i++) {
+                replacer.replace(bounds[i * 2], bounds[i * 2 + 1], values[i]);
+            }
+            replacedPayload = replacer.toString();
         }
 
         WebSocketFuzzMessageDTO replacedMessage = copyMessage(message);
-        replacedMessage.payload = replacer.toString();
-        replacedMessage.payloadLength = Integer.valueOf(replacer.length());
+        replacedMessage.payload = replacedPayload;
+        replacedMessage.payloadLength = Integer.valueOf(replacedPayload.length());
 
         return replacedMessage;
     }
@@ -84,6 +116,72 @@ public class TextWebSocketMessageLocationReplacer implements MessageLocationRepl
         return fuzzMessage;
     }
 
+    /**
+     * The parts of a payload that are not replaced, such that a replaced
+     * payload is rendered in one pass.
+     */
+    private static class PayloadTemplate {
+
+        private final int[] bounds;
+        private final String[] segments;
+        private final int segmentsLength;
+
+        private PayloadTemplate(int[] bounds, String[] segments) {
+            this.bounds = bounds;
+            this.segments = segments;
+            int length = 0;
+            for (String segment : segments) {
+                length += segment.length();
+            }
+            this.segmentsLength = length;
+        }
+
+        /**
+         * @return the template, or {@code null} if the locations are not in
+         *         ascending order or overlap
+         */
+        public static PayloadTemplate create(String payload, int[] bounds, int count) {
+            String[] segments = new String[count + 1];
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int start = bounds[i * 2];
+                int end = bounds[i * 2 + 1];
+                if (start < position || end < start || end > payload.length()) {
+                    return null;
+                }
+                segments[i] = payload.substring(position, start);
+                position = end;
+            }
+            segments[count] = payload.substring(position);
+            return new PayloadTemplate(Arrays.copyOf(bounds, count * 2), segments);
+        }
+
+        public boolean hasBounds(int[] otherBounds, int count) {
+            if (bounds.length != count * 2) {
+                return false;
+            }
+            for (int i = 0; i < bounds.length; i++) {
+                if (bounds[i] != otherBounds[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String render(String[] values) {
+            int length = segmentsLength;
+            for (int i = 0; i < segments.length - 1; i++) {
+                length += values[i].length();
+            }
+
+            StringBuilder strBuilder = new StringBuilder(length);
+            for (int i = 0; i < segments.length - 1; i++) {
+                strBuilder.append(segments[i]).append(values[i]);
+            }
+            return strBuilder.append(segments[segments.length - 1]).toString();
+        }
+    }
+
     private static class Replacer {
 
         private StringBuilder value;
@@ -98,10 +196,6 @@ public class TextWebSocketMessageLocationReplacer implements MessageLocationRepl
             offset += value.length() - (end - start);
         }
 
-        public int length() {
-            return value.length();
-        }
-
         @Override
         public String toString() {
             return value.toString();
@@ -33,7 +33,7 @@ import org.zaproxy.zap.extension.websocket.ui.WebSocketMessagesViewModel;
 
 /**
  * The fuzzing tab with its WebSocket messsages view differs slightly from the messages view in the WebSockets tab, as there are
- * 2 more columns here.
+ * 4 more columns here.
  * <p>
  * Moreover it is not backed by the database but a {@link List}. You have to add messages yourself via
  * {@link WebSocketFuzzMessagesView#addFuzzResult(FuzzResult)}.
@@ -60,6 +60,12 @@ public class WebSocketFuzzMessagesView extends WebSocketMessagesView {
 
         // fuzz part (do not set preferred size => stretches to maximum)
         setColumnWidth(7, 50, -1);
+
+        // replies
+        setColumnWidth(8, 50, 60);
+
+        // reply latency
+        setColumnWidth(9, 75, 80);
     }
 
     @Override
@@ -22,6 +22,9 @@ package org.zaproxy.zap.extension.websocket.fuzz.ui;
 import java.awt.EventQueue;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.table.TableModel;
 
@@ -31,6 +34,7 @@ import org.parosproxy.paros.db.DatabaseException;
 import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketMessagePrimaryKey;
 import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzResult;
 import org.zaproxy.zap.extension.websocket.ui.WebSocketMessagesViewModel;
 
@@ -49,7 +53,9 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 	 */
 	private static final String[] COLUMN_NAMES = {
 	        Constant.messages.getString("websocket.table.header.state"),
-	        Constant.messages.getString("websocket.table.header.fuzz") };
+	        Constant.messages.getString("websocket.table.header.fuzz"),
+	        Constant.messages.getString("websocket.table.header.replies"),
+	        Constant.messages.getString("websocket.table.header.reply_latency") };
 	
     /**
 	 * Number of columns in this table model increased.
@@ -61,6 +67,11 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 	 */
 	private List<WebSocketMessageDTO> erroneousMessages = new ArrayList<>();
 
+	/**
+	 * Replies tracked for the sent messages, not persisted.
+	 */
+	private final ConcurrentMap<WebSocketMessagePrimaryKey, List<WebSocketFuzzResult.Response>> responses = new ConcurrentSkipListMap<>();
+
 	private final int currentFuzzId;
 
 	private static final String msgSuccess;
@@ -120,6 +131,17 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		        
 		    case 7:
 		        return fuzzMessage.fuzz;
+
+		    case 8:
+		        List<WebSocketFuzzResult.Response> messageResponses = getResponses(fuzzMessage);
+		        return (messageResponses == null) ? null : Integer.valueOf(messageResponses.size());
+
+		    case 9:
+		        messageResponses = getResponses(fuzzMessage);
+		        if (messageResponses == null || messageResponses.isEmpty()) {
+		            return null;
+		        }
+		        return Long.valueOf(TimeUnit.NANOSECONDS.toMillis(messageResponses.get(0).getLatency()));
 			}
 		}
 		return super.getRealValueAt(message, columnIndex);
@@ -134,6 +156,10 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		case 6:
 		case 7:
 			return String.class;
+		case 8:
+			return Integer.class;
+		case 9:
+			return Long.class;
 		default:
 			return super.getColumnClass(columnIndex);
 		}
@@ -180,6 +206,18 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 	protected void clear() {
 		super.clear();
 		erroneousMessages.clear();
+		responses.clear();
+	}
+
+	/**
+	 * @param message
+	 * @return replies to the given message, {@code null} if not tracked
+	 */
+	private List<WebSocketFuzzResult.Response> getResponses(WebSocketFuzzMessageDTO message) {
+		if (message.channel == null || message.channel.id == null || message.id == null) {
+			return null;
+		}
+		return responses.get(new WebSocketMessagePrimaryKey(message.channel.id, message.id));
 	}
 	
 	@Override
@@ -203,8 +241,11 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		}
 	}
 
-    public void addResult(final WebSocketFuzzResult result, int count, boolean forceRefresh) {
+    public void addResult(final WebSocketFuzzResult result) {
         final WebSocketFuzzMessageDTO message = result.getWebSocketMessage();
+        if (!result.getResponses().isEmpty()) {
+            responses.put(new WebSocketMessagePrimaryKey(message.channel.id, message.id), result.getResponses());
+        }
         if (message.state == WebSocketFuzzMessageDTO.State.ERROR) {
             EventQueue.invokeLater(new Runnable() {
 
@@ -216,12 +257,7 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
         } else {
             try {
                 getTable().insertMessage(message);
-                if (count % 10 == 0 || forceRefresh) {
-                    try {
-                        fireMessageArrived(message);
-                    } catch (IndexOutOfBoundsException e) {
-                    }
-                }
+                fireMessageArrived(message);
             } catch (DatabaseException e) {
                 logger.warn("Failed to persist fuzzer message:", e);
             }
@@ -51,6 +51,8 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
     private JLabel messageCountValueLabel;
     private JLabel errorCountLabel;
     private JLabel errorCountValueLabel;
+    private JLabel messageRateLabel;
+    private JLabel messageRateValueLabel;
 
     private JPanel mainPanel;
 
@@ -73,6 +75,9 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         errorCountLabel = new JLabel(Constant.messages.getString("websocket.fuzzer.results.toolbar.errors"));
         errorCountValueLabel = new JLabel("0");
 
+        messageRateLabel = new JLabel(Constant.messages.getString("websocket.fuzzer.results.toolbar.messageRate"));
+        messageRateValueLabel = new JLabel("0");
+
         toolbar.add(Box.createHorizontalStrut(4));
         toolbar.add(messageCountLabel);
         toolbar.add(Box.createHorizontalStrut(4));
@@ -82,6 +87,11 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         toolbar.add(errorCountLabel);
         toolbar.add(Box.createHorizontalStrut(4));
         toolbar.add(errorCountValueLabel);
+        toolbar.add(Box.createHorizontalStrut(32));
+
+        toolbar.add(messageRateLabel);
+        toolbar.add(Box.createHorizontalStrut(4));
+        toolbar.add(messageRateValueLabel);
 
         mainPanel = new JPanel(new BorderLayout());
 
@@ -140,12 +150,17 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         messageCountValueLabel.setText(Integer.toString(currentFuzzer.getMessagesSentCount()));
         int errorCount = currentFuzzer.getErrorCount();
         errorCountValueLabel.setText(Integer.toString(errorCount));
+        messageRateValueLabel.setText(formatMessageRate(currentFuzzer.getMessagesPerSecond()));
 
         currentFuzzer.addWebSocketFuzzerListener(getWebSocketFuzzerListener());
 
         fuzzResultTable.setModel(currentFuzzer.getMessagesModel());
     }
 
+    private static String formatMessageRate(double messagesPerSecond) {
+        return Long.toString(Math.round(messagesPerSecond));
+    }
+
     private WebSocketFuzzerListener getWebSocketFuzzerListener() {
         if (websocketFuzzerListener == null) {
             websocketFuzzerListener = new WebSocketFuzzerListenerImpl();
@@ -158,6 +173,10 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         @Override
         public void messageSent(int total) {
             messageCountValueLabel.setText(Integer.toString(total));
+            WebSocketFuzzer fuzzer = currentFuzzer;
+            if (fuzzer != null) {
+                messageRateValueLabel.setText(formatMessageRate(fuzzer.getMessagesPerSecond()));
+            }
         }
 
         @Override
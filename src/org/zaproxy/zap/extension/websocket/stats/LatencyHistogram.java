@@ -0,0 +1,138 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds, in buckets of logarithmic size, such that
+ * percentiles can be estimated with a relative error of at most 12.5%,
+ * without keeping the single values.
+ * <p>
+ * Recording does not lock, at the cost of slightly inconsistent results when
+ * reading while values are recorded.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of buckets per power of two, i.e. precision of the histogram.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos duration to record, negative values count as zero
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+
+		buckets.incrementAndGet(getBucketIndex(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	static int getBucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * @param index
+	 * @return highest value counted in given bucket
+	 */
+	static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKET_COUNT;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((SUB_BUCKET_COUNT + subBucket) * width) + width - 1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotal() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long currentCount = count.get();
+		return (currentCount == 0) ? 0 : total.get() / currentCount;
+	}
+
+	/**
+	 * Estimates the value below which the given share of durations fall.
+	 * 
+	 * @param percentile between 0 and 100, e.g. 99 for the 99th percentile
+	 * @return upper bound of the percentile, 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long currentCount = count.get();
+		if (currentCount == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(currentCount * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(getBucketUpperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Sets all counters back to zero. Values recorded concurrently might be
+	 * counted partially.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.stats;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link WebSocketTrafficStatistics} of each open channel, and
+ * of all channels together.
+ * <p>
+ * The statistics of a channel are removed once it is closed, their values are
+ * kept in the aggregate only.
+ */
+public class WebSocketStatistics {
+
+	private final WebSocketTrafficStatistics aggregate = new WebSocketTrafficStatistics(null);
+
+	private final ConcurrentMap<Integer, WebSocketTrafficStatistics> channels = new ConcurrentHashMap<>();
+
+	/**
+	 * @return statistics of all channels
+	 */
+	public WebSocketTrafficStatistics getAggregate() {
+		return aggregate;
+	}
+
+	/**
+	 * Returns the statistics of the given channel, creating them if not yet
+	 * available.
+	 * 
+	 * @param channelId
+	 * @return statistics recorded on the channel and the aggregate
+	 */
+	public WebSocketTrafficStatistics getOrCreateChannel(int channelId) {
+		WebSocketTrafficStatistics statistics = channels.get(channelId);
+		if (statistics == null) {
+			statistics = new WebSocketTrafficStatistics(aggregate);
+			statistics.setRegistry(this, channelId);
+			WebSocketTrafficStatistics existing = channels.putIfAbsent(channelId, statistics);
+			if (existing != null) {
+				statistics = existing;
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Removes the statistics of the given closed channel.
+	 * 
+	 * @param channelId
+	 * @param statistics the statistics of the channel to remove, not removed if
+	 *            replaced in the meantime
+	 * @see WebSocketTrafficStatistics#close()
+	 */
+	void removeChannel(int channelId, WebSocketTrafficStatistics statistics) {
+		channels.remove(channelId, statistics);
+	}
+
+	/**
+	 * @param channelId
+	 * @return statistics of the channel, or {@code null} if not known (e.g.
+	 *         already closed)
+	 */
+	public WebSocketTrafficStatistics getChannel(int channelId) {
+		return channels.get(channelId);
+	}
+
+	/**
+	 * @return statistics of all open channels, sorted by channel id
+	 */
+	public SortedMap<Integer, WebSocketTrafficStatistics> getChannels() {
+		return new TreeMap<>(channels);
+	}
+
+	/**
+	 * Records the time until a message was stored, on its channel if known,
+	 * otherwise on the aggregate only.
+	 * 
+	 * @param channelId
+	 * @param nanos
+	 */
+	public void recordStorageLag(int channelId, long nanos) {
+		WebSocketTrafficStatistics statistics = channels.get(channelId);
+		if (statistics != null) {
+			statistics.recordStorageLag(nanos);
+		} else {
+			aggregate.recordStorageLag(nanos);
+		}
+	}
+
+	/**
+	 * Forgets the channels, keeping the aggregate, e.g. when the session
+	 * changes.
+	 */
+	public void clearChannels() {
+		channels.clear();
+	}
+
+	/**
+	 * Sets all counters back to zero.
+	 */
+	public void reset() {
+		for (Map.Entry<Integer, WebSocketTrafficStatistics> entry : channels.entrySet()) {
+			entry.getValue().reset();
+		}
+		aggregate.reset();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+
+/**
+ * Counters for the frames passing through one or several WebSocket channels.
+ * <p>
+ * Frames and bytes are counted per {@link Direction} and opcode. The time
+ * spent for notifying observers, the time until a frame is forwarded after it
+ * started to arrive and the time until a message is stored are kept in
+ * {@link LatencyHistogram}s.
+ * <p>
+ * Values recorded on a channel are recorded on its parent as well, if any.
+ */
+public class WebSocketTrafficStatistics {
+
+	private static final int OPCODE_COUNT = 16;
+
+	private final WebSocketTrafficStatistics parent;
+
+	private final AtomicLongArray frames = new AtomicLongArray(2 * OPCODE_COUNT);
+	private final AtomicLongArray bytes = new AtomicLongArray(2 * OPCODE_COUNT);
+
+	private final LatencyHistogram dispatchTime = new LatencyHistogram();
+	private final LatencyHistogram forwardLatency = new LatencyHistogram();
+	private final LatencyHistogram storageLag = new LatencyHistogram();
+
+	/**
+	 * Registry of the channel, {@code null} if not created by
+	 * {@link WebSocketStatistics#getOrCreateChannel(int)}.
+	 */
+	private WebSocketStatistics registry;
+
+	private int channelId;
+
+	/**
+	 * @param parent aggregated statistics, might be {@code null}
+	 */
+	public WebSocketTrafficStatistics(WebSocketTrafficStatistics parent) {
+		this.parent = parent;
+	}
+
+	void setRegistry(WebSocketStatistics registry, int channelId) {
+		this.registry = registry;
+		this.channelId = channelId;
+	}
+
+	/**
+	 * Called once the channel is closed, removes these statistics from their
+	 * registry. The values recorded stay in the parent.
+	 */
+	public void close() {
+		if (registry != null) {
+			registry.removeChannel(channelId, this);
+		}
+	}
+
+	private static int getIndex(Direction direction, int opcode) {
+		return (direction == Direction.OUTGOING ? OPCODE_COUNT : 0) + (opcode & 0x0F);
+	}
+
+	/**
+	 * Counts a frame that was read.
+	 * 
+	 * @param direction
+	 * @param opcode opcode of the message the frame belongs to
+	 * @param length number of bytes of the frame including its header
+	 */
+	public void recordFrame(Direction direction, int opcode, int length) {
+		int index = getIndex(direction, opcode);
+		frames.incrementAndGet(index);
+		bytes.addAndGet(index, length);
+
+		if (parent != null) {
+			parent.recordFrame(direction, opcode, length);
+		}
+	}
+
+	/**
+	 * @param nanos time spent notifying observers about a frame
+	 */
+	public void recordDispatchTime(long nanos) {
+		dispatchTime.record(nanos);
+
+		if (parent != null) {
+			parent.recordDispatchTime(nanos);
+		}
+	}
+
+	/**
+	 * @param nanos time from the arrival of a frame until it was forwarded
+	 */
+	public void recordForwardLatency(long nanos) {
+		forwardLatency.record(nanos);
+
+		if (parent != null) {
+			parent.recordForwardLatency(nanos);
+		}
+	}
+
+	/**
+	 * @param nanos time from the arrival of a message until it was stored
+	 */
+	public void recordStorageLag(long nanos) {
+		storageLag.record(nanos);
+
+		if (parent != null) {
+			parent.recordStorageLag(nanos);
+		}
+	}
+
+	public long getFrameCount(Direction direction, int opcode) {
+		return frames.get(getIndex(direction, opcode));
+	}
+
+	public long getFrameCount(Direction direction) {
+		return sum(frames, direction);
+	}
+
+	public long getByteCount(Direction direction, int opcode) {
+		return bytes.get(getIndex(direction, opcode));
+	}
+
+	public long getByteCount(Direction direction) {
+		return sum(bytes, direction);
+	}
+
+	private static long sum(AtomicLongArray counters, Direction direction) {
+		int start = getIndex(direction, 0);
+		long sum = 0;
+		for (int i = start; i < start + OPCODE_COUNT; i++) {
+			sum += counters.get(i);
+		}
+		return sum;
+	}
+
+	public LatencyHistogram getDispatchTime() {
+		return dispatchTime;
+	}
+
+	public LatencyHistogram getForwardLatency() {
+		return forwardLatency;
+	}
+
+	public LatencyHistogram getStorageLag() {
+		return storageLag;
+	}
+
+	/**
+	 * Sets the counters of this object back to zero, leaving the parent
+	 * untouched.
+	 */
+	public void reset() {
+		for (int i = 0; i < frames.length(); i++) {
+			frames.set(i, 0);
+			bytes.set(i, 0);
+		}
+		dispatchTime.reset();
+		forwardLatency.reset();
+		storageLag.reset();
+	}
+}
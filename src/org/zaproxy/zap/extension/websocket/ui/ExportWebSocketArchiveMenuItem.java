@@ -0,0 +1,120 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.text.MessageFormat;
+
+import javax.swing.JFileChooser;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.model.Model;
+import org.parosproxy.paros.view.View;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.view.ZapMenuItem;
+import org.zaproxy.zap.view.widgets.WritableFileChooser;
+
+/**
+ * Tools menu item, that writes all WebSocket messages of the session into a
+ * file chosen by the user. The file is written in background.
+ */
+public class ExportWebSocketArchiveMenuItem extends ZapMenuItem {
+
+	private static final long serialVersionUID = -3407463711052932164L;
+
+	private static final Logger logger = Logger.getLogger(ExportWebSocketArchiveMenuItem.class);
+
+	private final ExtensionWebSocket extWs;
+
+	public ExportWebSocketArchiveMenuItem(ExtensionWebSocket extWs) {
+		super("websocket.archive.export.menu");
+
+		this.extWs = extWs;
+		addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				File file = getOutputFile();
+				if (file != null) {
+					export(file);
+				}
+			}
+		});
+	}
+
+	private static File getOutputFile() {
+		WritableFileChooser fileChooser = new WritableFileChooser(Model.getSingleton().getOptionsParam().getUserDirectory()) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void approveSelection() {
+				File file = getSelectedFile();
+				if (file != null && !file.getName().toLowerCase().endsWith(WebSocketArchiveFileFilter.EXTENSION)) {
+					setSelectedFile(new File(file.getAbsolutePath() + WebSocketArchiveFileFilter.EXTENSION));
+				}
+				super.approveSelection();
+			}
+		};
+		fileChooser.setFileFilter(new WebSocketArchiveFileFilter());
+		if (fileChooser.showSaveDialog(View.getSingleton().getMainFrame()) == JFileChooser.APPROVE_OPTION) {
+			return fileChooser.getSelectedFile();
+		}
+		return null;
+	}
+
+	private void export(final File file) {
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				String message;
+				boolean failed = false;
+				try {
+					int count = extWs.exportMessages(file);
+					message = MessageFormat.format(Constant.messages.getString("websocket.archive.export.done"), count, file.getAbsolutePath());
+				} catch (Exception e) {
+					logger.error("Failed to export WebSocket messages: " + e.getMessage(), e);
+					message = MessageFormat.format(Constant.messages.getString("websocket.archive.export.error"), file.getAbsolutePath());
+					failed = true;
+				}
+				showResult(message, failed);
+			}
+		}, "ZAP-WebSocket-Export");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	static void showResult(final String message, final boolean failed) {
+		EventQueue.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+				if (failed) {
+					View.getSingleton().showWarningDialog(message);
+				} else {
+					View.getSingleton().showMessageDialog(message);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.text.MessageFormat;
+
+import javax.swing.JFileChooser;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.model.Model;
+import org.parosproxy.paros.view.View;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.view.ZapMenuItem;
+
+/**
+ * Tools menu item, that adds the WebSocket messages of a file chosen by the
+ * user to the session. The file is read in background.
+ * 
+ * @see ExportWebSocketArchiveMenuItem
+ */
+public class ImportWebSocketArchiveMenuItem extends ZapMenuItem {
+
+	private static final long serialVersionUID = 4958186164711410543L;
+
+	private static final Logger logger = Logger.getLogger(ImportWebSocketArchiveMenuItem.class);
+
+	private final ExtensionWebSocket extWs;
+
+	public ImportWebSocketArchiveMenuItem(ExtensionWebSocket extWs) {
+		super("websocket.archive.import.menu");
+
+		this.extWs = extWs;
+		addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser fileChooser = new JFileChooser(Model.getSingleton().getOptionsParam().getUserDirectory());
+				fileChooser.setFileFilter(new WebSocketArchiveFileFilter());
+				if (fileChooser.showOpenDialog(View.getSingleton().getMainFrame()) == JFileChooser.APPROVE_OPTION) {
+					importFile(fileChooser.getSelectedFile());
+				}
+			}
+		});
+	}
+
+	private void importFile(final File file) {
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				String message;
+				boolean failed = false;
+				try {
+					int count = extWs.importMessages(file);
+					message = MessageFormat.format(Constant.messages.getString("websocket.archive.import.done"), count, file.getAbsolutePath());
+				} catch (Exception e) {
+					logger.error("Failed to import WebSocket messages: " + e.getMessage(), e);
+					message = MessageFormat.format(Constant.messages.getString("websocket.archive.import.error"), file.getAbsolutePath());
+					failed = true;
+				}
+				ExportWebSocketArchiveMenuItem.showResult(message, failed);
+			}
+		}, "ZAP-WebSocket-Import");
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
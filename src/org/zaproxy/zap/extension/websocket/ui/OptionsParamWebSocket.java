@@ -19,6 +19,7 @@ package org.zaproxy.zap.extension.websocket.ui;
 
 import org.apache.commons.configuration.FileConfiguration;
 import org.parosproxy.paros.common.AbstractParam;
+import org.zaproxy.zap.extension.websocket.utility.PayloadBuffers;
 
 public class OptionsParamWebSocket extends AbstractParam {
 //    private static Logger logger = Logger.getLogger(OptionsParamWebSocket.class);
@@ -27,11 +28,20 @@ public class OptionsParamWebSocket extends AbstractParam {
 	public static final String BREAK_ON_PING_PONG = "websocket.breakOnPingPong";
 	public static final String BREAK_ON_ALL = "websocket.breakOnAll";
 	private static final String CONFIRM_REMOVE_PROXY_EXCLUDE_REGEX_KEY = "websocket.confirmRemoveProxyExcludeRegex";
+	public static final String STORAGE_FLUSH_INTERVAL = "websocket.storageFlushInterval";
+	public static final String STORAGE_FLUSH_SIZE = "websocket.storageFlushSize";
+	public static final String PAYLOAD_SPILL_THRESHOLD = "websocket.payloadSpillThreshold";
+
+	public static final int DEFAULT_STORAGE_FLUSH_INTERVAL = 250;
+	public static final int DEFAULT_STORAGE_FLUSH_SIZE = 200;
 
 	private boolean isForwardAll;
 	private boolean isBreakOnPingPong;
 	private boolean isBreakOnAll;
 	private boolean confirmRemoveProxyExcludeRegex;
+	private int storageFlushInterval = DEFAULT_STORAGE_FLUSH_INTERVAL;
+	private int storageFlushSize = DEFAULT_STORAGE_FLUSH_SIZE;
+	private int payloadSpillThreshold = PayloadBuffers.DEFAULT_SPILL_THRESHOLD;
 
     @Override
     protected void parse() {
@@ -40,6 +50,9 @@ public class OptionsParamWebSocket extends AbstractParam {
     	isBreakOnPingPong = cfg.getBoolean(BREAK_ON_PING_PONG, false);
     	isBreakOnAll = cfg.getBoolean(BREAK_ON_ALL, false);
     	confirmRemoveProxyExcludeRegex = cfg.getBoolean(CONFIRM_REMOVE_PROXY_EXCLUDE_REGEX_KEY, false);
+    	storageFlushInterval = cfg.getInt(STORAGE_FLUSH_INTERVAL, DEFAULT_STORAGE_FLUSH_INTERVAL);
+    	storageFlushSize = cfg.getInt(STORAGE_FLUSH_SIZE, DEFAULT_STORAGE_FLUSH_SIZE);
+    	payloadSpillThreshold = cfg.getInt(PAYLOAD_SPILL_THRESHOLD, PayloadBuffers.DEFAULT_SPILL_THRESHOLD);
     }
 
     /**
@@ -114,4 +127,35 @@ public class OptionsParamWebSocket extends AbstractParam {
 		this.confirmRemoveProxyExcludeRegex = confirmRemove;
 		getConfig().setProperty(CONFIRM_REMOVE_PROXY_EXCLUDE_REGEX_KEY, Boolean.valueOf(confirmRemove));
 	}
+
+	/**
+	 * Maximum time messages are kept in memory, before being written to the
+	 * database.
+	 * 
+	 * @return interval in milliseconds, at least 1
+	 */
+	public int getStorageFlushInterval() {
+		return Math.max(1, storageFlushInterval);
+	}
+
+	/**
+	 * Number of queued messages that causes them to be written to the
+	 * database, before the flush interval elapses.
+	 * 
+	 * @return number of messages, at least 1
+	 * @see #getStorageFlushInterval()
+	 */
+	public int getStorageFlushSize() {
+		return Math.max(1, storageFlushSize);
+	}
+
+	/**
+	 * Size of payloads that are kept in a temporary file instead of the heap.
+	 * 
+	 * @return number of bytes, 0 if all payloads are kept on the heap
+	 * @see PayloadBuffers
+	 */
+	public int getPayloadSpillThreshold() {
+		return Math.max(0, payloadSpillThreshold);
+	}
 }
\ No newline at end of file
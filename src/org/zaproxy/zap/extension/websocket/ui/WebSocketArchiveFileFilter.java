@@ -0,0 +1,43 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.io.File;
+
+import javax.swing.filechooser.FileFilter;
+
+import org.parosproxy.paros.Constant;
+
+/**
+ * Shows directories and WebSocket archives, i.e. files ending with
+ * {@link #EXTENSION}.
+ */
+class WebSocketArchiveFileFilter extends FileFilter {
+
+	static final String EXTENSION = ".zwsa";
+
+	@Override
+	public boolean accept(File file) {
+		return file.isDirectory() || (file.isFile() && file.getName().toLowerCase().endsWith(EXTENSION));
+	}
+
+	@Override
+	public String getDescription() {
+		return Constant.messages.getString("websocket.archive.file.description");
+	}
+}
@@ -18,6 +18,8 @@
 package org.zaproxy.zap.extension.websocket.ui;
 
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.parosproxy.paros.Constant;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
@@ -40,6 +42,12 @@ public class WebSocketMessagesViewFilter {
 	
 	private boolean isShowJustInScope = false;
 	
+	/**
+	 * Found in the text payload of shown messages, or {@code null} if not
+	 * applied.
+	 */
+	private Pattern payloadPattern;
+	
 	public void setOpcodes(List<Integer> list) {
 		opcodeList = list;
 	}
@@ -70,12 +78,34 @@ public class WebSocketMessagesViewFilter {
 		return isShowJustInScope;
 	}
 
+	/**
+	 * Catch {@link PatternSyntaxException} in dialog & show warning.
+	 * 
+	 * @param payloadPattern
+	 * @throws PatternSyntaxException
+	 */
+	public void setPayloadPattern(String payloadPattern) throws PatternSyntaxException {
+		if (payloadPattern == null || payloadPattern.length() == 0) {
+			this.payloadPattern = null;
+		} else {
+			this.payloadPattern = Pattern.compile(payloadPattern, Pattern.MULTILINE);
+		}
+	}
+
+	/**
+	 * @return Null if payloads are not searched
+	 */
+	public Pattern getPayloadPattern() {
+		return payloadPattern;
+	}
+
 	/**
 	 * Resets this filter. Message will no longer be blacklisted.
 	 */
 	public void reset() {
 		opcodeList = null;
 		direction = null;
+		payloadPattern = null;
 	}
 	
 	/**
@@ -104,6 +134,12 @@ public class WebSocketMessagesViewFilter {
 			}
 		}
 		
+		if (payloadPattern != null) {
+			if (!(message.payload instanceof String) || !payloadPattern.matcher((String) message.payload).find()) {
+				return true;
+			}
+		}
+		
 		return false;
 	}
 
@@ -159,6 +195,19 @@ public class WebSocketMessagesViewFilter {
 			}
 		}
 
+		if (payloadPattern != null) {
+			empty = false;
+			sb.append(Constant.messages.getString("websocket.filter.label.payload"));
+			
+			if (shouldIncludeValues) {
+				sb.append(": ");
+				sb.append(payloadPattern.pattern());
+				sb.append(" ");
+			} else {
+				sb.append(" ");
+			}
+		}
+
 		sb.insert(0, " ");
 		
 		if (empty) {
@@ -25,6 +25,7 @@ import java.awt.HeadlessException;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.AbstractAction;
 import javax.swing.JButton;
@@ -36,6 +37,7 @@ import javax.swing.KeyStroke;
 
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.extension.AbstractDialog;
+import org.parosproxy.paros.view.View;
 
 /**
  * Filter WebSocket messages in {@link WebSocketPanel}. Show only specific ones.
@@ -117,7 +119,7 @@ public class WebSocketMessagesViewFilterDialog extends AbstractDialog {
 		if (dialogPanel == null) {
 			dialogPanel = new JPanel();
 			dialogPanel.setLayout(new GridBagLayout());
-			dialogPanel.setPreferredSize(new Dimension(wsUiHelper.getDialogWidth() + 20, 280));
+			dialogPanel.setPreferredSize(new Dimension(wsUiHelper.getDialogWidth() + 20, 310));
 			
 			int y = 0;
 			
@@ -139,6 +141,10 @@ public class WebSocketMessagesViewFilterDialog extends AbstractDialog {
 
 			dialogPanel.add(wsUiHelper.getIncomingCheckbox(), wsUiHelper.getFieldConstraints(1, y++));
 			
+			// add payload pattern, searched with the payload index
+			dialogPanel.add(wsUiHelper.getPatternLabel(), wsUiHelper.getLabelConstraints(0, y));
+			dialogPanel.add(wsUiHelper.getPatternTextField(), wsUiHelper.getFieldConstraints(1, y++));
+			
 			// add submit panel
 			dialogPanel.add(getActionsPanel(), wsUiHelper.getFieldConstraints(1, y));
 		}
@@ -174,6 +180,13 @@ public class WebSocketMessagesViewFilterDialog extends AbstractDialog {
 
 				@Override
 				public void actionPerformed(ActionEvent e) {    
+					try {
+						filter.setPayloadPattern(wsUiHelper.getPattern());
+					} catch (PatternSyntaxException ex) {
+						View.getSingleton().showWarningDialog(Constant.messages.getString("filter.replacedialog.invalidpattern"));
+						wsUiHelper.getPatternTextField().grabFocus();
+						return;
+					}
 					filter.setOpcodes(wsUiHelper.getSelectedOpcodeIntegers());
 					filter.setDirection(wsUiHelper.getDirection());
 				    exitResult = JOptionPane.OK_OPTION;
@@ -231,6 +244,7 @@ public class WebSocketMessagesViewFilterDialog extends AbstractDialog {
 					exitResult = JOptionPane.NO_OPTION;
 					wsUiHelper.setSelectedOpcodes(null);
 					wsUiHelper.setDirection(null);
+					wsUiHelper.getPatternTextField().setText("");
 					filter.reset();
 				}
 			});
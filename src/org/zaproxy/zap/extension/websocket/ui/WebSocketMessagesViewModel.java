@@ -17,10 +17,29 @@
  */
 package org.zaproxy.zap.extension.websocket.ui;
 
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.swing.ImageIcon;
+import javax.swing.Timer;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang.StringEscapeUtils;
@@ -40,6 +59,10 @@ import org.zaproxy.zap.utils.PagingTableModel;
  * This model uses the {@link TableWebSocket} instance to load only needed
  * entries from database. Moreover it shows only those entries that are not
  * blacklisted by given {@link WebSocketMessagesViewFilter}.
+ * <p>
+ * Rows are loaded in aligned blocks with payload previews only, which are
+ * cached and prefetched in the direction the user is scrolling. The full
+ * payload is loaded once a message is selected (see {@link #getDTO(int)}).
  */
 public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessageDTO> {
 	
@@ -49,6 +72,32 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	
 	private static final int PAYLOAD_PREVIEW_LENGTH = 150;
 	
+	/**
+	 * Number of rows loaded from database at once. Pages requested by
+	 * {@link #loadPage(int, int)} are assembled from these blocks, so that
+	 * overlapping pages do not query the database again.
+	 */
+	private static final int BLOCK_SIZE = 50;
+	
+	private static final int MAX_CACHED_BLOCKS = 40;
+	
+	/**
+	 * Number of blocks loaded ahead in scroll direction.
+	 */
+	private static final int PREFETCH_BLOCKS = 2;
+	
+	/**
+	 * Upper bound for the sum of payload lengths kept in the full messages
+	 * cache.
+	 */
+	private static final int MAX_FULL_MESSAGES_CACHE_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * Delay in milliseconds, during which arriving messages are collected
+	 * into one rows inserted event.
+	 */
+	private static final int ROWS_INSERTED_DELAY = 100;
+	
 	/**
 	 * Names of all columns.
 	 */
@@ -81,13 +130,103 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	private Integer activeChannelId;
 
 	/**
-	 * Avoid having two much SQL queries by caching result and allow next query
-	 * after new message has arrived.
+	 * Avoid having two much SQL queries by caching result. It is queried again
+	 * only after the filter or the data has changed, arriving messages are
+	 * counted in memory.
 	 */
 	private Integer cachedRowCount;
 	private Object cachedRowCountSemaphore = new Object();
 
-	private LRUMap fullMessagesCache;
+	/**
+	 * Number of arrived messages not yet contained in {@link #cachedRowCount},
+	 * as the rows inserted event was not fired yet.
+	 */
+	private int pendingRowCount;
+	private boolean rowsInsertedScheduled;
+
+	/**
+	 * Number of messages written to the database when {@link #cachedRowCount}
+	 * was counted, arriving messages written before are already contained
+	 * (see {@link WebSocketMessageDTO#writtenMessageCount}). Guarded by
+	 * {@link #cachedRowCountSemaphore}.
+	 */
+	private long countedMessageCount;
+	private Timer rowsInsertedTimer;
+
+	/**
+	 * Messages arrived but not yet written to the database, they are counted
+	 * once written, as only then they can be read. Guarded by
+	 * {@link #cachedRowCountSemaphore}.
+	 */
+	private List<WebSocketMessageDTO> unwrittenMessages = new ArrayList<>();
+
+	/**
+	 * Keys of the messages shown, while the payloads are searched (see
+	 * {@link WebSocketMessagesViewFilter#getPayloadPattern()}). Guarded by
+	 * {@link #cachedRowCountSemaphore}.
+	 */
+	private List<WebSocketMessagePrimaryKey> searchResults;
+
+	/**
+	 * Same keys as {@link #searchResults}, to not add arriving messages that
+	 * were already found. Guarded by {@link #cachedRowCountSemaphore}.
+	 */
+	private Set<WebSocketMessagePrimaryKey> searchResultKeys;
+
+	/**
+	 * Keys of the messages arrived while the payloads are searched in
+	 * background, {@code null} if not searching. Guarded by
+	 * {@link #cachedRowCountSemaphore}.
+	 */
+	private List<WebSocketMessagePrimaryKey> arrivedWhileSearching;
+
+	/**
+	 * Incremented when the rows are counted again, to discard the results of
+	 * searches started before. Guarded by {@link #cachedRowCountSemaphore}.
+	 */
+	private int searchGeneration;
+
+	/**
+	 * Selected messages with full payload, least recently used first.
+	 */
+	private LinkedHashMap<WebSocketMessagePrimaryKey, WebSocketMessageDTO> fullMessagesCache;
+	private int fullMessagesCacheSize;
+
+	/**
+	 * Complete blocks of messages with payload preview, keyed by block index.
+	 * Guards {@link #pageCursors}, {@link #blocksGeneration} and
+	 * {@link #lastRequestedBlock} too.
+	 */
+	private LRUMap blocks;
+
+	/**
+	 * Last message of each loaded block, keyed by the offset of the block that
+	 * follows, to load that block without the database skipping all preceding
+	 * messages.
+	 */
+	private LRUMap pageCursors;
+
+	/**
+	 * Incremented whenever cached blocks become invalid, so that blocks still
+	 * being loaded are not cached afterwards.
+	 */
+	private int blocksGeneration;
+
+	private int lastRequestedBlock;
+
+	private ConcurrentMap<Integer, FutureTask<List<WebSocketMessageDTO>>> loadingBlocks;
+
+	/**
+	 * Loads blocks ahead, discarding the oldest requests if the user scrolls
+	 * faster than blocks can be loaded.
+	 */
+	private ThreadPoolExecutor prefetchExecutor;
+
+	/**
+	 * Searches the payloads off the event dispatch thread, discarding the
+	 * searches superseded by a newer one.
+	 */
+	private ThreadPoolExecutor searchExecutor;
 	
 	private static final ImageIcon outgoingDirection;
 	private static final ImageIcon incomingDirection;
@@ -116,7 +255,39 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		super();
 		
 		table = webSocketTable;
-		fullMessagesCache = new LRUMap(10);
+		fullMessagesCache = new LinkedHashMap<>(16, 0.75f, true);
+		blocks = new LRUMap(MAX_CACHED_BLOCKS);
+		pageCursors = new LRUMap(MAX_CACHED_BLOCKS * 5);
+		loadingBlocks = new ConcurrentHashMap<>();
+		prefetchExecutor = createExecutor("ZAP-WebSocket-Prefetch", PREFETCH_BLOCKS);
+		searchExecutor = createExecutor("ZAP-WebSocket-Search", 1);
+		
+		rowsInsertedTimer = new Timer(ROWS_INSERTED_DELAY, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				fireRowsInserted();
+			}
+		});
+		rowsInsertedTimer.setRepeats(false);
+	}
+
+	private static ThreadPoolExecutor createExecutor(final String threadName, int queueCapacity) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, threadName);
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.DiscardOldestPolicy());
+		// do not keep an idle thread per view
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
 	protected TableWebSocket getTable() {
@@ -134,6 +305,11 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	}
 
 	/**
+	 * Returns the number of visible messages.
+	 * <p>
+	 * While the payloads are searched in background no rows are shown, the
+	 * found ones are inserted once the search completed.
+	 * 
 	 * @return size of currently visible messages
 	 */
 	@Override
@@ -144,7 +320,25 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		try {
 			synchronized (cachedRowCountSemaphore) {
 				if (cachedRowCount == null) {					
-					cachedRowCount = table.getMessageCount(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope());
+					Pattern payloadPattern = getPayloadPattern();
+					if (payloadPattern != null) {
+						if (arrivedWhileSearching == null) {
+							arrivedWhileSearching = new ArrayList<>();
+							searchExecutor.execute(new PayloadSearch(payloadPattern, searchGeneration));
+						}
+						return 0;
+					}
+					
+					searchResults = null;
+					searchResultKeys = null;
+					// no message must be written in between, the count
+					// would not match the written messages otherwise
+					synchronized (table) {
+						cachedRowCount = table.getMessageCount(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope());
+						countedMessageCount = table.getWrittenMessageCount();
+					}
+					// already counted by the database
+					pendingRowCount = 0;
 				}
 				return cachedRowCount;
 			}
@@ -191,6 +385,16 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	protected List<Integer> getCriterionOpcodes() {
 		return filter.getOpcodes();
 	}
+
+	/**
+	 * @return pattern searched in payloads, or {@code null} if not searching
+	 */
+	private Pattern getPayloadPattern() {
+		if (filter == null) {
+			return null;
+		}
+		return filter.getPayloadPattern();
+	}
 	
 	@Override
 	public Object getRealValueAt(WebSocketMessageDTO message, int columnIndex) {
@@ -250,12 +454,165 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 
 	@Override
 	protected List<WebSocketMessageDTO> loadPage(int offset, int length) {
+		List<WebSocketMessageDTO> page = new ArrayList<>(Math.max(length, 0));
+		if (length <= 0) {
+			return page;
+		}
+		
+		int firstBlock = offset / BLOCK_SIZE;
+		int lastBlock = (offset + length - 1) / BLOCK_SIZE;
 		try {
-			return table.getMessages(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), offset, length, PAYLOAD_PREVIEW_LENGTH);
+			for (int blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex++) {
+				List<WebSocketMessageDTO> block = getBlock(blockIndex);
+				int blockOffset = blockIndex * BLOCK_SIZE;
+				int from = Math.max(offset - blockOffset, 0);
+				int to = Math.min(offset + length - blockOffset, block.size());
+				if (from < to) {
+					page.addAll(block.subList(from, to));
+				}
+				
+				if (block.size() < BLOCK_SIZE) {
+					// no more messages
+					break;
+				}
+			}
 		} catch (DatabaseException e) {
 			logger.error(e.getMessage(), e);
 			return new ArrayList<>(0);
 		}
+		
+		prefetch(firstBlock, lastBlock);
+		return page;
+	}
+
+	/**
+	 * Returns the block from cache, or loads it, waiting for a load already
+	 * in progress.
+	 */
+	private List<WebSocketMessageDTO> getBlock(int blockIndex) throws DatabaseException {
+		int generation;
+		synchronized (blocks) {
+			@SuppressWarnings("unchecked")
+			List<WebSocketMessageDTO> block = (List<WebSocketMessageDTO>) blocks.get(blockIndex);
+			if (block != null) {
+				return block;
+			}
+			generation = blocksGeneration;
+		}
+		
+		FutureTask<List<WebSocketMessageDTO>> task = new FutureTask<>(new BlockLoader(blockIndex, generation));
+		FutureTask<List<WebSocketMessageDTO>> loading = loadingBlocks.putIfAbsent(blockIndex, task);
+		if (loading == null) {
+			loading = task;
+			try {
+				task.run();
+			} finally {
+				loadingBlocks.remove(blockIndex, task);
+			}
+		}
+		
+		try {
+			return loading.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DatabaseException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DatabaseException) {
+				throw (DatabaseException) e.getCause();
+			}
+			throw new DatabaseException(e.getCause());
+		}
+	}
+
+	private List<WebSocketMessageDTO> loadBlock(int blockIndex, int generation) throws DatabaseException {
+		int offset = blockIndex * BLOCK_SIZE;
+		WebSocketMessageDTO previous;
+		synchronized (blocks) {
+			previous = (WebSocketMessageDTO) pageCursors.get(offset);
+		}
+		
+		boolean searched = getPayloadPattern() != null;
+		List<WebSocketMessagePrimaryKey> keys = null;
+		synchronized (cachedRowCountSemaphore) {
+			if (searched && searchResults == null) {
+				// no rows until the search completed
+				return new ArrayList<>(0);
+			}
+			if (searchResults != null) {
+				int end = Math.min(offset + BLOCK_SIZE, searchResults.size());
+				keys = new ArrayList<>(searchResults.subList(Math.min(offset, end), end));
+			}
+		}
+		
+		List<WebSocketMessageDTO> block;
+		if (keys != null) {
+			block = table.getMessages(keys, PAYLOAD_PREVIEW_LENGTH);
+		} else if (previous != null) {
+			block = table.getMessagesAfter(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), previous, BLOCK_SIZE, PAYLOAD_PREVIEW_LENGTH);
+		} else {
+			block = table.getMessages(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), offset, BLOCK_SIZE, PAYLOAD_PREVIEW_LENGTH);
+		}
+		
+		// the last block may still grow, do not cache it
+		if (block.size() == BLOCK_SIZE) {
+			synchronized (blocks) {
+				if (generation == blocksGeneration) {
+					blocks.put(blockIndex, block);
+					pageCursors.put(offset + BLOCK_SIZE, block.get(BLOCK_SIZE - 1));
+				}
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * Loads the blocks next to the given ones in background, in the direction
+	 * the user is scrolling.
+	 */
+	private void prefetch(int firstBlock, int lastBlock) {
+		boolean backwards;
+		int generation;
+		synchronized (blocks) {
+			backwards = firstBlock < lastRequestedBlock;
+			lastRequestedBlock = firstBlock;
+			generation = blocksGeneration;
+		}
+		
+		int rowCount = getCachedRowCount();
+		for (int i = 1; i <= PREFETCH_BLOCKS; i++) {
+			int blockIndex = backwards ? firstBlock - i : lastBlock + i;
+			if (blockIndex < 0 || (rowCount >= 0 && blockIndex * BLOCK_SIZE >= rowCount)) {
+				break;
+			}
+			
+			synchronized (blocks) {
+				if (blocks.containsKey(blockIndex)) {
+					continue;
+				}
+			}
+			if (!loadingBlocks.containsKey(blockIndex)) {
+				prefetchExecutor.execute(new BlockPrefetcher(blockIndex, generation));
+			}
+		}
+	}
+
+	/**
+	 * @return row count if known, otherwise -1
+	 */
+	private int getCachedRowCount() {
+		synchronized (cachedRowCountSemaphore) {
+			return (cachedRowCount != null) ? cachedRowCount : -1;
+		}
+	}
+
+	private void clearBlocks() {
+		synchronized (blocks) {
+			blocksGeneration++;
+			blocks.clear();
+			pageCursors.clear();
+		}
+		loadingBlocks.clear();
+		prefetchExecutor.getQueue().clear();
 	}
 
 	/**
@@ -312,22 +669,52 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 			return null;
 		}
 		
-		String pk = message.toString();
-		if (fullMessagesCache.containsKey(pk)) {
-			return (WebSocketMessageDTO) fullMessagesCache.get(pk);
-		} else if (message.id == null) {
+		if (message.id == null) {
 			return message;
-		} else {
-			try {
-				WebSocketMessageDTO fullMessage = table.getMessage(message.id, message.channel.id);
-				fullMessagesCache.put(pk, fullMessage);
-				
+		}
+		
+		WebSocketMessagePrimaryKey pk = new WebSocketMessagePrimaryKey(message.channel.id, message.id);
+		synchronized (fullMessagesCache) {
+			WebSocketMessageDTO fullMessage = fullMessagesCache.get(pk);
+			if (fullMessage != null) {
 				return fullMessage;
-			} catch (DatabaseException e) {
-				logger.error("Error retrieving full message!",e);
-				return message;
 			}
 		}
+		
+		try {
+			WebSocketMessageDTO fullMessage = table.getMessage(message.id, message.channel.id);
+			cacheFullMessage(pk, fullMessage);
+			
+			return fullMessage;
+		} catch (DatabaseException e) {
+			logger.error("Error retrieving full message!",e);
+			return message;
+		}
+	}
+
+	private void cacheFullMessage(WebSocketMessagePrimaryKey pk, WebSocketMessageDTO fullMessage) {
+		int size = getCacheSize(fullMessage);
+		if (size > MAX_FULL_MESSAGES_CACHE_SIZE) {
+			return;
+		}
+		
+		synchronized (fullMessagesCache) {
+			WebSocketMessageDTO replaced = fullMessagesCache.put(pk, fullMessage);
+			if (replaced != null) {
+				fullMessagesCacheSize -= getCacheSize(replaced);
+			}
+			fullMessagesCacheSize += size;
+			
+			Iterator<WebSocketMessageDTO> it = fullMessagesCache.values().iterator();
+			while (fullMessagesCacheSize > MAX_FULL_MESSAGES_CACHE_SIZE && it.hasNext()) {
+				fullMessagesCacheSize -= getCacheSize(it.next());
+				it.remove();
+			}
+		}
+	}
+
+	private static int getCacheSize(WebSocketMessageDTO message) {
+		return (message.payloadLength != null) ? message.payloadLength : 0;
 	}
 
 	/**
@@ -340,9 +727,8 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	
 	@Override
 	public void fireTableDataChanged() {
-		synchronized (cachedRowCountSemaphore) {
-			cachedRowCount = null;
-		}
+		resetRowCount();
+		clearBlocks();
 		super.fireTableDataChanged();
 	}
 	
@@ -350,15 +736,40 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	protected void clear() {
 		super.clear();
 		
+		resetRowCount();
+		
+		synchronized (fullMessagesCache) {
+			fullMessagesCache.clear();
+			fullMessagesCacheSize = 0;
+		}
+		
+		clearBlocks();
+	}
+
+	/**
+	 * Counts the rows again on next {@link #getRowCount()}, searches in
+	 * progress are discarded.
+	 */
+	private void resetRowCount() {
 		synchronized (cachedRowCountSemaphore) {
 			cachedRowCount = null;
+			pendingRowCount = 0;
+			searchResults = null;
+			searchResultKeys = null;
+			arrivedWhileSearching = null;
+			searchGeneration++;
 		}
-		
-		fullMessagesCache.clear();
 	}
 
 	/**
 	 * A new message has arrived.
+	 * <p>
+	 * Might be called from any thread. The row count is increased in memory,
+	 * if the message passes the filter, and the rows inserted event is fired
+	 * on the event dispatch thread for all messages arrived within
+	 * {@link #ROWS_INSERTED_DELAY} milliseconds. Messages are queued for the
+	 * database before they arrive here, they are counted only once written
+	 * and the ones already contained in the last count are not counted again.
 	 * 
 	 * @param message
 	 */
@@ -367,19 +778,107 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		if ((filter != null && filter.isBlacklisted(message)) || !isWhitelistedChannel) {
 			// no need to fire update, as it isn't active now
 		} else {
-			// find out where it is inserted and update precisely
-			
-			// if new row is inserted at the end
-			// it suffices to fire inserted row at the end of list
-			
-			// with enabled row sorter, you'll have to take care about this
-			int rowCount = getRowCount();
-			
 			synchronized (cachedRowCountSemaphore) {
-				cachedRowCount = null;
+				if (message.writtenMessageCount == 0) {
+					// checked again when the rows inserted event is fired
+					unwrittenMessages.add(message);
+				} else if (!addWrittenMessage(message)) {
+					return;
+				}
+				
+				if (rowsInsertedScheduled) {
+					return;
+				}
+				rowsInsertedScheduled = true;
+			}
+			rowsInsertedTimer.start();
+		}
+	}
+
+	/**
+	 * Adds the given arrived message, already written to the database, to
+	 * the rows. Must be called while holding {@link #cachedRowCountSemaphore}.
+	 * 
+	 * @param message
+	 * @return {@code true} if a row has to be inserted
+	 */
+	private boolean addWrittenMessage(WebSocketMessageDTO message) {
+		if (message.writtenMessageCount < 0) {
+			// not stored
+			return false;
+		}
+		
+		if (cachedRowCount == null) {
+			if (arrivedWhileSearching != null) {
+				// added to the search results, unless already found
+				arrivedWhileSearching.add(new WebSocketMessagePrimaryKey(message.channel.id, message.id));
+			}
+			// not yet counted, the message is included once queried
+			return false;
+		}
+		
+		if (searchResults != null) {
+			WebSocketMessagePrimaryKey key = new WebSocketMessagePrimaryKey(message.channel.id, message.id);
+			if (!searchResultKeys.add(key)) {
+				// already found by the search
+				return false;
 			}
+			searchResults.add(key);
+		} else if (isCounted(message)) {
+			return false;
+		}
+		
+		pendingRowCount++;
+		return true;
+	}
+
+	/**
+	 * Must be called while holding {@link #cachedRowCountSemaphore}.
+	 * 
+	 * @param message
+	 * @return {@code true} if the message was written before
+	 *         {@link #cachedRowCount} was counted
+	 */
+	private boolean isCounted(WebSocketMessageDTO message) {
+		long written = message.writtenMessageCount;
+		return written != 0 && written <= countedMessageCount;
+	}
+
+	/**
+	 * Fires one event for all rows, that were inserted since the last call.
+	 * New rows are inserted at the end of list, with enabled row sorter
+	 * you'll have to take care about this.
+	 */
+	private void fireRowsInserted() {
+		int firstRow = -1;
+		int lastRow = -1;
+		boolean unwritten;
+		synchronized (cachedRowCountSemaphore) {
+			Iterator<WebSocketMessageDTO> it = unwrittenMessages.iterator();
+			while (it.hasNext()) {
+				WebSocketMessageDTO message = it.next();
+				if (message.writtenMessageCount != 0) {
+					it.remove();
+					addWrittenMessage(message);
+				}
+			}
+			unwritten = !unwrittenMessages.isEmpty();
+			rowsInsertedScheduled = unwritten;
 			
-			fireTableRowsInserted(rowCount, rowCount);
+			if (cachedRowCount != null && pendingRowCount != 0) {
+				firstRow = cachedRowCount;
+				cachedRowCount += pendingRowCount;
+				lastRow = cachedRowCount - 1;
+				pendingRowCount = 0;
+			}
+		}
+		
+		if (firstRow != -1) {
+			fireTableRowsInserted(firstRow, lastRow);
+		}
+		if (unwritten) {
+			// not written yet, check again later
+			rowsInsertedTimer.start();
 		}
 	}
 
@@ -388,6 +887,17 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 			return null;
 		}
 		
+		synchronized (cachedRowCountSemaphore) {
+			if (searchResults != null) {
+				int index = searchResults.indexOf(new WebSocketMessagePrimaryKey(message.channel.id, message.id));
+				return (index == -1) ? null : index;
+			}
+			if (arrivedWhileSearching != null) {
+				// not shown until the search completed
+				return null;
+			}
+		}
+		
 		WebSocketMessageDTO criteria = getCriterionMessage();
 		criteria.channel.id = message.channel.id;
 		criteria.id = message.id;
@@ -403,5 +913,125 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 
 	public void setTable(TableWebSocket table) {
 		this.table = table;
+		synchronized (cachedRowCountSemaphore) {
+			// arrived for the previous table
+			unwrittenMessages.clear();
+		}
+		
+		clearBlocks();
+	}
+
+	/**
+	 * Shows the given search results, if no newer search was started
+	 * meanwhile. Must be called on the event dispatch thread.
+	 * 
+	 * @param generation {@link #searchGeneration} when the search was started
+	 * @param results
+	 */
+	private void searchCompleted(int generation, List<WebSocketMessagePrimaryKey> results) {
+		int rowCount;
+		synchronized (cachedRowCountSemaphore) {
+			if (generation != searchGeneration || arrivedWhileSearching == null) {
+				return;
+			}
+			searchResults = new ArrayList<>(results);
+			searchResultKeys = new HashSet<>(searchResults);
+			for (WebSocketMessagePrimaryKey key : arrivedWhileSearching) {
+				if (searchResultKeys.add(key)) {
+					searchResults.add(key);
+				}
+			}
+			arrivedWhileSearching = null;
+			
+			rowCount = searchResults.size();
+			cachedRowCount = rowCount;
+			pendingRowCount = 0;
+		}
+		
+		if (rowCount > 0) {
+			fireTableRowsInserted(0, rowCount - 1);
+		}
+	}
+
+	/**
+	 * Searches the payloads, off the event dispatch thread as the first
+	 * search waits until the payload index is created.
+	 */
+	private class PayloadSearch implements Runnable {
+
+		private final Pattern payloadPattern;
+		private final int generation;
+
+		public PayloadSearch(Pattern payloadPattern, int generation) {
+			this.payloadPattern = payloadPattern;
+			this.generation = generation;
+		}
+
+		@Override
+		public void run() {
+			synchronized (cachedRowCountSemaphore) {
+				if (generation != searchGeneration) {
+					return;
+				}
+			}
+			
+			List<WebSocketMessagePrimaryKey> results;
+			try {
+				results = table.searchMessages(payloadPattern, getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope());
+			} catch (DatabaseException e) {
+				logger.error(e.getMessage(), e);
+				results = Collections.emptyList();
+			}
+			
+			final List<WebSocketMessagePrimaryKey> found = results;
+			EventQueue.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+					searchCompleted(generation, found);
+				}
+			});
+		}
+	}
+
+	private class BlockLoader implements Callable<List<WebSocketMessageDTO>> {
+
+		private final int blockIndex;
+		private final int generation;
+
+		public BlockLoader(int blockIndex, int generation) {
+			this.blockIndex = blockIndex;
+			this.generation = generation;
+		}
+
+		@Override
+		public List<WebSocketMessageDTO> call() throws DatabaseException {
+			return loadBlock(blockIndex, generation);
+		}
+	}
+
+	private class BlockPrefetcher implements Runnable {
+
+		private final int blockIndex;
+		private final int generation;
+
+		public BlockPrefetcher(int blockIndex, int generation) {
+			this.blockIndex = blockIndex;
+			this.generation = generation;
+		}
+
+		@Override
+		public void run() {
+			synchronized (blocks) {
+				if (generation != blocksGeneration) {
+					return;
+				}
+			}
+			try {
+				getBlock(blockIndex);
+			} catch (DatabaseException e) {
+				logger.debug("Failed to prefetch messages: " + e.getMessage(), e);
+			}
+		}
 	}
 }
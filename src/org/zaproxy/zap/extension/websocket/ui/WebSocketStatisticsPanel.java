@@ -0,0 +1,169 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.extension.AbstractPanel;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketStatistics;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketTrafficStatistics;
+
+/**
+ * Tab next to the {@link WebSocketPanel}, showing the
+ * {@link WebSocketStatistics} of all channels and of each channel. Refreshed
+ * every second while shown.
+ */
+public class WebSocketStatisticsPanel extends AbstractPanel {
+
+	private static final long serialVersionUID = 4712829513204586318L;
+
+	private static final int REFRESH_INTERVAL = 1000;
+
+	private final WebSocketStatistics statistics;
+
+	private StatisticsTableModel model;
+
+	private Timer refreshTimer;
+
+	public WebSocketStatisticsPanel(WebSocketStatistics statistics) {
+		this.statistics = statistics;
+
+		initializePanel();
+	}
+
+	private void initializePanel() {
+		setName(Constant.messages.getString("websocket.stats.panel.title"));
+		setIcon(WebSocketPanel.connectIcon);
+		setLayout(new BorderLayout());
+
+		model = new StatisticsTableModel();
+		JTable table = new JTable(model);
+		table.setAutoCreateRowSorter(true);
+		add(new JScrollPane(table), BorderLayout.CENTER);
+
+		refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (isShowing()) {
+					model.refresh(statistics);
+				}
+			}
+		});
+		refreshTimer.start();
+	}
+
+	/**
+	 * Stops refreshing, should be called when the panel is removed.
+	 */
+	public void unload() {
+		refreshTimer.stop();
+	}
+
+	/**
+	 * Row per channel, preceded by a row for all channels. Durations are shown
+	 * in microseconds.
+	 */
+	private static class StatisticsTableModel extends AbstractTableModel {
+
+		private static final long serialVersionUID = -2391047702531960512L;
+
+		private static final String[] COLUMN_KEYS = { "channel", "frames_incoming", "frames_outgoing",
+				"bytes_incoming", "bytes_outgoing", "dispatch_p99", "forward_p50", "forward_p99", "forward_max",
+				"storage_p99" };
+
+		private final String[] columnNames;
+
+		private List<Object[]> rows = new ArrayList<>();
+
+		StatisticsTableModel() {
+			columnNames = new String[COLUMN_KEYS.length];
+			for (int i = 0; i < COLUMN_KEYS.length; i++) {
+				columnNames[i] = Constant.messages.getString("websocket.stats.table.header." + COLUMN_KEYS[i]);
+			}
+		}
+
+		void refresh(WebSocketStatistics statistics) {
+			List<Object[]> newRows = new ArrayList<>();
+			newRows.add(createRow(Constant.messages.getString("websocket.stats.table.all_channels"),
+					statistics.getAggregate()));
+			for (Map.Entry<Integer, WebSocketTrafficStatistics> entry : statistics.getChannels().entrySet()) {
+				newRows.add(createRow("#" + entry.getKey(), entry.getValue()));
+			}
+
+			rows = newRows;
+			fireTableDataChanged();
+		}
+
+		private static Object[] createRow(String channel, WebSocketTrafficStatistics channelStatistics) {
+			return new Object[] {
+					channel,
+					channelStatistics.getFrameCount(Direction.INCOMING),
+					channelStatistics.getFrameCount(Direction.OUTGOING),
+					channelStatistics.getByteCount(Direction.INCOMING),
+					channelStatistics.getByteCount(Direction.OUTGOING),
+					toMicros(channelStatistics.getDispatchTime().getPercentile(99)),
+					toMicros(channelStatistics.getForwardLatency().getPercentile(50)),
+					toMicros(channelStatistics.getForwardLatency().getPercentile(99)),
+					toMicros(channelStatistics.getForwardLatency().getMax()),
+					toMicros(channelStatistics.getStorageLag().getPercentile(99)) };
+		}
+
+		private static Long toMicros(long nanos) {
+			return TimeUnit.NANOSECONDS.toMicros(nanos);
+		}
+
+		@Override
+		public int getRowCount() {
+			return rows.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return columnNames.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return columnNames[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int columnIndex) {
+			return (columnIndex == 0) ? String.class : Long.class;
+		}
+
+		@Override
+		public Object getValueAt(int rowIndex, int columnIndex) {
+			return rows.get(rowIndex)[columnIndex];
+		}
+	}
+}
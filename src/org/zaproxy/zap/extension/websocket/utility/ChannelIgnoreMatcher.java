@@ -0,0 +1,224 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable list of regular expressions for channel URIs, that are matched
+ * case insensitive as a whole.
+ * <p>
+ * All expressions are combined into one alternation, such that a URI is
+ * matched in one go. Expressions that would change their meaning when
+ * combined (back references, quotes up to the end, comments or named groups
+ * used by several expressions) are matched one by one instead. Decisions are cached per URI, a new instance has to be
+ * created when the list changes.
+ */
+public final class ChannelIgnoreMatcher {
+
+	/**
+	 * Ignores nothing.
+	 */
+	public static final ChannelIgnoreMatcher EMPTY = new ChannelIgnoreMatcher(Collections.<String> emptyList());
+
+	/**
+	 * Maximum number of URIs whose decision is cached, the cache is cleared
+	 * once reached.
+	 */
+	static final int MAX_CACHED_DECISIONS = 1024;
+
+	private final List<String> regexes;
+
+	/**
+	 * Alternation of all expressions, {@code null} if none or if
+	 * {@link #patterns} are used.
+	 */
+	private final Pattern combinedPattern;
+
+	private final Pattern[] patterns;
+
+	private final ConcurrentMap<String, Boolean> decisions;
+
+	/**
+	 * @param regexes non-empty regular expressions, surrounding whitespace is
+	 *            ignored
+	 * @throws java.util.regex.PatternSyntaxException if an expression is not
+	 *             valid
+	 */
+	public ChannelIgnoreMatcher(List<String> regexes) {
+		this.regexes = Collections.unmodifiableList(new ArrayList<>(regexes));
+		this.decisions = new ConcurrentHashMap<>();
+
+		boolean canCombine = true;
+		Set<String> groupNames = new HashSet<>();
+		Pattern[] compiledPatterns = new Pattern[regexes.size()];
+		StringBuilder alternation = new StringBuilder();
+		for (int i = 0; i < compiledPatterns.length; i++) {
+			String regex = regexes.get(i).trim();
+			// ensure validity of each expression on its own
+			compiledPatterns[i] = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			if (canCombine && !isCombinable(regex, groupNames)) {
+				canCombine = false;
+			}
+
+			if (i > 0) {
+				alternation.append('|');
+			}
+			// group scopes inline flags to its expression
+			alternation.append("(?:").append(regex).append(')');
+		}
+
+		if (compiledPatterns.length == 0) {
+			combinedPattern = null;
+			patterns = compiledPatterns;
+		} else if (canCombine) {
+			combinedPattern = Pattern.compile(alternation.toString(), Pattern.CASE_INSENSITIVE);
+			patterns = new Pattern[0];
+		} else {
+			combinedPattern = null;
+			patterns = compiledPatterns;
+		}
+	}
+
+	/**
+	 * Tells whether the given expression keeps its meaning within an
+	 * alternation, i.e. has no back references, no quote without end, no
+	 * comments flag and no named group of a previous expression. Quoted
+	 * characters (e.g. from {@link Pattern#quote(String)}) are skipped.
+	 * 
+	 * @param regex
+	 * @param groupNames names of the groups of the previous expressions,
+	 *            receives the names of the groups of this expression
+	 * @return {@code true} if the expression can be combined
+	 */
+	private static boolean isCombinable(String regex, Set<String> groupNames) {
+		int length = regex.length();
+		int i = 0;
+		while (i < length) {
+			char c = regex.charAt(i);
+			if (c == '\\' && i + 1 < length) {
+				char escaped = regex.charAt(i + 1);
+				if (escaped == 'Q') {
+					int end = regex.indexOf("\\E", i + 2);
+					if (end == -1) {
+						// would quote the rest of the alternation
+						return false;
+					}
+					i = end + 2;
+					continue;
+				}
+				if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+					// group numbers and names change within an alternation
+					return false;
+				}
+				i += 2;
+				continue;
+			}
+			if (c == '(' && regex.startsWith("(?", i)) {
+				int nameStart = i + 3;
+				if (regex.startsWith("(?<", i) && nameStart < length && Character.isLetter(regex.charAt(nameStart))) {
+					int nameEnd = regex.indexOf('>', nameStart);
+					if (nameEnd != -1 && !groupNames.add(regex.substring(nameStart, nameEnd))) {
+						// same name in one pattern is not allowed
+						return false;
+					}
+				} else if (isCommentsFlag(regex, i + 2)) {
+					return false;
+				}
+			}
+			i++;
+		}
+		return true;
+	}
+
+	/**
+	 * @param regex
+	 * @param start position after the {@code (?} of an inline flag group
+	 * @return {@code true} if the comments flag is enabled
+	 */
+	private static boolean isCommentsFlag(String regex, int start) {
+		for (int i = start; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == 'x') {
+				return true;
+			}
+			if (!Character.isLetter(c)) {
+				// end of flags to enable, e.g. '-', ':' or ')'
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if the expressions are matched in one go
+	 */
+	boolean isCombined() {
+		return combinedPattern != null;
+	}
+
+	/**
+	 * @return the expressions, as given
+	 */
+	public List<String> getRegexes() {
+		return regexes;
+	}
+
+	public boolean isEmpty() {
+		return regexes.isEmpty();
+	}
+
+	/**
+	 * @param uri
+	 * @return {@code true} if one of the expressions matches the whole URI
+	 */
+	public boolean matches(String uri) {
+		if (regexes.isEmpty()) {
+			return false;
+		}
+
+		Boolean decision = decisions.get(uri);
+		if (decision == null) {
+			decision = Boolean.valueOf(matchesUncached(uri));
+			if (decisions.size() >= MAX_CACHED_DECISIONS) {
+				decisions.clear();
+			}
+			decisions.put(uri, decision);
+		}
+		return decision.booleanValue();
+	}
+
+	private boolean matchesUncached(String uri) {
+		if (combinedPattern != null) {
+			return combinedPattern.matcher(uri).matches();
+		}
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(uri).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
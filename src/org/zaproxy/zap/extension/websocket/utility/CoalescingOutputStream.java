@@ -0,0 +1,176 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects small writes (e.g. frame headers and small payloads) in a buffer,
+ * such that several frames are sent with one write. Larger writes are not
+ * copied, they are written to the target stream right after the buffered
+ * bytes, without flushing it in between.
+ * <p>
+ * Buffered bytes are written once the buffer is full or on {@link #flush()}.
+ * Writers are expected to flush when there is nothing more to send right
+ * away, e.g. no further frame has arrived yet, and before anything that
+ * might block.
+ * <p>
+ * All writes and flushes are synchronized on this stream.
+ */
+public class CoalescingOutputStream extends OutputStream {
+
+	/**
+	 * Default size of the buffer, 16 KiB.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Writes of at least this many bytes are not copied into the buffer.
+	 */
+	private static final int MIN_DIRECT_WRITE_LENGTH = 2048;
+
+	private final OutputStream out;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Reused to write the buffered bytes only.
+	 */
+	private final ByteBuffer[] single = new ByteBuffer[1];
+
+	/**
+	 * Reused for gathering writes, buffered bytes followed by written slice.
+	 */
+	private final ByteBuffer[] gather = new ByteBuffer[2];
+
+	/**
+	 * @param out
+	 * @see #DEFAULT_BUFFER_SIZE
+	 */
+	public CoalescingOutputStream(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param out
+	 * @param bufferSize at least 2 KiB
+	 */
+	public CoalescingOutputStream(OutputStream out, int bufferSize) {
+		if (bufferSize < MIN_DIRECT_WRITE_LENGTH) {
+			throw new IllegalArgumentException("Parameter bufferSize must be at least " + MIN_DIRECT_WRITE_LENGTH + ".");
+		}
+		this.out = out;
+		buffer = ByteBuffer.allocate(bufferSize);
+		single[0] = buffer;
+		gather[0] = buffer;
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			writeBuffer();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (len < MIN_DIRECT_WRITE_LENGTH) {
+			if (len > buffer.remaining()) {
+				writeBuffer();
+			}
+			buffer.put(b, off, len);
+			if (!buffer.hasRemaining()) {
+				writeBuffer();
+			}
+			return;
+		}
+
+		buffer.flip();
+		gather[1] = ByteBuffer.wrap(b, off, len);
+		try {
+			writeGathered(gather);
+		} finally {
+			gather[1] = null;
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Writes the buffered bytes and flushes the target.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		writeBuffer();
+		flushTarget();
+	}
+
+	/**
+	 * Closes the target without writing buffered bytes, it is not
+	 * synchronized such that a write blocked on the target is interrupted.
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * @return number of bytes not written yet
+	 */
+	public synchronized int getBufferedLength() {
+		return buffer.position();
+	}
+
+	private void writeBuffer() throws IOException {
+		if (buffer.position() == 0) {
+			return;
+		}
+		buffer.flip();
+		try {
+			writeGathered(single);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of all given heap buffers in order.
+	 * 
+	 * @param buffers
+	 * @throws IOException
+	 */
+	private void writeGathered(ByteBuffer[] buffers) throws IOException {
+		for (ByteBuffer source : buffers) {
+			if (source.hasRemaining()) {
+				out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+				source.position(source.limit());
+			}
+		}
+	}
+
+	/**
+	 * Called on {@link #flush()}, after the buffered bytes were written.
+	 * 
+	 * @throws IOException
+	 */
+	private void flushTarget() throws IOException {
+		out.flush();
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+/**
+ * Set of primitive {@code int} values, without boxing them.
+ * <p>
+ * Uses open addressing with linear probing. This class is not thread-safe.
+ */
+public class IntHashSet {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Marks free slots, contained in the set if {@link #containsFreeValue}.
+	 */
+	private static final int FREE = 0;
+
+	private int[] values;
+	private int size;
+	private boolean containsFreeValue;
+
+	public IntHashSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize number of values that can be added without resizing
+	 */
+	public IntHashSet(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		values = new int[capacity];
+	}
+
+	/**
+	 * @param value
+	 * @return {@code true} if the value was not yet contained
+	 */
+	public boolean add(int value) {
+		if (value == FREE) {
+			if (containsFreeValue) {
+				return false;
+			}
+			containsFreeValue = true;
+			size++;
+			return true;
+		}
+
+		int mask = values.length - 1;
+		int index = hash(value) & mask;
+		while (values[index] != FREE) {
+			if (values[index] == value) {
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+		values[index] = value;
+		size++;
+
+		if (size > values.length * 3 / 4) {
+			resize(values.length << 1);
+		}
+		return true;
+	}
+
+	public boolean contains(int value) {
+		if (value == FREE) {
+			return containsFreeValue;
+		}
+
+		int mask = values.length - 1;
+		int index = hash(value) & mask;
+		while (values[index] != FREE) {
+			if (values[index] == value) {
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @param value
+	 * @return {@code true} if the value was contained
+	 */
+	public boolean remove(int value) {
+		if (value == FREE) {
+			if (!containsFreeValue) {
+				return false;
+			}
+			containsFreeValue = false;
+			size--;
+			return true;
+		}
+
+		int mask = values.length - 1;
+		int index = hash(value) & mask;
+		while (values[index] != value) {
+			if (values[index] == FREE) {
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+		values[index] = FREE;
+		size--;
+
+		// move following values of the same probe sequence into the gap
+		int gap = index;
+		index = (index + 1) & mask;
+		while (values[index] != FREE) {
+			int home = hash(values[index]) & mask;
+			if (((index - home) & mask) >= ((index - gap) & mask)) {
+				values[gap] = values[index];
+				values[index] = FREE;
+				gap = index;
+			}
+			index = (index + 1) & mask;
+		}
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		values = new int[DEFAULT_CAPACITY];
+		size = 0;
+		containsFreeValue = false;
+	}
+
+	private void resize(int capacity) {
+		int[] oldValues = values;
+		values = new int[capacity];
+		int mask = capacity - 1;
+		for (int value : oldValues) {
+			if (value != FREE) {
+				int index = hash(value) & mask;
+				while (values[index] != FREE) {
+					index = (index + 1) & mask;
+				}
+				values[index] = value;
+			}
+		}
+	}
+
+	private static int hash(int value) {
+		// spread consecutive IDs over the table
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
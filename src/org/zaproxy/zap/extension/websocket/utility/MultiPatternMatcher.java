@@ -0,0 +1,371 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Finds several {@link Pattern}s in a text with a single pass over its
+ * characters.
+ * <p>
+ * For each pattern a literal is determined that occurs in every match, e.g.
+ * {@code "token"} for {@code "token=\\d+"}. All literals are searched at once
+ * with an Aho-Corasick automaton; only patterns whose literal occurs are
+ * evaluated with their regular expression afterwards. Patterns that consist of
+ * a literal only are not evaluated at all, and patterns without usable literal
+ * are always evaluated.
+ * <p>
+ * Instances are immutable and should be created only when the patterns
+ * change. The result of the last pass is kept per thread, such that
+ * {@link #find(int, CharSequence)} can be called for each pattern without
+ * passing over the same text again.
+ */
+public final class MultiPatternMatcher {
+
+	/**
+	 * Characters below this value have a precomputed transition in each
+	 * state.
+	 */
+	private static final int DENSE_ALPHABET_SIZE = 128;
+
+	private static final int[] NO_OUTPUT = new int[0];
+
+	private final Pattern[] patterns;
+
+	/**
+	 * Whether the pattern matches if its literal occurs, without evaluating it.
+	 */
+	private final boolean[] literalOnly;
+
+	/**
+	 * Whether the pattern has to be evaluated in any case.
+	 */
+	private final boolean[] withoutLiteral;
+
+	private final int literalCount;
+
+	private final int[] denseTransitions;
+	private final char[][] sparseKeys;
+	private final int[][] sparseTargets;
+	private final int[] failures;
+	private final int[][] outputs;
+
+	private final ThreadLocal<Scan> lastScan = new ThreadLocal<>();
+
+	/**
+	 * @param patterns in the order of the indexes used to look them up
+	 */
+	public MultiPatternMatcher(List<Pattern> patterns) {
+		this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+		this.literalOnly = new boolean[this.patterns.length];
+		this.withoutLiteral = new boolean[this.patterns.length];
+
+		List<Map<Character, Integer>> trie = new ArrayList<>();
+		List<List<Integer>> trieOutputs = new ArrayList<>();
+		trie.add(new HashMap<Character, Integer>());
+		trieOutputs.add(new ArrayList<Integer>());
+
+		int count = 0;
+		for (int i = 0; i < this.patterns.length; i++) {
+			Literal literal = extractLiteral(this.patterns[i]);
+			if (literal.text.isEmpty()) {
+				withoutLiteral[i] = true;
+				continue;
+			}
+			literalOnly[i] = literal.isWholePattern;
+			count++;
+
+			int state = 0;
+			for (int j = 0; j < literal.text.length(); j++) {
+				Character c = Character.valueOf(literal.text.charAt(j));
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = Integer.valueOf(trie.size());
+					trie.add(new HashMap<Character, Integer>());
+					trieOutputs.add(new ArrayList<Integer>());
+					trie.get(state).put(c, next);
+				}
+				state = next.intValue();
+			}
+			trieOutputs.get(state).add(Integer.valueOf(i));
+		}
+		literalCount = count;
+
+		int stateCount = trie.size();
+		failures = new int[stateCount];
+		outputs = new int[stateCount][];
+		sparseKeys = new char[stateCount][];
+		sparseTargets = new int[stateCount][];
+		denseTransitions = new int[stateCount * DENSE_ALPHABET_SIZE];
+
+		for (int state = 0; state < stateCount; state++) {
+			Map<Character, Integer> edges = trie.get(state);
+			char[] keys = new char[edges.size()];
+			int k = 0;
+			for (Character c : edges.keySet()) {
+				keys[k++] = c.charValue();
+			}
+			Arrays.sort(keys);
+			int[] targets = new int[keys.length];
+			for (k = 0; k < keys.length; k++) {
+				targets[k] = edges.get(Character.valueOf(keys[k])).intValue();
+			}
+			sparseKeys[state] = keys;
+			sparseTargets[state] = targets;
+		}
+
+		// breadth-first, such that the failure state of the parent is complete
+		Queue<Integer> queue = new ArrayDeque<>();
+		queue.add(Integer.valueOf(0));
+		while (!queue.isEmpty()) {
+			int state = queue.remove().intValue();
+
+			List<Integer> stateOutputs = trieOutputs.get(state);
+			if (state != 0) {
+				for (int index : outputs[failures[state]]) {
+					stateOutputs.add(Integer.valueOf(index));
+				}
+			}
+			outputs[state] = toArray(stateOutputs);
+
+			for (int c = 0; c < DENSE_ALPHABET_SIZE; c++) {
+				int target = getTrieTarget(state, (char) c);
+				if (target == -1) {
+					target = (state == 0) ? 0 : denseTransitions[failures[state] * DENSE_ALPHABET_SIZE + c];
+				}
+				denseTransitions[state * DENSE_ALPHABET_SIZE + c] = target;
+			}
+
+			char[] keys = sparseKeys[state];
+			for (int k = 0; k < keys.length; k++) {
+				int child = sparseTargets[state][k];
+				failures[child] = (state == 0) ? 0 : next(failures[state], keys[k]);
+				queue.add(Integer.valueOf(child));
+			}
+		}
+	}
+
+	private static int[] toArray(List<Integer> values) {
+		if (values.isEmpty()) {
+			return NO_OUTPUT;
+		}
+		int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i).intValue();
+		}
+		return array;
+	}
+
+	private int getTrieTarget(int state, char c) {
+		int k = Arrays.binarySearch(sparseKeys[state], c);
+		return (k < 0) ? -1 : sparseTargets[state][k];
+	}
+
+	private int next(int state, char c) {
+		if (c < DENSE_ALPHABET_SIZE) {
+			return denseTransitions[state * DENSE_ALPHABET_SIZE + c];
+		}
+		int current = state;
+		while (true) {
+			int target = getTrieTarget(current, c);
+			if (target != -1) {
+				return target;
+			}
+			if (current == 0) {
+				return 0;
+			}
+			current = failures[current];
+		}
+	}
+
+	/**
+	 * @return number of patterns
+	 */
+	public int size() {
+		return patterns.length;
+	}
+
+	public Pattern getPattern(int index) {
+		return patterns[index];
+	}
+
+	/**
+	 * Tells whether the pattern with the given index is found in the text,
+	 * like {@code getPattern(index).matcher(text).find()}.
+	 * <p>
+	 * The text is scanned only once for all patterns, as long as the same
+	 * instance is passed consecutively on the same thread.
+	 * 
+	 * @param index
+	 * @param text
+	 * @return {@code true} if the pattern is found
+	 */
+	public boolean find(int index, CharSequence text) {
+		if (!withoutLiteral[index]) {
+			if (!scan(text)[index]) {
+				return false;
+			}
+			if (literalOnly[index]) {
+				return true;
+			}
+		}
+		return patterns[index].matcher(text).find();
+	}
+
+	/**
+	 * Tells whether the pattern with the given index might be found in the
+	 * text, i.e. returns {@code false} only if its literal does not occur.
+	 * 
+	 * @param index
+	 * @param text
+	 * @return {@code false} if the pattern is not found for sure
+	 */
+	public boolean mayFind(int index, CharSequence text) {
+		return withoutLiteral[index] || scan(text)[index];
+	}
+
+	/**
+	 * Searches the literals of all patterns in the given text, reusing the
+	 * result of the last call on this thread if the text is the same instance.
+	 * 
+	 * @param text
+	 * @return for each pattern whether its literal occurs in the text
+	 */
+	boolean[] scan(CharSequence text) {
+		Scan scan = lastScan.get();
+		if (scan != null && scan.text.get() == text) {
+			return scan.found;
+		}
+
+		boolean[] found = new boolean[patterns.length];
+		int remaining = literalCount;
+		int state = 0;
+		for (int i = 0, length = text.length(); i < length && remaining > 0; i++) {
+			state = next(state, text.charAt(i));
+			for (int index : outputs[state]) {
+				if (!found[index]) {
+					found[index] = true;
+					remaining--;
+				}
+			}
+		}
+
+		lastScan.set(new Scan(text, found));
+		return found;
+	}
+
+	/**
+	 * Determines a literal, that each match of the given pattern contains.
+	 * Only the leading literal characters are considered, as long as the
+	 * pattern has no alternations nor flags changing the meaning of
+	 * characters.
+	 * 
+	 * @param pattern
+	 * @return literal, with empty text if none was found
+	 */
+	static Literal extractLiteral(Pattern pattern) {
+		String regex = pattern.pattern();
+		int flags = pattern.flags();
+
+		if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+			return new Literal("", false);
+		}
+		if ((flags & Pattern.LITERAL) != 0) {
+			return new Literal(regex, true);
+		}
+		if (regex.indexOf('|') != -1) {
+			return new Literal("", false);
+		}
+
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		boolean anchored = false;
+		if (regex.startsWith("^")) {
+			anchored = true;
+			i++;
+		}
+
+		int lastAtomLength = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					break;
+				}
+				literal.append(regex.charAt(i + 1));
+				lastAtomLength = 1;
+				i += 2;
+			} else if (".$^[]()?*+{}".indexOf(c) != -1) {
+				break;
+			} else {
+				literal.append(c);
+				lastAtomLength = 1;
+				i++;
+			}
+		}
+
+		boolean isWholePattern = !anchored && i == regex.length();
+		if (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '?' || c == '*' || c == '{') {
+				// last character is optional or repeated
+				literal.setLength(literal.length() - lastAtomLength);
+			}
+		}
+		return new Literal(literal.toString(), isWholePattern);
+	}
+
+	static final class Literal {
+
+		final String text;
+
+		/**
+		 * Whether the pattern matches exactly the text.
+		 */
+		final boolean isWholePattern;
+
+		Literal(String text, boolean isWholePattern) {
+			this.text = text;
+			this.isWholePattern = isWholePattern;
+		}
+	}
+
+	/**
+	 * Result of the last pass, does not keep the text from being garbage
+	 * collected.
+	 */
+	private static final class Scan {
+
+		final WeakReference<CharSequence> text;
+
+		final boolean[] found;
+
+		Scan(CharSequence text, boolean[] found) {
+			this.text = new WeakReference<>(text);
+			this.found = found;
+		}
+	}
+}
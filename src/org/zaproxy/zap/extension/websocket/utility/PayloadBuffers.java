@@ -0,0 +1,108 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Allocates the buffers holding the payloads of WebSocket messages.
+ * <p>
+ * Payloads of at least {@link #getSpillThreshold()} bytes are kept in a
+ * memory-mapped temporary file instead of the heap (see
+ * {@link SpilledPayload}), such that large messages do not exhaust the heap.
+ * Their buffers have no accessible array (i.e. {@link ByteBuffer#hasArray()}
+ * returns {@code false}); the file is unmapped and deleted once the payload
+ * is released.
+ */
+public final class PayloadBuffers {
+
+	private static final Logger logger = Logger.getLogger(PayloadBuffers.class);
+
+	/**
+	 * Default value of {@link #getSpillThreshold()}, 8 MiB.
+	 */
+	public static final int DEFAULT_SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+	private static volatile int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+	private PayloadBuffers() {
+	}
+
+	/**
+	 * @return minimum number of bytes of buffers backed by a file, or
+	 *         {@code 0} if all buffers are allocated on the heap
+	 */
+	public static int getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * @param threshold minimum number of bytes of buffers backed by a file,
+	 *            {@code 0} or negative to allocate all buffers on the heap
+	 */
+	public static void setSpillThreshold(int threshold) {
+		spillThreshold = Math.max(0, threshold);
+	}
+
+	/**
+	 * Allocates a new payload backed by a file, if the capacity reaches the
+	 * spill threshold. The caller holds its first reference and must release
+	 * it.
+	 * 
+	 * @param capacity
+	 * @return new payload, or {@code null} if the capacity is below the spill
+	 *         threshold or the file could not be created (the payload is to be
+	 *         kept on the heap then)
+	 */
+	public static SpilledPayload allocateSpilled(int capacity) {
+		int threshold = spillThreshold;
+		if (threshold > 0 && capacity >= threshold) {
+			try {
+				return new SpilledPayload(capacity);
+			} catch (IOException e) {
+				logger.warn("Failed to create file for large payload, using heap instead: " + e.getMessage(), e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the given region of the buffer into a new array, without
+	 * changing the position or limit of the buffer.
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return new array
+	 */
+	public static byte[] toArray(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, bytes, 0, length);
+		} else {
+			ByteBuffer source = buffer.duplicate();
+			source.limit(offset + length);
+			source.position(offset);
+			source.get(bytes);
+		}
+		return bytes;
+	}
+}
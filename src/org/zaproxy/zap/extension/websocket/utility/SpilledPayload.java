@@ -0,0 +1,273 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Payload of a large WebSocket message, kept in a memory-mapped temporary
+ * file (see {@link PayloadBuffers#allocateSpilled(int)}).
+ * <p>
+ * The payload is reference counted: the message that read it holds the
+ * first reference, further holders (e.g. the storage writing it to the
+ * database) call {@link #retain()}. Once the last reference is released the
+ * file is unmapped, closed and deleted. Reading a released payload throws an
+ * {@link IOException}.
+ */
+public final class SpilledPayload {
+
+	private static final Logger logger = Logger.getLogger(SpilledPayload.class);
+
+	private final File file;
+
+	private final RandomAccessFile randomAccessFile;
+
+	private final FileChannel channel;
+
+	private MappedByteBuffer buffer;
+
+	private int references;
+
+	/**
+	 * {@code true} if the file was deleted while still open, which is not
+	 * possible on all platforms (e.g. Windows).
+	 */
+	private final boolean deleted;
+
+	SpilledPayload(int capacity) throws IOException {
+		file = File.createTempFile("zap-websocket-payload", ".tmp");
+		try {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+		} catch (IOException e) {
+			deleteFile();
+			throw e;
+		}
+		channel = randomAccessFile.getChannel();
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch (IOException e) {
+			closeChannel();
+			deleteFile();
+			throw e;
+		}
+		references = 1;
+		// removed once closed, even if ZAP is not shut down normally
+		deleted = file.delete();
+	}
+
+	/**
+	 * Returns the buffer mapping the file, with position zero and limit set to
+	 * the capacity. Must only be used by the holder of the first reference.
+	 * 
+	 * @return mapped buffer
+	 * @throws IllegalStateException if already released
+	 */
+	public synchronized ByteBuffer getBuffer() {
+		checkNotReleased();
+		return buffer;
+	}
+
+	/**
+	 * Extends the file to the given capacity and maps it again, the content is
+	 * kept. The previous buffer must not be used afterwards.
+	 * 
+	 * @param capacity new capacity in bytes
+	 * @return new mapped buffer, with position zero and limit set to the
+	 *         capacity
+	 * @throws IOException if the file could not be mapped
+	 * @throws IllegalStateException if already released
+	 */
+	public synchronized ByteBuffer grow(int capacity) throws IOException {
+		checkNotReleased();
+		MappedByteBuffer grown = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		unmap(buffer);
+		buffer = grown;
+		return grown;
+	}
+
+	/**
+	 * Adds a reference, to be released with {@link #release()}.
+	 * 
+	 * @throws IllegalStateException if already released
+	 */
+	public synchronized void retain() {
+		checkNotReleased();
+		references++;
+	}
+
+	/**
+	 * Releases a reference, the file is unmapped, closed and deleted once no
+	 * references are left.
+	 */
+	public synchronized void release() {
+		if (references == 0) {
+			return;
+		}
+		references--;
+		if (references > 0) {
+			return;
+		}
+
+		unmap(buffer);
+		buffer = null;
+		closeChannel();
+		if (!deleted) {
+			deleteFile();
+		}
+	}
+
+	/**
+	 * @return {@code true} if all references were released
+	 */
+	public synchronized boolean isReleased() {
+		return references == 0;
+	}
+
+	/**
+	 * Copies bytes of the payload into the given array.
+	 * 
+	 * @param position position of the first byte within the payload
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @throws IOException if already released
+	 */
+	public synchronized void read(int position, byte[] bytes, int offset, int length) throws IOException {
+		if (buffer == null) {
+			throw new IOException("Payload was already released.");
+		}
+		ByteBuffer source = buffer.duplicate();
+		source.limit(position + length);
+		source.position(position);
+		source.get(bytes, offset, length);
+	}
+
+	/**
+	 * Copies the first {@code length} bytes of the payload into a new array.
+	 * 
+	 * @param length
+	 * @return new array
+	 * @throws IOException if already released
+	 */
+	public byte[] toArray(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		read(0, bytes, 0, length);
+		return bytes;
+	}
+
+	/**
+	 * Returns a stream reading the first {@code length} bytes of the payload,
+	 * without copying them onto the heap at once. The payload must be retained
+	 * while reading.
+	 * 
+	 * @param length
+	 * @return new stream
+	 */
+	public InputStream newInputStream(final int length) {
+		return new InputStream() {
+
+			private int position;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				if (position >= length) {
+					return -1;
+				}
+				int count = Math.min(len, length - position);
+				SpilledPayload.this.read(position, b, off, count);
+				position += count;
+				return count;
+			}
+
+			@Override
+			public int available() {
+				return length - position;
+			}
+		};
+	}
+
+	private void checkNotReleased() {
+		if (references == 0) {
+			throw new IllegalStateException("Payload was already released.");
+		}
+	}
+
+	private void closeChannel() {
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+			logger.debug("Failed to close file of large payload: " + e.getMessage(), e);
+		}
+	}
+
+	private void deleteFile() {
+		if (!file.delete() && file.exists()) {
+			logger.warn("Failed to delete file of large payload: " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Unmaps the given buffer right away, instead of once it is garbage
+	 * collected, such that the file can be deleted on all platforms. Falls
+	 * back to the garbage collector if the JVM does not allow it.
+	 * 
+	 * @param mappedBuffer
+	 */
+	private static void unmap(MappedByteBuffer mappedBuffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException e) {
+				// Java 8 and older
+				Method cleanerMethod = mappedBuffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(mappedBuffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+				return;
+			}
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), mappedBuffer);
+		} catch (Exception e) {
+			logger.debug("Failed to unmap large payload, left to the garbage collector: " + e.getMessage(), e);
+		}
+	}
+}
@@ -1,8 +1,3 @@
-/*
- * This class incorporates an inner class Utf8StringBuilder copied
- * from jetty trunk trunk @r1179.
- */
-
 /*
  * Zed Attack Proxy (ZAP) and its related class files.
  * 
@@ -23,16 +18,21 @@
 package org.zaproxy.zap.extension.websocket.utility;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Encode or decode from byte[] to Utf8 and vice versa.
+ * <p>
+ * Decoding is strict as required by RFC 6455 for text frames, i.e. overlong
+ * forms, surrogates and code points above U+10FFFF are invalid. Runs of ASCII
+ * characters are checked eight bytes at a time.
  */
 public abstract class Utf8Util {
 	
 	/**
 	 * Used for en- & decoding from bytes to String and vice versa.
 	 */
-	protected static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+	protected static final Charset UTF8_CHARSET = StandardCharsets.UTF_8;
 
 	/**
 	 * Helper method to encode payload into UTF-8 string.
@@ -55,23 +55,146 @@ public abstract class Utf8Util {
 	 * @throws InvalidUtf8Exception 
 	 */
 	public static String encodePayloadToUtf8(byte[] utf8bytes, int offset, int length) throws InvalidUtf8Exception {
+		int asciiLength = getAsciiLength(utf8bytes, offset, length);
+		if (asciiLength == length) {
+			return new String(utf8bytes, offset, length, StandardCharsets.US_ASCII);
+		}
+
+		// never more chars than bytes
+		char[] chars = new char[length];
+		for (int i = 0; i < asciiLength; i++) {
+			chars[i] = (char) utf8bytes[offset + i];
+		}
+		int charCount = decode(utf8bytes, offset + asciiLength, length - asciiLength, chars, asciiLength);
+		return new String(chars, 0, charCount);
+	}
+
+	/**
+	 * Tells whether the given bytes are valid UTF-8, without building a
+	 * {@code String}.
+	 * 
+	 * @param utf8bytes
+	 * @param offset
+	 * @param length
+	 * @return {@code true} if {@link #encodePayloadToUtf8(byte[], int, int)}
+	 *         would not fail
+	 */
+	public static boolean isValidUtf8(byte[] utf8bytes, int offset, int length) {
+		int asciiLength = getAsciiLength(utf8bytes, offset, length);
+		if (asciiLength == length) {
+			return true;
+		}
 		try {
-			Utf8StringBuilder builder = new Utf8StringBuilder(length);
-			builder.append(utf8bytes, offset, length);
+			decode(utf8bytes, offset + asciiLength, length - asciiLength, null, 0);
+			return true;
+		} catch (InvalidUtf8Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return number of leading bytes, that are ASCII characters
+	 */
+	private static int getAsciiLength(byte[] bytes, int offset, int length) {
+		int i = offset;
+		int end = offset + length;
+		// a word is ASCII if no byte has the highest bit set
+		while (i + 8 <= end && (bytes[i] | bytes[i + 1] | bytes[i + 2] | bytes[i + 3]
+				| bytes[i + 4] | bytes[i + 5] | bytes[i + 6] | bytes[i + 7]) >= 0) {
+			i += 8;
+		}
+		while (i < end && bytes[i] >= 0) {
+			i++;
+		}
+		return i - offset;
+	}
+
+	/**
+	 * Decodes the given bytes into the given chars.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param chars destination with room for {@code length} chars, or
+	 *            {@code null} to validate only
+	 * @param charOffset
+	 * @return position in {@code chars} after the last decoded char
+	 * @throws InvalidUtf8Exception if the bytes are no valid UTF-8
+	 */
+	private static int decode(byte[] bytes, int offset, int length, char[] chars, int charOffset) throws InvalidUtf8Exception {
+		int i = offset;
+		int end = offset + length;
+		int j = charOffset;
+
+		while (i < end) {
+			int b = bytes[i];
+			if (b >= 0) {
+				int asciiLength = getAsciiLength(bytes, i, end - i);
+				if (chars != null) {
+					for (int k = 0; k < asciiLength; k++) {
+						chars[j + k] = (char) bytes[i + k];
+					}
+				}
+				i += asciiLength;
+				j += asciiLength;
+				continue;
+			}
 
-			return builder.toString();
-		} catch (IllegalArgumentException e) {
-			if (e.getMessage().equals("!utf8")) {
-				throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+			b &= 0xFF;
+			int codePoint;
+			if (b < 0xC2) {
+				// continuation byte or overlong 2-byte form
+				throw createInvalidUtf8Exception();
+			} else if (b < 0xE0) {
+				codePoint = ((b & 0x1F) << 6) | getContinuation(bytes, i + 1, end, 0x80, 0xBF);
+				i += 2;
+			} else if (b < 0xF0) {
+				int lower = (b == 0xE0) ? 0xA0 : 0x80;
+				int upper = (b == 0xED) ? 0x9F : 0xBF;
+				codePoint = ((b & 0x0F) << 12) | (getContinuation(bytes, i + 1, end, lower, upper) << 6)
+						| getContinuation(bytes, i + 2, end, 0x80, 0xBF);
+				i += 3;
+			} else if (b < 0xF5) {
+				int lower = (b == 0xF0) ? 0x90 : 0x80;
+				int upper = (b == 0xF4) ? 0x8F : 0xBF;
+				codePoint = ((b & 0x07) << 18) | (getContinuation(bytes, i + 1, end, lower, upper) << 12)
+						| (getContinuation(bytes, i + 2, end, 0x80, 0xBF) << 6)
+						| getContinuation(bytes, i + 3, end, 0x80, 0xBF);
+				i += 4;
+				if (chars != null) {
+					chars[j] = Character.highSurrogate(codePoint);
+					chars[j + 1] = Character.lowSurrogate(codePoint);
+				}
+				j += 2;
+				continue;
+			} else {
+				throw createInvalidUtf8Exception();
 			}
-			throw e;
-			
-		} catch (IllegalStateException e) {
-			if (e.getMessage().equals("!utf8")) {
-				throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+
+			if (chars != null) {
+				chars[j] = (char) codePoint;
 			}
-			throw e;
+			j++;
+		}
+		return j;
+	}
+
+	/**
+	 * @return the 6 payload bits of the continuation byte at given index
+	 */
+	private static int getContinuation(byte[] bytes, int index, int end, int lower, int upper) throws InvalidUtf8Exception {
+		if (index >= end) {
+			throw createInvalidUtf8Exception();
+		}
+		int b = bytes[index] & 0xFF;
+		if (b < lower || b > upper) {
+			throw createInvalidUtf8Exception();
 		}
+		return b & 0x3F;
+	}
+
+	private static InvalidUtf8Exception createInvalidUtf8Exception() {
+		return new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
 	}
 	
 	/**
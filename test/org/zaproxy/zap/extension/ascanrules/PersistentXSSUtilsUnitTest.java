@@ -0,0 +1,267 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Copyright 2017 The ZAP development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.URI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.parosproxy.paros.network.HttpMessage;
+
+/**
+ * Unit test for {@link PersistentXSSUtils}.
+ */
+public class PersistentXSSUtilsUnitTest {
+
+    private static final int NUMBER_OF_THREADS = 8;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        PersistentXSSUtils.reset();
+        executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        PersistentXSSUtils.reset();
+    }
+
+    @Test
+    public void shouldGenerateDistinctUniqueValuesConcurrently() throws Exception {
+        // Given
+        final HttpMessage msg = createMessage("http://example.com/");
+        final int valuesPerThread = 5000;
+        final Set<String> values = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        // When
+        runConcurrently(new Task() {
+
+            @Override
+            public void run(int thread) {
+                for (int i = 0; i < valuesPerThread; i++) {
+                    values.add(PersistentXSSUtils.getUniqueValue(msg, "param" + thread));
+                }
+            }
+        });
+        // Then
+        assertThat(values, hasSize(NUMBER_OF_THREADS * valuesPerThread));
+        for (int i = 0; i < NUMBER_OF_THREADS * valuesPerThread; i++) {
+            assertThat(values.contains(PersistentXSSUtils.PXSS_PREFIX + i + PersistentXSSUtils.PXSS_POSTFIX), is(equalTo(true)));
+        }
+    }
+
+    @Test
+    public void shouldRestartUniqueValuesAfterReset() throws Exception {
+        // Given
+        HttpMessage msg = createMessage("http://example.com/");
+        PersistentXSSUtils.getUniqueValue(msg, "param");
+        // When
+        PersistentXSSUtils.reset();
+        String value = PersistentXSSUtils.getUniqueValue(msg, "param");
+        // Then
+        assertThat(value, is(equalTo(PersistentXSSUtils.PXSS_PREFIX + 0 + PersistentXSSUtils.PXSS_POSTFIX)));
+    }
+
+    @Test
+    public void shouldUseNonNegativeSlotsForAllIndexes() {
+        // Given
+        int[] indexes = { 0, PersistentXSSUtils.MAX_UNIQUE_VALUES + 1, Integer.MAX_VALUE, Integer.MIN_VALUE, -1 };
+        for (int index : indexes) {
+            // When
+            int slot = PersistentXSSUtils.getSlot(index);
+            // Then
+            assertThat(slot, is(greaterThanOrEqualTo(0)));
+            assertThat(slot, is(lessThan(PersistentXSSUtils.MAX_UNIQUE_VALUES)));
+        }
+    }
+
+    @Test
+    public void shouldFindAllUniqueValues() {
+        // Given
+        byte[] body = bytes("zApPX0sS<p>zApPX12sS</p>zApPX2147483647sSzApPX3sS");
+        // When
+        int[] indexes = PersistentXSSUtils.findUniqueValueIndexes(body, 0, body.length);
+        // Then
+        assertThat(indexes, is(equalTo(new int[] { 0, 12, 2147483647, 3 })));
+    }
+
+    @Test
+    public void shouldFindUniqueValueAfterPartialPrefix() {
+        // Given
+        byte[] body = bytes("zApzApPzApPXzApPX7sS");
+        // When
+        int[] indexes = PersistentXSSUtils.findUniqueValueIndexes(body, 0, body.length);
+        // Then
+        assertThat(indexes, is(equalTo(new int[] { 7 })));
+    }
+
+    @Test
+    public void shouldIgnoreMalformedUniqueValues() {
+        // Given
+        byte[] body = bytes("zApPXsS zApPX01sS zApPX1x2sS zApPX-1sS zApPX2147483648sS zApPX12345678901sS zApPX5s zApPX6");
+        // When
+        int[] indexes = PersistentXSSUtils.findUniqueValueIndexes(body, 0, body.length);
+        // Then
+        assertThat(indexes.length, is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldFindUniqueValuesOnlyInGivenRange() {
+        // Given
+        byte[] body = bytes("zApPX1sSzApPX2sSzApPX3sS");
+        // When
+        int[] indexes = PersistentXSSUtils.findUniqueValueIndexes(body, 1, 15);
+        // Then
+        assertThat(indexes, is(equalTo(new int[] { 2 })));
+    }
+
+    @Test
+    public void shouldReturnNullIfSourceHasNoSinks() throws Exception {
+        // Given
+        HttpMessage msg = createMessage("http://example.com/");
+        PersistentXSSUtils.addSinkId(msg, "param", 1);
+        // When
+        Set<Integer> sinks = PersistentXSSUtils.getSinksIdsForSource(msg, "otherParam");
+        // Then
+        assertThat(sinks, is(nullValue()));
+    }
+
+    @Test
+    public void shouldReturnCopyOfSinks() throws Exception {
+        // Given
+        HttpMessage msg = createMessage("http://example.com/");
+        PersistentXSSUtils.addSinkId(msg, "param", 2);
+        PersistentXSSUtils.addSinkId(msg, "param", 1);
+        PersistentXSSUtils.addSinkId(msg, "param", 2);
+        // When
+        Set<Integer> sinks = PersistentXSSUtils.getSinksIdsForSource(msg, "param");
+        sinks.add(3);
+        // Then
+        assertThat(sinks, is(equalTo(asSet(1, 2, 3))));
+        assertThat(PersistentXSSUtils.getSinksIdsForSource(msg, "param"), is(equalTo(asSet(1, 2))));
+    }
+
+    @Test
+    public void shouldNotLoseSinksAddedConcurrently() throws Exception {
+        // Given
+        final HttpMessage msg = createMessage("http://example.com/");
+        final int sinksPerThread = 500;
+        // When
+        runConcurrently(new Task() {
+
+            @Override
+            public void run(int thread) {
+                for (int i = 0; i < sinksPerThread; i++) {
+                    PersistentXSSUtils.addSinkId(msg, "param", thread * sinksPerThread + i);
+                    Set<Integer> sinks = PersistentXSSUtils.getSinksIdsForSource(msg, "param");
+                    for (Integer sink : sinks) {
+                        assertThat(sink, is(notNullValue()));
+                    }
+                }
+            }
+        });
+        // Then
+        assertThat(PersistentXSSUtils.getSinksIdsForSource(msg, "param"), hasSize(NUMBER_OF_THREADS * sinksPerThread));
+    }
+
+    @Test
+    public void shouldForgetLeastRecentlyUsedSourcesWhenFull() throws Exception {
+        // Given
+        HttpMessage first = createMessage("http://example.com/first");
+        HttpMessage second = createMessage("http://example.com/second");
+        PersistentXSSUtils.addSinkId(first, "param", 1);
+        PersistentXSSUtils.addSinkId(second, "param", 2);
+        PersistentXSSUtils.getSinksIdsForSource(first, "param");
+        // When
+        HttpMessage msg = createMessage("http://example.com/other");
+        for (int i = 0; i < PersistentXSSUtils.MAX_SOURCES_WITH_SINKS - 1; i++) {
+            PersistentXSSUtils.addSinkId(msg, "param" + i, 3);
+        }
+        // Then
+        assertThat(PersistentXSSUtils.getSinksIdsForSource(first, "param"), is(equalTo(asSet(1))));
+        assertThat(PersistentXSSUtils.getSinksIdsForSource(second, "param"), is(nullValue()));
+    }
+
+    private void runConcurrently(final Task task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final int thread = i;
+            futures.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static HttpMessage createMessage(String uri) throws Exception {
+        return new HttpMessage(new URI(uri, true));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Set<Integer> asSet(Integer... values) {
+        Set<Integer> set = new HashSet<>();
+        Collections.addAll(set, values);
+        return set;
+    }
+
+    private interface Task {
+
+        void run(int thread);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Copyright 2017 The ZAP development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.parosproxy.paros.network.HttpMessage;
+
+/**
+ * Unit test for {@link ResponseComparator}.
+ */
+public class ResponseComparatorUnitTest {
+
+    @Test
+    public void shouldStripAllOccurrencesOfLiterals() {
+        // Given
+        String content = "<p>1 AND 1=1</p><a href=\"?id=1+AND+1%3D1\">1 AND 1=1</a>";
+        // When
+        String stripped = ResponseComparator.strip(content, "1 AND 1=1", "1+AND+1%3D1");
+        // Then
+        assertThat(stripped, is(equalTo("<p></p><a href=\"?id=\"></a>")));
+    }
+
+    @Test
+    public void shouldStripLongestLiteralAtSamePosition() {
+        // Given
+        String content = "x'--y'z";
+        // When
+        String stripped = ResponseComparator.strip(content, "'", "'--");
+        // Then
+        assertThat(stripped, is(equalTo("xyz")));
+    }
+
+    @Test
+    public void shouldStripLiteralsWithRegexCharacters() {
+        // Given
+        String content = "a\\Q.*\\Eb.*c";
+        // When
+        String stripped = ResponseComparator.strip(content, "\\Q.*\\E", ".*");
+        // Then
+        assertThat(stripped, is(equalTo("abc")));
+    }
+
+    @Test
+    public void shouldReturnSameContentIfNothingStripped() {
+        // Given
+        String content = "<html>Nothing reflected</html>";
+        // When
+        String stripped = ResponseComparator.strip(content, "1' OR '1'='1", "", "1%27");
+        // Then
+        assertThat(stripped, is(sameInstance(content)));
+    }
+
+    @Test
+    public void shouldStripValueAndUrlEncodedValue() {
+        // Given
+        String content = "1 OR 1=1 and 1+OR+1%3D1";
+        // When
+        String stripped = ResponseComparator.stripOff(content, "1 OR 1=1");
+        // Then
+        assertThat(stripped, is(equalTo(" and ")));
+    }
+
+    @Test
+    public void shouldNotStripNullValue() {
+        // Given
+        String content = "content";
+        // When
+        String stripped = ResponseComparator.stripOff(content, null);
+        // Then
+        assertThat(stripped, is(sameInstance(content)));
+    }
+
+    @Test
+    public void shouldKeepBaselineIfSetWithSameBodyAndValue() {
+        // Given
+        ResponseComparator comparator = new ResponseComparator();
+        ResponseComparator.Body baseline = comparator.setBaseline(createMessage("Result for 1"), "1");
+        // When
+        ResponseComparator.Body refreshedBaseline = comparator.setBaseline(createMessage("Result for 1"), "1");
+        // Then
+        assertThat(refreshedBaseline, is(sameInstance(baseline)));
+    }
+
+    @Test
+    public void shouldReplaceBaselineIfBodyChanged() {
+        // Given
+        ResponseComparator comparator = new ResponseComparator();
+        ResponseComparator.Body baseline = comparator.setBaseline(createMessage("Result for 1"), "1");
+        // When
+        ResponseComparator.Body refreshedBaseline = comparator.setBaseline(createMessage("Other result for 1"), "1");
+        // Then
+        assertThat(refreshedBaseline, is(not(sameInstance(baseline))));
+        assertThat(comparator.getBaseline().getUnstripped(), is(equalTo("Other result for 1")));
+    }
+
+    @Test
+    public void shouldMatchBaselineOnlyInStrippedFormIfPayloadReflected() {
+        // Given
+        ResponseComparator comparator = new ResponseComparator();
+        comparator.setBaseline(createMessage("Search: 1, 3 results"), "1");
+        // When
+        ResponseComparator.Body body = comparator.createBody(createMessage("Search: 1 AND 1=1, 3 results"), "1 AND 1=1");
+        // Then
+        assertThat(comparator.matchesBaseline(body, false), is(equalTo(false)));
+        assertThat(comparator.matchesBaseline(body, true), is(equalTo(true)));
+    }
+
+    private static HttpMessage createMessage(String responseBody) {
+        HttpMessage msg = new HttpMessage();
+        msg.setResponseBody(responseBody);
+        return msg;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Copyright 2017 The ZAP development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SignatureMatcher}.
+ */
+public class SignatureMatcherUnitTest {
+
+    @Test
+    public void shouldMatchLiteralsIgnoringCaseWithEvidenceAsInContent() {
+        // Given
+        SignatureMatcher<String> matcher = SignatureMatcher.<String> builder()
+                .addLiteral("mysql", "You have an error in your SQL syntax")
+                .addLiteral("oracle", "ORA-0")
+                .build();
+        // When
+        SignatureMatcher<String>.Result result = matcher.match("<b>you have an ERROR in your SQL syntax</b> near '1'");
+        // Then
+        assertThat(result.matches("mysql"), is(equalTo(true)));
+        assertThat(result.getEvidence("mysql"), is(equalTo("you have an ERROR in your SQL syntax")));
+        assertThat(result.matches("oracle"), is(equalTo(false)));
+        assertThat(result.getEvidence("oracle"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldMatchOverlappingLiterals() {
+        // Given
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder()
+                .addLiteral(1, "ODBC SQL Server Driver")
+                .addLiteral(2, "SQL Server")
+                .addLiteral(3, "Driver]")
+                .build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("[Microsoft][ODBC SQL Server Driver][SQL Server]");
+        // Then
+        assertThat(result.getEvidence(1), is(equalTo("ODBC SQL Server Driver")));
+        assertThat(result.getEvidence(2), is(equalTo("SQL Server")));
+        assertThat(result.getEvidence(3), is(equalTo("Driver]")));
+    }
+
+    @Test
+    public void shouldMatchFirstOccurrenceOfLiteral() {
+        // Given
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder().addLiteral(1, "error").build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("Error: ... error ... ERROR");
+        // Then
+        assertThat(result.getEvidence(1), is(equalTo("Error")));
+    }
+
+    @Test
+    public void shouldMatchLiteralsWithNonAsciiCharacters() {
+        // Given
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder().addLiteral(1, "Fehler \u00fcber").build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("Ein FEHLER \u00fcber die Datenbank");
+        // Then
+        assertThat(result.getEvidence(1), is(equalTo("FEHLER \u00fcber")));
+    }
+
+    @Test
+    public void shouldNotEvaluatePatternIfAnchorNotPresent() {
+        // Given
+        Pattern pattern = Pattern.compile("javax\\.servlet\\.\\S+");
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder()
+                .addPattern(1, "Javax.Servlet.", pattern)
+                .build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("javax servlet ServletException");
+        // Then
+        assertThat(result.matches(1), is(equalTo(false)));
+    }
+
+    @Test
+    public void shouldUsePatternMatchAsEvidenceIfAnchorPresent() {
+        // Given
+        Pattern pattern = Pattern.compile("javax\\.servlet\\.\\S+");
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder()
+                .addPattern(1, "javax.servlet.", pattern)
+                .build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("at javax.servlet.http.HttpServlet.service(...)");
+        // Then
+        assertThat(result.getEvidence(1), is(equalTo("javax.servlet.http.HttpServlet.service(...)")));
+    }
+
+    @Test
+    public void shouldNotMatchIfAnchorPresentButPatternDoesNotMatch() {
+        // Given
+        Pattern pattern = Pattern.compile("javax\\.servlet\\.\\S+");
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder()
+                .addPattern(1, "javax.servlet.", pattern)
+                .build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("JAVAX.SERVLET. is case sensitive");
+        // Then
+        assertThat(result.matches(1), is(equalTo(false)));
+    }
+
+    @Test
+    public void shouldAlwaysEvaluatePatternWithoutAnchor() {
+        // Given
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder()
+                .addLiteral(1, "not present")
+                .addPattern(2, Pattern.compile("ORA-[0-9]{5}"))
+                .build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("ORA-00933: SQL command not properly ended");
+        // Then
+        assertThat(result.matches(1), is(equalTo(false)));
+        assertThat(result.getEvidence(2), is(equalTo("ORA-00933")));
+    }
+
+    @Test
+    public void shouldMatchCaseInsensitiveQuotedPatternAsLiteral() {
+        // Given
+        Pattern pattern = Pattern.compile("\\QUnclosed quotation mark\\E", Pattern.CASE_INSENSITIVE);
+        SignatureMatcher<Pattern> matcher = SignatureMatcher.<Pattern> builder().addPattern(pattern, pattern).build();
+        // When
+        SignatureMatcher<Pattern>.Result result = matcher.match("UNCLOSED QUOTATION MARK after the character string");
+        // Then
+        assertThat(result.getEvidence(pattern), is(equalTo("UNCLOSED QUOTATION MARK")));
+    }
+
+    @Test
+    public void shouldMatchCaseSensitiveQuotedPatternAsPattern() {
+        // Given
+        Pattern pattern = Pattern.compile("\\QUnclosed quotation mark\\E");
+        SignatureMatcher<Pattern> matcher = SignatureMatcher.<Pattern> builder().addPattern(pattern, pattern).build();
+        // When
+        SignatureMatcher<Pattern>.Result result = matcher.match("UNCLOSED QUOTATION MARK after the character string");
+        // Then
+        assertThat(result.matches(pattern), is(equalTo(false)));
+    }
+
+    @Test
+    public void shouldNotMatchAnythingInEmptyContent() {
+        // Given
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder()
+                .addLiteral(1, "error")
+                .addPattern(2, Pattern.compile("x?"))
+                .build();
+        // When
+        SignatureMatcher<Integer>.Result result = matcher.match("");
+        // Then
+        assertThat(result.matches(1), is(equalTo(false)));
+        assertThat(result.getEvidence(2), is(equalTo("")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToGetEvidenceOfUnknownSignature() {
+        // Given
+        SignatureMatcher<Integer> matcher = SignatureMatcher.<Integer> builder().addLiteral(1, "error").build();
+        SignatureMatcher<Integer>.Result result = matcher.match("error");
+        // When
+        result.getEvidence(2);
+        // Then = IllegalArgumentException
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToAddSignatureWithSameId() {
+        // Given
+        SignatureMatcher.Builder<Integer> builder = SignatureMatcher.<Integer> builder().addLiteral(1, "error");
+        // When
+        builder.addLiteral(1, "other");
+        // Then = IllegalArgumentException
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToAddEmptyLiteral() {
+        // Given
+        SignatureMatcher.Builder<Integer> builder = SignatureMatcher.<Integer> builder();
+        // When
+        builder.addLiteral(1, "");
+        // Then = IllegalArgumentException
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Copyright 2017 The ZAP development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.ascanrules;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.parosproxy.paros.core.scanner.HostProcess;
+import org.parosproxy.paros.network.HttpMessage;
+
+/**
+ * Unit test for {@link TimeBasedDetector}.
+ */
+public class TimeBasedDetectorUnitTest {
+
+    @Test
+    public void shouldComputeMeanAndDeviationOfResponseTimes() {
+        // Given
+        TimeBasedDetector.LatencyModel latencyModel = latencyModel(100, 120, 80, 100);
+        // When
+        double mean = latencyModel.getMean();
+        double deviation = latencyModel.getDeviation();
+        // Then
+        assertThat(mean, is(closeTo(100, 0.001)));
+        assertThat(deviation, is(closeTo(16.330, 0.001)));
+        assertThat(latencyModel.getUpperLimit(), is(closeTo(100 + 7 * 16.330, 0.01)));
+    }
+
+    @Test
+    public void shouldNotHaveDeviationWithLessThanTwoResponseTimes() {
+        // Given
+        TimeBasedDetector.LatencyModel latencyModel = latencyModel(100);
+        // When
+        double deviation = latencyModel.getDeviation();
+        // Then
+        assertThat(deviation, is(equalTo(-1.0)));
+        assertThat(latencyModel.getUpperLimit(), is(equalTo(0.0)));
+    }
+
+    @Test
+    public void shouldKeepOnlyLatestResponseTimes() {
+        // Given
+        TimeBasedDetector.LatencyModel latencyModel = new TimeBasedDetector.LatencyModel();
+        for (int i = 0; i < TimeBasedDetector.LatencyModel.WINDOW_SIZE; i++) {
+            latencyModel.add(5000);
+        }
+        // When
+        for (int i = 0; i < TimeBasedDetector.LatencyModel.WINDOW_SIZE; i++) {
+            latencyModel.add(100);
+        }
+        // Then
+        assertThat(latencyModel.getSampleCount(), is(equalTo(TimeBasedDetector.LatencyModel.WINDOW_SIZE)));
+        assertThat(latencyModel.getMean(), is(closeTo(100, 0.001)));
+        assertThat(latencyModel.getDeviation(), is(closeTo(0, 0.001)));
+    }
+
+    @Test
+    public void shouldShareLatencyModelPerHostProcess() {
+        // Given
+        HostProcess hostProcess = mock(HostProcess.class);
+        HostProcess hostProcessOfOtherScan = mock(HostProcess.class);
+        // When
+        TimeBasedDetector.LatencyModel latencyModel = TimeBasedDetector.getLatencyModel(hostProcess);
+        // Then
+        assertThat(TimeBasedDetector.getLatencyModel(hostProcess), is(sameInstance(latencyModel)));
+        assertThat(TimeBasedDetector.getLatencyModel(hostProcessOfOtherScan), is(not(sameInstance(latencyModel))));
+    }
+
+    @Test
+    public void shouldRecordLatencyOfMessageInModelOfHostProcess() {
+        // Given
+        HostProcess hostProcess = mock(HostProcess.class);
+        HttpMessage msg = new HttpMessage();
+        msg.setTimeElapsedMillis(150);
+        // When
+        TimeBasedDetector.recordLatency(hostProcess, msg);
+        // Then
+        TimeBasedDetector.LatencyModel latencyModel = TimeBasedDetector.getLatencyModel(hostProcess);
+        assertThat(latencyModel.getSampleCount(), is(equalTo(1)));
+        assertThat(latencyModel.getMean(), is(closeTo(150, 0.001)));
+    }
+
+    @Test
+    public void shouldUseHalfMaxDelayIfLatencyNotKnown() {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(), 10);
+        // When
+        int delay = detector.getInitialDelay();
+        // Then
+        assertThat(delay, is(equalTo(5)));
+    }
+
+    @Test
+    public void shouldUseMinDelayIfLatencyNotKnownAndMaxDelayShort() {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(), 3);
+        // When
+        int delay = detector.getInitialDelay();
+        // Then
+        assertThat(delay, is(equalTo(TimeBasedDetector.MIN_DELAY)));
+    }
+
+    @Test
+    public void shouldUseShortDelayIfLatencyIsStable() {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 110, 90, 100), 5);
+        // When
+        int delay = detector.getInitialDelay();
+        // Then
+        assertThat(delay, is(equalTo(TimeBasedDetector.MIN_DELAY)));
+    }
+
+    @Test
+    public void shouldUseLongerDelayIfLatencyVaries() {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 500, 900, 500), 5);
+        // When
+        int delay = detector.getInitialDelay();
+        // Then
+        assertThat(delay, is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldNotUseDelayLongerThanMaxDelay() {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 2000, 4000, 100), 5);
+        // When
+        int delay = detector.getInitialDelay();
+        // Then
+        assertThat(delay, is(equalTo(5)));
+    }
+
+    @Test
+    public void shouldSendSingleRequestIfResponseNotDelayed() throws Exception {
+        // Given
+        TimeBasedDetector.LatencyModel latencyModel = latencyModel(100, 110, 90, 100);
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel, 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, false);
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(nullValue()));
+        assertThat(request.getDelays(), contains(2));
+        assertThat(latencyModel.getSampleCount(), is(equalTo(5)));
+    }
+
+    @Test
+    public void shouldConfirmDelayWithoutDelayAndMaxDelay() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 110, 90, 100), 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, true);
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(notNullValue()));
+        assertThat(msg.getTimeElapsedMillis(), is(equalTo(5100)));
+        assertThat(request.getDelays(), contains(2, 0, 5));
+    }
+
+    @Test
+    public void shouldEscalateToMaxDelayIfLatencyNotKnown() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(), 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, true);
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(notNullValue()));
+        assertThat(request.getDelays(), contains(2, 0, 5));
+    }
+
+    @Test
+    public void shouldNotConfirmWithDelayLongerThanMaxDelay() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 500, 900, 500), 3);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, true);
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(notNullValue()));
+        assertThat(request.getDelays(), contains(3, 0, 3));
+    }
+
+    @Test
+    public void shouldDetectDelayShorterThanAskedWithinTolerance() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 110, 90, 100), 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, true) {
+
+            @Override
+            protected int getElapsedTime(int delay) {
+                // For example, Windows' timeout returning at the next tick of the clock.
+                return delay == 0 ? super.getElapsedTime(delay) : delay * 1000 - 900;
+            }
+        };
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(notNullValue()));
+        assertThat(request.getDelays(), contains(2, 0, 5));
+    }
+
+    @Test
+    public void shouldNotReportIfResponseDelayedWithoutDelay() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 110, 90, 100), 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(1500, false);
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(nullValue()));
+        assertThat(request.getDelays(), contains(2, 0));
+    }
+
+    @Test
+    public void shouldNotReportIfLongerDelayNotHonoured() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 110, 90, 100), 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, true) {
+
+            @Override
+            protected int getElapsedTime(int delay) {
+                // Capped, for example, by a timeout of the target.
+                return Math.min(super.getElapsedTime(delay), 1500);
+            }
+        };
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(nullValue()));
+        assertThat(request.getDelays(), contains(2, 0, 5));
+    }
+
+    @Test
+    public void shouldNotSendMoreRequestsIfRequestNotSent() throws Exception {
+        // Given
+        TimeBasedDetector detector = new TimeBasedDetector(latencyModel(100, 110, 90, 100), 5);
+        FakeDelayedRequest request = new FakeDelayedRequest(100, true) {
+
+            @Override
+            public HttpMessage send(int delay) {
+                HttpMessage msg = super.send(delay);
+                return delay == 0 ? null : msg;
+            }
+        };
+        // When
+        HttpMessage msg = detector.detect(request);
+        // Then
+        assertThat(msg, is(nullValue()));
+        assertThat(request.getDelays(), contains(2, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToCreateWithoutLatencyModel() {
+        // Given
+        TimeBasedDetector.LatencyModel latencyModel = null;
+        // When
+        new TimeBasedDetector(latencyModel, 5);
+        // Then = IllegalArgumentException
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToCreateWithNonPositiveMaxDelay() {
+        // Given
+        int maxDelay = 0;
+        // When
+        new TimeBasedDetector(latencyModel(), maxDelay);
+        // Then = IllegalArgumentException
+    }
+
+    private static TimeBasedDetector.LatencyModel latencyModel(long... responseTimes) {
+        TimeBasedDetector.LatencyModel latencyModel = new TimeBasedDetector.LatencyModel();
+        for (long responseTime : responseTimes) {
+            latencyModel.add(responseTime);
+        }
+        return latencyModel;
+    }
+
+    private static class FakeDelayedRequest implements TimeBasedDetector.DelayedRequest {
+
+        private final int latency;
+        private final boolean injectable;
+        private final List<Integer> delays = new ArrayList<>();
+
+        FakeDelayedRequest(int latency, boolean injectable) {
+            this.latency = latency;
+            this.injectable = injectable;
+        }
+
+        List<Integer> getDelays() {
+            return delays;
+        }
+
+        protected int getElapsedTime(int delay) {
+            return injectable ? latency + delay * 1000 : latency;
+        }
+
+        @Override
+        public HttpMessage send(int delay) {
+            delays.add(delay);
+            HttpMessage msg = new HttpMessage();
+            msg.setTimeElapsedMillis(getElapsedTime(delay));
+            return msg;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketListenerUnitTest {
+
+	@Test
+	public void shouldDetectCompletelyArrivedFrame() throws IOException {
+		// given
+		InputStream in = stream(0x81, 0x83, 1, 2, 3, 4, 5, 6, 7);
+		// when
+		boolean available = WebSocketListener.isFrameAvailable(in);
+		// then
+		assertThat(available, is(equalTo(true)));
+		assertThat(in.read(), is(equalTo(0x81)));
+	}
+
+	@Test
+	public void shouldDetectPartiallyArrivedPayload() throws IOException {
+		// given
+		InputStream in = stream(0x81, 0x03, 1, 2);
+		// when
+		boolean available = WebSocketListener.isFrameAvailable(in);
+		// then
+		assertThat(available, is(equalTo(false)));
+		assertThat(in.available(), is(equalTo(4)));
+	}
+
+	@Test
+	public void shouldDetectPartiallyArrivedHeader() throws IOException {
+		// given
+		InputStream in = stream(0x82, 0x7E, 0x01);
+		// when
+		boolean available = WebSocketListener.isFrameAvailable(in);
+		// then
+		assertThat(available, is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldReadExtendedPayloadLength() throws IOException {
+		// given
+		int[] frame = new int[4 + 300];
+		frame[0] = 0x82;
+		frame[1] = 0x7E;
+		frame[2] = 0x01;
+		frame[3] = 0x2C;
+		// when
+		boolean available = WebSocketListener.isFrameAvailable(stream(frame));
+		boolean truncated = WebSocketListener.isFrameAvailable(stream(Arrays.copyOf(frame, frame.length - 1)));
+		// then
+		assertThat(available, is(equalTo(true)));
+		assertThat(truncated, is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldNotPeekIntoStreamsWithoutMarks() throws IOException {
+		// given
+		InputStream in = new ByteArrayInputStream(new byte[] {(byte) 0x81, 0x00}) {
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		};
+		// when
+		boolean available = WebSocketListener.isFrameAvailable(in);
+		// then
+		assertThat(available, is(equalTo(false)));
+	}
+
+	private static InputStream stream(int... bytes) {
+		byte[] data = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			data[i] = (byte) bytes[i];
+		}
+		return new BufferedInputStream(new ByteArrayInputStream(data));
+	}
+}
@@ -0,0 +1,141 @@
+package org.zaproxy.zap.extension.websocket;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketObserverPipelineUnitTest {
+
+	@Test
+	public void shouldSortObserversByObservingOrder() {
+		// given
+		WebSocketObserver first = new TestObserver(-1, true);
+		WebSocketObserver second = new TestObserver(0, true);
+		WebSocketObserver third = new TestObserver(0, true);
+		// when
+		WebSocketObserverPipeline pipeline = WebSocketObserverPipeline.EMPTY.with(second).with(third).with(first);
+		// then
+		assertThat(pipeline.size(), is(equalTo(3)));
+		assertThat(pipeline.getObserver(0), is(sameInstance(first)));
+		assertThat(pipeline.getObserver(1), is(sameInstance(second)));
+		assertThat(pipeline.getObserver(2), is(sameInstance(third)));
+	}
+
+	@Test
+	public void shouldNotModifyPipelineWhenAddingOrRemovingObservers() {
+		// given
+		WebSocketObserver observer = new TestObserver(0, true);
+		WebSocketObserverPipeline pipeline = WebSocketObserverPipeline.EMPTY.with(observer);
+		// when
+		WebSocketObserverPipeline added = pipeline.with(new TestObserver(1, true));
+		WebSocketObserverPipeline removed = pipeline.without(observer);
+		// then
+		assertThat(pipeline.size(), is(equalTo(1)));
+		assertThat(added.size(), is(equalTo(2)));
+		assertThat(added.getVersion(), is(not(equalTo(pipeline.getVersion()))));
+		assertThat(removed, is(sameInstance(WebSocketObserverPipeline.EMPTY)));
+	}
+
+	@Test
+	public void shouldMergePipelinesInObservingOrder() {
+		// given
+		WebSocketObserver shared = new TestObserver(0, true);
+		WebSocketObserver own = new TestObserver(-1, true);
+		WebSocketObserverPipeline sharedPipeline = WebSocketObserverPipeline.EMPTY.with(shared);
+		WebSocketObserverPipeline ownPipeline = WebSocketObserverPipeline.EMPTY.with(own);
+		// when
+		WebSocketObserverPipeline merged = sharedPipeline.merge(ownPipeline);
+		// then
+		assertThat(merged.getObserver(0), is(sameInstance(own)));
+		assertThat(merged.getObserver(1), is(sameInstance(shared)));
+		assertThat(merged.isMergeOf(sharedPipeline, ownPipeline), is(equalTo(true)));
+		assertThat(merged.isMergeOf(sharedPipeline.with(own), ownPipeline), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldStopNotifyingWhenObserverDropsMessage() {
+		// given
+		TestObserver dropping = new TestObserver(0, false);
+		TestObserver next = new TestObserver(1, true);
+		WebSocketObserverPipeline pipeline = WebSocketObserverPipeline.EMPTY.with(dropping).with(next);
+		// when
+		boolean forward = pipeline.notifyMessageObservers(1, null);
+		// then
+		assertThat(forward, is(equalTo(false)));
+		assertThat(dropping.notified, is(equalTo(1)));
+		assertThat(next.notified, is(equalTo(0)));
+	}
+
+	@Test
+	public void shouldKeepStatisticsOfObserverAcrossPipelines() {
+		// given
+		TestObserver observer = new TestObserver(0, true);
+		WebSocketObserverPipeline pipeline = WebSocketObserverPipeline.EMPTY.with(observer);
+		pipeline.notifyMessageObservers(1, null);
+		// when
+		WebSocketObserverPipeline changed = pipeline.with(new TestObserver(1, true));
+		changed.notifyMessageObservers(1, null);
+		// then
+		assertThat(changed.getStatistics(0).getFrameCount(), is(equalTo(2L)));
+		assertThat(changed.getStatistics(1).getFrameCount(), is(equalTo(1L)));
+	}
+
+	@Test
+	public void shouldRetainPayloadPrefixOnlyIfAllObserversAreStreaming() {
+		// given
+		WebSocketObserverPipeline pipeline = WebSocketObserverPipeline.EMPTY.with(new TestStreamingObserver(10));
+		// when
+		WebSocketObserverPipeline withStreaming = pipeline.with(new TestStreamingObserver(20));
+		WebSocketObserverPipeline withOther = pipeline.with(new TestObserver(0, true));
+		// then
+		assertThat(WebSocketObserverPipeline.EMPTY.getStreamingPrefixLength(), is(equalTo(0)));
+		assertThat(withStreaming.getStreamingPrefixLength(), is(equalTo(20)));
+		assertThat(withOther.getStreamingPrefixLength(), is(equalTo(-1)));
+	}
+
+	private static class TestObserver implements WebSocketObserver {
+
+		private final int order;
+		private final boolean forward;
+		int notified;
+
+		TestObserver(int order, boolean forward) {
+			this.order = order;
+			this.forward = forward;
+		}
+
+		@Override
+		public int getObservingOrder() {
+			return order;
+		}
+
+		@Override
+		public boolean onMessageFrame(int channelId, WebSocketMessage message) {
+			notified++;
+			return forward;
+		}
+
+		@Override
+		public void onStateChange(WebSocketProxy.State state, WebSocketProxy proxy) {
+		}
+	}
+
+	private static class TestStreamingObserver extends TestObserver implements WebSocketStreamingObserver {
+
+		private final int prefixLength;
+
+		TestStreamingObserver(int prefixLength) {
+			super(0, true);
+			this.prefixLength = prefixLength;
+		}
+
+		@Override
+		public int getPayloadPrefixLength() {
+			return prefixLength;
+		}
+	}
+}
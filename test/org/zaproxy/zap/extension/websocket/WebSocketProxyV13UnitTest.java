@@ -0,0 +1,67 @@
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketProxyV13UnitTest {
+
+	@Test
+	public void shouldDecodeMaskedFrameWithExtendedPayloadLength() throws IOException {
+		// given
+		WebSocketProxyV13.FrameHeaderDecoder decoder = new WebSocketProxyV13.FrameHeaderDecoder();
+		InputStream in = stream(0xFE, 0x01, 0x2C, 1, 2, 3, 4);
+		// when
+		decoder.decode(in, (byte) 0x82);
+		// then
+		assertThat(decoder.isMasked(), is(equalTo(true)));
+		assertThat(decoder.getPayloadLength(), is(equalTo(300)));
+		assertThat(decoder.getHeaderLength(), is(equalTo(8)));
+	}
+
+	@Test
+	public void shouldDecodeLongestSupportedPayloadLength() throws IOException {
+		// given
+		WebSocketProxyV13.FrameHeaderDecoder decoder = new WebSocketProxyV13.FrameHeaderDecoder();
+		int length = WebSocketProxyV13.FrameHeaderDecoder.MAX_PAYLOAD_LENGTH;
+		InputStream in = stream(0x7F, 0, 0, 0, 0, length >>> 24, length >>> 16 & 0xFF, length >>> 8 & 0xFF, length & 0xFF);
+		// when
+		decoder.decode(in, (byte) 0x82);
+		// then
+		assertThat(decoder.getPayloadLength(), is(equalTo(length)));
+	}
+
+	@Test(expected = WebSocketException.class)
+	public void shouldFailToDecodePayloadLengthWithMostSignificantBitSet() throws IOException {
+		// given
+		WebSocketProxyV13.FrameHeaderDecoder decoder = new WebSocketProxyV13.FrameHeaderDecoder();
+		InputStream in = stream(0x7F, 0x80, 0, 0, 0, 0, 0, 0, 1);
+		// when
+		decoder.decode(in, (byte) 0x82);
+		// then = WebSocketException
+	}
+
+	@Test(expected = WebSocketException.class)
+	public void shouldFailToDecodePayloadLengthNotFittingIntoInt() throws IOException {
+		// given
+		WebSocketProxyV13.FrameHeaderDecoder decoder = new WebSocketProxyV13.FrameHeaderDecoder();
+		InputStream in = stream(0x7F, 0, 0, 0, 0, 0x80, 0, 0, 0);
+		// when
+		decoder.decode(in, (byte) 0x82);
+		// then = WebSocketException
+	}
+
+	private static InputStream stream(int... bytes) {
+		byte[] data = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			data[i] = (byte) bytes[i];
+		}
+		return new ByteArrayInputStream(data);
+	}
+}
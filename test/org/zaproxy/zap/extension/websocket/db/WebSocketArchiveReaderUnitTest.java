@@ -0,0 +1,381 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Test;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketArchiveReaderUnitTest {
+
+	@Test
+	public void shouldReadWrittenChannelsAndMessages() throws IOException {
+		// given
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(out)) {
+			writer.writeChannel(createChannel(3));
+			writer.writeMessage(createTextMessage(3, 1, "{\"grüße\":1}"));
+			writer.writeMessage(createBinaryMessage(3, 2, new byte[] { 0, 1, (byte) 0xFF }));
+		}
+		RecordCollector records = new RecordCollector();
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(out.toByteArray()))) {
+			reader.read(records);
+		}
+		// then
+		assertThat(records.channels.size(), is(equalTo(1)));
+		WebSocketChannelDTO channel = records.channels.get(0);
+		assertThat(channel.id, is(equalTo(3)));
+		assertThat(channel.url, is(equalTo("ws://example.com/3")));
+		assertThat(channel.endTimestamp, is(nullValue()));
+		assertThat(channel.historyId, is(equalTo(30)));
+		
+		assertThat(records.messages.size(), is(equalTo(2)));
+		WebSocketMessageDTO text = records.messages.get(0);
+		assertThat(text.channel.id, is(equalTo(3)));
+		assertThat(text.id, is(equalTo(1)));
+		assertThat(text.timestamp, is(equalTo(1001L)));
+		assertThat((String) text.payload, is(equalTo("{\"grüße\":1}")));
+		assertThat(text.isOutgoing, is(equalTo(true)));
+		WebSocketMessageDTO binary = records.messages.get(1);
+		assertThat(binary.opcode, is(equalTo(WebSocketMessage.OPCODE_BINARY)));
+		assertThat((byte[]) binary.payload, is(equalTo(new byte[] { 0, 1, (byte) 0xFF })));
+		assertThat(binary.payloadLength, is(equalTo(3)));
+	}
+
+	@Test
+	public void shouldKeepFuzzDetailsOfMessages() throws IOException {
+		// given
+		WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(createChannel(1));
+		fuzzMessage.id = 5;
+		fuzzMessage.timestamp = 10L;
+		fuzzMessage.opcode = WebSocketMessage.OPCODE_TEXT;
+		fuzzMessage.isOutgoing = true;
+		fuzzMessage.payload = "a";
+		fuzzMessage.payloadLength = 1;
+		fuzzMessage.fuzzId = 7;
+		fuzzMessage.state = WebSocketFuzzMessageDTO.State.SUCCESSFUL;
+		fuzzMessage.fuzz = "<script>";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(out)) {
+			writer.writeMessage(fuzzMessage);
+		}
+		RecordCollector records = new RecordCollector();
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(out.toByteArray()))) {
+			reader.read(records);
+		}
+		// then
+		assertThat(records.messages.get(0), is(instanceOf(WebSocketFuzzMessageDTO.class)));
+		WebSocketFuzzMessageDTO read = (WebSocketFuzzMessageDTO) records.messages.get(0);
+		assertThat(read.fuzzId, is(equalTo(7)));
+		assertThat(read.state, is(equalTo(WebSocketFuzzMessageDTO.State.SUCCESSFUL)));
+		assertThat(read.fuzz, is(equalTo("<script>")));
+	}
+
+	@Test
+	public void shouldWriteMessagesWithoutPayloadAsEmpty() throws IOException {
+		// given
+		WebSocketMessageDTO text = createTextMessage(1, 1, "a");
+		text.payload = null;
+		WebSocketMessageDTO binary = createBinaryMessage(1, 2, new byte[1]);
+		binary.payload = null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(out)) {
+			writer.writeMessage(text);
+			writer.writeMessage(binary);
+		}
+		RecordCollector records = new RecordCollector();
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(out.toByteArray()))) {
+			reader.read(records);
+		}
+		// then
+		assertThat((String) records.messages.get(0).payload, is(equalTo("")));
+		assertThat((byte[]) records.messages.get(1).payload, is(equalTo(new byte[0])));
+	}
+
+	@Test
+	public void shouldReadNullTextPayloadAsEmpty() throws IOException {
+		// given
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream data = createMessageRecord(record);
+		data.writeByte(WebSocketArchiveWriter.PAYLOAD_TEXT);
+		data.writeInt(-1);
+		data.writeBoolean(false);
+		RecordCollector records = new RecordCollector();
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(createArchiveWithRecord(record)))) {
+			reader.read(records);
+		}
+		// then
+		assertThat((String) records.messages.get(0).payload, is(equalTo("")));
+	}
+
+	@Test
+	public void shouldSkipMessageExceedingMaximumRecordLength() throws IOException {
+		// given
+		byte[] payload = new byte[WebSocketArchiveWriter.MAX_RECORD_LENGTH + 1];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		boolean written;
+		try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(out)) {
+			writer.writeMessage(createTextMessage(1, 1, "a"));
+			// when
+			written = writer.writeMessage(createBinaryMessage(1, 2, payload));
+			writer.writeMessage(createTextMessage(1, 3, "b"));
+		}
+		// then
+		assertThat(written, is(equalTo(false)));
+		RecordCollector records = new RecordCollector();
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(out.toByteArray()))) {
+			reader.read(records);
+		}
+		assertThat(records.messages.size(), is(equalTo(2)));
+		assertThat(records.messages.get(1).id, is(equalTo(3)));
+	}
+
+	@Test
+	public void shouldReadMessageOfMaximumRecordLength() throws IOException {
+		// given
+		byte[] payload = new byte[WebSocketArchiveWriter.MAX_RECORD_LENGTH - 64];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(out)) {
+			for (int i = 0; i < 1000; i++) {
+				writer.writeMessage(createTextMessage(1, i, "message " + i));
+			}
+			writer.writeMessage(createBinaryMessage(1, 1000, payload));
+		}
+		RecordCollector records = new RecordCollector();
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(out.toByteArray()))) {
+			reader.read(records);
+		}
+		// then
+		assertThat(records.messages.size(), is(equalTo(1001)));
+		assertThat(((byte[]) records.messages.get(1000).payload).length, is(equalTo(payload.length)));
+	}
+
+	@Test
+	public void shouldReadSingleBlocksOfFileWithIndex() throws IOException {
+		// given
+		File file = File.createTempFile("websocket", ".zwsa");
+		try {
+			int messageCount = 5000;
+			try (WebSocketArchiveWriter writer = new WebSocketArchiveWriter(new FileOutputStream(file))) {
+				writer.writeChannel(createChannel(1));
+				for (int i = 0; i < messageCount; i++) {
+					writer.writeMessage(createTextMessage(1, i, "message number " + i + " of the channel"));
+				}
+			}
+			// when
+			try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new RandomAccessFile(file, "r"))) {
+				List<WebSocketArchiveReader.Block> blocks = reader.getBlocks();
+				WebSocketArchiveReader.Block lastBlock = blocks.get(blocks.size() - 1);
+				RecordCollector records = new RecordCollector();
+				reader.readBlock(lastBlock, records);
+				// then
+				int recordCount = 0;
+				for (WebSocketArchiveReader.Block block : blocks) {
+					recordCount += block.getRecordCount();
+				}
+				assertThat(blocks.size() > 1, is(equalTo(true)));
+				assertThat(recordCount, is(equalTo(messageCount + 1)));
+				assertThat(records.messages.size(), is(equalTo(lastBlock.getRecordCount())));
+				assertThat(records.messages.get(0).timestamp, is(equalTo(lastBlock.getFirstTimestamp())));
+				assertThat(records.messages.get(records.messages.size() - 1).id, is(equalTo(messageCount - 1)));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailToReadOtherData() throws IOException {
+		// given
+		byte[] data = "not an archive".getBytes("UTF-8");
+		// when
+		new WebSocketArchiveReader(new ByteArrayInputStream(data)).close();
+		// then = IOException
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailToReadBlockExceedingMaximumLength() throws IOException {
+		// given
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = createArchive(out);
+		data.writeByte(WebSocketArchiveWriter.BLOCK);
+		data.writeInt(Integer.MAX_VALUE);
+		data.writeInt(16);
+		data.writeInt(1);
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(out.toByteArray()))) {
+			reader.read(new RecordCollector());
+		}
+		// then = IOException
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailToReadPayloadExceedingBlock() throws IOException {
+		// given
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream data = createMessageRecord(record);
+		data.writeByte(WebSocketArchiveWriter.PAYLOAD_BINARY);
+		data.writeInt(Integer.MAX_VALUE);
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(createArchiveWithRecord(record)))) {
+			reader.read(new RecordCollector());
+		}
+		// then = IOException
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailToReadUnknownFuzzState() throws IOException {
+		// given
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream data = createMessageRecord(record);
+		data.writeByte(WebSocketArchiveWriter.PAYLOAD_TEXT);
+		data.writeInt(-1);
+		data.writeBoolean(true);
+		data.writeInt(1);
+		writeString(data, "UNKNOWN");
+		writeString(data, "fuzz");
+		// when
+		try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new ByteArrayInputStream(createArchiveWithRecord(record)))) {
+			reader.read(new RecordCollector());
+		}
+		// then = IOException
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailToReadIndexWithInvalidBlockCount() throws IOException {
+		// given
+		File file = File.createTempFile("websocket", ".zwsa");
+		try {
+			try (DataOutputStream data = createArchive(new FileOutputStream(file))) {
+				data.writeByte(WebSocketArchiveWriter.INDEX);
+				data.writeInt(Integer.MAX_VALUE);
+				data.writeLong(WebSocketArchiveWriter.MAGIC.length + 4);
+				data.write(WebSocketArchiveWriter.MAGIC);
+			}
+			// when
+			try (WebSocketArchiveReader reader = new WebSocketArchiveReader(new RandomAccessFile(file, "r"))) {
+				reader.getBlocks();
+			}
+			// then = IOException
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static DataOutputStream createArchive(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.write(WebSocketArchiveWriter.MAGIC);
+		data.writeInt(WebSocketArchiveWriter.VERSION);
+		return data;
+	}
+
+	/**
+	 * @return archive with one block containing the given record
+	 */
+	private static byte[] createArchiveWithRecord(ByteArrayOutputStream record) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed)) {
+			record.writeTo(deflater);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = createArchive(out);
+		data.writeByte(WebSocketArchiveWriter.BLOCK);
+		data.writeInt(record.size());
+		data.writeInt(compressed.size());
+		data.writeInt(1);
+		compressed.writeTo(data);
+		data.writeByte(WebSocketArchiveWriter.INDEX);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return stream to write the payload and the remaining fields
+	 */
+	private static DataOutputStream createMessageRecord(ByteArrayOutputStream record) throws IOException {
+		DataOutputStream data = new DataOutputStream(record);
+		data.writeByte(WebSocketArchiveWriter.MESSAGE);
+		data.writeInt(1);
+		data.writeInt(1);
+		data.writeLong(1000L);
+		data.writeByte(WebSocketMessage.OPCODE_TEXT);
+		data.writeBoolean(true);
+		data.writeInt(0);
+		return data;
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static WebSocketChannelDTO createChannel(int id) {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = id;
+		channel.host = "example.com";
+		channel.port = 80;
+		channel.url = "ws://example.com/" + id;
+		channel.startTimestamp = 1000L;
+		channel.historyId = id * 10;
+		return channel;
+	}
+
+	private static WebSocketMessageDTO createTextMessage(int channelId, int id, String payload) {
+		WebSocketMessageDTO message = new WebSocketMessageDTO(createChannel(channelId));
+		message.id = id;
+		message.timestamp = 1000L + id;
+		message.opcode = WebSocketMessage.OPCODE_TEXT;
+		message.isOutgoing = true;
+		message.payload = payload;
+		message.payloadLength = payload.length();
+		return message;
+	}
+
+	private static WebSocketMessageDTO createBinaryMessage(int channelId, int id, byte[] payload) {
+		WebSocketMessageDTO message = createTextMessage(channelId, id, "");
+		message.opcode = WebSocketMessage.OPCODE_BINARY;
+		message.isOutgoing = false;
+		message.payload = payload;
+		message.payloadLength = payload.length;
+		return message;
+	}
+
+	private static class RecordCollector implements WebSocketArchiveReader.RecordHandler {
+
+		private final List<WebSocketChannelDTO> channels = new ArrayList<>();
+		private final List<WebSocketMessageDTO> messages = new ArrayList<>();
+
+		@Override
+		public void channelRead(WebSocketChannelDTO channel) {
+			channels.add(channel);
+		}
+
+		@Override
+		public void messageRead(WebSocketMessageDTO message) {
+			messages.add(message);
+		}
+	}
+}
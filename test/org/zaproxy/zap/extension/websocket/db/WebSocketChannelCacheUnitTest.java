@@ -0,0 +1,98 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import org.junit.Test;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketChannelCacheUnitTest {
+
+	@Test
+	public void shouldReturnPutChannelAndCountHitsAndMisses() {
+		// given
+		WebSocketChannelCache cache = new WebSocketChannelCache();
+		WebSocketChannelDTO channel = createChannel(1);
+		cache.put(channel);
+		// when
+		WebSocketChannelDTO hit = cache.get(1);
+		WebSocketChannelDTO miss = cache.get(2);
+		// then
+		assertThat(hit, is(sameInstance(channel)));
+		assertThat(miss, is(nullValue()));
+		assertThat(cache.getHitCount(), is(equalTo(1L)));
+		assertThat(cache.getMissCount(), is(equalTo(1L)));
+	}
+
+	@Test
+	public void shouldNotReturnRemovedChannel() {
+		// given
+		WebSocketChannelCache cache = new WebSocketChannelCache();
+		cache.put(createChannel(1));
+		// when
+		cache.remove(1);
+		// then
+		assertThat(cache.get(1), is(nullValue()));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedChannels() {
+		// given
+		WebSocketChannelCache cache = new WebSocketChannelCache();
+		int capacity = cache.getCapacity();
+		for (int id = 0; id < capacity; id++) {
+			cache.put(createChannel(id));
+		}
+		cache.get(0);
+		// when
+		cache.put(createChannel(capacity));
+		// then
+		assertThat(cache.size(), is(lessThanOrEqualTo(capacity)));
+		assertThat(cache.get(0), is(equalTo(createChannel(0))));
+		assertThat(cache.get(1), is(nullValue()));
+		assertThat(cache.get(capacity), is(equalTo(createChannel(capacity))));
+	}
+
+	@Test
+	public void shouldGrowWhenWorkingSetExceedsCapacity() {
+		// given
+		WebSocketChannelCache cache = new WebSocketChannelCache();
+		int workingSet = WebSocketChannelCache.INITIAL_CAPACITY * 4;
+		// when
+		for (int round = 0; round < 100; round++) {
+			for (int id = 0; id < workingSet; id++) {
+				if (cache.get(id) == null) {
+					cache.put(createChannel(id));
+				}
+			}
+		}
+		// then
+		assertThat(cache.getCapacity() >= workingSet, is(equalTo(true)));
+		assertThat(cache.size(), is(equalTo(workingSet)));
+	}
+
+	@Test
+	public void shouldNotGrowBeyondMaxCapacity() {
+		// given
+		WebSocketChannelCache cache = new WebSocketChannelCache();
+		// when
+		for (int id = 0; id < WebSocketChannelCache.MAX_CAPACITY * 4; id++) {
+			if (cache.get(id) == null) {
+				cache.put(createChannel(id));
+			}
+		}
+		// then
+		assertThat(cache.getCapacity(), is(lessThanOrEqualTo(WebSocketChannelCache.MAX_CAPACITY)));
+		assertThat(cache.size(), is(lessThanOrEqualTo(WebSocketChannelCache.MAX_CAPACITY)));
+	}
+
+	private static WebSocketChannelDTO createChannel(int id) {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = id;
+		return channel;
+	}
+}
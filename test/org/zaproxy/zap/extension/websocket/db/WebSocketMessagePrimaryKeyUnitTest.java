@@ -0,0 +1,42 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketMessagePrimaryKeyUnitTest {
+
+	@Test
+	public void shouldBeEqualIfSameChannelAndMessage() {
+		// given
+		WebSocketMessagePrimaryKey pk = new WebSocketMessagePrimaryKey(1, 1000);
+		WebSocketMessagePrimaryKey other = new WebSocketMessagePrimaryKey(1, 1000);
+		// when
+		boolean equals = pk.equals(other);
+		// then
+		assertThat(equals, is(equalTo(true)));
+		assertThat(pk.hashCode(), is(equalTo(other.hashCode())));
+	}
+
+	@Test
+	public void shouldNotBeEqualIfDifferentChannelOrMessage() {
+		// given
+		WebSocketMessagePrimaryKey pk = new WebSocketMessagePrimaryKey(1, 2);
+		// when / then
+		assertThat(pk.equals(new WebSocketMessagePrimaryKey(2, 1)), is(equalTo(false)));
+		assertThat(pk.equals(new WebSocketMessagePrimaryKey(1, 3)), is(equalTo(false)));
+		assertThat(pk.equals(new WebSocketMessagePrimaryKey(1, null)), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldBeEqualWithoutMessageId() {
+		// given
+		WebSocketMessagePrimaryKey pk = new WebSocketMessagePrimaryKey(1, null);
+		// when
+		boolean equals = pk.equals(new WebSocketMessagePrimaryKey(1, null));
+		// then
+		assertThat(equals, is(equalTo(true)));
+	}
+}
@@ -0,0 +1,161 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadIndexUnitTest {
+
+	@Test
+	public void shouldFindMessagesContainingAllLiteralsIgnoringAsciiCase() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		// when
+		List<WebSocketMessagePrimaryKey> candidates = index.getCandidates(Arrays.asList("SUBSCRIBE", "topic"));
+		// then
+		assertThat(candidates, is(equalTo(Arrays.asList(key(1, 1), key(2, 1)))));
+	}
+
+	@Test
+	public void shouldReturnNoCandidatesForUnknownLiteral() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		// when
+		List<WebSocketMessagePrimaryKey> candidates = index.getCandidates(Collections.singletonList("unknown"));
+		// then
+		assertThat(candidates, is(empty()));
+	}
+
+	@Test
+	public void shouldNotPrefilterWithShortLiterals() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		// when
+		List<WebSocketMessagePrimaryKey> candidates = index.getCandidates(Pattern.compile("id.[0-9]+"));
+		// then
+		assertThat(candidates, is(nullValue()));
+	}
+
+	@Test
+	public void shouldFindCandidatesForRegularExpression() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		// when
+		List<WebSocketMessagePrimaryKey> candidates = index.getCandidates(Pattern.compile("\"type\":\\s*\"ping\""));
+		// then
+		assertThat(candidates, is(equalTo(Arrays.asList(key(1, 2)))));
+	}
+
+	@Test
+	public void shouldAlwaysReturnLargePayloadsAsCandidates() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		char[] large = new char[WebSocketPayloadIndex.MAX_INDEXED_LENGTH + 1];
+		Arrays.fill(large, 'x');
+		index.add(3, 1, new String(large));
+		// when
+		List<WebSocketMessagePrimaryKey> candidates = index.getCandidates(Collections.singletonList("SUBSCRIBE"));
+		// then
+		assertThat(candidates, is(equalTo(Arrays.asList(key(1, 1), key(2, 1), key(3, 1)))));
+	}
+
+	@Test
+	public void shouldNotReturnMessagesOfRemovedChannel() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		// when
+		index.removeChannel(2);
+		// then
+		assertThat(index.getCandidates(Collections.singletonList("subscribe")), is(equalTo(Arrays.asList(key(1, 1)))));
+		assertThat(index.getMessageCount(), is(equalTo(3)));
+	}
+
+	@Test
+	public void shouldReadWrittenIndex() throws Exception {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		index.removeChannel(2);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		index.writeTo(new DataOutputStream(bytes));
+		// when
+		WebSocketPayloadIndex readIndex = WebSocketPayloadIndex.readFrom(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		// then
+		assertThat(readIndex.getMessageCount(), is(equalTo(3)));
+		assertThat(readIndex.getCandidates(Collections.singletonList("ping")), is(equalTo(Arrays.asList(key(1, 2)))));
+		readIndex.add(4, 1, "ping again");
+		assertThat(readIndex.getCandidates(Collections.singletonList("ping")), is(equalTo(Arrays.asList(key(1, 2), key(4, 1)))));
+	}
+
+	@Test
+	public void shouldAddMessagesOfOtherIndexAfterOwnMessages() {
+		// given
+		WebSocketPayloadIndex index = createIndex();
+		WebSocketPayloadIndex other = new WebSocketPayloadIndex();
+		other.add(3, 1, "SUBSCRIBE\ndestination:/topic/orders\n\n");
+		other.add(4, 1, "ping");
+		other.removeChannel(4);
+		// when
+		index.addAll(other);
+		// then
+		assertThat(index.getMessageCount(), is(equalTo(5)));
+		assertThat(index.getCandidates(Collections.singletonList("subscribe")), is(equalTo(Arrays.asList(key(1, 1), key(2, 1), key(3, 1)))));
+		assertThat(index.getCandidates(Collections.singletonList("ping")), is(equalTo(Arrays.asList(key(1, 2)))));
+	}
+
+	@Test
+	public void shouldExtractRequiredLiteralsOnly() {
+		// given
+		String regex = "ab?cdef(gh)*ij+k{0,2}lmn\\.o[pq]rst\\d\\Q*u\\E\\x41vw";
+		// when
+		List<String> literals = WebSocketPayloadIndex.getRequiredLiterals(regex);
+		// then
+		assertThat(literals, is(equalTo(Arrays.asList("a", "cdef", "ij", "lmn.o", "rst", "*u", "vw"))));
+	}
+
+	@Test
+	public void shouldNotExtractLiteralsOfAlternatives() {
+		// given
+		String regex = "subscribe|unsubscribe";
+		// when
+		List<String> literals = WebSocketPayloadIndex.getRequiredLiterals(regex);
+		// then
+		assertThat(literals, is(empty()));
+	}
+
+	@Test
+	public void shouldNotExtractLiteralsWithCommentsFlag() {
+		// given
+		String regex = "(?x) sub scribe";
+		// when
+		List<String> literals = WebSocketPayloadIndex.getRequiredLiterals(regex);
+		// then
+		assertThat(literals, is(empty()));
+	}
+
+	private static WebSocketPayloadIndex createIndex() {
+		WebSocketPayloadIndex index = new WebSocketPayloadIndex();
+		index.add(1, 1, "SUBSCRIBE\ndestination:/topic/prices\n\n");
+		index.add(1, 2, "{\"type\": \"ping\"}");
+		index.add(1, 3, null);
+		index.add(2, 1, "subscribe\ndestination:/TOPIC/news\n\n");
+		return index;
+	}
+
+	private static WebSocketMessagePrimaryKey key(int channelId, int messageId) {
+		return new WebSocketMessagePrimaryKey(channelId, messageId);
+	}
+}
@@ -0,0 +1,77 @@
+package org.zaproxy.zap.extension.websocket.stats;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramUnitTest {
+
+	@Test
+	public void shouldReturnZeroIfNothingRecorded() {
+		// given
+		LatencyHistogram histogram = new LatencyHistogram();
+		// when
+		long percentile = histogram.getPercentile(99);
+		// then
+		assertThat(percentile, is(equalTo(0L)));
+		assertThat(histogram.getMean(), is(equalTo(0L)));
+	}
+
+	@Test
+	public void shouldMapEachValueToBucketContainingIt() {
+		for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE }) {
+			// when
+			int index = LatencyHistogram.getBucketIndex(value);
+			// then
+			assertThat(LatencyHistogram.getBucketUpperBound(index), is(greaterThanOrEqualTo(value)));
+			if (index > 0) {
+				assertThat(LatencyHistogram.getBucketUpperBound(index - 1), is(lessThanOrEqualTo(value - 1)));
+			}
+		}
+	}
+
+	@Test
+	public void shouldEstimatePercentilesWithinPrecision() {
+		// given
+		LatencyHistogram histogram = new LatencyHistogram();
+		// when
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		// then
+		assertThat(histogram.getCount(), is(equalTo(1000L)));
+		assertThat(histogram.getMax(), is(equalTo(1000000L)));
+		assertThat(histogram.getMean(), is(equalTo(500500L)));
+		assertThat(histogram.getPercentile(50), is(greaterThanOrEqualTo(500000L)));
+		assertThat(histogram.getPercentile(50), is(lessThanOrEqualTo(562500L)));
+		assertThat(histogram.getPercentile(99), is(greaterThanOrEqualTo(990000L)));
+		assertThat(histogram.getPercentile(100), is(equalTo(1000000L)));
+	}
+
+	@Test
+	public void shouldCountNegativeDurationsAsZero() {
+		// given
+		LatencyHistogram histogram = new LatencyHistogram();
+		// when
+		histogram.record(-5);
+		// then
+		assertThat(histogram.getCount(), is(equalTo(1L)));
+		assertThat(histogram.getMax(), is(equalTo(0L)));
+	}
+
+	@Test
+	public void shouldForgetValuesOnReset() {
+		// given
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(42);
+		// when
+		histogram.reset();
+		// then
+		assertThat(histogram.getCount(), is(equalTo(0L)));
+		assertThat(histogram.getPercentile(50), is(equalTo(0L)));
+	}
+}
@@ -0,0 +1,40 @@
+package org.zaproxy.zap.extension.websocket.stats;
+
+import org.junit.Test;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketStatisticsUnitTest {
+
+	@Test
+	public void shouldRemoveClosedChannelKeepingAggregate() {
+		// given
+		WebSocketStatistics statistics = new WebSocketStatistics();
+		WebSocketTrafficStatistics channel = statistics.getOrCreateChannel(1);
+		channel.recordFrame(Direction.OUTGOING, WebSocketMessage.OPCODE_TEXT, 10);
+		// when
+		channel.close();
+		// then
+		assertThat(statistics.getChannel(1), is(nullValue()));
+		assertThat(statistics.getChannels().size(), is(equalTo(0)));
+		assertThat(statistics.getAggregate().getFrameCount(Direction.OUTGOING), is(equalTo(1L)));
+	}
+
+	@Test
+	public void shouldNotRemoveNewerStatisticsOfSameChannel() {
+		// given
+		WebSocketStatistics statistics = new WebSocketStatistics();
+		WebSocketTrafficStatistics closed = statistics.getOrCreateChannel(1);
+		closed.close();
+		WebSocketTrafficStatistics reopened = statistics.getOrCreateChannel(1);
+		// when
+		closed.close();
+		// then
+		assertThat(statistics.getChannel(1), is(reopened));
+	}
+}
@@ -0,0 +1,115 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChannelIgnoreMatcherUnitTest {
+
+	@Test
+	public void shouldNotMatchAnythingIfEmpty() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Collections.<String> emptyList());
+		// when
+		boolean matches = matcher.matches("ws://example.com/");
+		// then
+		assertThat(matches, is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldMatchWholeUriCaseInsensitiveAgainstAnyExpression() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Arrays.asList(
+				" ws://example\\.com/.* ", "wss://other\\.org/chat"));
+		// when / then
+		assertThat(matcher.matches("WS://EXAMPLE.com/feed"), is(equalTo(true)));
+		assertThat(matcher.matches("wss://other.org/chat"), is(equalTo(true)));
+		assertThat(matcher.matches("wss://other.org/chat2"), is(equalTo(false)));
+		assertThat(matcher.matches("ws://example.org/"), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldKeepInlineFlagsWithinTheirExpression() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Arrays.asList(
+				"(?-i)ws://upper/A", "ws://lower/b"));
+		// when / then
+		assertThat(matcher.matches("ws://upper/a"), is(equalTo(false)));
+		assertThat(matcher.matches("ws://upper/A"), is(equalTo(true)));
+		assertThat(matcher.matches("ws://LOWER/B"), is(equalTo(true)));
+	}
+
+	@Test
+	public void shouldMatchExpressionsWithBackReferencesOrQuotes() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Arrays.asList(
+				"ws://(a+)\\.\\1/", "ws://host/\\Q?x", "wss://.*"));
+		// when / then
+		assertThat(matcher.matches("ws://aa.aa/"), is(equalTo(true)));
+		assertThat(matcher.matches("ws://aa.a/"), is(equalTo(false)));
+		assertThat(matcher.matches("ws://host/?x"), is(equalTo(true)));
+		assertThat(matcher.matches("wss://any"), is(equalTo(true)));
+	}
+
+	@Test
+	public void shouldCombineQuotedExpressions() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Arrays.asList(
+				"\\Qws://a.example/\\E.*", Pattern.quote("ws://b.example/\\1"), "wss://.*"));
+		// when / then
+		assertThat(matcher.isCombined(), is(equalTo(true)));
+		assertThat(matcher.matches("ws://a.example/path"), is(equalTo(true)));
+		assertThat(matcher.matches("ws://b.example/\\1"), is(equalTo(true)));
+		assertThat(matcher.matches("ws://aXexample/path"), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldNotCombineQuoteWithoutEndOrBackReference() {
+		// when
+		ChannelIgnoreMatcher quoteWithoutEnd = new ChannelIgnoreMatcher(Arrays.asList("ws://host/\\Q?x", "wss://.*"));
+		ChannelIgnoreMatcher backReference = new ChannelIgnoreMatcher(Arrays.asList("ws://(a+)\\.\\1/", "wss://.*"));
+		// then
+		assertThat(quoteWithoutEnd.isCombined(), is(equalTo(false)));
+		assertThat(backReference.isCombined(), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldNotCombineExpressionsWithSameNamedGroup() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Arrays.asList(
+				"ws://(?<host>a)/.*", "ws://(?<host>b)/.*", "ws://(?<=x)(?<other>c)/"));
+		// when / then
+		assertThat(matcher.isCombined(), is(equalTo(false)));
+		assertThat(matcher.matches("ws://b/path"), is(equalTo(true)));
+		assertThat(matcher.matches("ws://c/path"), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldKeepDecisionsWhenCacheIsFull() {
+		// given
+		ChannelIgnoreMatcher matcher = new ChannelIgnoreMatcher(Arrays.asList("ws://host/[0-9]+"));
+		// when
+		for (int i = 0; i <= ChannelIgnoreMatcher.MAX_CACHED_DECISIONS; i++) {
+			matcher.matches("ws://host/" + i);
+		}
+		// then
+		assertThat(matcher.matches("ws://host/1"), is(equalTo(true)));
+		assertThat(matcher.matches("ws://host/x"), is(equalTo(false)));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void shouldFailOnInvalidExpression() {
+		// given
+		String invalidRegex = "ws://(host";
+		// when
+		new ChannelIgnoreMatcher(Arrays.asList("ws://valid", invalidRegex));
+		// then PatternSyntaxException
+	}
+}
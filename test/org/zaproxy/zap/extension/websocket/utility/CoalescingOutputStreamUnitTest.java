@@ -0,0 +1,96 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CoalescingOutputStreamUnitTest {
+
+	@Test
+	public void shouldBufferSmallWritesUntilFlush() throws Exception {
+		// given
+		CountingOutputStream target = new CountingOutputStream();
+		CoalescingOutputStream out = new CoalescingOutputStream(target);
+		// when
+		out.write(new byte[] {1, 2});
+		out.write(3);
+		out.write(new byte[] {4, 5, 6}, 1, 2);
+		// then
+		assertThat(target.size(), is(equalTo(0)));
+		assertThat(out.getBufferedLength(), is(equalTo(5)));
+		out.flush();
+		assertThat(target.toByteArray(), is(equalTo(new byte[] {1, 2, 3, 5, 6})));
+		assertThat(target.writeCount, is(equalTo(1)));
+		assertThat(target.flushCount, is(equalTo(1)));
+	}
+
+	@Test
+	public void shouldWriteWhenBufferIsFull() throws Exception {
+		// given
+		CountingOutputStream target = new CountingOutputStream();
+		CoalescingOutputStream out = new CoalescingOutputStream(target, 2048);
+		byte[] chunk = new byte[1000];
+		// when
+		out.write(chunk);
+		out.write(chunk);
+		out.write(chunk);
+		// then
+		assertThat(target.size(), is(equalTo(2000)));
+		assertThat(out.getBufferedLength(), is(equalTo(1000)));
+	}
+
+	@Test
+	public void shouldWriteLargeSliceAfterBufferedBytesWithoutCopying() throws Exception {
+		// given
+		CountingOutputStream target = new CountingOutputStream();
+		CoalescingOutputStream out = new CoalescingOutputStream(target);
+		byte[] payload = new byte[4096];
+		Arrays.fill(payload, (byte) 7);
+		// when
+		out.write(new byte[] {1, 2});
+		out.write(payload, 0, 4096);
+		// then
+		assertThat(out.getBufferedLength(), is(equalTo(0)));
+		assertThat(target.size(), is(equalTo(4098)));
+		assertThat(target.toByteArray()[1], is(equalTo((byte) 2)));
+		assertThat(target.toByteArray()[4097], is(equalTo((byte) 7)));
+		assertThat(target.lastWriteSource, is(sameInstance(payload)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldFailOnTooSmallBufferSize() {
+		// given
+		int bufferSize = 16;
+		// when
+		new CoalescingOutputStream(new ByteArrayOutputStream(), bufferSize);
+		// then IllegalArgumentException
+	}
+
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+
+		private int writeCount;
+
+		private int flushCount;
+
+		private byte[] lastWriteSource;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writeCount++;
+			lastWriteSource = b;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushCount++;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class IntHashSetUnitTest {
+
+	@Test
+	public void shouldContainAddedValues() {
+		// given
+		IntHashSet set = new IntHashSet();
+		// when
+		boolean added = set.add(5);
+		boolean addedAgain = set.add(5);
+		// then
+		assertThat(added, is(equalTo(true)));
+		assertThat(addedAgain, is(equalTo(false)));
+		assertThat(set.contains(5), is(equalTo(true)));
+		assertThat(set.contains(6), is(equalTo(false)));
+		assertThat(set.size(), is(equalTo(1)));
+	}
+
+	@Test
+	public void shouldHandleZeroAndNegativeValues() {
+		// given
+		IntHashSet set = new IntHashSet();
+		// when
+		set.add(0);
+		set.add(-1);
+		set.add(Integer.MIN_VALUE);
+		// then
+		assertThat(set.contains(0), is(equalTo(true)));
+		assertThat(set.contains(-1), is(equalTo(true)));
+		assertThat(set.contains(Integer.MIN_VALUE), is(equalTo(true)));
+		assertThat(set.remove(0), is(equalTo(true)));
+		assertThat(set.contains(0), is(equalTo(false)));
+		assertThat(set.size(), is(equalTo(2)));
+	}
+
+	@Test
+	public void shouldGrowBeyondInitialCapacity() {
+		// given
+		IntHashSet set = new IntHashSet();
+		// when
+		for (int i = 1; i <= 100000; i++) {
+			set.add(i);
+		}
+		// then
+		assertThat(set.size(), is(equalTo(100000)));
+		for (int i = 1; i <= 100000; i++) {
+			assertThat(set.contains(i), is(equalTo(true)));
+		}
+		assertThat(set.contains(100001), is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldBehaveLikeHashSetWhenAddingAndRemoving() {
+		// given
+		IntHashSet set = new IntHashSet();
+		Set<Integer> expected = new HashSet<>();
+		Random random = new Random(42);
+		// when / then
+		for (int i = 0; i < 50000; i++) {
+			int value = random.nextInt(2000);
+			if (random.nextBoolean()) {
+				assertThat(set.add(value), is(equalTo(expected.add(value))));
+			} else {
+				assertThat(set.remove(value), is(equalTo(expected.remove(value))));
+			}
+		}
+		assertThat(set.size(), is(equalTo(expected.size())));
+		for (int value = 0; value < 2000; value++) {
+			assertThat(set.contains(value), is(equalTo(expected.contains(value))));
+		}
+	}
+
+	@Test
+	public void shouldBeEmptyAfterClear() {
+		// given
+		IntHashSet set = new IntHashSet();
+		set.add(1);
+		set.add(0);
+		// when
+		set.clear();
+		// then
+		assertThat(set.isEmpty(), is(equalTo(true)));
+		assertThat(set.contains(1), is(equalTo(false)));
+		assertThat(set.contains(0), is(equalTo(false)));
+	}
+}
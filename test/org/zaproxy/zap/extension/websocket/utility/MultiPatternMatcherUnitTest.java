@@ -0,0 +1,98 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MultiPatternMatcherUnitTest {
+
+	@Test
+	public void shouldExtractLeadingLiteral() {
+		assertLiteral("token=\\d+", "token=", false);
+		assertLiteral("hello", "hello", true);
+		assertLiteral("^hello", "hello", false);
+		assertLiteral("a\\.b.*", "a.b", false);
+		assertLiteral("abc?", "ab", false);
+		assertLiteral("abc*d", "ab", false);
+		assertLiteral("abc+d", "abc", false);
+		assertLiteral("ab{0,2}", "a", false);
+	}
+
+	@Test
+	public void shouldNotExtractLiteralIfMeaningOfCharactersDiffers() {
+		assertLiteral("abc|def", "", false);
+		assertLiteral("\\d+abc", "", false);
+		assertLiteral("[ab]c", "", false);
+		assertLiteral("(abc)", "", false);
+		assertThat(MultiPatternMatcher.extractLiteral(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)).text, is(equalTo("")));
+		assertThat(MultiPatternMatcher.extractLiteral(Pattern.compile("a.c", Pattern.LITERAL)).text, is(equalTo("a.c")));
+	}
+
+	@Test
+	public void shouldFindLiteralsOfAllPatternsInOnePass() {
+		// given
+		MultiPatternMatcher matcher = createMatcher("he", "she", "his", "hers");
+		// when
+		boolean[] found = matcher.scan("ushers");
+		// then
+		assertThat(found, is(equalTo(new boolean[] { true, true, false, true })));
+	}
+
+	@Test
+	public void shouldFindLiteralsWithNonAsciiCharacters() {
+		// given
+		MultiPatternMatcher matcher = createMatcher("\u00fcber", "\u20ac\u20ac", "x\u20ac");
+		// when
+		boolean[] found = matcher.scan("Gr\u00fc\u00dfe \u00fcber \u20ac\u20ac");
+		// then
+		assertThat(found, is(equalTo(new boolean[] { true, true, false })));
+	}
+
+	@Test
+	public void shouldFindLikeRegularExpressions() {
+		// given
+		String[] regexes = { "token=\\d+", "^ping$", "hello", "abc?d", "[0-9]+", "user\\.name", "a|b", "x{2}",
+				"\"type\":\"login\"", "^\\{" };
+		String[] texts = { "", "token=12", "token=", "ping", "a ping\nping\n", "abd", "abcd", "ac", "user.name",
+				"username", "xx", "x", "{\"type\":\"login\"}", "7", "hello world" };
+		MultiPatternMatcher matcher = createMatcher(regexes);
+		for (String text : texts) {
+			for (int i = 0; i < regexes.length; i++) {
+				// when
+				boolean found = matcher.find(i, text);
+				// then
+				assertThat(regexes[i] + " in " + text, found, is(equalTo(matcher.getPattern(i).matcher(text).find())));
+			}
+		}
+	}
+
+	@Test
+	public void shouldNotFindPatternIfLiteralIsMissing() {
+		// given
+		MultiPatternMatcher matcher = createMatcher("token=\\d+", "[0-9]+");
+		// when / then
+		assertThat(matcher.mayFind(0, "no match here"), is(equalTo(false)));
+		assertThat(matcher.mayFind(1, "no match here"), is(equalTo(true)));
+	}
+
+	private static void assertLiteral(String regex, String literal, boolean isWholePattern) {
+		MultiPatternMatcher.Literal result = MultiPatternMatcher.extractLiteral(Pattern.compile(regex, Pattern.MULTILINE));
+		assertThat(regex, result.text, is(equalTo(literal)));
+		assertThat(regex, result.isWholePattern, is(equalTo(isWholePattern)));
+	}
+
+	private static MultiPatternMatcher createMatcher(String... regexes) {
+		List<Pattern> patterns = new ArrayList<>();
+		for (String regex : Arrays.asList(regexes)) {
+			patterns.add(Pattern.compile(regex, Pattern.MULTILINE));
+		}
+		return new MultiPatternMatcher(patterns);
+	}
+}
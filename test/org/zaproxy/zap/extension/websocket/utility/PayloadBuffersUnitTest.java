@@ -0,0 +1,77 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PayloadBuffersUnitTest {
+
+	@After
+	public void resetThreshold() {
+		PayloadBuffers.setSpillThreshold(PayloadBuffers.DEFAULT_SPILL_THRESHOLD);
+	}
+
+	@Test
+	public void shouldNotSpillSmallPayloads() {
+		// given
+		PayloadBuffers.setSpillThreshold(16);
+		// when
+		SpilledPayload payload = PayloadBuffers.allocateSpilled(15);
+		// then
+		assertThat(payload, is(nullValue()));
+	}
+
+	@Test
+	public void shouldBackLargePayloadsWithFile() {
+		// given
+		PayloadBuffers.setSpillThreshold(16);
+		// when
+		SpilledPayload payload = PayloadBuffers.allocateSpilled(16);
+		// then
+		ByteBuffer buffer = payload.getBuffer();
+		assertThat(buffer.hasArray(), is(equalTo(false)));
+		assertThat(buffer.capacity(), is(equalTo(16)));
+		payload.release();
+	}
+
+	@Test
+	public void shouldNotSpillPayloadsIfThresholdIsZero() {
+		// given
+		PayloadBuffers.setSpillThreshold(0);
+		// when
+		SpilledPayload payload = PayloadBuffers.allocateSpilled(1024 * 1024);
+		// then
+		assertThat(payload, is(nullValue()));
+	}
+
+	@Test
+	public void shouldCopyRegionOfFileBackedBuffer() {
+		// given
+		PayloadBuffers.setSpillThreshold(1);
+		SpilledPayload payload = PayloadBuffers.allocateSpilled(6);
+		ByteBuffer buffer = payload.getBuffer();
+		buffer.put(new byte[] {1, 2, 3, 4, 5, 6});
+		// when
+		byte[] bytes = PayloadBuffers.toArray(buffer, 2, 3);
+		// then
+		assertThat(bytes, is(equalTo(new byte[] {3, 4, 5})));
+		assertThat(buffer.position(), is(equalTo(6)));
+		payload.release();
+	}
+
+	@Test
+	public void shouldCopyRegionOfHeapBuffer() {
+		// given
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6});
+		// when
+		byte[] bytes = PayloadBuffers.toArray(buffer, 0, 2);
+		// then
+		assertThat(bytes, is(equalTo(new byte[] {1, 2})));
+	}
+}
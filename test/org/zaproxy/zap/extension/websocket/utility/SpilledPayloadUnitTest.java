@@ -0,0 +1,83 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SpilledPayloadUnitTest {
+
+	@Test
+	public void shouldKeepContentWhenGrown() throws IOException {
+		// given
+		SpilledPayload payload = new SpilledPayload(4);
+		payload.getBuffer().put(new byte[] {1, 2, 3, 4});
+		// when
+		ByteBuffer grown = payload.grow(8);
+		grown.position(4);
+		grown.put(new byte[] {5, 6, 7, 8});
+		// then
+		assertThat(grown.capacity(), is(equalTo(8)));
+		assertThat(payload.toArray(8), is(equalTo(new byte[] {1, 2, 3, 4, 5, 6, 7, 8})));
+		payload.release();
+	}
+
+	@Test
+	public void shouldStreamPayload() throws IOException {
+		// given
+		SpilledPayload payload = new SpilledPayload(6);
+		payload.getBuffer().put(new byte[] {1, 2, 3, 4, 5, 6});
+		InputStream in = payload.newInputStream(5);
+		byte[] bytes = new byte[8];
+		// when
+		int first = in.read(bytes, 0, 3);
+		int second = in.read(bytes, 3, 5);
+		int end = in.read(bytes, 0, 1);
+		// then
+		assertThat(first, is(equalTo(3)));
+		assertThat(second, is(equalTo(2)));
+		assertThat(end, is(equalTo(-1)));
+		assertThat(bytes, is(equalTo(new byte[] {1, 2, 3, 4, 5, 0, 0, 0})));
+		payload.release();
+	}
+
+	@Test
+	public void shouldStayReadableWhileRetained() throws IOException {
+		// given
+		SpilledPayload payload = new SpilledPayload(2);
+		payload.getBuffer().put(new byte[] {1, 2});
+		payload.retain();
+		// when
+		payload.release();
+		// then
+		assertThat(payload.isReleased(), is(equalTo(false)));
+		assertThat(payload.toArray(2), is(equalTo(new byte[] {1, 2})));
+		payload.release();
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailToReadReleasedPayload() throws IOException {
+		// given
+		SpilledPayload payload = new SpilledPayload(2);
+		// when
+		payload.release();
+		// then
+		assertThat(payload.isReleased(), is(equalTo(true)));
+		payload.toArray(2);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotRetainReleasedPayload() throws IOException {
+		// given
+		SpilledPayload payload = new SpilledPayload(2);
+		payload.release();
+		// when
+		payload.retain();
+		// then = IllegalStateException
+	}
+}
@@ -37,4 +37,75 @@ public class Utf8UtilUnitTest {
 		assertThat(s, is(equalTo("123")));
 	}
 
+	@Test
+	public void shouldEncodeAsciiBytesLongerThanOneWord() throws Exception {
+		// given
+		byte[] utf8 = "0123456789abcdefghij".getBytes("US-ASCII");
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8, 3, 14);
+		// then
+		assertThat(s, is(equalTo("3456789abcdefg")));
+	}
+
+	@Test
+	public void shouldEncodeMultibyteUtf8Bytes() throws Exception {
+		// given
+		String text = "0123456789 gr\u00fc\u00dfe \u20ac \u65e5\u672c";
+		byte[] utf8 = text.getBytes("UTF-8");
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8);
+		// then
+		assertThat(s, is(equalTo(text)));
+	}
+
+	@Test
+	public void shouldEncodeFourByteUtf8BytesToSurrogatePair() throws Exception {
+		// given
+		byte[] utf8 = new byte[] {'a', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, 'b'};
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8);
+		// then
+		assertThat(s, is(equalTo("a\ud83d\ude00b")));
+	}
+
+	@Test(expected = InvalidUtf8Exception.class)
+	public void shouldFailOnOverlongUtf8Bytes() throws Exception {
+		// given
+		byte[] overlong = new byte[] {(byte) 0xC0, (byte) 0xAF};
+		// when
+		Utf8Util.encodePayloadToUtf8(overlong);
+		// then InvalidUtf8Exception
+	}
+
+	@Test(expected = InvalidUtf8Exception.class)
+	public void shouldFailOnEncodedSurrogate() throws Exception {
+		// given
+		byte[] surrogate = new byte[] {(byte) 0xED, (byte) 0xA0, (byte) 0x80};
+		// when
+		Utf8Util.encodePayloadToUtf8(surrogate);
+		// then InvalidUtf8Exception
+	}
+
+	@Test(expected = InvalidUtf8Exception.class)
+	public void shouldFailOnTruncatedUtf8Sequence() throws Exception {
+		// given
+		byte[] truncated = new byte[] {'a', 'b', (byte) 0xE2, (byte) 0x82};
+		// when
+		Utf8Util.encodePayloadToUtf8(truncated);
+		// then InvalidUtf8Exception
+	}
+
+	@Test
+	public void shouldValidateUtf8BytesWithoutDecoding() throws Exception {
+		// given
+		byte[] valid = "caf\u00e9 \ud83d\ude00".getBytes("UTF-8");
+		byte[] invalid = new byte[] {'a', (byte) 0x80, 'b'};
+		// when
+		boolean validResult = Utf8Util.isValidUtf8(valid, 0, valid.length);
+		boolean invalidResult = Utf8Util.isValidUtf8(invalid, 0, invalid.length);
+		// then
+		assertThat(validResult, is(equalTo(true)));
+		assertThat(invalidResult, is(equalTo(false)));
+	}
+
 }